@@ -0,0 +1,23 @@
+package com.jz.ai.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * java -jar target/benchmarks.jar [JMH 参数]
+ * 默认跑全部基准并挂 GC profiler（gc.alloc.rate / gc.alloc.rate.norm 即每次调用分配的字节数）；
+ * 命令行参数照常生效，例如只跑分词器：java -jar target/benchmarks.jar Tokenizer -f 2
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,39 @@
+package com.jz.ai.bench;
+
+import com.jz.ai.guard.HeuristicBoundaryClassifier;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** HeuristicBoundaryClassifier.classify：每轮合并文本判一次，LLM 降级时是唯一的判定 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BoundaryClassifierBenchmark {
+
+    private final HeuristicBoundaryClassifier classifier = new HeuristicBoundaryClassifier();
+    private List<String> messages;
+    private String merged;
+
+    @Setup
+    public void setup() {
+        messages = Corpus.userMessages();
+        // 连发合并后的一整段（BurstBatcher 的典型输入）
+        merged = String.join("\n", messages.subList(0, Math.min(5, messages.size())));
+    }
+
+    @Benchmark
+    public void classifyEach(Blackhole bh) {
+        for (String m : messages) bh.consume(classifier.classify(m));
+    }
+
+    @Benchmark
+    public Object classifyMerged() {
+        return classifier.classify(merged);
+    }
+}
@@ -0,0 +1,63 @@
+package com.jz.ai.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.budget.BudgetService;
+import com.jz.ai.chat.budget.ModelProfile;
+import com.jz.ai.chat.budget.ModelRegistry;
+import com.jz.ai.chat.budget.ModelRegistryProperties;
+import com.jz.ai.chat.tokens.QwenHeuristicTokenizer;
+import com.jz.ai.chat.tokens.TokenCounter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** BudgetService.compute：每轮组装 prompt 前算一次 LMS 预算（内部对各段做 token 估算） */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BudgetServiceBenchmark {
+
+    private BudgetService budget;
+    private String sBase;
+    private String sProfile;
+    private String sHot;
+    private String sTone;
+    private String sRetrieved;
+    private String userMsg;
+
+    @Setup
+    public void setup() throws Exception {
+        ModelRegistryProperties props = new ModelRegistryProperties();
+        Map<String, ModelProfile> registry = new HashMap<>();
+        registry.put("qwen-plus", ModelProfile.builder().contextWindow(131072).outputReserveTokens(8192).build());
+        props.setRegistry(registry);
+        ModelRegistry models = new ModelRegistry(props);
+        models.init();
+        budget = new BudgetService(new TokenCounter(new QwenHeuristicTokenizer()), models);
+
+        ObjectMapper mapper = new ObjectMapper();
+        sBase = Corpus.systemPrompt();
+        sProfile = mapper.writeValueAsString(Corpus.profile());
+        sHot = "[{\"id\":1024,\"title\":\"HUAWEI nova 12 Pro 512GB 樱语白\",\"price\":3499,\"brand\":\"huawei\"},"
+                + "{\"id\":2048,\"title\":\"小米14 16+512 雪山粉\",\"price\":4299,\"brand\":\"xiaomi\"}]";
+        sTone = "当前亲密度=62（熟客）：语气可以轻松一些，适度使用表情。";
+        sRetrieved = "[" + String.join(",", Corpus.assistantReplies().stream()
+                .map(r -> "{\"snippet\":" + quote(r) + "}").toList()) + "]";
+        userMsg = "我想看看华为手机，预算三千左右，主要拍娃，白色的有吗";
+    }
+
+    @Benchmark
+    public BudgetService.LmsBudget compute() {
+        return budget.compute("qwen-plus", sBase, sProfile, sHot, sTone, sRetrieved,
+                100, 40, 300, userMsg, 0.7);
+    }
+
+    private static String quote(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
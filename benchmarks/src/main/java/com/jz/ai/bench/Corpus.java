@@ -0,0 +1,88 @@
+package com.jz.ai.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** 基准用的中文语料（src/main/resources/corpus），按行读取，# 开头为注释 */
+public final class Corpus {
+
+    private Corpus() {}
+
+    public static List<String> userMessages() {
+        return lines("corpus/user_messages.txt");
+    }
+
+    public static List<String> assistantReplies() {
+        return lines("corpus/assistant_replies.txt");
+    }
+
+    public static String systemPrompt() {
+        return String.join("\n", lines("corpus/system_prompt.txt"));
+    }
+
+    /** 一份“老用户”画像：标量 + 列表 + 嵌套 Map，接近线上 Redis 里的形状 */
+    public static Map<String, Object> profile() {
+        Map<String, Object> p = new LinkedHashMap<>();
+        p.put("姓名", "王女士");
+        p.put("性别", "女");
+        p.put("年龄", 34);
+        p.put("城市", "杭州");
+        p.put("区域", "余杭区");
+        p.put("预算", "3000-5000");
+        p.put("偏好", new ArrayList<>(List.of("白色", "轻薄", "拍照好", "续航长")));
+        p.put("忌避", new ArrayList<>(List.of("羊毛", "大尺寸")));
+        Map<String, Object> family = new LinkedHashMap<>();
+        family.put("人数", 5);
+        family.put("是否有儿童", true);
+        family.put("是否有老人", true);
+        p.put("家庭", family);
+        p.put("婚姻", "已婚");
+        p.put("子女数", 2);
+        p.put("职业", "产品经理");
+        p.put("行业", "互联网");
+        p.put("居住状况", "自有房");
+        p.put("房屋面积", 120);
+        p.put("是否养宠", false);
+        p.put("品牌偏好", new ArrayList<>(List.of("华为", "戴森", "小米")));
+        p.put("品类偏好", new ArrayList<>(List.of("手机", "个护", "扫地机器人")));
+        p.put("过敏源", new ArrayList<>(List.of("羊毛")));
+        p.put("行为标签", new ArrayList<>(List.of("礼貌", "直率")));
+        return p;
+    }
+
+    /** 一轮典型的画像增量：覆盖标量、追加列表、合并嵌套 Map */
+    public static Map<String, Object> profileDelta() {
+        Map<String, Object> d = new LinkedHashMap<>();
+        d.put("预算", "4000左右");
+        d.put("偏好", List.of("拍照好", "防水"));
+        Map<String, Object> family = new LinkedHashMap<>();
+        family.put("是否有儿童", true);
+        d.put("家庭", family);
+        d.put("备注", "计划618期间换机");
+        return d;
+    }
+
+    private static List<String> lines(String resource) {
+        InputStream in = Corpus.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) throw new IllegalStateException("missing corpus: " + resource);
+        List<String> out = new ArrayList<>();
+        try (BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                out.add(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return List.copyOf(out);
+    }
+}
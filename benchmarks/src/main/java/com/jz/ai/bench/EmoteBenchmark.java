@@ -0,0 +1,40 @@
+package com.jz.ai.bench;
+
+import com.jz.ai.utils.EmoteNormalizer;
+import com.jz.ai.utils.EmoteSanitizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** 回复后处理：EmoteSanitizer.clean（白名单/限频/去重）与 EmoteNormalizer.emojify（占位→emoji） */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmoteBenchmark {
+
+    private List<String> replies;
+    private EmoteSanitizer.Options options;
+
+    @Setup
+    public void setup() {
+        replies = Corpus.assistantReplies();
+        options = new EmoteSanitizer.Options();
+        options.random = new Random(42); // 固定随机源，两次运行走同样的分支
+    }
+
+    @Benchmark
+    public void clean(Blackhole bh) {
+        for (String r : replies) bh.consume(EmoteSanitizer.clean(r, "u1:a1", null, options));
+    }
+
+    @Benchmark
+    public void emojify(Blackhole bh) {
+        for (String r : replies) bh.consume(EmoteNormalizer.emojify(r));
+    }
+}
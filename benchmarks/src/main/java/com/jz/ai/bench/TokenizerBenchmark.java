@@ -0,0 +1,40 @@
+package com.jz.ai.bench;
+
+import com.jz.ai.chat.tokens.QwenHeuristicTokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** QwenHeuristicTokenizer.countText：每轮对系统提示、历史、RAG 参考都要估一遍 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    private final QwenHeuristicTokenizer tokenizer = new QwenHeuristicTokenizer();
+    private List<String> messages;
+    private String systemPrompt;
+
+    @Setup
+    public void setup() {
+        messages = Corpus.userMessages();
+        systemPrompt = Corpus.systemPrompt();
+    }
+
+    /** 整份用户语料逐条估算（短消息为主） */
+    @Benchmark
+    public void countUserMessages(Blackhole bh) {
+        for (String m : messages) bh.consume(tokenizer.countText(m));
+    }
+
+    /** 一份完整系统提示（约 600 字） */
+    @Benchmark
+    public int countSystemPrompt() {
+        return tokenizer.countText(systemPrompt);
+    }
+}
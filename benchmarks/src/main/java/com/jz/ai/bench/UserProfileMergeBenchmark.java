@@ -0,0 +1,33 @@
+package com.jz.ai.bench;
+
+import com.jz.ai.utils.UserProfileCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** UserProfileCache.merge：画像增量合并（标量覆盖、列表去重追加、Map 合并），纯内存部分 */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserProfileMergeBenchmark {
+
+    // merge 不碰 Redis/DB，依赖传 null 即可
+    private final UserProfileCache cache = new UserProfileCache(null, null, null, null);
+    private Map<String, Object> current;
+    private Map<String, Object> delta;
+
+    @Setup
+    public void setup() {
+        current = Corpus.profile();
+        delta = Corpus.profileDelta();
+    }
+
+    @Benchmark
+    public Map<String, Object> merge() {
+        return cache.merge(current, delta);
+    }
+}
@@ -0,0 +1,57 @@
+package com.jz.ai.rag;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RagQueryPipeline.dedupAndRank（包内可见，所以本类放在同名包下）：
+ * 多查询扩展后的候选合并 —— 按 productId 去重、按 score 排序、截断 TopK。
+ * candidates = 扩展数 × 每查询 TopK，重复率约一半（不同扩展查询常召回同一商品）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DedupAndRankBenchmark {
+
+    private static final String[] TITLES = {
+            "HUAWEI nova 12 Pro 512GB 樱语白", "小米14 16+512 雪山粉", "索尼 WH-1000XM5 无线降噪耳机",
+            "戴森 HD15 吹风机 紫红镍色", "石头 G20 扫拖机器人", "美的 一级能效 501L 十字对开门冰箱",
+            "格力 云佳 1.5匹 新一级变频空调", "Apple iPad Air 11英寸 M2"
+    };
+
+    @Param({"12", "48"})
+    public int candidates;
+
+    private List<Document> all;
+
+    @Setup
+    public void setup() {
+        Random rnd = new Random(42);
+        all = new ArrayList<>(candidates);
+        int distinct = Math.max(1, candidates / 2);
+        for (int i = 0; i < candidates; i++) {
+            int pid = rnd.nextInt(distinct);
+            String title = TITLES[pid % TITLES.length];
+            all.add(Document.builder()
+                    .id("product:" + pid + ":" + i)
+                    .text(title + "，到手价 " + (999 + pid * 300) + " 元，现货，支持七天无理由。")
+                    .metadata(Map.of("productId", pid, "title", title, "price", 999 + pid * 300))
+                    .score(rnd.nextDouble())
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public List<Document> dedupAndRank() {
+        return RagQueryPipeline.dedupAndRank(all, 6);
+    }
+}
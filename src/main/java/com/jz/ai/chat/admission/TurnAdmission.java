@@ -0,0 +1,143 @@
+// src/main/java/com/jz/ai/chat/admission/TurnAdmission.java
+package com.jz.ai.chat.admission;
+
+import com.jz.ai.config.AdmissionProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对话轮次的全局准入控制（挡在 BurstBatcher.submit 与 processBatch 前面）：
+ * - 并发上限自适应：长期耗时基线 / 本轮耗时 = gradient（限制在 0.5~1），
+ *   newLimit = limit × gradient + √limit，再做平滑；出错/超时按 backoffRatio 乘性收缩；
+ * - 在途 < limit：正常（FULL）；< limit × degradeRatio：降级（DEGRADED，跳过可选阶段）；再多：SHED（回忙碌话术）；
+ * - 在途从批次派发起算：processBatch 入口 acquire()，还在合并窗口里等用户打完字的会话不算在途——
+ *   否则上限会随窗口长短而不是模型耗时收缩，只是在等的会话也被限流；
+ * - 入队口更宽松（submitShedRatio），只在严重过载时拒收新消息。
+ */
+@Component
+public class TurnAdmission {
+
+    public enum Mode { FULL, DEGRADED, SHED }
+
+    private final AdmissionProperties props;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    // 以下状态由 this 保护
+    private double limit;
+    private double longRtt = -1;
+
+    private final Counter degradedCounter;
+    private final Counter shedTurnCounter;
+    private final Counter shedSubmitCounter;
+
+    public TurnAdmission(AdmissionProperties props, MeterRegistry registry) {
+        this.props = props;
+        this.limit = clamp(props.getInitialLimit());
+        Gauge.builder("chat.admission.limit", this, TurnAdmission::currentLimit)
+                .description("Adaptive concurrent turn limit")
+                .register(registry);
+        Gauge.builder("chat.admission.inflight", inFlight, AtomicInteger::get)
+                .description("Turns being processed")
+                .register(registry);
+        this.degradedCounter = Counter.builder("chat.admission.degraded.count")
+                .description("Turns admitted in degraded mode (optional stages skipped)")
+                .register(registry);
+        this.shedTurnCounter = Counter.builder("chat.admission.shed.count")
+                .description("Turns or submits answered with the busy reply")
+                .tag("point", "turn")
+                .register(registry);
+        this.shedSubmitCounter = Counter.builder("chat.admission.shed.count")
+                .description("Turns or submits answered with the busy reply")
+                .tag("point", "submit")
+                .register(registry);
+    }
+
+    /** 一次准入凭证：无论模式如何都必须 release（SHED 也占一个在途位，直到回完话术） */
+    public final class Permit {
+        private final Mode mode;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+        private boolean ignored;
+
+        private Permit(Mode mode) { this.mode = mode; }
+
+        public Mode mode() { return mode; }
+
+        public boolean degraded() { return mode == Mode.DEGRADED; }
+
+        public boolean shed() { return mode == Mode.SHED; }
+
+        /** 本轮被打断/不具代表性：不计入耗时样本 */
+        public void ignore() { ignored = true; }
+
+        /** @param ok 本轮是否正常完成（false 触发乘性回退） */
+        public void release(boolean ok) {
+            if (released) return;
+            released = true;
+            int before = inFlight.getAndDecrement();
+            if (!props.isEnabled() || ignored || mode == Mode.SHED) return;
+            onSample(System.nanoTime() - startNanos, ok, before);
+        }
+    }
+
+    /** processBatch 入口（批次已从合并窗口派发出来）调用：计入在途并按此刻负载定模式 */
+    public Permit acquire() {
+        int n = inFlight.incrementAndGet();
+        if (!props.isEnabled()) return new Permit(Mode.FULL);
+        return new Permit(modeFor(n));
+    }
+
+    private Mode modeFor(int n) {
+        double lim = currentLimit();
+        if (n <= lim) return Mode.FULL;
+        if (n <= lim * props.getDegradeRatio()) {
+            degradedCounter.increment();
+            return Mode.DEGRADED;
+        }
+        shedTurnCounter.increment();
+        return Mode.SHED;
+    }
+
+    /** BurstBatcher.submit 之前调用：严重过载时直接拒收 */
+    public boolean admitSubmit() {
+        if (!props.isEnabled()) return true;
+        if (inFlight.get() < currentLimit() * props.getSubmitShedRatio()) return true;
+        shedSubmitCounter.increment();
+        return false;
+    }
+
+    public String busyReply() {
+        return props.getBusyReply();
+    }
+
+    public synchronized double currentLimit() {
+        return limit;
+    }
+
+    private synchronized void onSample(long rttNanos, boolean ok, int inFlightAtEnd) {
+        if (!ok) {
+            limit = clamp(limit * props.getBackoffRatio());
+            return;
+        }
+        double rtt = TimeUnit.NANOSECONDS.toMicros(Math.max(1, rttNanos));
+        int window = Math.max(10, props.getLongWindow());
+        longRtt = (longRtt < 0) ? rtt : longRtt + (rtt - longRtt) / window;
+        // 负载回落后基线偏高：向当前值衰减，避免长时间“以为很快”
+        if (longRtt / rtt > 2) longRtt *= 0.95;
+        // 并发远低于上限时的样本说明不了上限够不够，不据此扩张
+        if (inFlightAtEnd < limit / 2) return;
+        double gradient = Math.max(0.5, Math.min(1.0, props.getTolerance() * longRtt / rtt));
+        double next = limit * gradient + Math.sqrt(limit);
+        double s = props.getSmoothing();
+        limit = clamp(limit * (1 - s) + next * s);
+    }
+
+    private double clamp(double v) {
+        return Math.max(props.getMinLimit(), Math.min(props.getMaxLimit(), v));
+    }
+}
@@ -0,0 +1,24 @@
+package com.jz.ai.chat.analysis;
+
+import com.jz.ai.chat.rapport.RapportScoreResult;
+import com.jz.ai.guard.BoundaryVerdict;
+import com.jz.ai.rag.QueryRouting;
+import lombok.Data;
+
+/**
+ * 一轮用户发言的合并分析结果。
+ * 各段独立解析：某段缺失/解析失败即为 null，对应服务回退到自己的单独调用。
+ */
+@Data
+public class TurnAnalysis {
+    /** RAG 路由：意图 + 过滤器 */
+    private QueryRouting routing;
+    /** 边界判定（LLM 部分；启发式仍由 CompositeBoundaryClassifier 先行） */
+    private BoundaryVerdict verdict;
+    /** 亲密度目标分 + 维度 */
+    private RapportScoreResult rapport;
+
+    public boolean complete() {
+        return routing != null && verdict != null && rapport != null;
+    }
+}
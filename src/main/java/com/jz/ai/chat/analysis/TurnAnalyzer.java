@@ -0,0 +1,140 @@
+package com.jz.ai.chat.analysis;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
+import com.jz.ai.chat.rapport.DefaultLlmRapportScorer;
+import com.jz.ai.config.TurnAnalysisProperties;
+import com.jz.ai.guard.LlmBoundaryClassifier;
+import com.jz.ai.rag.RagQueryPipeline;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 合并分析：回复前要用的 3 次模型调用（RAG 路由、边界判定、亲密度打分）用一个 JSON schema 一次拿全，各服务只做消费者。
+ * - 各段独立解析，某段坏了只让那一段回退（TurnAnalysis 对应字段为 null）；
+ * - 整体失败（超时/非 JSON）返回 null，调用方全部走原路径；
+ * - 画像抽取不在这里：它在回复之后异步做，塞进来只会拉长关键路径上的输出。
+ * 指标：chat.analysis.count{outcome=ok|partial|failed}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TurnAnalyzer {
+
+    private final LlmGateway llmGateway;
+    private final TurnAnalysisProperties props;
+    private final RagQueryPipeline ragQueryPipeline; // 路由字典（允许值 + 同义词）
+    private final ObjectMapper mapper;
+    private final JsonExtractor jsonExtractor;
+    private final MeterRegistry registry;
+
+    private static final TypeReference<JsonNode> JSON_NODE = new TypeReference<>() {};
+
+    private static final String SYS_TEMPLATE = """
+你是客服会话的“单轮综合分析器”。结合“最近对话”“简要上下文”，对“当前用户消息”一次性完成三项分析，
+只输出一个严格 JSON 对象（UTF-8，无注释、无多余文本、不要```）：
+{
+  "routing":  { "intent": "PRODUCT_INFO"|"NON_PRODUCT",
+                "filters": { "brand": string|null, "category": string|null, "isActive": boolean|null,
+                             "priceMin": number|null, "priceMax": number|null } },
+  "boundary": { "level": "NONE|LIGHT|MID|HEAVY", "categories": [string], "confidence": 0~1, "reason": "简要原因" },
+  "rapport":  { "targetScore": 0~100 的整数,
+                "dimensions": { "politeness":1~5, "clarity":1~5, "cooperation":1~5,
+                                "purchase_intent":1~5, "budget_readiness":1~5, "engagement":1~5 } }
+}
+
+【一、routing：查询路由 + 过滤器抽取】
+判断当前问题是否与【商品信息/价格/品牌/类目/推荐/比较/库存/购买】相关，并抽取过滤器。
+%s
+1) 若用户使用“这个/那款/它”等指代，请结合“最近对话”还原语境再判断。
+2) 价格表述（如“2k-4k”“不到3000”“三千左右”）归一化到 priceMin/priceMax（单位=人民币，k=1000）。
+3) brand/category 只允许输出上面的规范值；无法确定置为 null。
+4) 不确定是否与商品相关，则 intent=NON_PRODUCT，filters 全为 null。
+
+【二、boundary：客服合规判定（只看当前用户消息，不要复述原文）】
+categories 取值：privacy_personal, romantic, sexual, profanity, illegal
+- HEAVY：露骨成人向或违法；
+- MID：打探私人隐私 / 索要私人联系方式或要求私聊 / 辱骂；
+- LIGHT：暧昧/搭讪；
+- 其余为 NONE，categories 为空。
+
+【三、rapport：会话关系评分（针对当前这一轮）】
+- 避免剧烈波动，参考“简要上下文”中的上一次评分保持稳定；除非强信号出现。
+- targetScore 只反映当前轮的合理目标，不是最终分（系统会另行平滑）。
+""";
+
+    public TurnAnalysis analyze(String userText, List<Message> shortHistory, String rapportBrief) {
+        if (!props.isEnabled() || userText == null || userText.isBlank()) return null;
+        try {
+            String sys = SYS_TEMPLATE.formatted(ragQueryPipeline.routingDictionaryBlock());
+            String user = """
+                    【最近对话】（已截断）
+                    %s
+
+                    【简要上下文】（可为空）
+                    %s
+
+                    【当前用户消息】
+                    %s
+
+                    仅输出 JSON。
+                    """.formatted(
+                    RagQueryPipeline.buildCompactHistory(shortHistory, props.getHistoryMaxChars()),
+                    rapportBrief == null ? "" : rapportBrief,
+                    userText.trim());
+
+            String out = llmGateway.call("turn-analysis", props.getModel(), sys, user);
+            if (out == null || out.isBlank()) return failed("empty");
+            JsonExtractor.Parsed<JsonNode> parsed = jsonExtractor.parse(out, JSON_NODE).orElse(null);
+            if (parsed == null) return failed("no json object");
+            JsonNode root = parsed.value();
+
+            TurnAnalysis a = new TurnAnalysis();
+            a.setRouting(section(root, "routing", n -> RagQueryPipeline.parseRouting(n)));
+            // 截断补齐的输出里边界段可能是残缺的，而它会被写进判定缓存：这种情况让分类自己调一次
+            if (!parsed.recovered()) {
+                a.setVerdict(section(root, "boundary", n -> LlmBoundaryClassifier.fromMap(toMap(n))));
+            }
+            a.setRapport(section(root, "rapport", n -> DefaultLlmRapportScorer.fromMap(toMap(n))));
+
+            registry.counter("chat.analysis.count", "outcome", a.complete() ? "ok" : "partial").increment();
+            return a;
+        } catch (Exception e) {
+            return failed(e.toString());
+        }
+    }
+
+    private interface SectionParser<T> {
+        T parse(JsonNode node) throws Exception;
+    }
+
+    private <T> T section(JsonNode root, String name, SectionParser<T> parser) {
+        JsonNode n = root.get(name);
+        if (n == null || !n.isObject()) return null;
+        try {
+            return parser.parse(n);
+        } catch (Exception e) {
+            log.debug("turn analysis section {} unparsable: {}", name, e.toString());
+            return null;
+        }
+    }
+
+    private Map<String, Object> toMap(JsonNode n) {
+        return mapper.convertValue(n, new TypeReference<Map<String, Object>>() {});
+    }
+
+    private TurnAnalysis failed(String why) {
+        log.warn("turn analysis failed, fallback to per-service calls: {}", why);
+        registry.counter("chat.analysis.count", "outcome", "failed").increment();
+        return null;
+    }
+}
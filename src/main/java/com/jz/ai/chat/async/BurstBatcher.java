@@ -6,46 +6,140 @@ import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Timer;
+import com.jz.ai.config.BurstProperties;
+import com.jz.ai.utils.WorkerExecutors;
+import jakarta.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 /**
  * 每个 chatId 一个简单的“连发合并”队列：
- * - 第一条到来，1s 后触发处理；
+ * - 自适应窗口：按用户消息间隔的 EWMA（均值 + 偏差）估计打字节奏，最后一条之后静默超过该节奏就提前触发；
+ *   从本批第一条起最多等 window.max-ms；/typing 心跳可把截止时间往后推（不超过 hard-cap-ms）；
  * - 每次最多取 MAX_BATCH 条合并（默认 3 条），剩余的留给下一轮；
- * - 无取消/打断逻辑，够简单。
+ * - 支持打断：处理中同一 chatId 又来新消息时，submit() 打断在途令牌，processBatch 在阶段边界中止，
+ *   被中止的这批消息放回队头，与新消息合并成下一批（省掉一整轮已过时的 LLM 调用）。
+ * - 会话空闲 IDLE_EVICT_MS 且无积压、无排程时由时间轮淘汰，避免 chatId 状态无限增长。
+ * - 定时与执行分离：定时线程到点只做派发，onBatch（LLM/Redis/MySQL 阻塞调用）在工作线程上跑
+ *   （JDK21+ 用虚拟线程，否则退回有界平台线程池），并按模型名做 bulkhead 限并发（等许可有上限，拿不到就稍后重排），
+ *   慢模型不会饿死其它会话的定时器。
+ * - chat.burst.mode=redis 时队列与窗口放到 Redis（见 {@link ClusterBurstQueue}），多节点同一 chatId 只有持租约的节点处理。
  */
+@Slf4j
 @Component
 public class BurstBatcher {
 
-    private static final long WINDOW_MS = 9000;   // 1s内 合并窗口(再大点）
     private static final int  MAX_BATCH = 6;      // 每批最多条数（尽量是9s内最多3条消息发送）
     private static final long MIN_GAP_MS  = 500;   // 如果新来了3+以上消息快速回复0.5s
     private static final long FAST_GAP_MS = 1000;   // 不急回复，至少等1s
-    private final ScheduledExecutorService exec =
-            Executors.newScheduledThreadPool(Math.max(8, Runtime.getRuntime().availableProcessors() * 2));
+    private static final long IDLE_EVICT_MS = 120_000; // 空闲 2 分钟淘汰会话状态
+    private static final long REJECT_RETRY_MS = 500;   // 工作池满时稍后再派发
+    // 堆占用估算（粗略，仅用于趋势观察）：状态对象+map 节点、单条消息对象、每字符 2 字节
+    private static final long STATE_BYTES = 160;
+    private static final long MSG_BYTES   = 80;
 
-    private final Map<String, Deque<UserMsg>> queues = new ConcurrentHashMap<>();
-    private final Map<String, AtomicBoolean> scheduled = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService exec;
+    private final ExecutorService workers;
+    private final BurstProperties props;
+
+    /** 每个模型一个 bulkhead */
+    private final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+
+    /** 单个会话的合并状态：队列 + 是否已排程 + 最近活跃时间 */
+    private static final class ChatState {
+        final Deque<UserMsg> queue = new ConcurrentLinkedDeque<>();
+        final AtomicBoolean scheduled = new AtomicBoolean(false);
+        volatile long lastTouchMs = System.currentTimeMillis();
+        volatile String model; // 最近一次提交时的模型名，决定走哪个 bulkhead
+        volatile TurnToken inFlight; // 正在处理的那一轮（无则 null）
+        volatile long firstTs;  // 当前窗口第一条消息到达时间
+        volatile long deadline; // 当前窗口预计触发时间（新消息/typing 会往后推）
+    }
+
+    /** 用户打字节奏：间隔均值与平均偏差的 EWMA */
+    private static final class Cadence {
+        double meanGap = -1;
+        double devGap;
+        long lastTs;
+        volatile long lastTouchMs = System.currentTimeMillis();
+    }
+
+    /** 集群模式下，领到某个 chatId 的节点用它重建上下文并处理（批次可能是别的节点收的） */
+    @FunctionalInterface
+    public interface RemoteBatchHandler {
+        void handle(String chatId, Integer history, List<UserMsg> batch, TurnToken token);
+    }
+
+    private volatile ClusterBurstQueue cluster;
+    private volatile RemoteBatchHandler remoteHandler;
+
+    private final Map<Long, Cadence> cadences = new ConcurrentHashMap<>();
+    private final IdleTimingWheel<Long> cadenceWheel;
+
+    private final Map<String, ChatState> states = new ConcurrentHashMap<>();
+    private final IdleTimingWheel<String> idleWheel;
+    // 增量维护的积压计数，gauge 读取 O(1)
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicLong backlogChars = new AtomicLong();
 
     // === 指标 ===
     private final Counter submitCounter;
+    private final Counter evictCounter;
+    private final Counter cancelCounter;
+    private final Counter requeueCounter;
+    private final Counter typingCounter;
+    private final DistributionSummary windowSizeSummary;
     private final DistributionSummary batchSizeSummary;
     private final Timer windowWaitTimer;
+    private final Timer timerLateness;
     private final MeterRegistry registry;
 
-    public BurstBatcher(MeterRegistry registry) {
+    public BurstBatcher(MeterRegistry registry, BurstProperties props) {
         this.registry = registry;
+        this.props = props;
+        this.exec = Executors.newScheduledThreadPool(Math.max(1, props.getSchedulerThreads()), r -> {
+            Thread t = new Thread(r, "burst-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.workers = WorkerExecutors.newWorkerExecutor("burst-worker", props.getWorkerThreads(), props.getWorkerQueue());
         this.submitCounter = Counter.builder("chat.burst.submit.count")
                 .description("Number of messages submitted into BurstBatcher")
                 .register(registry);
 
+        this.evictCounter = Counter.builder("chat.async.idle.evict.count")
+                .description("Idle per-chat states evicted by the timing wheel")
+                .tag("structure", "burst_batcher")
+                .register(registry);
+
+        this.cancelCounter = Counter.builder("chat.burst.turn.cancelled.count")
+                .description("In-flight turns aborted because new user messages arrived")
+                .register(registry);
+
+        this.requeueCounter = Counter.builder("chat.burst.requeued.count")
+                .description("Messages put back into the queue after their turn was aborted")
+                .register(registry);
+
+        this.typingCounter = Counter.builder("chat.burst.typing.count")
+                .description("Typing pings that extended a pending burst window")
+                .register(registry);
+
+        this.windowSizeSummary = DistributionSummary.builder("chat.burst.window.size")
+                .description("Adaptive quiet window chosen per submitted message")
+                .baseUnit("milliseconds")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+
         this.batchSizeSummary = DistributionSummary.builder("chat.burst.batch.size")
                 .description("Batch size distribution when fire() runs")
                 .baseUnit("messages")
@@ -56,81 +150,429 @@ public class BurstBatcher {
                 .publishPercentiles(0.5, 0.9, 0.95, 0.99)
                 .register(registry);
 
+        this.timerLateness = Timer.builder("chat.burst.timer.lateness")
+                .description("Delay between a batch timer's due time and the moment it actually fired")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+
         // 总积压 gauge
         Gauge.builder("chat.burst.backlog.total", this, BurstBatcher::totalBacklog)
                 .description("Total backlog size across all chatId queues")
                 .register(registry);
+
+        Gauge.builder("chat.async.entries", states, Map::size)
+                .description("Number of live per-chat entries")
+                .tag("structure", "burst_batcher")
+                .register(registry);
+
+        Gauge.builder("chat.async.heap.bytes", this, BurstBatcher::estimatedHeapBytes)
+                .description("Estimated heap footprint of per-chat state")
+                .baseUnit("bytes")
+                .tag("structure", "burst_batcher")
+                .register(registry);
+
+        this.idleWheel = new IdleTimingWheel<>("burst", 1000, 512, this::checkIdle);
+        this.cadenceWheel = new IdleTimingWheel<>("cadence", 5000, 512, this::checkCadenceIdle);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        idleWheel.close();
+        cadenceWheel.close();
+        exec.shutdown();
+        workers.shutdown();
     }
 
+    /** 集群模式：由 ClusterBurstQueue 启动时挂上，之后 submit/typing 走 Redis */
+    void attachCluster(ClusterBurstQueue cluster) {
+        this.cluster = cluster;
+    }
+
+    /** 集群模式下处理“非本节点闭包”的批次；本地模式不需要 */
+    public void setRemoteHandler(RemoteBatchHandler handler) {
+        this.remoteHandler = handler;
+    }
+
+    RemoteBatchHandler remoteHandler() {
+        return remoteHandler;
+    }
 
-    public void submit(String chatId, UserMsg msg, Consumer<List<UserMsg>> onBatch) {
+    /**
+     * @param model   按模型限并发用的模型名（chatClientMap 的 key）；null 走 default bulkhead
+     * @param history 请求里的历史条数参数（集群模式下随队列保存，供其它节点重建上下文）
+     */
+    public void submit(String chatId, String model, Integer history, UserMsg msg,
+                       BiConsumer<List<UserMsg>, TurnToken> onBatch) {
         submitCounter.increment();
-        queues.computeIfAbsent(chatId, k -> new ConcurrentLinkedDeque<>()).addLast(msg);
-        scheduled.computeIfAbsent(chatId, k -> new AtomicBoolean(false));
+        long window = windowFor(msg.getUserId(), msg.getTs());
+        ClusterBurstQueue c = cluster;
+        if (c != null) {
+            c.submit(chatId, model, history, msg, window);
+            return;
+        }
+        boolean[] created = {false};
+        // compute 与淘汰的 computeIfPresent 在同一 key 上互斥：入队和淘汰不会交错丢消息
+        ChatState st = states.compute(chatId, (k, s) -> {
+            if (s == null) {
+                s = new ChatState();
+                created[0] = true;
+            }
+            long now = System.currentTimeMillis();
+            if (s.queue.isEmpty()) s.firstTs = now; // 新窗口
+            s.queue.addLast(msg);
+            s.lastTouchMs = now;
+            s.model = model;
+            // 静默 window 后触发，但从第一条起不超过 max-ms
+            s.deadline = Math.min(now + window, s.firstTs + props.getWindow().getMaxMs());
+            return s;
+        });
+        backlog.incrementAndGet();
+        backlogChars.addAndGet(textLen(msg));
+        if (created[0]) idleWheel.schedule(chatId, IDLE_EVICT_MS);
+
+        // 有一轮正在处理：打断它，让这批消息与新消息合并重来
+        TurnToken running = st.inFlight;
+        if (running != null) running.cancel();
 
         // 保证的是一个ID同一时刻只加入一个任务，执行完后会变成false，这时候再塞，延时任务线程池使用的是一个延时队列
-        if (scheduled.get(chatId).compareAndSet(false, true)) {
-            exec.schedule(() -> fire(chatId, onBatch), WINDOW_MS, TimeUnit.MILLISECONDS);
+        if (st.scheduled.compareAndSet(false, true)) {
+            arm(chatId, st, onBatch, Math.max(0, st.deadline - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 前端“正在输入”心跳：有待合并的消息时把截止时间往后推，避免用户还在打字就抢答。
+     * @return 是否延长了窗口
+     */
+    public boolean typing(String chatId) {
+        ClusterBurstQueue c = cluster;
+        if (c != null) {
+            boolean extended = c.typing(chatId);
+            if (extended) typingCounter.increment();
+            return extended;
         }
+        ChatState st = states.get(chatId);
+        if (st == null || st.queue.isEmpty()) return false;
+        BurstProperties.Window w = props.getWindow();
+        long now = System.currentTimeMillis();
+        long cap = st.firstTs + w.getHardCapMs();
+        long next = Math.min(Math.max(st.deadline, now + w.getTypingExtendMs()), cap);
+        if (next <= st.deadline) return false;
+        st.deadline = next;
+        st.lastTouchMs = now;
+        typingCounter.increment();
+        return true;
     }
 
-    private void fire(String chatId, Consumer<List<UserMsg>> onBatch) {
+    /** 记录一次消息间隔并返回该用户当前的静默窗口 */
+    long windowFor(Long userId, long ts) {
+        long win = observeAndWindow(userId, ts);
+        windowSizeSummary.record(win);
+        return win;
+    }
+
+    private long observeAndWindow(Long userId, long ts) {
+        BurstProperties.Window w = props.getWindow();
+        if (userId == null) return w.getInitialMs();
+        boolean[] created = {false};
+        Cadence c = cadences.computeIfAbsent(userId, k -> {
+            created[0] = true;
+            return new Cadence();
+        });
+        if (created[0]) cadenceWheel.schedule(userId, w.getCadenceIdleMs());
+        synchronized (c) {
+            c.lastTouchMs = System.currentTimeMillis();
+            long gap = (c.lastTs == 0) ? -1 : ts - c.lastTs;
+            c.lastTs = ts;
+            if (gap > 0 && gap < w.getSessionGapMs()) {
+                if (c.meanGap < 0) {
+                    c.meanGap = gap;
+                    c.devGap = gap / 2.0;
+                } else {
+                    double a = w.getAlpha();
+                    c.devGap = (1 - a) * c.devGap + a * Math.abs(gap - c.meanGap);
+                    c.meanGap = (1 - a) * c.meanGap + a * gap;
+                }
+            }
+            if (c.meanGap < 0) return w.getInitialMs();
+            long win = (long) (c.meanGap + w.getDevWeight() * c.devGap);
+            return Math.max(w.getMinMs(), Math.min(w.getMaxMs(), win));
+        }
+    }
+
+    private long checkCadenceIdle(Long userId) {
+        long idleMs = props.getWindow().getCadenceIdleMs();
+        long[] next = {-1};
+        cadences.computeIfPresent(userId, (k, c) -> {
+            long idle = System.currentTimeMillis() - c.lastTouchMs;
+            if (idle >= idleMs) return null;
+            next[0] = Math.max(1000, idleMs - idle);
+            return c;
+        });
+        return next[0];
+    }
+
+    /** 定时线程上只做：记录迟到 →（截止时间被推后则续等）→ 派发给工作线程 */
+    private void arm(String chatId, ChatState st, BiConsumer<List<UserMsg>, TurnToken> onBatch, long delayMs) {
+        long due = System.currentTimeMillis() + delayMs;
+        exec.schedule(() -> {
+            long now = System.currentTimeMillis();
+            timerLateness.record(Math.max(0, now - due), TimeUnit.MILLISECONDS);
+            long remain = st.deadline - now;
+            if (remain > 0) {
+                // 期间又来了消息或 typing 心跳：按新的截止时间续等
+                arm(chatId, st, onBatch, remain);
+                return;
+            }
+            try {
+                workers.execute(() -> fire(chatId, st, onBatch));
+            } catch (RejectedExecutionException e) {
+                if (exec.isShutdown()) {
+                    // 关闭阶段：清标记，避免该会话永远卡在“已排程”
+                    st.scheduled.set(false);
+                    log.warn("burst worker rejected, chatId={}", chatId);
+                    return;
+                }
+                // 有界工作池满了：消息留在队列里，稍后再派发
+                rejectedCounter().increment();
+                arm(chatId, st, onBatch, REJECT_RETRY_MS);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private Semaphore bulkhead(String model) {
+        String key = (model == null) ? "default" : model;
+        return bulkheads.computeIfAbsent(key, k -> {
+            int permits = props.maxConcurrentFor(k);
+            Semaphore sem = new Semaphore(permits);
+            Gauge.builder("chat.burst.bulkhead.in_use", sem, s -> permits - s.availablePermits())
+                    .description("Batches currently being processed per model")
+                    .tag("model", k)
+                    .register(registry);
+            Gauge.builder("chat.burst.bulkhead.limit", () -> permits)
+                    .description("Configured concurrent batch limit per model")
+                    .tag("model", k)
+                    .register(registry);
+            return sem;
+        });
+    }
+
+    /** bulkhead：拿不到许可说明该模型已打满，在工作线程上排队（不占定时线程），最多等 bulkheadWait；超时返回 null */
+    private Semaphore acquireBulkhead(String model) throws InterruptedException {
+        Semaphore sem = bulkhead(model);
+        if (!sem.tryAcquire()) {
+            Counter.builder("chat.burst.bulkhead.saturated.count")
+                    .description("Batches that had to wait for a per-model bulkhead permit")
+                    .tag("model", model)
+                    .register(registry)
+                    .increment();
+            long w0 = System.nanoTime();
+            boolean got = sem.tryAcquire(props.getBulkheadWait().toMillis(), TimeUnit.MILLISECONDS);
+            Timer.builder("chat.burst.bulkhead.wait")
+                    .description("Time a batch waited for a per-model bulkhead permit")
+                    .tag("model", model)
+                    .tag("outcome", got ? "acquired" : "timeout")
+                    .register(registry)
+                    .record(System.nanoTime() - w0, TimeUnit.NANOSECONDS);
+            if (!got) return null;
+        }
+        return sem;
+    }
+
+    private Counter rejectedCounter() {
+        return Counter.builder("chat.burst.worker.rejected.count")
+                .description("Batches re-armed because the bounded worker pool or bulkhead was full")
+                .register(registry);
+    }
+
+    /**
+     * 集群模式：在工作线程上、受同一 bulkhead 约束地执行一批（由 ClusterBurstQueue 调用）。
+     * 等不到许可时不执行 task，改跑 onRejected（调用方放掉租约、稍后重排）；工作池满同步抛 RejectedExecutionException。
+     */
+    void runBounded(String model, Runnable task, Runnable onRejected) {
+        String m = (model == null || model.isBlank()) ? "default" : model;
+        workers.execute(() -> {
+            Semaphore sem = null;
+            try {
+                sem = acquireBulkhead(m);
+                if (sem == null) {
+                    rejectedCounter().increment();
+                    onRejected.run();
+                    return;
+                }
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                onRejected.run();
+            } finally {
+                if (sem != null) sem.release();
+            }
+        });
+    }
+
+    /** 批次指标：窗口等待 + 批大小 */
+    void recordBatch(List<UserMsg> batch) {
+        // 记录窗口等待（从窗口里最早入队的消息到现在的等待时长）
+        long minTs = batch.stream().mapToLong(UserMsg::getTs).min().orElse(System.currentTimeMillis());
+        windowWaitTimer.record(System.currentTimeMillis() - minTs, TimeUnit.MILLISECONDS);
+        batchSizeSummary.record(batch.size());
+    }
+
+    void recordCancelled() {
+        cancelCounter.increment();
+    }
+
+    private void fire(String chatId, ChatState st, BiConsumer<List<UserMsg>, TurnToken> onBatch) {
+        String model = (st.model == null) ? "default" : st.model;
+        Semaphore sem = null;
         try {
-            Deque<UserMsg> q = queues.get(chatId);
-            if (q == null) return;
-
-            List<UserMsg> batch = new ArrayList<>(MAX_BATCH);
-            for (int i = 0; i < MAX_BATCH; i++) {
-                UserMsg m = q.pollFirst();
-                if (m == null) break;
-                batch.add(m);
+            sem = acquireBulkhead(model);
+            if (sem == null) {
+                // 该模型一直打满：消息不动，finally 里按剩余队列重排
+                rejectedCounter().increment();
+                return;
             }
+            List<UserMsg> batch = drain(st);
 
             if (!batch.isEmpty()) {
-                // 记录窗口等待（从窗口里最早入队的消息到现在的等待时长）
-                long minTs = batch.stream().mapToLong(UserMsg::getTs).min().orElse(System.currentTimeMillis());
-                windowWaitTimer.record(System.currentTimeMillis() - minTs, TimeUnit.MILLISECONDS);
-                batchSizeSummary.record(batch.size());
-                //理想情况下等待时候应该等于WINDOW_MS多一点
-                onBatch.accept(List.copyOf(batch)); // 复制不可变，避免后续被修改
+                recordBatch(batch);
+                TurnToken token = new TurnToken();
+                st.inFlight = token;
+                try {
+                    //理想情况下等待时间约等于该用户的静默窗口
+                    onBatch.accept(List.copyOf(batch), token); // 复制不可变，避免后续被修改
+                } catch (RuntimeException e) {
+                    if (!isCancelled(e)) throw e;
+                    requeue(st, batch);
+                    cancelCounter.increment();
+                    log.debug("turn aborted by new messages, chatId={}, requeued={}", chatId, batch.size());
+                } finally {
+                    st.inFlight = null;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // onBatch 自己会计数/记录；这里只保证不影响后续排程
+            log.warn("burst batch failed, chatId={}, err={}", chatId, e.toString());
         } finally {
+            if (sem != null) sem.release();
             // 看看队列里是否还有剩余，有则继续排下一轮；没有则清空“已排程”标记
             //有剩余说明一点，就是在回复消息的过程中有新的消息来了，
             //一般这种情况两种做法：1、不管它，我已经打好消息了直接回复 2、可以放弃这条消息重新编辑即支持打断
             //3、支持两种做法，一种就是在finally这里把上一次消息拼接起来，再次给模型 ，较好的做法应该是，设计一个flag打断标志
             //在模型回复前（在onBatch函数内部几个断点处查看是否已经被打断，如果打断后续的就不用进行了
-            Deque<UserMsg> q2 = queues.get(chatId);
-            if (q2 != null && !q2.isEmpty()) {
-                int remain = q2.size();
-                long nextDelay =
-                        (remain >= MAX_BATCH)
-                                ? FAST_GAP_MS
-                                : Math.max(MIN_GAP_MS, WINDOW_MS / 2); // ← 这里把 1s 改成一半
-                // 继续下一轮
-                exec.schedule(() -> fire(chatId, onBatch), nextDelay, TimeUnit.MILLISECONDS);
+            st.lastTouchMs = System.currentTimeMillis();
+            if (!st.queue.isEmpty()) {
+                scheduleNext(chatId, st, onBatch);
             } else {
-                scheduled.get(chatId).set(false);
+                st.scheduled.set(false);
+                // 复查：submit 可能恰好在“判空”与“清标记”之间入队且 CAS 失败，这里补排一次
+                if (!st.queue.isEmpty() && st.scheduled.compareAndSet(false, true)) {
+                    scheduleNext(chatId, st, onBatch);
+                }
             }
         }
     }
-    /** 供监控用：返回总积压条数 */
+
+    private void scheduleNext(String chatId, ChatState st, BiConsumer<List<UserMsg>, TurnToken> onBatch) {
+        int remain = st.queue.size();
+        long nextDelay =
+                (remain >= MAX_BATCH)
+                        ? FAST_GAP_MS
+                        : Math.max(MIN_GAP_MS, props.getWindow().getMinMs() / 2);
+        // 继续下一轮
+        arm(chatId, st, onBatch, nextDelay);
+    }
+
+    /** 被打断的一批按原顺序放回队头，下一批会先看到它们 */
+    private void requeue(ChatState st, List<UserMsg> batch) {
+        long chars = 0;
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            UserMsg m = batch.get(i);
+            st.queue.addFirst(m);
+            chars += textLen(m);
+        }
+        backlog.addAndGet(batch.size());
+        backlogChars.addAndGet(chars);
+        requeueCounter.increment(batch.size());
+    }
+
+    static boolean isCancelled(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof TurnToken.Cancelled) return true;
+        }
+        return false;
+    }
+
+    private List<UserMsg> drain(ChatState st) {
+        List<UserMsg> batch = new ArrayList<>(MAX_BATCH);
+        long chars = 0;
+        for (int i = 0; i < MAX_BATCH; i++) {
+            UserMsg m = st.queue.pollFirst();
+            if (m == null) break;
+            batch.add(m);
+            chars += textLen(m);
+        }
+        if (!batch.isEmpty()) {
+            backlog.addAndGet(-batch.size());
+            backlogChars.addAndGet(-chars);
+        }
+        return batch;
+    }
+
+    /** 时间轮回调：空闲够久且无积压/无排程则淘汰；否则返回下次检查的延时 */
+    private long checkIdle(String chatId) {
+        long[] next = {-1};
+        states.computeIfPresent(chatId, (k, s) -> {
+            long idle = System.currentTimeMillis() - s.lastTouchMs;
+            if (idle >= IDLE_EVICT_MS && s.queue.isEmpty() && !s.scheduled.get()) {
+                evictCounter.increment();
+                return null;
+            }
+            next[0] = Math.max(1000, IDLE_EVICT_MS - idle);
+            return s;
+        });
+        return next[0];
+    }
+
+    private static long textLen(UserMsg m) {
+        return (m == null || m.getText() == null) ? 0 : m.getText().length();
+    }
+
+    /** 供监控用：返回总积压条数（增量维护，O(1)） */
     public int totalBacklog() {
-        int sum = 0;
-        for (Deque<UserMsg> q : queues.values()) sum += q.size();
-        return sum;
+        return Math.max(0, backlog.get());
+    }
+
+    /** 供监控用：估算堆占用（字节） */
+    public double estimatedHeapBytes() {
+        return states.size() * STATE_BYTES
+                + (double) totalBacklog() * MSG_BYTES
+                + Math.max(0, backlogChars.get()) * 2.0;
     }
 
     /** 供监控/诊断：某个 chatId 当前积压条数（没有则 0） */
     public int getQueueSize(String chatId) {
-        Deque<UserMsg> q = queues.get(chatId);
-        return (q == null) ? 0 : q.size();
+        ChatState st = states.get(chatId);
+        return (st == null) ? 0 : st.queue.size();
     }
     @Data
+    @NoArgsConstructor
     @AllArgsConstructor
     public static class UserMsg {
         private Long   userId;
         private String text;
         private long   ts;
+        /** 已写入短期记忆（被打断重放时不再重复 append） */
+        private volatile boolean memorized;
+        /** 已计入亲密度打分（重放时只对新消息 bump） */
+        private volatile boolean rapportCounted;
+        /** 所在一轮已写过 10 轮骚扰窗口标记（重放时覆盖那一条，不再追加，检查时也不把它算作“之前”） */
+        private volatile boolean windowMarked;
+
+        public UserMsg(Long userId, String text, long ts) {
+            this(userId, text, ts, false, false, false);
+        }
     }
 }
@@ -0,0 +1,370 @@
+// src/main/java/com/jz/ai/chat/async/ClusterBurstQueue.java
+package com.jz.ai.chat.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.lms.RedisLockWatchdog;
+import com.jz.ai.config.BurstProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群版连发合并（chat.burst.mode=redis）：
+ * - 每个 chatId：q（待合并消息 LIST）、inflight（正在处理的一批 LIST）、meta（firstTs/deadline/model/history HASH）、lease（租约）；
+ * - 全局 due（ZSET，score=触发时间）：各节点定时扫描到期的 chatId，抢到租约的节点才处理，同一会话不会被两个节点同时跑；
+ * - 领取时把消息从 q 原子挪到 inflight，处理完才删；节点宕机后租约过期，其它节点接手并先重放 inflight，消息不丢（至少一次）；
+ * - 处理中又来新消息即打断本轮（与单机版一致），这批消息放回 q 队头。“新”按 meta.seq 判断：每次入队 +1，领取时记下当时的值，
+ *   只有 seq 超过它才打断——q 里超过 MAX_BATCH 留下的旧消息不算，否则积压多于一批的会话每轮都被打断、永远回不了话。
+ *   本节点所有在途会话的 seq 由单独的打断检测线程每 500ms 用一次管道 HGET 批量查，不占到期扫描线程。
+ * 注意：due 是全局 key，脚本跨 key 操作，要求单实例/哨兵 Redis（不支持 Redis Cluster 分片）。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.burst", name = "mode", havingValue = "redis")
+public class ClusterBurstQueue {
+
+    private static final int MAX_BATCH = 6;
+    private static final long MIN_GAP_MS = 500;
+    private static final long CANCEL_POLL_MS = 500;
+
+    /** KEYS: q, meta, due, lease; ARGV: msg, now, window, maxMs, model, history, chatId, keyTtlMs */
+    private static final DefaultRedisScript<Long> SUBMIT = script(
+            "local wasEmpty = redis.call('llen', KEYS[1]) == 0 " +
+            "redis.call('rpush', KEYS[1], ARGV[1]) " +
+            "redis.call('hincrby', KEYS[2], 'seq', 1) " +
+            "if wasEmpty or redis.call('hexists', KEYS[2], 'firstTs') == 0 then " +
+            "  redis.call('hset', KEYS[2], 'firstTs', ARGV[2]) end " +
+            "local first = tonumber(redis.call('hget', KEYS[2], 'firstTs')) " +
+            "local now = tonumber(ARGV[2]) " +
+            "local deadline = math.min(now + tonumber(ARGV[3]), first + tonumber(ARGV[4])) " +
+            "redis.call('hset', KEYS[2], 'deadline', deadline, 'model', ARGV[5], 'history', ARGV[6]) " +
+            // 有节点在处理时不动 due：处理完由持有者按 deadline 重新排
+            "if redis.call('exists', KEYS[4]) == 0 then redis.call('zadd', KEYS[3], deadline, ARGV[7]) end " +
+            "redis.call('pexpire', KEYS[1], ARGV[8]) " +
+            "redis.call('pexpire', KEYS[2], ARGV[8]) " +
+            "return deadline");
+
+    /** KEYS: q, meta, due, lease; ARGV: now, extendMs, hardCapMs, chatId */
+    private static final DefaultRedisScript<Long> TYPING = script(
+            "if redis.call('llen', KEYS[1]) == 0 or redis.call('exists', KEYS[4]) == 1 then return 0 end " +
+            "local now = tonumber(ARGV[1]) " +
+            "local first = tonumber(redis.call('hget', KEYS[2], 'firstTs') or ARGV[1]) " +
+            "local cur = tonumber(redis.call('hget', KEYS[2], 'deadline') or ARGV[1]) " +
+            "local nxt = math.min(math.max(cur, now + tonumber(ARGV[2])), first + tonumber(ARGV[3])) " +
+            "if nxt <= cur then return 0 end " +
+            "redis.call('hset', KEYS[2], 'deadline', nxt) " +
+            "redis.call('zadd', KEYS[3], nxt, ARGV[4]) " +
+            "return 1");
+
+    /** KEYS: q, inflight, meta; ARGV: max, keyTtlMs —— 先保留上次遗留的 inflight，再从 q 补满；返回 [recovered, seq, 消息...] */
+    private static final DefaultRedisScript<List> CLAIM = listScript(
+            "local n = redis.call('llen', KEYS[2]) " +
+            "local recovered = n " +
+            "while n < tonumber(ARGV[1]) do " +
+            "  local m = redis.call('lpop', KEYS[1]) " +
+            "  if not m then break end " +
+            "  redis.call('rpush', KEYS[2], m) " +
+            "  n = n + 1 " +
+            "end " +
+            "if n > 0 then redis.call('pexpire', KEYS[2], ARGV[2]) end " +
+            "local out = redis.call('lrange', KEYS[2], 0, -1) " +
+            "table.insert(out, 1, tostring(redis.call('hget', KEYS[3], 'seq') or '0')) " +
+            "table.insert(out, 1, tostring(recovered)) " +
+            "return out");
+
+    /** KEYS: q, inflight; ARGV: 本批消息（原顺序） —— 被打断：放回 q 队头 */
+    private static final DefaultRedisScript<Long> REQUEUE = script(
+            "for i = #ARGV, 1, -1 do redis.call('lpush', KEYS[1], ARGV[i]) end " +
+            "redis.call('del', KEYS[2]) " +
+            "return #ARGV");
+
+    /** KEYS: q, meta, due; ARGV: chatId, now, minGapMs —— 还有剩余按 deadline 排下一轮，否则移出 due */
+    private static final DefaultRedisScript<Long> FINISH = script(
+            "if redis.call('llen', KEYS[1]) > 0 then " +
+            "  local d = tonumber(redis.call('hget', KEYS[2], 'deadline') or '0') " +
+            "  redis.call('zadd', KEYS[3], math.max(d, tonumber(ARGV[2]) + tonumber(ARGV[3])), ARGV[1]) " +
+            "  return 1 " +
+            "end " +
+            "redis.call('zrem', KEYS[3], ARGV[1]) " +
+            "return 0");
+
+    /** KEYS: due, lease; ARGV: score, chatId —— 租约仍被持有：推后扫描，避免各节点空转抢锁 */
+    private static final DefaultRedisScript<Long> BACKOFF = script(
+            "if redis.call('exists', KEYS[2]) == 1 then " +
+            "  redis.call('zadd', KEYS[1], 'XX', ARGV[1], ARGV[2]) return 1 end " +
+            "return 0");
+
+    private final BurstBatcher batcher;
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+    private final RedisLockWatchdog lockDog;
+    private final BurstProperties props;
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "burst-cluster-poll");
+        t.setDaemon(true);
+        return t;
+    });
+    /** 打断检测与到期扫描分开：检测慢了不拖延到期批次 */
+    private final ScheduledExecutorService cancelWatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "burst-cluster-cancel");
+        t.setDaemon(true);
+        return t;
+    });
+    /** 本节点正在处理的 chatId（避免同节点重复领取） */
+    private final Set<String> local = ConcurrentHashMap.newKeySet();
+    /** 在途会话：chatId → 本轮令牌与领取时的入队序号 */
+    private final Map<String, Watch> watched = new ConcurrentHashMap<>();
+
+    private final Counter claimCounter;
+    private final Counter recoverCounter;
+    private final Counter errorCounter;
+
+    public ClusterBurstQueue(BurstBatcher batcher, StringRedisTemplate redis, ObjectMapper mapper,
+                             RedisLockWatchdog lockDog, BurstProperties props, MeterRegistry registry) {
+        this.batcher = batcher;
+        this.redis = redis;
+        this.mapper = mapper;
+        this.lockDog = lockDog;
+        this.props = props;
+        this.claimCounter = Counter.builder("chat.burst.cluster.claim.count")
+                .description("Chat batches claimed by this node under a Redis lease")
+                .register(registry);
+        this.recoverCounter = Counter.builder("chat.burst.cluster.recovered.count")
+                .description("Messages replayed from an in-flight list left by a crashed node")
+                .register(registry);
+        this.errorCounter = Counter.builder("chat.burst.cluster.error.count")
+                .description("Redis burst queue failures")
+                .register(registry);
+    }
+
+    @PostConstruct
+    void start() {
+        batcher.attachCluster(this);
+        long every = Math.max(50, props.getPollIntervalMs());
+        poller.scheduleWithFixedDelay(this::poll, every, every, TimeUnit.MILLISECONDS);
+        cancelWatcher.scheduleWithFixedDelay(this::checkCancels, CANCEL_POLL_MS, CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        poller.shutdownNow();
+        cancelWatcher.shutdownNow();
+    }
+
+    private record Watch(TurnToken token, long seq) { }
+
+    /** 新消息可能落在任意节点：一次管道 HGET 查完本节点所有在途会话的 seq，领取后又有入队即打断对应一轮 */
+    void checkCancels() {
+        if (watched.isEmpty()) return;
+        List<Map.Entry<String, Watch>> entries = new ArrayList<>(watched.entrySet());
+        byte[] field = "seq".getBytes(StandardCharsets.UTF_8);
+        try {
+            List<Object> seqs = redis.executePipelined((RedisCallback<Object>) c -> {
+                for (Map.Entry<String, Watch> e : entries) {
+                    c.hashCommands().hGet(key("meta", e.getKey()).getBytes(StandardCharsets.UTF_8), field);
+                }
+                return null;
+            });
+            for (int i = 0; i < entries.size() && i < seqs.size(); i++) {
+                Watch w = entries.get(i).getValue();
+                if (seq(seqs.get(i)) > w.seq()) w.token().cancel();
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+        }
+    }
+
+    /** 由 process 在领取后登记；seq 为领取时 meta.seq */
+    void watch(String chatId, TurnToken token, long seq) {
+        watched.put(chatId, new Watch(token, seq));
+    }
+
+    private static long seq(Object raw) {
+        if (raw == null) return 0;
+        try {
+            return Long.parseLong(String.valueOf(raw));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private String key(String kind, String chatId) {
+        return props.getRedisKeyPrefix() + kind + ":" + chatId;
+    }
+
+    private String dueKey() {
+        return props.getRedisKeyPrefix() + "due";
+    }
+
+    void submit(String chatId, String model, Integer history, BurstBatcher.UserMsg msg, long window) {
+        try {
+            redis.execute(SUBMIT,
+                    List.of(key("q", chatId), key("meta", chatId), dueKey(), key("lease", chatId)),
+                    mapper.writeValueAsString(msg),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(window),
+                    String.valueOf(props.getWindow().getMaxMs()),
+                    model == null ? "" : model,
+                    history == null ? "" : String.valueOf(history),
+                    chatId,
+                    String.valueOf(props.getKeyTtl().toMillis()));
+        } catch (Exception e) {
+            errorCounter.increment();
+            // 入队失败要让调用方感知：否则用户消息静默丢失
+            throw new IllegalStateException("burst enqueue failed: " + e.getMessage(), e);
+        }
+    }
+
+    boolean typing(String chatId) {
+        try {
+            Long r = redis.execute(TYPING,
+                    List.of(key("q", chatId), key("meta", chatId), dueKey(), key("lease", chatId)),
+                    String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(props.getWindow().getTypingExtendMs()),
+                    String.valueOf(props.getWindow().getHardCapMs()),
+                    chatId);
+            return r != null && r > 0;
+        } catch (Exception e) {
+            errorCounter.increment();
+            return false;
+        }
+    }
+
+    /** 扫描到期会话并尝试领取 */
+    private void poll() {
+        try {
+            long now = System.currentTimeMillis();
+            Set<String> due = redis.opsForZSet().rangeByScore(dueKey(), Double.NEGATIVE_INFINITY, now, 0, 64);
+            if (due == null || due.isEmpty()) return;
+            for (String chatId : due) {
+                if (local.contains(chatId)) continue;
+                tryClaim(chatId, now);
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.debug("burst cluster poll failed: {}", e.toString());
+        }
+    }
+
+    private void tryClaim(String chatId, long now) {
+        RedisLockWatchdog.LockSession lease = lockDog.tryAcquire(key("lease", chatId), props.getLeaseTtlMs());
+        if (lease == null) {
+            // 其它节点在处理：推后半个租约再看
+            redis.execute(BACKOFF, List.of(dueKey(), key("lease", chatId)),
+                    String.valueOf(now + props.getLeaseTtlMs() / 2), chatId);
+            return;
+        }
+        // 双检：拿锁前 due 可能已被持有者移除/推后
+        Double score = redis.opsForZSet().score(dueKey(), chatId);
+        if (score == null || score > System.currentTimeMillis()) {
+            lease.close();
+            return;
+        }
+        // 领取期间的可见性超时：本节点宕机后过一个租约周期其它节点才会再看它
+        redis.opsForZSet().add(dueKey(), chatId, now + props.getLeaseTtlMs());
+        lease.startWatchdog();
+        local.add(chatId);
+        String model = (String) redis.opsForHash().get(key("meta", chatId), "model");
+        // 没跑成（工作池满/关闭中、bulkhead 等超时）：放掉租约，交给下一次扫描或其它节点
+        Runnable release = () -> {
+            local.remove(chatId);
+            lease.close();
+            redis.opsForZSet().add(dueKey(), chatId, System.currentTimeMillis());
+        };
+        try {
+            batcher.runBounded(model, () -> process(chatId, lease), release);
+        } catch (Exception e) {
+            release.run();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process(String chatId, RedisLockWatchdog.LockSession lease) {
+        String q = key("q", chatId);
+        String inflight = key("inflight", chatId);
+        TurnToken token = null;
+        try {
+            List<Object> raw = redis.execute(CLAIM, List.of(q, inflight, key("meta", chatId)),
+                    String.valueOf(MAX_BATCH), String.valueOf(props.getKeyTtl().toMillis()));
+            if (raw == null || raw.size() <= 2) return;
+            int recovered = Integer.parseInt(String.valueOf(raw.get(0)));
+            long claimedSeq = seq(raw.get(1));
+            if (recovered > 0) recoverCounter.increment(recovered);
+            List<BurstBatcher.UserMsg> batch = new ArrayList<>(raw.size() - 2);
+            for (int i = 2; i < raw.size(); i++) {
+                batch.add(mapper.readValue(String.valueOf(raw.get(i)), BurstBatcher.UserMsg.class));
+            }
+            claimCounter.increment();
+            batcher.recordBatch(batch);
+
+            BurstBatcher.RemoteBatchHandler handler = batcher.remoteHandler();
+            if (handler == null) {
+                log.warn("no remote batch handler registered, chatId={} left in-flight", chatId);
+                return;
+            }
+            Object h = redis.opsForHash().get(key("meta", chatId), "history");
+            Integer history = (h == null || String.valueOf(h).isEmpty()) ? null : Integer.valueOf(String.valueOf(h));
+
+            token = new TurnToken();
+            watch(chatId, token, claimedSeq); // 由 checkCancels 批量检测打断
+            try {
+                handler.handle(chatId, history, List.copyOf(batch), token);
+                redis.delete(inflight); // ack
+            } catch (RuntimeException e) {
+                if (!BurstBatcher.isCancelled(e)) {
+                    // 与单机版一致：处理失败的批次不重试，丢弃
+                    redis.delete(inflight);
+                    throw e;
+                }
+                // 重新编码：带上 memorized / rapportCounted / windowMarked，重放时副作用不重复
+                String[] msgs = new String[batch.size()];
+                for (int i = 0; i < batch.size(); i++) msgs[i] = mapper.writeValueAsString(batch.get(i));
+                redis.execute(REQUEUE, List.of(q, inflight), (Object[]) msgs);
+                batcher.recordCancelled();
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("burst cluster batch failed, chatId={}, err={}", chatId, e.toString());
+        } finally {
+            if (token != null) watched.remove(chatId);
+            try {
+                redis.execute(FINISH, List.of(q, key("meta", chatId), dueKey()),
+                        chatId, String.valueOf(System.currentTimeMillis()), String.valueOf(MIN_GAP_MS));
+            } catch (Exception e) {
+                errorCounter.increment();
+            }
+            local.remove(chatId);
+            lease.close();
+        }
+    }
+
+    private static DefaultRedisScript<Long> script(String lua) {
+        DefaultRedisScript<Long> s = new DefaultRedisScript<>();
+        s.setResultType(Long.class);
+        s.setScriptText(lua);
+        return s;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static DefaultRedisScript<List> listScript(String lua) {
+        DefaultRedisScript<List> s = new DefaultRedisScript<>();
+        s.setResultType(List.class);
+        s.setScriptText(lua);
+        return s;
+    }
+}
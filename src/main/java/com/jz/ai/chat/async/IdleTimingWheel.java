@@ -0,0 +1,88 @@
+// src/main/java/com/jz/ai/chat/async/IdleTimingWheel.java
+package com.jz.ai.chat.async;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * 简易哈希时间轮，用来做“空闲淘汰”：
+ * - schedule(key, delay) 把 key 挂到 delay 之后的槽位（超过一圈记 rounds）；
+ * - 每个 tick 只扫当前槽位，调用 checker：
+ *   返回 <0 表示已淘汰/不再跟踪；返回 >0 表示还没空闲够，过这么多毫秒再来检查。
+ * 每个 key 在轮上最多一个条目（由调用方保证：只在新建状态时 schedule），
+ * 所以开销与“活跃 chatId 数 / 空闲阈值”成正比，不会每次全量遍历。
+ */
+@Slf4j
+public final class IdleTimingWheel<K> implements AutoCloseable {
+
+    private static final class Entry<K> {
+        final K key;
+        long rounds;
+        Entry(K key, long rounds) { this.key = key; this.rounds = rounds; }
+    }
+
+    private final long tickMs;
+    private final Queue<Entry<K>>[] buckets;
+    private final ToLongFunction<K> checker;
+    private final ScheduledExecutorService ticker;
+    private volatile long cursor = 0; // 当前 tick 序号（只由 ticker 线程推进）
+
+    @SuppressWarnings("unchecked")
+    public IdleTimingWheel(String name, long tickMs, int wheelSize, ToLongFunction<K> checker) {
+        this.tickMs = Math.max(10, tickMs);
+        this.buckets = new Queue[Math.max(8, wheelSize)];
+        for (int i = 0; i < buckets.length; i++) buckets[i] = new ConcurrentLinkedQueue<>();
+        this.checker = checker;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-idle-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        this.ticker.scheduleAtFixedRate(this::tick, this.tickMs, this.tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** delayMs 后检查一次 key 是否空闲 */
+    public void schedule(K key, long delayMs) {
+        long ticks = Math.max(1, (delayMs + tickMs - 1) / tickMs);
+        long target = cursor + ticks;
+        int idx = (int) (target % buckets.length);
+        long rounds = (ticks - 1) / buckets.length;
+        buckets[idx].add(new Entry<>(key, rounds));
+    }
+
+    private void tick() {
+        long now = cursor + 1;
+        int idx = (int) (now % buckets.length);
+        cursor = now;
+        Queue<Entry<K>> bucket = buckets[idx];
+        int n = bucket.size(); // 只处理本次 tick 前已在槽内的条目，本 tick 新挂进来的留到下一圈
+        for (int i = 0; i < n; i++) {
+            Entry<K> e = bucket.poll();
+            if (e == null) break;
+            if (e.rounds > 0) {
+                e.rounds--;
+                bucket.add(e);
+                continue;
+            }
+            try {
+                long next = checker.applyAsLong(e.key);
+                if (next > 0) schedule(e.key, next);
+            } catch (Exception ex) {
+                // 检查失败时保守地稍后重试，不丢跟踪
+                log.debug("idle check failed, key={}, err={}", e.key, ex.toString());
+                schedule(e.key, tickMs * buckets.length);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ticker.shutdownNow();
+    }
+}
@@ -0,0 +1,235 @@
+// src/main/java/com/jz/ai/chat/async/InMemoryPendingReplyBus.java
+package com.jz.ai.chat.async;
+
+import com.jz.ai.config.ReplyBusProperties;
+import com.jz.ai.domain.dto.ChatReplyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单机版回复总线：per-chatId 阻塞队列，支持长轮询；pullAsync 的等待者挂在信箱上，push 时直接交付，不占线程。
+ * 多实例部署时需要粘性会话，否则请切到 chat.reply-bus.type=redis。
+ * 空闲（无 push/pull）超过 chat.reply-bus.ttl 且无长轮询等待者的 chatId 由时间轮淘汰；
+ * 还没被取走的回复一并丢弃（与 redis 模式 key 过期一致），避免放弃的会话无限占堆。
+ */
+@Component
+@ConditionalOnProperty(prefix = "chat.reply-bus", name = "type", havingValue = "memory", matchIfMissing = true)
+public class InMemoryPendingReplyBus implements PendingReplyBus {
+
+    // 堆占用估算（粗略）：Box+队列+map 节点、单条 DTO、每字符 2 字节
+    private static final long BOX_BYTES = 200;
+    private static final long DTO_BYTES = 64;
+
+    /** 单个会话的信箱：队列 + 长轮询等待数 + 挂起的异步等待者 + 最近活跃时间 */
+    private static final class Box {
+        final BlockingDeque<ChatReplyDTO> queue = new LinkedBlockingDeque<>();
+        final AtomicInteger waiters = new AtomicInteger();
+        final Queue<Parked> parked = new ConcurrentLinkedQueue<>();
+        volatile long lastTouchMs = System.currentTimeMillis();
+    }
+
+    private record Parked(CompletableFuture<List<ChatReplyDTO>> future, int max) {}
+
+    private final Map<String, Box> box = new ConcurrentHashMap<>();
+    private final long idleMs;
+    private final IdleTimingWheel<String> idleWheel;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong pendingChars = new AtomicLong();
+    private final Counter evictCounter;
+    private final Counter expiredCounter;
+
+    public InMemoryPendingReplyBus(ReplyBusProperties props, MeterRegistry registry) {
+        this.idleMs = Math.max(1000, props.getTtl().toMillis());
+        this.evictCounter = Counter.builder("chat.async.idle.evict.count")
+                .description("Idle per-chat states evicted by the timing wheel")
+XX, box, Map::size)
+                .description("Number of live per-chat entries")
+                .tag("structure", "reply_box")
+                .register(registry);
+        Gauge.builder("chat.async.heap.bytes", this, InMemoryPendingReplyBus::estimatedHeapBytes)
+                .description("Estimated heap footprint of per-chat state")
+                .baseUnit("bytes")
+                .tag("structure", "reply_box")
+                .register(registry);
+        this.idleWheel = new IdleTimingWheel<>("reply-box", 1000, 512, this::checkIdle);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        idleWheel.close();
+    }
+
+    /** 取（必要时新建）信箱并刷新活跃时间；与淘汰在同一 key 上互斥 */
+    private Box acquire(String chatId, boolean waiting) {
+        boolean[] created = {false};
+        Box b = box.compute(chatId, (k, v) -> {
+            if (v == null) {
+                v = new Box();
+                created[0] = true;
+            }
+            v.lastTouchMs = System.currentTimeMillis();
+            if (waiting) v.waiters.incrementAndGet();
+            return v;
+        });
+        if (created[0]) idleWheel.schedule(chatId, idleMs);
+        return b;
+    }
+
+    @Override
+    public void push(String chatId, ChatReplyDTO dto) {
+        // 在 compute 内入队：避免刚取到的信箱被并发淘汰后消息落进“孤儿”队列
+        boolean[] created = {false};
+        box.compute(chatId, (k, v) -> {
+            if (v == null) {
+                v = new Box();
+                created[0] = true;
+            }
+            v.queue.add(dto);
+            v.lastTouchMs = System.currentTimeMillis();
+            return v;
+        });
+        pending.incrementAndGet();
+        pendingChars.addAndGet(textLen(dto));
+        if (created[0]) idleWheel.schedule(chatId, idleMs);
+        Box b = box.get(chatId);
+        if (b != null) deliverParked(b);
+    }
+
+    @Override
+    public List<ChatReplyDTO> pull(String chatId, int max, Duration timeout) {
+        int limit = Math.max(1, max);
+        boolean waiting = timeout != null && !timeout.isZero() && !timeout.isNegative();
+        Box b = waiting ? acquire(chatId, true) : box.get(chatId);
+        if (b == null) return new ArrayList<>();
+
+        try {
+            List<ChatReplyDTO> out = drain(b, limit);
+            if (out.isEmpty() && waiting) {
+                try {
+                    ChatReplyDTO first = b.queue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        b.queue.addFirst(first);
+                        out = drain(b, limit);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return out;
+        } finally {
+            if (waiting) b.waiters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<ChatReplyDTO>> pullAsync(String chatId, int max, Duration timeout) {
+        int limit = Math.max(1, max);
+        boolean waiting = timeout != null && !timeout.isZero() && !timeout.isNegative();
+        if (!waiting) return CompletableFuture.completedFuture(pull(chatId, limit, Duration.ZERO));
+
+        Box b = acquire(chatId, true); // 挂起期间计入 waiters，信箱不会被淘汰
+        List<ChatReplyDTO> now = drain(b, limit);
+        if (!now.isEmpty()) {
+            b.waiters.decrementAndGet();
+            return CompletableFuture.completedFuture(now);
+        }
+        CompletableFuture<List<ChatReplyDTO>> f = new CompletableFuture<>();
+        Parked p = new Parked(f, limit);
+        f.whenComplete((r, e) -> {
+            b.parked.remove(p);
+            b.waiters.decrementAndGet();
+            b.lastTouchMs = System.currentTimeMillis();
+        });
+        f.completeOnTimeout(List.of(), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        b.parked.add(p);
+        deliverParked(b); // 挂上之前刚好 push 进来的，这里补交付
+        return f;
+    }
+
+    /** 把队列里的回复交给挂起的等待者；等待者恰好超时/取消时把消息放回队首 */
+    private void deliverParked(Box b) {
+        Parked p;
+        while (!b.queue.isEmpty() && (p = b.parked.poll()) != null) {
+            if (p.future().isDone()) continue;
+            List<ChatReplyDTO> out = drain(b, p.max());
+            if (out.isEmpty()) {
+                b.parked.add(p); // 被并发的 pull 抢先取走了
+                return;
+            }
+            if (!p.future().complete(out)) undrain(b, out);
+        }
+    }
+
+    /** 取走最多 limit 条并更新计数 */
+    private List<ChatReplyDTO> drain(Box b, int limit) {
+        List<ChatReplyDTO> out = new ArrayList<>();
+        b.queue.drainTo(out, limit);
+        if (out.isEmpty()) return out;
+        b.lastTouchMs = System.currentTimeMillis();
+        long chars = 0;
+        for (ChatReplyDTO d : out) chars += textLen(d);
+        pending.addAndGet(-out.size());
+        pendingChars.addAndGet(-chars);
+        return out;
+    }
+
+    private void undrain(Box b, List<ChatReplyDTO> out) {
+        long chars = 0;
+        for (int i = out.size() - 1; i >= 0; i--) {
+            b.queue.addFirst(out.get(i));
+            chars += textLen(out.get(i));
+        }
+        pending.addAndGet(out.size());
+        pendingChars.addAndGet(chars);
+    }
+
+    /** 时间轮回调：空闲够久且无人长轮询即淘汰（未取回复视为过期一并丢弃）；否则返回下次检查的延时 */
+    private long checkIdle(String chatId) {
+        long[] next = {-1};
+        box.computeIfPresent(chatId, (k, b) -> {
+            long idle = System.currentTimeMillis() - b.lastTouchMs;
+            if (idle >= idleMs && b.waiters.get() == 0) {
+                List<ChatReplyDTO> stale = new ArrayList<>();
+                b.queue.drainTo(stale);
+                if (!stale.isEmpty()) {
+                    long chars = 0;
+                    for (ChatReplyDTO d : stale) chars += textLen(d);
+                    pending.addAndGet(-stale.size());
+                    pendingChars.addAndGet(-chars);
+                    expiredCounter.increment(stale.size());
+                }
+                evictCounter.increment();
+                return null;
+            }
+            next[0] = Math.max(1000, idleMs - idle);
+            return b;
+        });
+        return next[0];
+    }
+
+    private static long textLen(ChatReplyDTO d) {
+        return (d == null || d.getText() == null) ? 0 : d.getText().length();
+    }
+
+    /** 供监控用：估算堆占用（字节） */
+    public double estimatedHeapBytes() {
+        return box.size() * BOX_BYTES
+                + (double) Math.max(0, pending.get()) * DTO_BYTES
+                + Math.max(0, pendingChars.get()) * 2.0;
+    }
+}
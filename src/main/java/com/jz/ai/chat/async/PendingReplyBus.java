@@ -2,32 +2,32 @@
 package com.jz.ai.chat.async;
 
 import com.jz.ai.domain.dto.ChatReplyDTO;
-import org.springframework.stereotype.Component;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 生成好的客服回复临时放这里；前端 /api/chat/pull 拉走。
+ * 实现由 chat.reply-bus.type 选择：
+ * - memory（默认）：单 JVM 内存队列，适合单实例；
+ * - redis：每个 chatId 一个 Redis Stream，任意节点都能服务 /pull。
  */
-@Component
-public class PendingReplyBus {
+public interface PendingReplyBus {
 
-    private final Map<String, Queue<ChatReplyDTO>> box = new ConcurrentHashMap<>();
+    void push(String chatId, ChatReplyDTO dto);
 
-    public void push(String chatId, ChatReplyDTO dto) {
-        box.computeIfAbsent(chatId, k -> new ConcurrentLinkedQueue<>()).add(dto);
+    /** 立即拉取，最多 max 条（没有就返回空列表） */
+    default List<ChatReplyDTO> pull(String chatId, int max) {
+        return pull(chatId, max, Duration.ZERO);
     }
 
-    public List<ChatReplyDTO> pull(String chatId, int max) {
-        Queue<ChatReplyDTO> q = box.getOrDefault(chatId, new ConcurrentLinkedQueue<>());
-        List<ChatReplyDTO> out = new ArrayList<>();
-        for (int i = 0; i < Math.max(1, max); i++) {
-            ChatReplyDTO d = q.poll();
-            if (d == null) break;
-            out.add(d);
-        }
-        return out;
-    }
+    /** 长轮询：队列为空时最多阻塞 timeout，有消息立刻返回 */
+    List<ChatReplyDTO> pull(String chatId, int max, Duration timeout);
+
+    /**
+     * 不占调用线程的长轮询（/pull 用它配 DeferredResult，等待期间不压 Tomcat 工作线程）：
+     * 有消息即完成，到 timeout 以空列表完成；调用方 cancel 视为放弃等待，之后到达的回复留给下一次拉取。
+     */
+    CompletableFuture<List<ChatReplyDTO>> pullAsync(String chatId, int max, Duration timeout);
 }
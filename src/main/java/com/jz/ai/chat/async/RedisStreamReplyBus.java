@@ -0,0 +1,359 @@
+// src/main/java/com/jz/ai/chat/async/RedisStreamReplyBus.java
+package com.jz.ai.chat.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.config.ReplyBusProperties;
+import com.jz.ai.domain.dto.ChatReplyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分布式回复总线：每个 chatId 一个 Redis Stream（chat:reply:{chatId}）。
+ * - push：XADD + XTRIM MAXLEN ~ + EXPIRE；
+ * - pull：XREADGROUP BLOCK（长轮询），最多读 max 条，交出去后立刻 XACK + XDEL，一条回复只会被一个 /pull 拿走；
+ * - 所有节点共用一个消费组，处理 processBatch 的节点和服务 /pull 的节点可以不同，无需粘性会话；
+ * - pullAsync：等待者挂在本节点，一个轮询线程每 asyncPollInterval 用一条 XREADGROUP（非阻塞、多 stream）
+ *   把所有挂起会话一起读一遍（Redis Cluster 下按 slot 分组），等待期间不占请求线程；
+ * - 读到但没交出去的（等待者刚走、超出 max）不确认，留在本消费者的 PEL 里，下次先从 PEL 读，顺序不变；
+ * - 每次 /pull 先看一眼 PEL：别的消费者读了超过 claimIdle 没确认的（节点宕机）XCLAIM 过来，不会永远卡在 PEL 里。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "chat.reply-bus", name = "type", havingValue = "redis")
+public class RedisStreamReplyBus implements PendingReplyBus {
+
+    private static final String FIELD = "json";
+    /** 一条 XREADGROUP 最多带多少个 stream */
+    private static final int STREAMS_PER_READ = 256;
+    /** XREADGROUP 读本消费者 PEL（已读未确认）的起点 */
+    private static final ReadOffset PENDING = ReadOffset.from("0");
+    /** 每次 /pull 最多检查多少条 PEL 条目 */
+    private static final int CLAIM_SCAN = 100;
+
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+    private final ReplyBusProperties props;
+    private final String consumerName;
+    /** 已确认建组的 key（只是本地优化，丢了会再建一次，BUSYGROUP 忽略） */
+    private final Set<String> groupReady = ConcurrentHashMap.newKeySet();
+    /** 本节点挂起的异步等待者：chatId → 等待队列 */
+    private final Map<String, Queue<Waiter>> parked = new ConcurrentHashMap<>();
+    /** 本消费者 PEL 里还有读了没交出去的回复的会话：下次先读 PEL */
+    private final Set<String> leftover = ConcurrentHashMap.newKeySet();
+    private final boolean cluster;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reply-stream-poll");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter pushCounter;
+    private final Counter deliverCounter;
+    private final Counter errorCounter;
+    private final Counter claimCounter;
+
+    private record Waiter(CompletableFuture<List<ChatReplyDTO>> future, int max) {}
+
+    public RedisStreamReplyBus(StringRedisTemplate redis, ObjectMapper mapper,
+                               ReplyBusProperties props, MeterRegistry registry) {
+        this.redis = redis;
+        this.mapper = mapper;
+        this.props = props;
+        // 节点内唯一即可：pid@host
+        this.consumerName = ManagementFactory.getRuntimeMXBean().getName();
+        this.cluster = redis.getConnectionFactory() instanceof LettuceConnectionFactory f && f.isClusterAware();
+        this.pushCounter = Counter.builder("chat.replybus.push.count")
+                .description("Replies appended to Redis reply streams")
+                .register(registry);
+        this.deliverCounter = Counter.builder("chat.replybus.deliver.count")
+                .description("Replies read and acked from Redis reply streams")
+                .register(registry);
+        this.errorCounter = Counter.builder("chat.replybus.error.count")
+                .description("Redis reply stream failures")
+                .register(registry);
+        this.claimCounter = Counter.builder("chat.replybus.claim.count")
+                .description("Pending replies claimed from idle consumers (crashed nodes)")
+                .register(registry);
+        long every = Math.max(20, props.getAsyncPollInterval().toMillis());
+        poller.scheduleWithFixedDelay(this::pollParked, every, every, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        poller.shutdownNow();
+    }
+
+    private String key(String chatId) {
+        return props.getKeyPrefix() + chatId;
+    }
+
+    @Override
+    public void push(String chatId, ChatReplyDTO dto) {
+        String key = key(chatId);
+        try {
+            StringRecord rec = StreamRecords.string(Map.of(FIELD, mapper.writeValueAsString(dto)))
+                    .withStreamKey(key);
+            redis.opsForStream().add(rec);
+            ensureGroup(key);
+            redis.opsForStream().trim(key, props.getMaxLen(), true);
+            redis.expire(key, props.getTtl());
+            pushCounter.increment();
+        } catch (Exception e) {
+            errorCounter.increment();
+            log.warn("reply stream push failed, chatId={}, err={}", chatId, e.toString());
+        }
+    }
+
+    @Override
+    public List<ChatReplyDTO> pull(String chatId, int max, Duration timeout) {
+        String key = key(chatId);
+        int count = Math.max(1, max);
+        long deadline = System.currentTimeMillis() + (timeout == null ? 0 : Math.max(0, timeout.toMillis()));
+        try {
+            ensureGroup(key);
+            claimStale(chatId, key);
+            // PEL 里还有没交出去的：只由轮询线程按顺序交付（两个线程同时读 PEL 会重复交付），这里挂起等它
+            if (leftover.contains(chatId)) {
+                return (timeout == null || timeout.isZero() || timeout.isNegative())
+                        ? List.of() : park(chatId, count, timeout).join();
+            }
+            while (true) {
+                long remain = deadline - System.currentTimeMillis();
+                StreamReadOptions opts = StreamReadOptions.empty().count(count);
+                if (remain > 0) {
+                    // 分片阻塞：每片不超过 blockSlice，避免超过 Redis 客户端命令超时
+                    opts = opts.block(Duration.ofMillis(Math.min(remain, props.getBlockSlice().toMillis())));
+                }
+                List<MapRecord<String, Object, Object>> recs = redis.opsForStream().read(
+                        Consumer.from(props.getGroup(), consumerName),
+                        opts,
+                        StreamOffset.create(key, ReadOffset.lastConsumed()));
+                if (recs != null && !recs.isEmpty()) {
+                    List<ChatReplyDTO> out = decode(key, recs);
+                    ack(key, recs);
+                    return out;
+                }
+                if (System.currentTimeMillis() >= deadline) return List.of();
+            }
+        } catch (Exception e) {
+            errorCounter.increment();
+            groupReady.remove(key); // 可能是 key 过期导致 NOGROUP，下次重建
+            leftover.remove(chatId);
+            log.warn("reply stream pull failed, chatId={}, err={}", chatId, e.toString());
+            return List.of();
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<ChatReplyDTO>> pullAsync(String chatId, int max, Duration timeout) {
+        List<ChatReplyDTO> now = pull(chatId, max, Duration.ZERO);
+        if (!now.isEmpty() || timeout == null || timeout.isZero() || timeout.isNegative()) {
+            return CompletableFuture.completedFuture(now);
+        }
+        return park(chatId, Math.max(1, max), timeout);
+    }
+
+    private CompletableFuture<List<ChatReplyDTO>> park(String chatId, int max, Duration timeout) {
+        Waiter w = new Waiter(new CompletableFuture<>(), max);
+        parked.compute(chatId, (k, q) -> {
+            if (q == null) q = new ConcurrentLinkedQueue<>();
+            q.add(w);
+            return q;
+        });
+        w.future().whenComplete((r, e) -> parked.computeIfPresent(chatId, (k, q) -> {
+            q.remove(w);
+            return q.isEmpty() ? null : q;
+        }));
+        w.future().completeOnTimeout(List.of(), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        return w.future();
+    }
+
+    /**
+     * 轮询线程：挂起的会话分组后一条 XREADGROUP 读完，读到的交给该会话最早的等待者；PEL 只在这里读。
+     * Redis Cluster 下按 slot 分组（不同 slot 的 key 不能放进一条命令）；单机/哨兵所有会话一组
+     */
+    private void pollParked() {
+        if (parked.isEmpty()) return;
+        Map<Integer, List<String>> groups = new LinkedHashMap<>();
+        for (String chatId : parked.keySet()) {
+            int slot = cluster ? ClusterSlotHashUtil.calculateSlot(key(chatId)) : 0;
+            groups.computeIfAbsent(slot, k -> new ArrayList<>()).add(chatId);
+        }
+        for (List<String> chats : groups.values()) {
+            for (int from = 0; from < chats.size(); from += STREAMS_PER_READ) {
+                List<String> slice = chats.subList(from, Math.min(chats.size(), from + STREAMS_PER_READ));
+                try {
+                    readAndDeliver(slice);
+                } catch (Exception e) {
+                    errorCounter.increment();
+                    slice.forEach(c -> {
+                        groupReady.remove(key(c)); // 可能有 key 过期（NOGROUP），下一轮重建
+                        leftover.remove(c);
+                    });
+                    log.warn("reply stream poll failed for {} chats: {}", slice.size(), e.toString());
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readAndDeliver(List<String> chats) {
+        List<StreamOffset<String>> offsets = new ArrayList<>(chats.size());
+        Set<String> fromPending = new HashSet<>();
+        int count = 1;
+        for (String chatId : chats) {
+            Waiter w = head(chatId);
+            if (w == null) continue;
+            count = Math.max(count, w.max());
+            String key = key(chatId);
+            ensureGroup(key);
+            // 上次读了没交出去的还在本消费者的 PEL 里：先读它们，顺序不乱
+            if (leftover.contains(chatId)) {
+                fromPending.add(chatId);
+                offsets.add(StreamOffset.create(key, PENDING));
+            } else {
+                offsets.add(StreamOffset.create(key, ReadOffset.lastConsumed()));
+            }
+        }
+        if (offsets.isEmpty()) return;
+        List<MapRecord<String, Object, Object>> recs = redis.opsForStream().read(
+                Consumer.from(props.getGroup(), consumerName),
+                StreamReadOptions.empty().count(count),
+                offsets.toArray(new StreamOffset[0]));
+
+        Map<String, List<MapRecord<String, Object, Object>>> byKey = new LinkedHashMap<>();
+        if (recs != null) {
+            for (MapRecord<String, Object, Object> r : recs) {
+                byKey.computeIfAbsent(r.getStream(), k -> new ArrayList<>()).add(r);
+            }
+        }
+        // PEL 已读空：回到读新消息
+        for (String chatId : fromPending) {
+            if (!byKey.containsKey(key(chatId))) leftover.remove(chatId);
+        }
+        byKey.forEach((key, list) -> deliverParked(key.substring(props.getKeyPrefix().length()), key, list));
+    }
+
+    /**
+     * 按等待者的 max 交付，交出去的才 XACK + XDEL；等待者恰好超时/断开或超出 max 的留在 PEL 里不动
+     * （不重新 XADD，顺序不变），记为 leftover，下次先读
+     */
+    private void deliverParked(String chatId, String key, List<MapRecord<String, Object, Object>> list) {
+        List<MapRecord<String, Object, Object>> rest = list;
+        Waiter w;
+        while (!rest.isEmpty() && (w = head(chatId)) != null) {
+            List<MapRecord<String, Object, Object>> take = rest.subList(0, Math.min(w.max(), rest.size()));
+            List<ChatReplyDTO> dtos = decode(key, take);
+            if (dtos.isEmpty()) {
+                ack(key, take); // 全是坏记录：确认掉，不交给等待者
+            } else if (w.future().complete(dtos)) {
+                ack(key, take);
+            } else {
+                continue; // 刚超时：换下一个等待者
+            }
+            rest = rest.subList(take.size(), rest.size());
+        }
+        if (!rest.isEmpty()) leftover.add(chatId);
+    }
+
+    /** 该会话最早的、还在等的等待者 */
+    private Waiter head(String chatId) {
+        Queue<Waiter> q = parked.get(chatId);
+        if (q == null) return null;
+        for (Waiter w : q) {
+            if (!w.future().isDone()) return w;
+        }
+        return null;
+    }
+
+    /**
+     * 接管崩溃节点的 PEL：别的消费者读了超过 claimIdle 还没确认的（节点宕机、或等待者走了用户换了节点），
+     * XCLAIM 到本消费者，之后按 leftover 先读
+     */
+    private void claimStale(String chatId, String key) {
+        PendingMessages pending = redis.opsForStream().pending(key, props.getGroup(), Range.unbounded(), CLAIM_SCAN);
+        if (pending == null || pending.isEmpty()) return;
+        Duration idle = props.getClaimIdle();
+        List<RecordId> stale = new ArrayList<>();
+        for (PendingMessage p : pending) {
+            if (consumerName.equals(p.getConsumerName())) {
+                leftover.add(chatId); // 本消费者自己的（比如上次读到一半出错）
+            } else if (p.getElapsedTimeSinceLastDelivery().compareTo(idle) >= 0) {
+                stale.add(p.getId());
+            }
+        }
+        if (stale.isEmpty()) return;
+        List<MapRecord<String, Object, Object>> claimed = redis.opsForStream().claim(
+                key, props.getGroup(), consumerName, idle, stale.toArray(new RecordId[0]));
+        if (claimed != null && !claimed.isEmpty()) {
+            claimCounter.increment(claimed.size());
+            leftover.add(chatId);
+        }
+    }
+
+    private List<ChatReplyDTO> decode(String key, List<MapRecord<String, Object, Object>> recs) {
+        List<ChatReplyDTO> out = new ArrayList<>(recs.size());
+        for (MapRecord<String, Object, Object> r : recs) {
+            Object json = r.getValue() == null ? null : r.getValue().get(FIELD);
+            if (json == null) continue; // 已被 XTRIM 掉的 PEL 条目
+            try {
+                out.add(mapper.readValue(String.valueOf(json), ChatReplyDTO.class));
+            } catch (Exception e) {
+                log.warn("bad reply record ignored, key={}, id={}", key, r.getId());
+            }
+        }
+        return out;
+    }
+
+    /** 交出去即确认并删除：回复是一次性消费的，不需要留在 stream 里 */
+    private void ack(String key, List<MapRecord<String, Object, Object>> recs) {
+        RecordId[] ids = new RecordId[recs.size()];
+        for (int i = 0; i < recs.size(); i++) ids[i] = recs.get(i).getId();
+        redis.opsForStream().acknowledge(key, props.getGroup(), ids);
+        redis.opsForStream().delete(key, ids);
+        deliverCounter.increment(recs.size());
+    }
+
+    /** XGROUP CREATE key group 0 MKSTREAM；组已存在（BUSYGROUP）视为成功 */
+    private void ensureGroup(String key) {
+        if (groupReady.contains(key)) return;
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            redis.execute((RedisCallback<String>) (RedisConnection c) ->
+                    c.streamCommands().xGroupCreate(rawKey, props.getGroup(), ReadOffset.from("0"), true));
+            redis.expire(key, props.getTtl());
+        } catch (RuntimeException e) {
+            if (!isBusyGroup(e)) throw e;
+        }
+        groupReady.add(key);
+    }
+
+    private static boolean isBusyGroup(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (String.valueOf(t.getMessage()).contains("BUSYGROUP")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,128 @@
+// src/main/java/com/jz/ai/chat/async/ReplyStreamHub.java
+package com.jz.ai.chat.async;
+
+import com.jz.ai.domain.dto.ChatReplyDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SSE 推送通道：每个 chatId 一个多播 Sink，前端 GET /api/chat/stream 订阅。
+ * - delta：模型流式输出的增量片段（原样，不做表情替换）；
+ * - reply：本轮最终文本（已做表情替换 + 建议延时），前端用它覆盖增量气泡；
+ * - 没有订阅者时 emit 返回 false，调用方回退到 PendingReplyBus（/pull 轮询）。
+ */
+@Slf4j
+@Component
+public class ReplyStreamHub {
+
+    public static final String EVENT_DELTA = "delta";
+    public static final String EVENT_REPLY = "reply";
+
+    private static final Duration HEARTBEAT = Duration.ofSeconds(15);
+
+    private final Map<String, Channel> sinks = new ConcurrentHashMap<>();
+
+    private final Counter deltaCounter;
+    private final Counter fallbackCounter;
+
+    public ReplyStreamHub(MeterRegistry registry) {
+        this.deltaCounter = Counter.builder("chat.stream.delta.count")
+                .description("Number of streamed delta chunks pushed over SSE")
+                .register(registry);
+        this.fallbackCounter = Counter.builder("chat.stream.fallback.count")
+                .description("Number of SSE emits that found no subscriber and fell back to /pull")
+                .register(registry);
+        Gauge.builder("chat.stream.subscribers", sinks, Map::size)
+                .description("Number of chatIds with an open SSE stream")
+                .register(registry);
+    }
+
+    /** 一个会话的 Sink 与挂在上面的订阅数（订阅数只在 map 的 compute 里改，与移除互斥） */
+    private static final class Channel {
+        final Sinks.Many<ServerSentEvent<ChatReplyDTO>> sink = Sinks.many().multicast().directBestEffort();
+        int attached;
+    }
+
+    /** 订阅某个会话的回复流（带心跳注释，避免代理/浏览器空闲断开） */
+    public Flux<ServerSentEvent<ChatReplyDTO>> subscribe(String chatId) {
+        Flux<ServerSentEvent<ChatReplyDTO>> heartbeat = Flux.interval(HEARTBEAT)
+                .map(i -> ServerSentEvent.<ChatReplyDTO>builder().comment("ping").build());
+        return Flux.defer(() -> {
+            Channel ch = attach(chatId);
+            return Flux.merge(ch.sink.asFlux(), heartbeat)
+                    .doFinally(sig -> release(chatId, ch));
+        });
+    }
+
+    /** 是否有前端正在监听该会话（决定 processBatch 走流式还是一次性调用） */
+    public boolean hasSubscriber(String chatId) {
+        Channel ch = sinks.get(chatId);
+        return ch != null && ch.sink.currentSubscriberCount() > 0;
+    }
+
+    /** 推送增量片段；无订阅者返回 false */
+    public boolean emitDelta(String chatId, String delta) {
+        if (delta == null || delta.isEmpty()) return true;
+        boolean ok = emit(chatId, EVENT_DELTA, ChatReplyDTO.reply(delta, 0));
+        if (ok) deltaCounter.increment();
+        return ok;
+    }
+
+    /** 推送整条回复；无订阅者返回 false（调用方应回退到 PendingReplyBus） */
+    public boolean emitReply(String chatId, ChatReplyDTO dto) {
+        boolean ok = emit(chatId, EVENT_REPLY, dto);
+        if (!ok) fallbackCounter.increment();
+        return ok;
+    }
+
+    private boolean emit(String chatId, String event, ChatReplyDTO dto) {
+        Channel ch = sinks.get(chatId);
+        if (ch == null) return false;
+        Sinks.Many<ServerSentEvent<ChatReplyDTO>> sink = ch.sink;
+        ServerSentEvent<ChatReplyDTO> sse = ServerSentEvent.<ChatReplyDTO>builder()
+                .event(event)
+                .data(dto)
+                .build();
+        // 多个线程可能同时推同一 chatId（理论上 BurstBatcher 保证串行），失败时短暂重试
+        Sinks.EmitResult r = sink.tryEmitNext(sse);
+        int spins = 0;
+        while (r == Sinks.EmitResult.FAIL_NON_SERIALIZED && spins++ < 16) {
+            Thread.onSpinWait();
+            r = sink.tryEmitNext(sse);
+        }
+        if (r.isFailure()) {
+            log.debug("SSE emit failed, chatId={}, event={}, result={}", chatId, event, r);
+            return false;
+        }
+        return true;
+    }
+
+    private Channel attach(String chatId) {
+        return sinks.compute(chatId, (k, cur) -> {
+            Channel ch = (cur != null) ? cur : new Channel();
+            ch.attached++;
+            return ch;
+        });
+    }
+
+    /**
+     * 最后一个订阅者断开时移除，避免 map 无限增长。计数与移除在同一个 compute 里：
+     * 断开与重连交错时，重连者要么拿到仍在 map 里的同一个 Sink，要么拿到新建的，不会挂在已移除的孤儿 Sink 上
+     */
+    private void release(String chatId, Channel ch) {
+        sinks.computeIfPresent(chatId, (k, cur) -> {
+            if (cur != ch) return cur;
+            return --cur.attached <= 0 ? null : cur;
+        });
+    }
+}
@@ -0,0 +1,231 @@
+// src/main/java/com/jz/ai/chat/async/StageGraph.java
+package com.jz.ai.chat.async;
+
+import com.jz.ai.chat.llm.LlmCallLedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 单轮对话的阶段图（一次 processBatch 一个实例）：
+ * - stage(name, timeout, fallback, body, deps...)：依赖全部完成后在线程池上执行 body；
+ * - 每个阶段独立超时：超时立即以 fallback 完成并中断执行线程，下游不再等它；
+ * - effect(...) 声明有副作用的阶段（记忆追加、打分写库等）：超时只让下游不再等，执行线程不中断、body 照常做完，
+ *   cancel() 也不取消它——JDBC/Redis 写到一半被打断会静默丢数据；
+ * - 阶段异常同样以 fallback 完成（一个可选阶段挂了不拖垮整轮）；
+ * - cancel()：审核判定 SILENCE/边界回复时调用，未开始的只读阶段不再执行，执行中的被中断，await 抛 CancellationException。
+ * 整轮耗时因此约等于关键路径，而不是各阶段之和。
+ * 线程：阶段本体与下游派发都在 executor 上，不在“碰巧完成了前置”的线程上跑；超时由本类专用计时线程触发，
+ * fallback 交给专用收尾线程算（fallback 可能查库/Redis，不能卡住计时）。executor 拒绝（打满）时该阶段直接以 fallback 完成。
+ */
+@Slf4j
+public final class StageGraph {
+
+    /** 只负责到点把超时收尾交出去，自己不跑任何阶段代码 */
+    private static final ScheduledThreadPoolExecutor TIMER = timer();
+    /** 超时/拒绝时计算 fallback 并完成阶段；队列不设上限，保证收尾一定执行 */
+    private static final ThreadPoolExecutor FALLBACKS = fallbacks();
+
+    private final Executor executor;
+    private final MeterRegistry registry;
+    private final List<Stage<?>> stages = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    public StageGraph(Executor executor, MeterRegistry registry) {
+        this.executor = executor;
+        this.registry = registry;
+    }
+
+    public static final class Stage<T> {
+        private final String name;
+        private final boolean sideEffect;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private Thread runner; // 受 this 保护：中断只打在仍在执行本阶段的线程上
+
+        private Stage(String name, boolean sideEffect) {
+            this.name = name;
+            this.sideEffect = sideEffect;
+        }
+
+        public String name() { return name; }
+
+        /** 阻塞取结果（阶段已有超时兜底，不会无限等待） */
+        public T join() { return future.join(); }
+
+        public boolean isDone() { return future.isDone(); }
+
+        private synchronized void bind(Thread t) { runner = t; }
+
+        private synchronized void interrupt() {
+            if (runner != null && !sideEffect) runner.interrupt();
+        }
+    }
+
+    /**
+     * 声明一个阶段。
+     *
+     * @param timeout  从阶段开始执行起算；null/非正数表示不设超时
+     * @param fallback 超时或异常时的降级值（惰性计算）
+     * @param deps     前置阶段；body 内可直接 dep.join()
+     */
+    public <T> Stage<T> stage(String name, Duration timeout, Supplier<T> fallback,
+                              Supplier<T> body, Stage<?>... deps) {
+        return add(new Stage<>(name, false), timeout, fallback, body, deps);
+    }
+
+    /**
+     * 声明一个有副作用的阶段：一定执行完（不被中断、不随 cancel 取消）。
+     *
+     * @param timeout 到点下游以 fallback 继续，body 仍在后台做完；null 表示下游一直等
+     */
+    public <T> Stage<T> effect(String name, Duration timeout, Supplier<T> fallback,
+                               Supplier<T> body, Stage<?>... deps) {
+        return add(new Stage<>(name, true), timeout, fallback, body, deps);
+    }
+
+    private <T> Stage<T> add(Stage<T> st, Duration timeout, Supplier<T> fallback,
+                             Supplier<T> body, Stage<?>... deps) {
+        stages.add(st);
+        // 本轮 LLM 用量（LlmCallLedger.TurnUsage）跟着阶段走到执行线程
+        Runnable task = LlmCallLedger.propagate(() -> run(st, timeout, fallback, body));
+        if (deps == null || deps.length == 0) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                reject(st, fallback);
+            }
+        } else {
+            CompletableFuture<?>[] fs = new CompletableFuture<?>[deps.length];
+            for (int i = 0; i < deps.length; i++) fs[i] = deps[i].future;
+            // 前置被取消时 allOf 异常完成，这里仍派发，由 run() 根据 cancelled 收尾；
+            // 派发到 executor 上：完成前置的可能是超时收尾线程，下游不能跑在它上面
+            CompletableFuture.allOf(fs)
+                    .handleAsync((v, ex) -> {
+                        task.run();
+                        return null;
+                    }, executor)
+                    .exceptionally(ex -> {
+                        reject(st, fallback);
+                        return null;
+                    });
+        }
+        return st;
+    }
+
+    /** executor 打满：不在当前线程硬跑，阶段以 fallback 完成，下游照常继续 */
+    private <T> void reject(Stage<T> st, Supplier<T> fallback) {
+        FALLBACKS.execute(() -> {
+            if (st.future.complete(safeFallback(st, fallback))) {
+                log.warn("stage executor saturated, fallback used: {}", st.name);
+                record(st.name, "rejected", 0);
+            }
+        });
+    }
+
+    /** 等待阶段结果；图已取消时抛 CancellationException */
+    public <T> T await(Stage<T> st) {
+        return st.join();
+    }
+
+    /** 取消整张图：未开始的不再执行，执行中的打断 */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        for (Stage<?> st : stages) {
+            if (st.sideEffect) continue;
+            if (st.future.cancel(false)) {
+                st.interrupt();
+                record(st.name, "cancelled", 0);
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private <T> void run(Stage<T> st, Duration timeout, Supplier<T> fallback, Supplier<T> body) {
+        if ((cancelled && !st.sideEffect) || st.future.isDone()) {
+            st.future.cancel(false);
+            return;
+        }
+        long t0 = System.nanoTime();
+        ScheduledFuture<?> timer = null;
+        if (timeout != null && !timeout.isZero() && !timeout.isNegative()) {
+            Runnable expire = LlmCallLedger.propagate(() -> expire(st, timeout, fallback, t0));
+            timer = TIMER.schedule(() -> FALLBACKS.execute(expire), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        st.bind(Thread.currentThread());
+        try {
+            T v = body.get();
+            if (st.future.complete(v)) record(st.name, "ok", System.nanoTime() - t0);
+        } catch (Throwable e) {
+            if ((!cancelled || st.sideEffect) && !st.future.isDone()) {
+                log.warn("stage failed: {}, fallback used, err={}", st.name, e.toString());
+                if (st.future.complete(safeFallback(st, fallback))) {
+                    record(st.name, "error", System.nanoTime() - t0);
+                }
+            }
+        } finally {
+            if (timer != null) timer.cancel(false);
+            st.bind(null);
+            // 清掉可能迟到的中断标记，避免污染池化线程
+            Thread.interrupted();
+        }
+    }
+
+    private <T> void expire(Stage<T> st, Duration timeout, Supplier<T> fallback, long t0) {
+        if (st.future.isDone()) return;
+        if (st.future.complete(safeFallback(st, fallback))) {
+            log.warn("stage timeout: {} after {}ms, fallback used{}", st.name, timeout.toMillis(),
+                    st.sideEffect ? " (body keeps running)" : "");
+            st.interrupt();
+            record(st.name, "timeout", System.nanoTime() - t0);
+        }
+    }
+
+    private <T> T safeFallback(Stage<T> st, Supplier<T> fallback) {
+        try {
+            return fallback == null ? null : fallback.get();
+        } catch (Exception e) {
+            log.warn("stage fallback failed: {}, err={}", st.name, e.toString());
+            return null;
+        }
+    }
+
+    private void record(String stage, String outcome, long nanos) {
+        Timer.builder("chat.stage.latency")
+                .description("processBatch stage latency by outcome (ok/timeout/error/cancelled/rejected)")
+                .tag("stage", stage)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static ScheduledThreadPoolExecutor timer() {
+        ScheduledThreadPoolExecutor t = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread th = new Thread(r, "chat-stage-timer");
+            th.setDaemon(true);
+            return th;
+        });
+        t.setRemoveOnCancelPolicy(true); // 正常完成的阶段撤掉计时，不在队列里堆积
+        return t;
+    }
+
+    private static ThreadPoolExecutor fallbacks() {
+        AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor ex = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread th = new Thread(r, "chat-stage-fallback-" + seq.incrementAndGet());
+            th.setDaemon(true);
+            return th;
+        });
+        ex.allowCoreThreadTimeOut(true);
+        return ex;
+    }
+}
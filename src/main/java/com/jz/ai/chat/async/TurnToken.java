@@ -0,0 +1,40 @@
+// src/main/java/com/jz/ai/chat/async/TurnToken.java
+package com.jz.ai.chat.async;
+
+/**
+ * 单轮处理的取消令牌：BurstBatcher 每次 fire 发一个，处理中同一 chatId 又来新消息时被 submit() 打断。
+ * processBatch 在阶段边界调用 checkpoint()；已打断则抛 {@link Cancelled}，
+ * BurstBatcher 收到后把这批消息放回队头，与新消息合并成下一批。
+ * 最后一个 checkpoint（落库前）之后再打断不再生效，本轮照常完成。
+ */
+public final class TurnToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** 阶段边界检查：已被新消息打断则中止本轮 */
+    public void checkpoint(String where) {
+        if (cancelled) throw new Cancelled(where);
+    }
+
+    /** 本轮被新消息打断（控制流用，不带堆栈） */
+    public static final class Cancelled extends RuntimeException {
+        private final String where;
+
+        public Cancelled(String where) {
+            super("turn cancelled before " + where, null, false, false);
+            this.where = where;
+        }
+
+        public String getWhere() {
+            return where;
+        }
+    }
+}
@@ -42,18 +42,29 @@ public class BudgetService {
                              int tHistAvg, int tLmsTarget,
                              String userMsg,
                              double softCapRatio) {
-        ModelProfile prof = modelRegistry.get(model);
-        int W = prof.getContextWindow();
-        int reserve = prof.getOutputReserveTokens();
-        int available = W - reserve;
-
-        int used = tokens.ofText(sBase)
+        int fixed = tokens.ofText(sBase)
                 + tokens.ofJson(sProfile)
                 + tokens.ofJson(sHot)
                 + tokens.ofText(sTone)
                 + tokens.ofJson(sRetrieved)// 👈 命中才有，未命中=0
-                + (retrieveSize * Math.max(1, tHistAvg))
                 + tokens.ofText(userMsg);
+        return compute(model, fixed, retrieveSize, tHistAvg, tLmsTarget, softCapRatio);
+    }
+
+    /**
+     * 各段 token 已由调用方算好（PromptAssembler 按段缓存/记忆化），这里只做预算
+     * @param fixedTokens 系统提示 + 画像 + 热卖 + 风格 + 检索参考 + 本轮用户消息 的 token 合计
+     */
+    public LmsBudget compute(String model, int fixedTokens,
+                             int retrieveSize,
+                             int tHistAvg, int tLmsTarget,
+                             double softCapRatio) {
+        ModelProfile prof = modelRegistry.get(model);
+        int W = prof.getContextWindow();
+        int reserve = prof.getOutputReserveTokens();
+        int available = W - reserve;
+
+        int used = fixedTokens + (retrieveSize * Math.max(1, tHistAvg));
 
         int room = Math.max(0, available - used);
         int nMax = Math.max(0, room / Math.max(1, tLmsTarget));
@@ -8,5 +8,9 @@ public class ModelProfile {
     private String name;
     private int contextWindow;         // 模型上下文窗口
     private int outputReserveTokens;   // 为输出预留
+    // —— 限流（对齐服务商按模型的 QPS/TPM 配额；0 表示不限）——
+    private int rpm;                   // 每分钟请求数
+    private int tpm;                   // 每分钟 token 数（输入估算 + 预计输出，结束后按实际用量补差）
+    private int maxConcurrent;         // 同时在途请求数（bulkhead）
+    private long maxWaitMs;            // 排队最长等待；0 用 chat.models.default-max-wait-ms
 }
-
@@ -10,5 +10,10 @@ import java.util.Map;
 @ConfigurationProperties(prefix = "chat.models")
 public class ModelRegistryProperties {
     private Map<String, ModelProfile> registry;
+    /** 按模型限流 + 限并发（ModelThrottle）；false 时直通 */
+    private boolean throttleEnabled = true;
+    /** 排队等配额/并发槽的默认最长时间，超时抛 ModelSaturatedException */
+    private long defaultMaxWaitMs = 10_000;
+    /** 预扣 TPM 时对输出 token 的估计（结束后按实际 usage 补差） */
+    private int expectedOutputTokens = 300;
 }
-
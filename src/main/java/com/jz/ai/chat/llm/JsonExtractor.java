@@ -0,0 +1,253 @@
+package com.jz.ai.chat.llm;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 模型结构化输出的统一解析（替代各处的 indexOf/lastIndexOf 截取、贪婪正则、每次新建 JsonMapper）：
+ * - 基于 Jackson 非阻塞解析器增量喂入，跳过 ``` 围栏和前后说明文字，从第一个能解析的 { / [ 开始；
+ *   某个起点解析失败就从下一个起点重放，不回头扫全文；
+ * - 模型输出被截断时，把已完整读到的字段补齐括号后照样返回；没读到结束分隔符的那个值连同字段名一起丢弃
+ *   （"targetScore":85 截在 8 处不能当 8 用），parse(...) 会告诉调用方结果是补齐来的，补齐的结果不要缓存；
+ * - 事件直接记进 TokenBuffer，按需绑定到目标类型或树，不经中间字符串。
+ * 宽松项：允许 // 与块注释（提示词里的 schema 带注释，模型偶尔照抄）、单引号、尾逗号。
+ * 指标：llm.json.extract{outcome=complete|recovered|none}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class JsonExtractor {
+
+    /** 大部分调用方要的形状：Map 键值 */
+    public static final TypeReference<Map<String, Object>> MAP = new TypeReference<>() {};
+
+    /** 认哪种顶层结构作为起点 */
+    public enum Shape { OBJECT, ARRAY, ANY }
+
+    private static final JsonFactory LENIENT = JsonFactory.builder()
+            .enable(JsonReadFeature.ALLOW_JAVA_COMMENTS)
+            .enable(JsonReadFeature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+            .build();
+
+    private final ObjectMapper mapper;
+    private final MeterRegistry registry;
+
+    public Optional<JsonNode> extract(String text, Shape shape) {
+        Session s = session(shape);
+        s.feed(text);
+        return s.finish().map(this::tree);
+    }
+
+    /** 绑定到目标类型（只认对象起点） */
+    public <T> Optional<T> extract(String text, Class<T> type) {
+        return this.<T>bind(text, mapper.constructType(type)).map(Parsed::value);
+    }
+
+    public <T> Optional<T> extract(String text, TypeReference<T> type) {
+        return parse(text, type).map(Parsed::value);
+    }
+
+    /** 解析结果；recovered=true 表示输出被截断、靠补齐括号得来 */
+    public record Parsed<T>(T value, boolean recovered) {}
+
+    /** 同 extract，但带上是否截断补齐（只认对象起点） */
+    public <T> Optional<Parsed<T>> parse(String text, TypeReference<T> type) {
+        return this.<T>bind(text, mapper.constructType(type));
+    }
+
+    public Session session(Shape shape) {
+        return new Session(shape);
+    }
+
+    private <T> Optional<Parsed<T>> bind(String text, JavaType type) {
+        Session s = session(Shape.OBJECT);
+        s.feed(text);
+        return s.finish().map(tb -> {
+            try (JsonParser p = tb.asParser()) {
+                T v = mapper.readValue(p, type);
+                return v == null ? null : new Parsed<>(v, s.recovered());
+            } catch (IOException e) {
+                log.debug("json extract: bind to {} failed: {}", type, e.toString());
+                return null;
+            }
+        });
+    }
+
+    private JsonNode tree(TokenBuffer tb) {
+        try (JsonParser p = tb.asParser()) {
+            return mapper.readTree(p);
+        } catch (IOException e) {
+            // TokenBuffer 里是已校验过的事件，理论上不会到这
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一次解析会话（非线程安全）：feed 可多次调用，返回 true 表示第一个完整结构已读完
+     */
+    public final class Session {
+        private final Shape shape;
+        /** 当前候选起点之后收到的原文；起点失效时从这里找下一个起点重放 */
+        private final StringBuilder pending = new StringBuilder();
+        /** 各层是否为对象（true）/数组（false） */
+        private final ArrayDeque<Boolean> open = new ArrayDeque<>();
+
+        private JsonParser parser;
+        private ByteArrayFeeder feeder;
+        private TokenBuffer tokens;
+        /** 已读到、但值还没读完的字段名：值完整后才一起写入，截断时连字段一起丢 */
+        private String field;
+        private boolean done;
+        private boolean recovered;
+
+        private Session(Shape shape) {
+            this.shape = shape;
+        }
+
+        public boolean feed(CharSequence chunk) {
+            if (done || chunk == null || chunk.length() == 0) return done;
+            int from = pending.length();
+            pending.append(chunk);
+            if (parser == null) {
+                int start = nextStart(from);
+                if (start < 0) {
+                    pending.setLength(0); // 说明文字/围栏，直接丢
+                    return false;
+                }
+                restartAt(start);
+                from = 0;
+            }
+            pump(from);
+            return done;
+        }
+
+        /**
+         * 输入结束：完整则返回；读到一半则补齐已打开的结构；什么都没读到返回 empty。
+         * 不对解析器调 endOfInput：末尾没有分隔符的数字/字面量（可能只读到一半）留在解析器里，自然被丢弃
+         */
+        public Optional<TokenBuffer> finish() {
+            if (done) {
+                registry.counter("llm.json.extract", "outcome", "complete").increment();
+                return Optional.of(tokens);
+            }
+            if (tokens == null || open.isEmpty()) {
+                registry.counter("llm.json.extract", "outcome", "none").increment();
+                return Optional.empty();
+            }
+            try {
+                field = null;
+                while (!open.isEmpty()) {
+                    if (open.pop()) tokens.writeEndObject(); else tokens.writeEndArray();
+                }
+            } catch (IOException e) {
+                registry.counter("llm.json.extract", "outcome", "none").increment();
+                return Optional.empty();
+            }
+            done = true;
+            recovered = true;
+            registry.counter("llm.json.extract", "outcome", "recovered").increment();
+            return Optional.of(tokens);
+        }
+
+        /** finish() 之后有效：结果是否由截断补齐得来 */
+        public boolean recovered() {
+            return recovered;
+        }
+
+        private void pump(int from) {
+            while (true) {
+                try {
+                    byte[] bytes = pending.substring(from).getBytes(StandardCharsets.UTF_8);
+                    feeder.feedInput(bytes, 0, bytes.length);
+                    drain();
+                    if (done) pending.setLength(0);
+                    return;
+                } catch (IOException e) {
+                    // 这个起点不是合法 JSON（比如说明文字里的 {xx}），换下一个起点从头重放
+                    int next = nextStart(1);
+                    if (next < 0) {
+                        reset();
+                        pending.setLength(0);
+                        return;
+                    }
+                    restartAt(next);
+                    from = 0;
+                }
+            }
+        }
+
+        private void drain() throws IOException {
+            JsonToken t;
+            while (!done && (t = parser.nextToken()) != null && t != JsonToken.NOT_AVAILABLE) {
+                if (t == JsonToken.FIELD_NAME) {
+                    field = parser.currentName();
+                    continue;
+                }
+                if (field != null) {
+                    tokens.writeFieldName(field);
+                    field = null;
+                }
+                tokens.copyCurrentEvent(parser);
+                switch (t) {
+                    case START_OBJECT -> open.push(Boolean.TRUE);
+                    case START_ARRAY -> open.push(Boolean.FALSE);
+                    case END_OBJECT, END_ARRAY -> {
+                        open.pop();
+                        if (open.isEmpty()) done = true;
+                    }
+                    default -> { }
+                }
+            }
+        }
+
+        private int nextStart(int from) {
+            for (int i = from; i < pending.length(); i++) {
+                char c = pending.charAt(i);
+                if ((c == '{' && shape != Shape.ARRAY) || (c == '[' && shape != Shape.OBJECT)) return i;
+            }
+            return -1;
+        }
+
+        private void restartAt(int start) {
+            pending.delete(0, start);
+            reset();
+            try {
+                parser = LENIENT.createNonBlockingByteArrayParser();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            tokens = new TokenBuffer(mapper, false);
+        }
+
+        private void reset() {
+            if (parser != null) {
+                try { parser.close(); } catch (IOException ignore) {}
+            }
+            parser = null;
+            feeder = null;
+            tokens = null;
+            open.clear();
+            field = null;
+        }
+    }
+}
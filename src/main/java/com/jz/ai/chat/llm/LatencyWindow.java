@@ -0,0 +1,74 @@
+package com.jz.ai.chat.llm;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * caller×模型 最近耗时样本（LlmGateway 用来定对冲触发点，ModelRouter 用来判“变慢”）：
+ * - 环形缓冲，每个样本带记录时间；分位只算 maxAge 内的样本，不足 minSamples 返回 -1；
+ * - 超时/失败由调用方按截止时间记一个样本（算作超预算），一直超时的模型也会被判慢；
+ * - 模型被路由让开后不再有新样本，旧样本过期即回到 -1，流量自然回来试探，不会一直降级到重启。
+ * 分位每 8 个样本或每秒重算一次。
+ */
+final class LatencyWindow {
+
+    private static final long REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long[] ring;
+    private final long[] at;
+    private final double percentile;
+    private final int minSamples;
+    private final long maxAgeNanos;
+    private int size;
+    private int next;
+    private long seen;
+    private long cached = -1;
+    private long computedAt;
+    private boolean dirty;
+
+    LatencyWindow(int capacity, double percentile, int minSamples, long maxAgeMs) {
+        this.ring = new long[Math.max(8, capacity)];
+        this.at = new long[ring.length];
+        this.percentile = percentile;
+        this.minSamples = Math.max(1, minSamples);
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxAgeMs));
+    }
+
+    void record(long ms) {
+        record(ms, System.nanoTime());
+    }
+
+    long percentile() {
+        return percentile(System.nanoTime());
+    }
+
+    synchronized void record(long ms, long nowNanos) {
+        ring[next] = ms;
+        at[next] = nowNanos;
+        next = (next + 1) % ring.length;
+        if (size < ring.length) size++;
+        seen++;
+        if (seen % 8 == 0 || size <= minSamples) dirty = true;
+    }
+
+    synchronized long percentile(long nowNanos) {
+        if (dirty || nowNanos - computedAt > REFRESH_NANOS) {
+            cached = compute(nowNanos);
+            computedAt = nowNanos;
+            dirty = false;
+        }
+        return cached;
+    }
+
+    private long compute(long nowNanos) {
+        long[] live = new long[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (nowNanos - at[i] <= maxAgeNanos) live[n++] = ring[i];
+        }
+        if (n < minSamples) return -1;
+        Arrays.sort(live, 0, n);
+        int idx = (int) Math.ceil(percentile * n) - 1;
+        return live[Math.max(0, Math.min(n - 1, idx))];
+    }
+}
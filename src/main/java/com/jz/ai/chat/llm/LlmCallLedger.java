@@ -0,0 +1,223 @@
+package com.jz.ai.chat.llm;
+
+import com.jz.ai.chat.tokens.TokenCounter;
+import com.jz.ai.config.LlmLedgerProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LLM 调用台账：LlmGateway 的每次上游调用（含对冲、流式、run 包的 Spring AI 组件）记一笔。
+ * - token：优先取服务商返回的 usage，拿不到时用 TokenCounter 估算（source=usage|estimate）；
+ * - 成本：按 chat.ledger.prices 的千 token 单价估算；
+ * - 本轮合计：processBatch 开一个 TurnUsage 绑在线程上，StageGraph 派发阶段时带过去，
+ *   主调用记完后取一份 Snapshot 写到助手那条 chat_message 上；异步任务（画像/LMS）不计入本轮。
+ * 指标：llm.call.latency{caller,model,outcome}（直方图）、llm.call.tokens{caller,model,kind,source}、llm.call.cost{caller,model}
+ * 累计值同时留在内存里，供 /actuator/llmledger 排行。
+ */
+@Component
+@RequiredArgsConstructor
+public class LlmCallLedger {
+
+    private static final ThreadLocal<TurnUsage> CURRENT_TURN = new ThreadLocal<>();
+
+    private final LlmLedgerProperties props;
+    private final TokenCounter tokens;
+    private final MeterRegistry registry;
+
+    private final ConcurrentHashMap<String, Totals> totals = new ConcurrentHashMap<>();
+    private final Instant since = Instant.now();
+
+    // ===================== 本轮合计 =====================
+
+    /** 本轮开始：之后本线程（及经 propagate 派发的任务）发起的调用都计入返回的 TurnUsage */
+    public TurnUsage beginTurn() {
+        TurnUsage u = new TurnUsage();
+        CURRENT_TURN.set(u);
+        return u;
+    }
+
+    public void endTurn() {
+        CURRENT_TURN.remove();
+    }
+
+    public static TurnUsage currentTurn() {
+        return CURRENT_TURN.get();
+    }
+
+    /** 把调用线程当前的 TurnUsage 带到执行线程上 */
+    public static Runnable propagate(Runnable task) {
+        TurnUsage u = CURRENT_TURN.get();
+        if (u == null) return task;
+        return () -> {
+            TurnUsage prev = CURRENT_TURN.get();
+            CURRENT_TURN.set(u);
+            try {
+                task.run();
+            } finally {
+                if (prev == null) CURRENT_TURN.remove(); else CURRENT_TURN.set(prev);
+            }
+        };
+    }
+
+    // ===================== 记账 =====================
+
+    /**
+     * @param prompt     估算输入 token 用；null 表示不可知（run 包的组件）
+     * @param resp       上游响应（流式为带 usage 的最后一个分片）；失败为 null
+     * @param completion 输出文本；失败为 null，此时不计 token
+     */
+    public void record(String caller, String model, String outcome, long nanos,
+                       Prompt prompt, ChatResponse resp, CharSequence completion, TurnUsage turn) {
+        long in = 0, out = 0;
+        String source = "usage";
+        Usage usage = (resp == null || resp.getMetadata() == null) ? null : resp.getMetadata().getUsage();
+        if (usage != null) {
+            in = positive(usage.getPromptTokens());
+            out = positive(usage.getGenerationTokens());
+        }
+        if (in == 0 && out == 0 && completion != null) {
+            source = "estimate";
+            in = estimate(prompt);
+            out = tokens.ofText(completion.toString());
+        }
+        LlmLedgerProperties.Price price = props.priceFor(model);
+        double cost = (in * price.getInput() + out * price.getOutput()) / 1000.0;
+
+        Timer.builder("llm.call.latency")
+                .description("Latency of upstream LLM calls by consumer")
+                .tags("caller", caller, "model", model, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        if (in > 0) tokenCounter(caller, model, "prompt", source).increment(in);
+        if (out > 0) tokenCounter(caller, model, "completion", source).increment(out);
+        if (cost > 0) {
+            Counter.builder("llm.call.cost")
+                    .description("Estimated LLM cost")
+                    .baseUnit("cny")
+                    .tags("caller", caller, "model", model)
+                    .register(registry)
+                    .increment(cost);
+        }
+
+        Totals t = totals.computeIfAbsent(caller + '|' + model, k -> new Totals(caller, model));
+        t.calls.increment();
+        if (!"ok".equals(outcome) && !"lost".equals(outcome)) t.failures.increment();
+        t.promptTokens.add(in);
+        t.completionTokens.add(out);
+        t.cost.add(cost);
+        t.latencyNanos.add(nanos);
+
+        if (turn != null) {
+            turn.calls.increment();
+            turn.promptTokens.add(in);
+            turn.completionTokens.add(out);
+            turn.cost.add(cost);
+        }
+    }
+
+    /** 累计消耗排行；by = cost|tokens|latency|calls */
+    public List<Entry> top(String by, int limit) {
+        Comparator<Entry> order = switch (by == null ? "cost" : by.toLowerCase(Locale.ROOT)) {
+            case "tokens" -> Comparator.comparingLong(e -> e.promptTokens() + e.completionTokens());
+            case "latency" -> Comparator.comparingDouble(e -> e.avgLatencyMs() * e.calls());
+            case "calls" -> Comparator.comparingLong(Entry::calls);
+            default -> Comparator.comparingDouble(Entry::cost);
+        };
+        List<Entry> all = new ArrayList<>(totals.size());
+        for (Totals t : totals.values()) all.add(t.snapshot());
+        all.sort(order.reversed());
+        return all.size() > limit ? all.subList(0, limit) : all;
+    }
+
+    public Instant since() {
+        return since;
+    }
+
+    public int defaultTopN() {
+        return props.getTopN();
+    }
+
+    private Counter tokenCounter(String caller, String model, String kind, String source) {
+        return Counter.builder("llm.call.tokens")
+                .description("LLM tokens by consumer")
+                .tags("caller", caller, "model", model, "kind", kind, "source", source)
+                .register(registry);
+    }
+
+    private int estimate(Prompt prompt) {
+        if (prompt == null) return 0;
+        int n = 0;
+        for (Message m : prompt.getInstructions()) n += tokens.ofText(m.getText());
+        return n;
+    }
+
+    private static long positive(Number n) {
+        return (n == null || n.longValue() < 0) ? 0 : n.longValue();
+    }
+
+    // ===================== 结构 =====================
+
+    /** 一轮对话内所有 LLM 调用的合计 */
+    public static final class TurnUsage {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final DoubleAdder cost = new DoubleAdder();
+
+        public int calls() { return calls.intValue(); }
+        public int promptTokens() { return promptTokens.intValue(); }
+        public int completionTokens() { return completionTokens.intValue(); }
+        public double cost() { return cost.sum(); }
+
+        /** 此刻的合计（不可变）：交给异步落库用，之后迟到的对冲/阶段调用不会再改它 */
+        public Snapshot snapshot() {
+            return new Snapshot(calls(), promptTokens(), completionTokens(), cost());
+        }
+    }
+
+    public record Snapshot(int calls, int promptTokens, int completionTokens, double cost) {}
+
+    public record Entry(String caller, String model, long calls, long failures,
+                        long promptTokens, long completionTokens, double cost, double avgLatencyMs) {}
+
+    private static final class Totals {
+        final String caller;
+        final String model;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder promptTokens = new LongAdder();
+        final LongAdder completionTokens = new LongAdder();
+        final DoubleAdder cost = new DoubleAdder();
+        final LongAdder latencyNanos = new LongAdder();
+
+        Totals(String caller, String model) {
+            this.caller = caller;
+            this.model = model;
+        }
+
+        Entry snapshot() {
+            long n = calls.sum();
+            double avgMs = n == 0 ? 0 : latencyNanos.sum() / 1e6 / n;
+            return new Entry(caller, model, n, failures.sum(), promptTokens.sum(), completionTokens.sum(),
+                    Math.round(cost.sum() * 1e6) / 1e6, Math.round(avgMs * 10) / 10.0);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+// src/main/java/com/jz/ai/chat/llm/LlmGateway.java
+package com.jz.ai.chat.llm;
+
+import com.jz.ai.config.LlmGatewayProperties;
+import com.jz.ai.utils.WorkerExecutors;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 所有“非对话记忆”类 LLM 调用的统一出口（包在 statelessChatClients 外面）：
+ * - 每个 caller 有自己的截止时间，到点抛 LlmTimeoutException，由调用方走原有兜底；
+ * - single-flight：同模型 + 同 prompt 的在途请求只真正调用一次，其余等待同一结果；
+ *   所有等待方都超时离开后，底层请求被中断；
+ * - hedging：主请求耗时超过该 caller×模型 最近样本的 p95 仍未返回时，再发一个（可换更快的模型），先到先用，输的被中断。
+ * 每次上游调用都记进 LlmCallLedger（caller×model 的 token/耗时/成本，及本轮合计）。
+ * statefulChatClients 带记忆 Advisor，对冲/合并会重复写记忆，不经过这里。
+ */
+@Slf4j
+@Component
+public class LlmGateway {
+
+    private static final String DEFAULT_MODEL = "qwen-plus";
+    /** 流式首个增量的延迟窗口后缀：caller|model|ttft */
+    private static final String FIRST_TOKEN = "|ttft";
+
+    private final Map<String, ChatClient> clients;
+    private final LlmGatewayProperties props;
+    private final MeterRegistry registry;
+    private final LlmCallLedger ledger;
+
+    private final ExecutorService workers;
+    private final ScheduledExecutorService hedgeTimer;
+
+    /** 在途请求（仅 coalesce 的调用），完成或被放弃时移除 */
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    /** caller|model → 最近耗时样本（流式首增量单独记在 caller|model|ttft） */
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    public LlmGateway(@Qualifier("statelessChatClients") Map<String, ChatClient> clients,
+                      LlmGatewayProperties props,
+                      MeterRegistry registry,
+                      LlmCallLedger ledger) {
+        this.clients = clients;
+        this.props = props;
+        this.registry = registry;
+        this.ledger = ledger;
+        this.workers = WorkerExecutors.newWorkerExecutor("llm-call", props.getWorkerThreads(), props.getWorkerQueue());
+        this.hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "llm-hedge-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("chat.llm.gateway.inflight", inFlight, Map::size)
+                .description("Distinct coalesced LLM requests currently in flight")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeTimer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    // ===================== 对外 API =====================
+
+    public String call(String caller, String model, String system, String user) {
+        return call(caller, model, system, user, props.timeoutFor(caller));
+    }
+
+    public String call(String caller, String model, String system, String user, Duration timeout) {
+        return call(caller, model, new Prompt(List.of(new SystemMessage(system), new UserMessage(user))), timeout);
+    }
+
+    public String call(String caller, String model, Prompt prompt) {
+        return call(caller, model, prompt, props.timeoutFor(caller));
+    }
+
+    public String call(String caller, String model, Prompt prompt, Duration timeout) {
+        String m = resolveModel(model);
+        long timeoutMs = Math.max(1, timeout.toMillis());
+        long t0 = System.nanoTime();
+        // 合并进来的等待方不再记账：只有真正发出去的请求花钱
+        LlmCallLedger.TurnUsage turn = LlmCallLedger.currentTurn();
+
+        Flight f;
+        if (props.coalesceFor(caller)) {
+            String key = m + '\u0000' + keyOf(prompt);
+            boolean[] joined = {false};
+            f = inFlight.compute(key, (k, cur) -> {
+                if (cur != null && !cur.result.isCancelled()) {
+                    cur.waiters.incrementAndGet();
+                    joined[0] = true;
+                    return cur;
+                }
+                Flight n = new Flight(k);
+                n.waiters.incrementAndGet();
+                return n;
+            });
+            if (joined[0]) {
+                counter("chat.llm.gateway.coalesced.count", caller).increment();
+            } else {
+                f.result.whenComplete((v, e) -> inFlight.remove(f.key, f));
+                launch(caller, m, prompt, f, timeoutMs, turn);
+            }
+        } else {
+            f = new Flight(null);
+            f.waiters.incrementAndGet();
+            launch(caller, m, prompt, f, timeoutMs, turn);
+        }
+
+        try {
+            String out = f.result.get(timeoutMs, TimeUnit.MILLISECONDS);
+            record(caller, "ok", t0);
+            return out;
+        } catch (TimeoutException e) {
+            if (f.timedOut.compareAndSet(false, true)) window(caller, m).record(timeoutMs);
+            leave(f);
+            record(caller, "timeout", t0);
+            throw new LlmTimeoutException(caller, timeoutMs);
+        } catch (InterruptedException e) {
+            leave(f);
+            record(caller, "cancelled", t0);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("llm call interrupted: caller=" + caller);
+        } catch (ExecutionException e) {
+            record(caller, "error", t0);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 流式调用（主对话）：不合并、不对冲（增量已推给前端，换路会重复），
+     * caller 的截止时间作为“首个/相邻增量”的最长间隔
+     */
+    public Flux<String> stream(String caller, String model, Prompt prompt) {
+        String m = resolveModel(model);
+        Duration idle = props.timeoutFor(caller);
+        LlmCallLedger.TurnUsage turn = LlmCallLedger.currentTurn();
+        long t0 = System.nanoTime();
+        AtomicBoolean first = new AtomicBoolean(true);
+        AtomicReference<ChatResponse> withUsage = new AtomicReference<>();
+        StringBuilder acc = new StringBuilder();
+        return clients.get(m).prompt(prompt).stream().chatResponse()
+                .timeout(idle)
+                .doOnNext(r -> {
+                    if (r.getMetadata() != null && r.getMetadata().getUsage() != null) withUsage.set(r);
+                })
+                .mapNotNull(LlmGateway::textOf)
+                .filter(d -> !d.isEmpty())
+                .doOnNext(d -> {
+                    // 流式的“首个增量”耗时单独一个窗口：和整次调用耗时混在一起分位就没意义了
+                    if (first.compareAndSet(true, false)) {
+                        window(caller, m + FIRST_TOKEN).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                    }
+                    acc.append(d);
+                })
+                .onErrorMap(TimeoutException.class, e -> new LlmTimeoutException(caller, idle.toMillis()))
+                // 台账在终止信号往下游传之前记：doFinally 晚于 blockLast 返回，调用方紧接着取本轮合计会漏掉主调用
+                .doOnComplete(() -> {
+                    record(caller, "ok", t0);
+                    book(caller, m, "ok", t0, prompt, withUsage.get(), acc, turn);
+                })
+                .doOnError(e -> {
+                    // 首个增量前就超时/失败：按截止时间记一个样本，一直失败的模型也会被路由判慢
+                    if (first.get()) {
+                        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                        window(caller, m + FIRST_TOKEN).record(Math.max(ms, idle.toMillis()));
+                    }
+                    String outcome = e instanceof LlmTimeoutException ? "timeout" : "error";
+                    record(caller, outcome, t0);
+                    book(caller, m, outcome, t0, prompt, withUsage.get(), acc, turn);
+                })
+                .doOnCancel(() -> {
+                    record(caller, "cancelled", t0);
+                    book(caller, m, "cancelled", t0, prompt, withUsage.get(), acc, turn);
+                });
+    }
+
+    private void book(String caller, String model, String outcome, long t0, Prompt prompt,
+                      ChatResponse resp, StringBuilder acc, LlmCallLedger.TurnUsage turn) {
+        ledger.record(caller, model, outcome, System.nanoTime() - t0, prompt, resp, acc.isEmpty() ? null : acc, turn);
+    }
+
+    /**
+     * 只加截止时间：给内部自己调 ChatClient 的组件（如 Spring AI 的 QueryTransformer / QueryExpander）用
+     */
+    public <T> T run(String caller, Supplier<T> body) {
+        long timeoutMs = Math.max(1, props.timeoutFor(caller).toMillis());
+        long t0 = System.nanoTime();
+        LlmCallLedger.TurnUsage turn = LlmCallLedger.currentTurn();
+        Future<T> fut = workers.submit(body::get);
+        try {
+            T out = fut.get(timeoutMs, TimeUnit.MILLISECONDS);
+            recordRun(caller, "ok", t0, turn);
+            return out;
+        } catch (TimeoutException e) {
+            fut.cancel(true);
+            recordRun(caller, "timeout", t0, turn);
+            throw new LlmTimeoutException(caller, timeoutMs);
+        } catch (InterruptedException e) {
+            fut.cancel(true);
+            recordRun(caller, "cancelled", t0, turn);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("llm call interrupted: caller=" + caller);
+        } catch (ExecutionException e) {
+            recordRun(caller, "error", t0, turn);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // ===================== 内部：主请求 + 对冲 =====================
+
+    private void launch(String caller, String model, Prompt prompt, Flight f, long timeoutMs,
+                        LlmCallLedger.TurnUsage turn) {
+        attempt(caller, model, prompt, f, "primary", timeoutMs, turn);
+        long hedgeMs = hedgeDelayMs(caller, model, timeoutMs);
+        if (hedgeMs <= 0) return;
+        try {
+            f.hedge = hedgeTimer.schedule(() -> {
+                if (f.result.isDone()) return;
+                String hm = props.hedgeModelFor(caller, model);
+                if (!clients.containsKey(hm)) hm = model;
+                counter("chat.llm.gateway.hedge.count", caller).increment();
+                attempt(caller, hm, prompt, f, "hedge", timeoutMs, turn);
+            }, hedgeMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignore) {
+            // 关闭阶段：只跑主请求
+        }
+    }
+
+    private void attempt(String caller, String model, Prompt prompt, Flight f, String role, long timeoutMs,
+                         LlmCallLedger.TurnUsage turn) {
+        f.pending.incrementAndGet();
+        Attempt a = new Attempt();
+        try {
+            a.future = workers.submit(() -> {
+                long t0 = System.nanoTime();
+                String outcome = "error";
+                boolean booked = false;
+                ChatResponse resp = null;
+                String out = null;
+                try {
+                    resp = clients.get(model).prompt(prompt).call().chatResponse();
+                    out = textOf(resp);
+                    window(caller, model).record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+                    // 先记台账再交结果：等待方一返回就可能取本轮合计落库
+                    outcome = f.result.isDone() ? "lost" : "ok";
+                    ledger.record(caller, model, outcome, System.nanoTime() - t0, prompt, resp, out, turn);
+                    booked = true;
+                    if (f.result.complete(out)) {
+                        if ("hedge".equals(role)) counter("chat.llm.gateway.hedge.win.count", caller).increment();
+                        f.stopOthers(a);
+                    } else {
+                        outcome = "lost";
+                    }
+                } catch (Throwable e) {
+                    outcome = f.result.isDone() ? "cancelled" : "error";
+                    if ("error".equals(outcome)) {
+                        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+                        window(caller, model).record(Math.max(ms, timeoutMs));
+                    }
+                    if (f.pending.decrementAndGet() == 0) f.result.completeExceptionally(e);
+                } finally {
+                    Timer.builder("chat.llm.gateway.attempt")
+                            .description("Latency of single upstream LLM attempts")
+                            .tags("caller", caller, "model", model, "role", role, "outcome", outcome)
+                            .register(registry)
+                            .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+                    if (!booked) ledger.record(caller, model, outcome, System.nanoTime() - t0, prompt, resp, out, turn);
+                }
+            });
+            f.attempts.add(a);
+        } catch (RejectedExecutionException e) {
+            if (f.pending.decrementAndGet() == 0) f.result.completeExceptionally(e);
+        }
+    }
+
+    /** 等待方超时/被打断离开；最后一个离开且请求未完成时中断底层调用 */
+    private void leave(Flight f) {
+        if (f.key == null) {
+            if (f.waiters.decrementAndGet() == 0) f.abort();
+            return;
+        }
+        // 与新加入者串行，避免刚加入就被放弃
+        inFlight.computeIfPresent(f.key, (k, cur) -> {
+            if (cur != f) return cur;
+            if (f.waiters.decrementAndGet() > 0) return cur;
+            f.abort();
+            return null;
+        });
+    }
+
+    /**
+     * 最近 maxAge 内 caller×model 非流式整次调用的延迟分位（chat.llm.gateway.hedge.percentile）；
+     * 失败/超时按截止时间计；样本不足返回 -1
+     */
+    public long recentLatencyMs(String caller, String model) {
+        LatencyWindow w = latencies.get(caller + '|' + resolveModel(model));
+        return (w == null) ? -1 : w.percentile();
+    }
+
+    /** 最近 maxAge 内 caller×model 流式首个增量的延迟分位（首增量前失败/超时按截止时间计）；样本不足返回 -1 */
+    public long recentFirstTokenMs(String caller, String model) {
+        LatencyWindow w = latencies.get(caller + '|' + resolveModel(model) + FIRST_TOKEN);
+        return (w == null) ? -1 : w.percentile();
+    }
+
+    private long hedgeDelayMs(String caller, String model, long timeoutMs) {
+        if (!props.hedgeFor(caller)) return -1;
+        LatencyWindow w = latencies.get(caller + '|' + model);
+        long p = (w == null) ? -1 : w.percentile();
+        if (p < 0) return -1;
+        p = Math.max(p, props.getHedge().getMinDelay().toMillis());
+        // 到截止时间才触发的对冲没有意义
+        return p < timeoutMs ? p : -1;
+    }
+
+    private LatencyWindow window(String caller, String model) {
+        return latencies.computeIfAbsent(caller + '|' + model, k -> new LatencyWindow(
+                props.getHedge().getWindow(), props.getHedge().getPercentile(), props.getHedge().getMinSamples(),
+                props.getHedge().getMaxAge().toMillis()));
+    }
+
+    private String resolveModel(String model) {
+        if (model != null && clients.containsKey(model)) return model;
+        if (clients.containsKey(DEFAULT_MODEL)) return DEFAULT_MODEL;
+        return clients.keySet().iterator().next();
+    }
+
+    private static String textOf(ChatResponse resp) {
+        if (resp == null || resp.getResult() == null || resp.getResult().getOutput() == null) return null;
+        return resp.getResult().getOutput().getText();
+    }
+
+    private static String keyOf(Prompt prompt) {
+        StringBuilder sb = new StringBuilder(256);
+        for (Message msg : prompt.getInstructions()) {
+            sb.append(msg.getMessageType().name()).append(':').append(msg.getText()).append('\u0001');
+        }
+        return sb.toString();
+    }
+
+    private void record(String caller, String outcome, long t0) {
+        Timer.builder("chat.llm.gateway.latency")
+                .description("LLM latency seen by callers (coalesced waits and hedges included)")
+                .tags("caller", caller, "outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry)
+                .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+    }
+
+    /** run 包的是 Spring AI 组件自己的 ChatClient：拿不到 prompt/usage，只记次数与耗时 */
+    private void recordRun(String caller, String outcome, long t0, LlmCallLedger.TurnUsage turn) {
+        record(caller, outcome, t0);
+        ledger.record(caller, "default", outcome, System.nanoTime() - t0, null, null, null, turn);
+    }
+
+    private Counter counter(String name, String caller) {
+        return registry.counter(name, "caller", caller);
+    }
+
+    // ===================== 内部结构 =====================
+
+    private static final class Attempt {
+        volatile Future<?> future;
+    }
+
+    private static final class Flight {
+        final String key;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger();
+        final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+        /** 等待方超时只按截止时间记一个延迟样本（多个合并等待方不重复记） */
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        volatile ScheduledFuture<?> hedge;
+
+        Flight(String key) { this.key = key; }
+
+        /** 胜出后中断其余尝试 */
+        void stopOthers(Attempt winner) {
+            ScheduledFuture<?> h = hedge;
+            if (h != null) h.cancel(false);
+            for (Attempt a : attempts) {
+                if (a != winner && a.future != null) a.future.cancel(true);
+            }
+        }
+
+        /** 没人等了：放弃并中断全部尝试 */
+        void abort() {
+            result.cancel(false);
+            stopOthers(null);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.jz.ai.chat.llm;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * GET /actuator/llmledger?by=cost|tokens|latency|calls&limit=20
+ * 进程启动以来各 caller×model 的累计调用数、token、估算成本、平均耗时排行（多实例需各自看或查 Prometheus）
+ */
+@Component
+@Endpoint(id = "llmledger")
+@RequiredArgsConstructor
+public class LlmLedgerEndpoint {
+
+    private final LlmCallLedger ledger;
+
+    @ReadOperation
+    public Map<String, Object> top(@Nullable String by, @Nullable Integer limit) {
+        int n = (limit == null || limit <= 0) ? ledger.defaultTopN() : limit;
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("since", ledger.since().toString());
+        out.put("by", by == null ? "cost" : by);
+        out.put("top", ledger.top(by, n));
+        return out;
+    }
+}
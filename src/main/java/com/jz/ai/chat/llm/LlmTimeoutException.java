@@ -0,0 +1,11 @@
+package com.jz.ai.chat.llm;
+
+/**
+ * LlmGateway 在调用方截止时间内没拿到结果；调用方按各自原有兜底处理
+ */
+public class LlmTimeoutException extends RuntimeException {
+
+    public LlmTimeoutException(String caller, long timeoutMs) {
+        super("llm call timed out: caller=" + caller + ", timeoutMs=" + timeoutMs, null, false, false);
+    }
+}
@@ -0,0 +1,147 @@
+package com.jz.ai.chat.llm;
+
+import com.jz.ai.chat.budget.BudgetService;
+import com.jz.ai.config.ChatModelConfig;
+import com.jz.ai.config.ModelRouterProperties;
+import com.jz.ai.rag.QueryRouting;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 主对话按轮选模型（替代原来全局共享的 currentModelName）：
+ * 1) 难度分档：闲聊 → light；商品咨询 → standard；对比/多商品取舍 → heavy；老客户（高亲密度）不走 light；
+ * 2) 预算：用 BudgetService 按候选模型的窗口算一遍，留给 LMS 的空间不足就往后换，全都放不下用长上下文模型；
+ * 3) 压力：候选模型饱和（ModelThrottle）或最近延迟超预算（LlmGateway；流式看首个增量、非流式看整次调用）就就近换档，
+ *    都不行时取第一个放得下的。延迟窗口按时间过期、超时/失败计为超预算样本：一直超时的模型会被让开，
+ *    让开后没有新样本，窗口过期即恢复。
+ * POST /api/chat/model 仍可钉死一个模型（排障/对比用），传 auto 恢复路由。
+ * 指标：chat.router.route.count{model,tier,reason}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ModelRouter {
+
+    private final ModelRouterProperties props;
+    private final BudgetService budgetService;
+    private final ModelThrottle throttle;
+    private final LlmGateway llmGateway;
+    private final MeterRegistry registry;
+
+    private volatile String pinned;
+
+    public enum Tier { LIGHT, STANDARD, HEAVY, PINNED }
+
+    /**
+     * 一轮的路由输入；fixedTokens 取自 PromptAssembler.fixedTokens（各段 token 已记忆化，画像不含）；
+     * streaming 决定看哪一个延迟窗口
+     */
+    public record Signals(QueryRouting.Intent intent,
+                          String userText,
+                          int refsCount,
+                          int rapport,
+                          int fixedTokens,
+                          int retrieveSize,
+                          int histTokAvg,
+                          int lmsTokTarget,
+                          double softCapRatio,
+                          boolean streaming) {}
+
+    public record Route(String model, Tier tier, String reason) {}
+
+    public Route route(Signals s) {
+        String pin = pinned;
+        if (pin != null) return record(new Route(pin, Tier.PINNED, "pinned"));
+        if (!props.isEnabled()) return record(new Route(props.getStandardModel(), Tier.STANDARD, "disabled"));
+
+        Tier tier;
+        String reason;
+        if (containsAny(s.userText(), props.getCompareKeywords())) {
+            tier = Tier.HEAVY; reason = "compare";
+        } else if (containsAny(s.userText(), props.getMultiProductKeywords())) {
+            tier = Tier.HEAVY; reason = "multi";
+        } else if (s.intent() == QueryRouting.Intent.PRODUCT_INFO || s.refsCount() > 0) {
+            tier = Tier.STANDARD; reason = "product";
+        } else if (length(s.userText()) <= props.getSmalltalkMaxChars()) {
+            tier = Tier.LIGHT; reason = "smalltalk";
+        } else {
+            tier = Tier.STANDARD; reason = "general";
+        }
+        if (tier == Tier.LIGHT && s.rapport() >= props.getPremiumRapport()) {
+            tier = Tier.STANDARD; reason = "rapport";
+        }
+
+        List<String> cands = candidates(tier);
+        String firstFit = null;
+        for (String m : cands) {
+            if (!fits(m, s)) continue;
+            if (firstFit == null) firstFit = m;
+            String pressure = pressure(m, s.streaming());
+            if (pressure == null) {
+                return record(new Route(m, tier, m.equals(cands.get(0)) ? reason : reason + "+shift"));
+            }
+            log.debug("router: {} skipped ({})", m, pressure);
+        }
+        if (firstFit != null) return record(new Route(firstFit, tier, reason + "+overloaded"));
+        return record(new Route(props.getLongContextModel(), tier, "budget"));
+    }
+
+    /** null 或 "auto" 取消钉住 */
+    public void pin(String model) {
+        this.pinned = (model == null || model.isBlank() || "auto".equalsIgnoreCase(model)) ? null : model;
+    }
+
+    public String pinned() {
+        return pinned;
+    }
+
+    private static boolean containsAny(String text, List<String> keywords) {
+        String t = text == null ? "" : text.toLowerCase(Locale.ROOT);
+        for (String k : keywords) {
+            if (!k.isEmpty() && t.contains(k.toLowerCase(Locale.ROOT))) return true;
+        }
+        return false;
+    }
+
+    /** 首选 + 就近换档；重点是便宜的扛大头：standard 过载往 light 让，heavy 过载退回 standard */
+    private List<String> candidates(Tier tier) {
+        List<String> c = new ArrayList<>(3);
+        switch (tier) {
+            case HEAVY -> { c.add(props.getHeavyModel()); c.add(props.getStandardModel()); }
+            case LIGHT -> { c.add(props.getLightModel()); c.add(props.getStandardModel()); }
+            default -> { c.add(props.getStandardModel()); c.add(props.getLightModel()); }
+        }
+        c.removeIf(m -> !ChatModelConfig.CHAT_MODELS.contains(m));
+        return c;
+    }
+
+    private boolean fits(String model, Signals s) {
+        BudgetService.LmsBudget b = budgetService.compute(model, s.fixedTokens(),
+                s.retrieveSize(), s.histTokAvg(), s.lmsTokTarget(), s.softCapRatio());
+        return b.getRoomForLms() >= props.getMinLmsRoomTokens();
+    }
+
+    private String pressure(String model, boolean streaming) {
+        if (throttle.saturation(model) >= props.getSaturationThreshold()) return "saturation";
+        long p = streaming ? llmGateway.recentFirstTokenMs("main", model) : llmGateway.recentLatencyMs("main", model);
+        long budget = (streaming ? props.getFirstTokenBudget() : props.getLatencyBudget()).toMillis();
+        if (p > 0 && p > budget) return "latency";
+        return null;
+    }
+
+    private Route record(Route r) {
+        registry.counter("chat.router.route.count",
+                "model", r.model(), "tier", r.tier().name().toLowerCase(Locale.ROOT), "reason", r.reason()).increment();
+        return r;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.codePointCount(0, s.length());
+    }
+}
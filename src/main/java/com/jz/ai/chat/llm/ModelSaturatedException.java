@@ -0,0 +1,11 @@
+package com.jz.ai.chat.llm;
+
+/**
+ * 模型的请求/token 配额或并发槽在排队截止时间内都没等到；调用方按各自原有兜底处理
+ */
+public class ModelSaturatedException extends RuntimeException {
+
+    public ModelSaturatedException(String model, String reason, long waitedMs) {
+        super("model saturated: model=" + model + ", reason=" + reason + ", waitedMs=" + waitedMs, null, false, false);
+    }
+}
@@ -0,0 +1,226 @@
+// src/main/java/com/jz/ai/chat/llm/ModelThrottle.java
+package com.jz.ai.chat.llm;
+
+import com.jz.ai.chat.budget.ModelProfile;
+import com.jz.ai.chat.budget.ModelRegistry;
+import com.jz.ai.chat.budget.ModelRegistryProperties;
+import com.jz.ai.chat.tokens.TokenCounter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按模型名的限流 + 限并发（服务商 QPS/TPM 配额是按模型算的）：
+ * - 两个令牌桶：每分钟请求数（rpm）、每分钟 token 数（tpm，按 TokenCounter 估算输入 + 预计输出预扣，结束后按实际 usage 补差）；
+ * - 一个 bulkhead：同时在途请求数（maxConcurrent）；
+ * - 拿不到就排队，直到 maxWaitMs；算出来截止前肯定等不到的直接拒绝，不白等；
+ * 配置在 chat.models.registry.{model}，由 ThrottledChatModel 在每次 call/stream 前调用。
+ */
+@Component
+@RequiredArgsConstructor
+public class ModelThrottle {
+
+    private final ModelRegistry modelRegistry;
+    private final ModelRegistryProperties props;
+    private final TokenCounter tokens;
+    private final MeterRegistry registry;
+
+    private final Map<String, Limits> limits = new ConcurrentHashMap<>();
+
+    /** 一次调用的凭证：调用结束（成功/失败）必须 release 一次 */
+    public final class Permit {
+        private final Limits l;
+        private final int estimated;
+        private boolean released;
+
+        private Permit(Limits l, int estimated) {
+            this.l = l;
+            this.estimated = estimated;
+        }
+
+        /** @param actualTokens 服务端返回的实际总 token（拿不到传 null，不补差） */
+        public void release(Number actualTokens) {
+            if (released || l == null) return;
+            released = true;
+            if (l.slots != null) {
+                l.inUse.decrementAndGet();
+                l.slots.release();
+            }
+            if (l.tokenBucket != null && actualTokens != null) {
+                l.tokenBucket.adjust(actualTokens.doubleValue() - estimated);
+            }
+        }
+    }
+
+    private final Permit unlimited = new Permit(null, 0);
+
+    public Permit acquire(String model, Prompt prompt) {
+        if (!props.isThrottleEnabled()) return unlimited;
+        Limits l = limits.computeIfAbsent(model, this::newLimits);
+        if (l.unlimited()) return unlimited;
+
+        int est = (l.tokenBucket == null) ? 0 : estimate(prompt);
+        long t0 = System.nanoTime();
+        long deadline = t0 + TimeUnit.MILLISECONDS.toNanos(l.maxWaitMs);
+        l.waiting.incrementAndGet();
+        String rejected = null;
+        boolean tookRequest = false;
+        boolean tookTokens = false;
+        try {
+            if (l.requestBucket != null && !(tookRequest = l.requestBucket.take(1, deadline))) {
+                rejected = "rpm";
+            } else if (l.tokenBucket != null && !(tookTokens = l.tokenBucket.take(est, deadline))) {
+                rejected = "tpm";
+            } else if (l.slots != null && !l.slots.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                rejected = "concurrency";
+            }
+        } catch (InterruptedException e) {
+            refund(l, tookRequest, tookTokens, est);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for model " + model);
+        } finally {
+            l.waiting.decrementAndGet();
+            l.waitTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+        if (rejected != null) {
+            refund(l, tookRequest, tookTokens, est);
+            registry.counter("chat.model.throttle.rejected.count", "model", model, "reason", rejected).increment();
+            throw new ModelSaturatedException(model, rejected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        }
+        if (l.slots != null) l.inUse.incrementAndGet();
+        return new Permit(l, est);
+    }
+
+    /** 后面的步骤没拿到时把前面已扣的 rpm / tpm 还回去，否则被拒的请求也白白占着配额 */
+    private static void refund(Limits l, boolean tookRequest, boolean tookTokens, int est) {
+        if (tookRequest) l.requestBucket.adjust(-1);
+        if (tookTokens) l.tokenBucket.adjust(-est);
+    }
+
+    /** 当前饱和度 0~1（并发 / rpm / tpm 利用率取最大）；没配限额或还没用过返回 0 */
+    public double saturation(String model) {
+        Limits l = limits.get(model);
+        return (l == null || l.unlimited()) ? 0 : l.saturation();
+    }
+
+    private int estimate(Prompt prompt) {
+        int n = props.getExpectedOutputTokens();
+        for (Message m : prompt.getInstructions()) n += tokens.ofText(m.getText());
+        return n;
+    }
+
+    private Limits newLimits(String model) {
+        ModelProfile p = modelRegistry.get(model);
+        long wait = p.getMaxWaitMs() > 0 ? p.getMaxWaitMs() : props.getDefaultMaxWaitMs();
+        Limits l = new Limits(p.getRpm(), p.getTpm(), p.getMaxConcurrent(), wait);
+        l.waitTimer = Timer.builder("chat.model.throttle.wait")
+                .description("Time spent queuing for model quota / concurrency slots")
+                .tag("model", model)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        Gauge.builder("chat.model.inflight", l.inUse, AtomicInteger::get)
+                .description("In-flight requests per model (bulkhead)")
+                .tag("model", model)
+                .register(registry);
+        Gauge.builder("chat.model.queue.waiting", l.waiting, AtomicInteger::get)
+                .description("Callers queued for model quota / concurrency")
+                .tag("model", model)
+                .register(registry);
+        Gauge.builder("chat.model.saturation", l, Limits::saturation)
+                .description("Max of concurrency, rpm and tpm utilisation (0~1)")
+                .tag("model", model)
+                .register(registry);
+        return l;
+    }
+
+    private static final class Limits {
+        final TokenBucket requestBucket;
+        final TokenBucket tokenBucket;
+        final Semaphore slots;
+        final int maxConcurrent;
+        final long maxWaitMs;
+        final AtomicInteger inUse = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        Timer waitTimer;
+
+        Limits(int rpm, int tpm, int maxConcurrent, long maxWaitMs) {
+            this.requestBucket = rpm > 0 ? new TokenBucket(rpm) : null;
+            this.tokenBucket = tpm > 0 ? new TokenBucket(tpm) : null;
+            this.slots = maxConcurrent > 0 ? new Semaphore(maxConcurrent, true) : null;
+            this.maxConcurrent = maxConcurrent;
+            this.maxWaitMs = maxWaitMs;
+        }
+
+        boolean unlimited() {
+            return requestBucket == null && tokenBucket == null && slots == null;
+        }
+
+        double saturation() {
+            double s = 0;
+            if (slots != null) s = Math.max(s, inUse.get() / (double) maxConcurrent);
+            if (requestBucket != null) s = Math.max(s, requestBucket.utilisation());
+            if (tokenBucket != null) s = Math.max(s, tokenBucket.utilisation());
+            return Math.min(1.0, s);
+        }
+    }
+
+    /** 每分钟补满 capacity 的令牌桶；adjust 允许欠账（余额为负时后续请求多等） */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long last = System.nanoTime();
+
+        TokenBucket(int perMinute) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = capacity;
+        }
+
+        /** deadline 前拿到 n 个返回 true；按补充速率算出肯定等不到就立即返回 false */
+        boolean take(double n, long deadlineNanos) throws InterruptedException {
+            n = Math.min(n, capacity);
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    refill();
+                    if (available >= n) {
+                        available -= n;
+                        return true;
+                    }
+                    waitNanos = (long) Math.ceil((n - available) / perNano);
+                }
+                if (System.nanoTime() + waitNanos > deadlineNanos) return false;
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        }
+
+        synchronized void adjust(double charge) {
+            refill();
+            available = Math.min(capacity, available - charge);
+        }
+
+        synchronized double utilisation() {
+            refill();
+            return 1.0 - Math.max(0, available) / capacity;
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            available = Math.min(capacity, available + (now - last) * perNano);
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.jz.ai.chat.llm;
+
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 给单个模型套上 ModelThrottle：每次 call/stream 先排队拿配额与并发槽，结束时归还并按实际 usage 补差。
+ * 在 ChatClientConfig 里包装，有记忆/无记忆两套 ChatClient 共用同一实例（同一份配额）。
+ */
+public class ThrottledChatModel implements ChatModel {
+
+    private final String name;
+    private final ChatModel delegate;
+    private final ModelThrottle throttle;
+
+    public ThrottledChatModel(String name, ChatModel delegate, ModelThrottle throttle) {
+        this.name = name;
+        this.delegate = delegate;
+        this.throttle = throttle;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        ModelThrottle.Permit permit = throttle.acquire(name, prompt);
+        ChatResponse resp = null;
+        try {
+            resp = delegate.call(prompt);
+            return resp;
+        } finally {
+            permit.release(totalTokens(resp));
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        // 排队拿配额最长会等 max-wait：放到 boundedElastic 上等，不阻塞订阅线程
+        return Mono.fromCallable(() -> throttle.acquire(name, prompt))
+                .subscribeOn(Schedulers.boundedElastic())
+                // 配额刚拿到下游就取消了：值被丢弃，这里把它还回去
+                .doOnDiscard(ModelThrottle.Permit.class, p -> p.release(null))
+                .flatMapMany(permit -> {
+                    AtomicReference<ChatResponse> last = new AtomicReference<>();
+                    return delegate.stream(prompt)
+                            .doOnNext(last::set)
+                            .doFinally(s -> permit.release(totalTokens(last.get())));
+                });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private static Number totalTokens(ChatResponse resp) {
+        if (resp == null || resp.getMetadata() == null) return null;
+        Usage usage = resp.getMetadata().getUsage();
+        if (usage == null) return null;
+        Number total = usage.getTotalTokens();
+        return (total == null || total.longValue() <= 0) ? null : total;
+    }
+}
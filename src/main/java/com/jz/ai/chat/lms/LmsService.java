@@ -2,6 +2,8 @@ package com.jz.ai.chat.lms;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
 import com.jz.ai.domain.entity.ChatLms;
 import com.jz.ai.domain.entity.ChatMessage;
 import com.jz.ai.mapper.ChatLmsMapper;
@@ -9,8 +11,6 @@ import com.jz.ai.mapper.ChatMessageMapper;
 import com.jz.ai.chat.tokens.TokenCounter;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
-import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.connection.ReturnType;
 import org.springframework.scheduling.annotation.Async;
@@ -25,16 +25,14 @@ import java.util.concurrent.TimeUnit;
 @Service
 @RequiredArgsConstructor
 public class LmsService {
- /*   @Qualifier("summarizerChatClient")
-    private ChatClient chatClient;  */
- // 摘要专用
-    @Qualifier("statelessChatClients")
-    private final Map<String,ChatClient> chatClientMap;
+ // 摘要专用（经网关，带截止时间）
+    private final LlmGateway llmGateway;
     private final ChatMessageMapper chatMessageMapper;
     private final ChatLmsMapper chatLmsMapper;
     private final TokenCounter tokens;
     private final StringRedisTemplate redis;
     private final ObjectMapper mapper;
+    private final JsonExtractor jsonExtractor;
     // 来自 yml 的配置（可用 @ConfigurationProperties 注入，这里简化）
     @Value("${chat.lms.redis.key-prefix}")
     private String redisKeyPrefix;
@@ -57,9 +55,6 @@ public class LmsService {
     @Value("${chat.lms.redis.lock-ttl-seconds:60}")
     private long lockTtlSeconds;
 
-    private ChatClient chatClient( ){
-        return  chatClientMap.get(summarizerModelName);
-    }
     private String lockKey(String chatId) {
         return redisKeyPrefix + "lock:compact:" + chatId;
     }
@@ -70,26 +65,11 @@ public class LmsService {
     private String toValidJsonOrWrap(String modelOut) {
         String s = (modelOut == null) ? "" : modelOut.trim();
 
-        // 1) 去掉 ``` 或 ```json 包裹
-        if (s.startsWith("```")) {
-            s = s.replaceFirst("(?s)^```(?:json)?\\s*", "");
-            s = s.replaceFirst("(?s)\\s*```\\s*$", "");
-            s = s.trim();
-        }
-
-        // 2) 完整 JSON 直接验
-        if (s.startsWith("{") || s.startsWith("[")) {
-            try { mapper.readTree(s); return s; } catch (Exception ignore) {}
-        }
-
-        // 3) 从文本中提取第一段 {...} 或 [...]（覆盖大多数“前后带说明”的情况）
-        var m = java.util.regex.Pattern.compile("(?s)(\\{.*\\}|\\[.*\\])").matcher(s);
-        if (m.find()) {
-            String cand = m.group(1).trim();
-            try { mapper.readTree(cand); return cand; } catch (Exception ignore) {}
-        }
+        // 1) 跳过 ``` 围栏/前后说明，取第一段完整（或截断后补齐）的 {...} / [...]
+        var parsed = jsonExtractor.extract(s, JsonExtractor.Shape.ANY);
+        if (parsed.isPresent()) return parsed.get().toString();
 
-        // 4) 兜底包装成一个“合法对象”，避免写库失败，同时保留原文方便排查
+        // 2) 兜底包装成一个“合法对象”，避免写库失败，同时保留原文方便排查
         var root = mapper.createObjectNode();
         root.putArray("persona_signals");
         root.putArray("facts");
@@ -240,11 +220,7 @@ public class LmsService {
             sb.append('[').append(m.getRole()).append("] ").append(m.getContent()).append('\n');
         }
 
-        String rawOut = chatClient().prompt()
-                .system(sys)
-                .user("对话如下，生成JSON：\n" + sb)
-                .call()
-                .content();
+        String rawOut = llmGateway.call("lms", summarizerModelName, sys, "对话如下，生成JSON：\n" + sb);
 
         String safeJson = toValidJsonOrWrap(rawOut); // ★★ 关键：净化
         int tk = Math.max(lmsMinPerItem, Math.min(lmsMaxPerItem, tokens.ofJson(safeJson)));
@@ -339,11 +315,7 @@ public class LmsService {
             for (ChatLms o : oldest) {
                 user.append(o.getSummaryJson()).append("\n---\n");
             }
-            String merged = chatClient().prompt()
-                    .system(sys)
-                    .user(user.toString())
-                    .call()
-                    .content();
+            String merged = llmGateway.call("lms", summarizerModelName, sys, user.toString());
             // 解析成数组，多了截断、少了接受，完全无效则兜底变单条
             List<ChatLms> mergedItems;
             try {
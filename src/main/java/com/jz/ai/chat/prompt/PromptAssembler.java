@@ -3,21 +3,33 @@ package com.jz.ai.chat.prompt;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.jz.ai.chat.budget.BudgetService;
 import com.jz.ai.chat.lms.LmsCountersService;
 import com.jz.ai.chat.lms.LmsService;
 import com.jz.ai.chat.tokens.TokenCounter;
 import com.jz.ai.config.BehaviorSignalsProperties;
 import com.jz.ai.config.ProfileProperties;
+import com.jz.ai.domain.entity.SupportAgent;
 import com.jz.ai.service.BehaviorSignalsService;
 import com.jz.ai.utils.UserProfileCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 
+/**
+ * 系统提示按“前缀稳定”排布，让服务商的前缀缓存能命中：
+ * 1) 静态段：客服人设 + 硬规则 + 亲密度风格 + 表情规范，按（客服, 亲密度档位）缓存整段文本与 token 数；
+ * 2) 会话内稳定段：热卖商品 → 长期记忆摘要 → 用户画像（变化少，越稳定越靠前）；
+ * 3) 易变段：短期情绪 → 本轮检索参考 → 风格提示（ContinuationNudge 的锚点再追加在最后）。
+ * 各段 token 数按文本记忆化，预算计算不再每轮重新分词。
+ */
 @Component
 @RequiredArgsConstructor
 public class PromptAssembler {
@@ -33,11 +45,61 @@ public class PromptAssembler {
     // 允许注入的情绪白名单
     private static final Set<String> ALLOWED_MOODS = Set.of("开心","平静","焦虑","生气","失望","激动");
 
+    private static final JsonMapper JSON = JsonMapper.builder().build();
+
+    private static final String PROFILE_HEADER = "\n【用户画像（仅供参考，勿直述/背诵）】";
+    private static final String MOOD_HEADER = "\n【客户短期情绪（仅供风格调节，严禁向用户直述或提及）】";
+    private static final String HOT_HEADER = "\n【热卖商品简要】";
+    private static final String REFS_HEADER = "\n【参考商品（向量检索）】如需要商品信息，请优先依据以下参考资料回答，若资料不足请直说不足，勿编造。\n";
+    private static final String TONE_HEADER = "\n（风格提示）";
+    private static final String LMS_HEADER = "\n【长期记忆摘要（结构化，不要逐字复述）】\n";
+
+    /** （客服, 人设/名称/门店指纹, 亲密度档位）→ 静态段；客服资料改了指纹就变，旧条目自然过期 */
+    private final Cache<StaticKey, PromptSegment> staticSegments = Caffeine.newBuilder()
+            .maximumSize(1_024)
+            .expireAfterAccess(Duration.ofMinutes(30))
+            .build();
+
+    /** 段文本 → token 数（热卖/画像/检索参考多轮重复出现，JSON 计数较贵） */
+    private final Cache<String, Integer> tokenMemo = Caffeine.newBuilder()
+            .maximumSize(4_096)
+            .expireAfterAccess(Duration.ofMinutes(10))
+            .build();
+
+    private record StaticKey(Long agentId, int fingerprint, HumanStyleSystem.RapportBucket bucket) {}
+
     // 为了示例，热卖商品/情感风格先由调用方传入
     public static record AsmResult(String systemPrompt, BudgetService.LmsBudget lmsBudget, List<String> lmsInjected  ) {}
 
+    /**
+     * 静态段（拟人化系统提示），同一客服同一亲密度档位复用同一份文本与 token 数
+     */
+    public PromptSegment staticSegment(SupportAgent agent, int rapport) {
+        HumanStyleSystem.RapportBucket bucket = HumanStyleSystem.RapportBucket.of(rapport);
+        String baseSys = agent.getSystemPrompt() == null ? "" : agent.getSystemPrompt();
+        StaticKey key = new StaticKey(agent.getId(),
+                Objects.hash(baseSys, agent.getName(), agent.getStoreName()), bucket);
+        return staticSegments.get(key, k -> {
+            String text = HumanStyleSystem.inject(baseSys, agent.getName(), agent.getStoreName(), bucket);
+            return new PromptSegment(text, tokens.ofText(text));
+        });
+    }
+
+    /**
+     * 预算用的固定部分 token：静态段 + 热卖 + 检索参考 + 风格提示 + 本轮用户消息（画像在 build 里另加）。
+     * ModelRouter 按候选模型算预算时复用同一个数，不再重复分词。
+     */
+    public int fixedTokens(PromptSegment head, String hotProductsJson, String retrievedProductsJson,
+                           String toneHint, String userMsg) {
+        return head.tokens()
+                + jsonTokens(hotProductsJson)
+                + jsonTokens(retrievedProductsJson)
+                + tokens.ofText(toneHint)
+                + tokens.ofText(userMsg);
+    }
+
     public AsmResult build(String model, Long userId, String chatId,
-                           String baseSys,
+                           PromptSegment head,
                            String hotProductsJson,
                            String retrievedProductsJson,
                            String toneHint,
@@ -54,8 +116,7 @@ public class PromptAssembler {
             var portraitFull = profileCache.getOrLoad(userId);
             var injectView = profileCache.buildInjectView(portraitFull);
             if (!injectView.isEmpty()) {
-                sProfileJson = JsonMapper.builder().build()
-                        .writeValueAsString(injectView);
+                sProfileJson = JSON.writeValueAsString(injectView);
             }
         }
 
@@ -64,59 +125,59 @@ public class PromptAssembler {
         int tHistAvg = counters.getAvgHistTokens(ewmaKey, fallbackHistTok);
         // LMS 的平均 token（读不到就用 targetLmsTok 作为回退）
         int tLmsTarget = counters.getAvgLmsTokens(ewmaKey, targetLmsTok);
-        var bdg = budget.compute(model, baseSys, sProfileJson, hotProductsJson, toneHint,
-                retrievedProductsJson, retrieveSize, tHistAvg, tLmsTarget, userMsg, softCapRatio);
+        int fixed = fixedTokens(head, hotProductsJson, retrievedProductsJson, toneHint, userMsg)
+                + jsonTokens(sProfileJson);
+        var bdg = budget.compute(model, fixed, retrieveSize, tHistAvg, tLmsTarget, softCapRatio);
         //mood没多少不计入
         //nLmsMax 是理论上最大可用摘要数，soft都是保险起见的摘要数，tHist是短期上下文tokens/message ttarget是长期上下文
         // 取 LMS 软上限数量
         List<String> lmsJsonList = lmsService.fetchRecentForPrompt(chatId, bdg.getNLmsSoftCap());
 
-        String sys = baseSys;
+        StringBuilder sys = new StringBuilder(head.text().length() + 4_096).append(head.text());
+        // —— 会话内稳定段 ——
+        if (hotProductsJson != null && !hotProductsJson.isEmpty()) {
+            sys.append(HOT_HEADER).append(hotProductsJson);
+        }
+        if (!lmsJsonList.isEmpty()) {
+            sys.append(LMS_HEADER).append(String.join("\n", lmsJsonList));
+        }
         if (!sProfileJson.isEmpty()) {
-            sys += "\n【用户画像（仅供参考，勿直述/背诵）】" + sProfileJson;
+            sys.append(PROFILE_HEADER).append(sProfileJson);
         }
 /*        String behaviorJson = behaviorSignalsService.buildSignalsJson(userId);
         if (behaviorSignalsProps.isInject() && !behaviorJson.isEmpty()) {
             sys += "\n【客服内部行为信号（仅供风格调节，严禁向用户直述或提及）】" + behaviorJson;
         }*/
 
+        // —— 易变段 ——
         // 2.2 短期“情绪”注入（读取 Redis，仅内部提示，命中才注）
         if (profileProps.isInjectMood()) {
             String moodKey = profileProps.getMoodRedisKeyPrefix() + userId;
             Optional<String> raw = profileCache.getRaw(moodKey);
             if (raw.isPresent()) {
                 try {
-                    JsonNode node = JsonMapper.builder().build().readTree(raw.get());
+                    JsonNode node = JSON.readTree(raw.get());
                     String mood = node.has("情绪") ? node.get("情绪").asText() : null;
                     if (mood != null && ALLOWED_MOODS.contains(mood)) {
                         // 仅内部风格调节，不得向用户直述“你在生气”等
-                        sys += "\n【客户短期情绪（仅供风格调节，严禁向用户直述或提及）】{\"情绪\":\"" + mood + "\"}";
-                        // 可选：根据情绪加一点点风格提示（不直述）
-                        // if ("生气".equals(mood) || "失望".equals(mood) || "焦虑".equals(mood)) {
-                        //     sys += "\n（情绪适配提示）优先给方案与下一步，减少表情与感叹号，必要时先致歉再处理。";
-                        // }
+                        sys.append(MOOD_HEADER).append("{\"情绪\":\"").append(mood).append("\"}");
                     }
                 } catch (Exception ignore) { /* 不阻断主流程 */ }
             }
         }
-        if (hotProductsJson != null && !hotProductsJson.isEmpty()) {
-            sys += "\n【热卖商品简要】" + hotProductsJson;
-        }
-        // ★ 本轮「向量检索参考商品」
+        // ★ 本轮「向量检索参考商品」：仅作为证据参考，不足时要说明信息不足，禁止编造
         if (retrievedProductsJson != null && !retrievedProductsJson.isEmpty()) {
-            // 明确规范：仅将其作为证据参考，优先依据证据，不足时要说明信息不足，禁止编造
-            sys += "\n【参考商品（向量检索）】如需要商品信息，请优先依据以下参考资料回答，若资料不足请直说不足，勿编造。\n" + retrievedProductsJson;
+            sys.append(REFS_HEADER).append(retrievedProductsJson);
         }
         if (toneHint != null && !toneHint.isEmpty()) {
-            sys += "\n（风格提示）" + toneHint;
-        }
-
-        if (!lmsJsonList.isEmpty()) {
-            sys += "\n【长期记忆摘要（结构化，不要逐字复述）】\n" + String.join("\n", lmsJsonList);
+            sys.append(TONE_HEADER).append(toneHint);
         }
 
+        return new AsmResult(sys.toString(), bdg, lmsJsonList);
+    }
 
-        return new AsmResult(sys, bdg,lmsJsonList);
+    private int jsonTokens(String json) {
+        if (json == null || json.isEmpty()) return 0;
+        return tokenMemo.get(json, tokens::ofJson);
     }
 }
-
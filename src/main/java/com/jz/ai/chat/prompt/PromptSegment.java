@@ -0,0 +1,12 @@
+package com.jz.ai.chat.prompt;
+
+/**
+ * 系统提示的一段文本 + 已算好的 token 数（同一段只数一次）
+ */
+public record PromptSegment(String text, int tokens) {
+    public static final PromptSegment EMPTY = new PromptSegment("", 0);
+
+    public boolean isEmpty() {
+        return text.isEmpty();
+    }
+}
@@ -1,12 +1,10 @@
 // src/main/java/com/jz/ai/chat/rapport/DefaultLlmRapportScorer.java
 package com.jz.ai.chat.rapport;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import java.util.HashMap;
@@ -14,7 +12,7 @@ import java.util.Locale;
 import java.util.Map;
 
 /**
- * 用 ChatClient 调模型做“文本评分”，严格要求 JSON 输出。
+ * 经 LlmGateway 调模型做“文本评分”，严格要求 JSON 输出。
  * 提示词强调稳定性（避免波动大），并控制返回范围。
  */
 @Slf4j
@@ -22,15 +20,13 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class DefaultLlmRapportScorer implements LlmRapportScorer {
 
-    private final Map<String, ChatClient> chatClientMap; // 复用你的多模型池
+    private final LlmGateway llmGateway; // 复用你的多模型池（带超时/对冲）
     private final RapportScorerProperties props;
-    private final ObjectMapper mapper;
+    private final JsonExtractor jsonExtractor;
 
     @Override
     public RapportScoreResult score(String userText, String briefContext) {
         String modelName = props.getModel();
-        ChatClient client = chatClientMap.getOrDefault(modelName,
-                chatClientMap.values().iterator().next());
 
         String sys = """
                 你是稳定的会话关系评估员。请对“用户最新一轮发言”进行评分，输出严格 JSON：
@@ -65,34 +61,11 @@ public class DefaultLlmRapportScorer implements LlmRapportScorer {
         );
 
         try {
-            String out = client.prompt()
-                    .system(sys)
-                    .user(user)
-                    .call().content();
+            String out = llmGateway.call("rapport", modelName, sys, user);
 
-            // 裁剪 { ... }
-            int b = out.indexOf('{'), e = out.lastIndexOf('}');
-            if (b >= 0 && e >= b) out = out.substring(b, e + 1);
-
-            Map<String, Object> m = mapper.readValue(out, new TypeReference<>() {});
-            int target = toInt(m.get("targetScore"), 50);
-            if (target < 0) target = 0; if (target > 100) target = 100;
-
-            Map<String,Integer> dims = new HashMap<>();
-            Object d = m.get("dimensions");
-            if (d instanceof Map<?,?> dm) {
-                for (var kv : dm.entrySet()) {
-                    String k = String.valueOf(kv.getKey()).toLowerCase(Locale.ROOT);
-                    int v = toInt(kv.getValue(), 3);
-                    if (v < 1) v = 1; if (v > 5) v = 5;
-                    dims.put(k, v);
-                }
-            }
-
-            RapportScoreResult r = new RapportScoreResult();
-            r.setTargetScore(target);
-            r.setDimensions(dims);
-            return r;
+            Map<String, Object> m = jsonExtractor.extract(out, JsonExtractor.MAP)
+                    .orElseThrow(() -> new IllegalStateException("no json object"));
+            return fromMap(m);
         } catch (Exception e) {
             log.warn("Rapport scoring parse failed, fallback. err={}", e.toString());
             RapportScoreResult r = new RapportScoreResult();
@@ -102,7 +75,29 @@ public class DefaultLlmRapportScorer implements LlmRapportScorer {
         }
     }
 
-    private int toInt(Object o, int def){
+    /** {"targetScore","dimensions"} → 结果并限幅（合并分析的 rapport 段同样用它解析） */
+    public static RapportScoreResult fromMap(Map<String, Object> m) {
+        int target = toInt(m.get("targetScore"), 50);
+        if (target < 0) target = 0; if (target > 100) target = 100;
+
+        Map<String,Integer> dims = new HashMap<>();
+        Object d = m.get("dimensions");
+        if (d instanceof Map<?,?> dm) {
+            for (var kv : dm.entrySet()) {
+                String k = String.valueOf(kv.getKey()).toLowerCase(Locale.ROOT);
+                int v = toInt(kv.getValue(), 3);
+                if (v < 1) v = 1; if (v > 5) v = 5;
+                dims.put(k, v);
+            }
+        }
+
+        RapportScoreResult r = new RapportScoreResult();
+        r.setTargetScore(target);
+        r.setDimensions(dims);
+        return r;
+    }
+
+    private static int toInt(Object o, int def){
         try { return Integer.parseInt(String.valueOf(o)); } catch (Exception ignore) {}
         return def;
     }
@@ -0,0 +1,30 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 全局准入控制：并发上限按观测到的单轮耗时自适应（gradient + 出错乘性回退），超限时降级或直接回“忙碌”话术。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.admission")
+public class AdmissionProperties {
+    private boolean enabled = true;
+    /** 初始 / 最小 / 最大并发轮次上限 */
+    private int initialLimit = 32;
+    private int minLimit = 4;
+    private int maxLimit = 256;
+    /** 新上限的平滑系数（0~1，越小越稳） */
+    private double smoothing = 0.2;
+    /** 允许短期耗时比长期基线慢多少倍仍不收缩 */
+    private double tolerance = 1.5;
+    /** 长期基线 EWMA 的样本窗口 */
+    private int longWindow = 600;
+    /** 出错/超时时上限乘以该系数（AIMD 的 MD） */
+    private double backoffRatio = 0.9;
+    /** 在途 < limit × degradeRatio 时降级放行（跳过可选阶段），再多则回忙碌话术 */
+    private double degradeRatio = 1.5;
+    /** 入队口：在途 ≥ limit × submitShedRatio 时不再入队，直接回忙碌话术 */
+    private double submitShedRatio = 3.0;
+    private String busyReply = "现在咨询的人有点多，我这边回复会慢一点，麻烦您稍等片刻再发一次哦～";
+}
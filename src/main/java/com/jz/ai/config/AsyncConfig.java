@@ -38,6 +38,41 @@ public class AsyncConfig {
         return ex;
     }
 
+    /**
+     * processBatch 阶段图专用：阶段大多阻塞在 LLM/Redis IO 上，线程数给足，空闲回收；
+     * 满了先排队，队列也满则拒绝（StageGraph 以 fallback 完成该阶段）——不用 CallerRuns：
+     * 派发下游的可能是超时收尾线程，不能让它去跑 RAG/分析
+     */
+    @Bean("chatStageExecutor")
+    public ThreadPoolTaskExecutor chatStageExecutor() {
+        ThreadPoolTaskExecutor ex = new ThreadPoolTaskExecutor();
+        ex.setCorePoolSize(64);
+        ex.setMaxPoolSize(64);
+        ex.setAllowCoreThreadTimeOut(true);
+        ex.setQueueCapacity(512);
+        ex.setKeepAliveSeconds(60);
+        ex.setThreadNamePrefix("chat-stage-");
+        ex.initialize();
+        return ex;
+    }
+
+    /**
+     * RAG 多查询并发 KNN（MultiQueryRetriever）：每条子查询一个任务。
+     * 打满时直接拒绝（默认 AbortPolicy），由 MultiQueryRetriever 把该子查询记为跳过；
+     * 不用 CallerRuns，否则提交线程会同步跑 KNN，绕过 rag.query.search-timeout
+     */
+    @Bean("ragSearchExecutor")
+    public ThreadPoolTaskExecutor ragSearchExecutor() {
+        ThreadPoolTaskExecutor ex = new ThreadPoolTaskExecutor();
+        ex.setCorePoolSize(4);
+        ex.setMaxPoolSize(32);
+        ex.setQueueCapacity(0);
+        ex.setKeepAliveSeconds(60);
+        ex.setThreadNamePrefix("rag-search-");
+        ex.initialize();
+        return ex;
+    }
+
     // 可选：处理无返回值 @Async 方法的未捕获异常
     @Bean
     public AsyncUncaughtExceptionHandler asyncUncaughtExceptionHandler() {
@@ -0,0 +1,68 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 连发合并（BurstBatcher）执行侧配置：
+ * 定时线程只负责“到点”，批处理交给工作线程（JDK21+ 为虚拟线程），并按模型名限并发（bulkhead）。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.burst")
+public class BurstProperties {
+    /** 定时线程数：只做到点派发，不跑业务 */
+    private int schedulerThreads = 2;
+    /** 未单独配置的模型，同时处理的批次数上限 */
+    private int defaultMaxConcurrent = 16;
+    /** 按模型名覆盖并发上限（key 与 chatClientMap 的模型名一致） */
+    private Map<String, Integer> maxConcurrent = new HashMap<>();
+    /** 等 bulkhead 许可最多多久；拿不到就放回队列稍后重排（不无限占工作线程） */
+    private Duration bulkheadWait = Duration.ofSeconds(5);
+    /** JDK17（无虚拟线程）时工作线程池上限与排队长度 */
+    private int workerThreads = 64;
+    private int workerQueue = 256;
+
+    /** local=单机内存队列；redis=Redis 队列 + 每会话租约（多节点同一 chatId 只由一个节点处理） */
+    private String mode = "local";
+    /** redis 模式 key 前缀 */
+    private String redisKeyPrefix = "chat:burst:";
+    /** 会话租约 TTL（看门狗每 ttl/3 续期；节点宕机后最多这么久由其它节点接手） */
+    private long leaseTtlMs = 30_000;
+    /** 到期扫描间隔 */
+    private long pollIntervalMs = 200;
+    /** 队列/元数据 key 的兜底过期时间 */
+    private Duration keyTtl = Duration.ofDays(1);
+
+    /** 自适应合并窗口（按用户打字节奏） */
+    private Window window = new Window();
+
+    @Data
+    public static class Window {
+        /** 没有节奏样本时的静默窗口 */
+        private long initialMs = 3000;
+        /** 窗口下限 / 上限（上限从本批第一条算起） */
+        private long minMs = 1200;
+        private long maxMs = 9000;
+        /** 间隔 EWMA 平滑系数 */
+        private double alpha = 0.3;
+        /** 窗口 = 平均间隔 + devWeight × 平均偏差（类 TCP RTO） */
+        private double devWeight = 2.0;
+        /** 超过此间隔视为新会话，不计入节奏样本 */
+        private long sessionGapMs = 60_000;
+        /** 收到“正在输入”时把截止时间延后这么多 */
+        private long typingExtendMs = 3000;
+        /** 含 typing 延长在内，本批最多等待时长 */
+        private long hardCapMs = 15_000;
+        /** 用户节奏空闲多久后丢弃 */
+        private long cadenceIdleMs = 1_800_000;
+    }
+
+    public int maxConcurrentFor(String model) {
+        Integer v = (model == null) ? null : maxConcurrent.get(model);
+        return Math.max(1, v == null ? defaultMaxConcurrent : v);
+    }
+}
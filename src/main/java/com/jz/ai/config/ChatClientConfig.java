@@ -1,6 +1,8 @@
 package com.jz.ai.config;
 
 
+import com.jz.ai.chat.llm.ModelThrottle;
+import com.jz.ai.chat.llm.ThrottledChatModel;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
@@ -21,10 +23,22 @@ import java.util.stream.Collectors;
 @Configuration
 public class ChatClientConfig {
 
+    // 按模型限流 + 限并发（chat.models.registry.{model}.rpm/tpm/max-concurrent）；下面两套 ChatClient 共用同一份配额
+    @Bean(name = "throttledChatModelMap")
+    public Map<String, ChatModel> throttledChatModelMap(
+            @Qualifier("customChatModelMap") Map<String, ChatModel> chatModelMap,
+            ModelThrottle throttle
+    ) {
+        return chatModelMap.entrySet().stream().collect(Collectors.toMap(
+                Map.Entry::getKey,
+                e -> new ThrottledChatModel(e.getKey(), e.getValue(), throttle)
+        ));
+    }
+
     // 有记忆（默认）
     @Bean
     public Map<String, ChatClient> statefulChatClients(
-            @Qualifier("customChatModelMap") Map<String, ChatModel> chatModelMap,
+            @Qualifier("throttledChatModelMap") Map<String, ChatModel> chatModelMap,
             MessageChatMemoryAdvisor memoryAdvisor
     ) {
         return chatModelMap.entrySet().stream().collect(Collectors.toMap(
@@ -37,7 +51,7 @@ public class ChatClientConfig {
     @Bean
     @Primary //冲突时优先选它
     public Map<String, ChatClient> statelessChatClients(
-            @Qualifier("customChatModelMap") Map<String, ChatModel> chatModelMap
+            @Qualifier("throttledChatModelMap") Map<String, ChatModel> chatModelMap
     ) {
         return chatModelMap.entrySet().stream().collect(Collectors.toMap(
                 Map.Entry::getKey,
@@ -46,4 +60,3 @@ public class ChatClientConfig {
     }
 
 }
-
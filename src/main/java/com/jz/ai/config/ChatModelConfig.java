@@ -5,6 +5,8 @@ import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
 import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
 import com.alibaba.cloud.ai.dashscope.embedding.DashScopeEmbeddingModel;
 import com.alibaba.cloud.ai.dashscope.embedding.DashScopeEmbeddingOptions;
+import com.jz.ai.rag.CachingEmbeddingModel;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.observation.ObservationRegistry;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.document.MetadataMode;
@@ -15,6 +17,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import redis.clients.jedis.JedisPooled;
 
 import java.util.List;
 import java.util.Map;
@@ -24,7 +28,7 @@ import java.util.stream.Collectors;
 @Configuration
 public class ChatModelConfig {
 
-    private static final List<String> CHAT_MODELS = List.of(
+    public static final List<String> CHAT_MODELS = List.of(
             "qwen-max",
             "qwen-plus",
             "qwen-turbo",
@@ -37,15 +41,20 @@ public class ChatModelConfig {
 
     @Bean
     @Primary
-    public EmbeddingModel createEmbeddingModel(DashScopeApi dashScopeApi,@Value("${rag.embedding.model}") String embeddingModelName){
-        return  new DashScopeEmbeddingModel(dashScopeApi, MetadataMode.EMBED,
+    @Profile("!loadtest") // loadtest 下由 LoadTestModelConfig 提供本地桩
+    public EmbeddingModel createEmbeddingModel(DashScopeApi dashScopeApi,@Value("${rag.embedding.model}") String embeddingModelName,
+                                               EmbeddingCacheProperties cacheProps, JedisPooled jedis, MeterRegistry registry){
+        EmbeddingModel model = new DashScopeEmbeddingModel(dashScopeApi, MetadataMode.EMBED,
                 DashScopeEmbeddingOptions.builder()
                         .withModel(embeddingModelName)
                         .build());
+        // 查询/商品同步的向量都先过缓存（CachingEmbeddingModel）
+        return CachingEmbeddingModel.wrap(model, embeddingModelName, cacheProps, jedis, registry);
     }
 
 
     @Bean(name = "customChatModelMap")
+    @Profile("!loadtest")
     public Map<String, ChatModel> modelMap(DashScopeApi dashScopeApi
     , @Value("${spring.ai.dashscope.chat.options.temperature}") double temperature,
                                            @Value("${spring.ai.dashscope.chat.options.top-p}") double topP) {
@@ -0,0 +1,29 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * processBatch 阶段图配置：互不依赖的阶段并发执行，每个阶段有独立超时，超时走降级值。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.pipeline")
+public class ChatPipelineProperties {
+    /** false 时阶段在调用线程内顺序执行（便于排障/对比） */
+    private boolean parallel = true;
+    /**
+     * 合并分析的预算（分析阶段超时）：打分/分类/RAG 排在它后面，到点分析调用被打断、下游各自走单独调用；
+     * 下游自己的超时从分析结束起算，单独调用不会被等分析吃掉预算（最坏关键路径 = 本预算 + 下游超时）
+     */
+    private Duration analysisBudget = Duration.ofMillis(1500);
+    /** 亲密度打分（可能调 LLM），超时回退到当前缓存分值 */
+    private Duration rapportTimeout = Duration.ofSeconds(3);
+    /** 边界分类（可能调 LLM），超时回退到启发式分类 */
+    private Duration classifyTimeout = Duration.ofMillis(2500);
+    /** 短历史读取（Redis）；记忆追加是写入，不设超时 */
+    private Duration memoryTimeout = Duration.ofSeconds(1);
+    /** RAG 预检索（多次 LLM + 向量检索），超时回退为空参考 */
+    private Duration ragTimeout = Duration.ofSeconds(8);
+}
@@ -0,0 +1,30 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 向量缓存（CachingEmbeddingModel）：L1 本地 + L2 Redis，RAG 查询与商品同步共用。
+ * modelKey 进缓存 key；不配时取 rag.embedding.model，换模型/维度后旧向量自然不再命中。
+ */
+@Data
+@ConfigurationProperties(prefix = "rag.embedding.cache")
+public class EmbeddingCacheProperties {
+
+    private boolean enabled = true;
+    private String modelKey;
+    /** L1 条数上限与按访问过期时间 */
+    private int localMaxSize = 20_000;
+    private Duration localTtl = Duration.ofHours(6);
+    /** L2（Redis）过期时间与 key 前缀 */
+    private Duration redisTtl = Duration.ofDays(7);
+    private String redisKeyPrefix = "emb:";
+    /** L2 存储编码：FLOAT16 每维 2 字节；INT8 每维 1 字节 + 每向量一个缩放系数 */
+    private Encoding encoding = Encoding.FLOAT16;
+    /** 同一文本已有在途请求时，最多等它多久 */
+    private Duration inflightWait = Duration.ofSeconds(10);
+
+    public enum Encoding { FLOAT16, INT8 }
+}
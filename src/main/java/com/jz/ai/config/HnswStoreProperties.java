@@ -0,0 +1,29 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 进程内 HNSW 向量库（HnswVectorStore，rag.vector-store=hnsw 时启用）。
+ * m / efConstruction / efSearch 同 HNSW 论文含义；过滤后候选很少时直接精确扫描，比走图更准也更快。
+ */
+@Data
+@ConfigurationProperties(prefix = "rag.hnsw")
+public class HnswStoreProperties {
+
+    /** 每层邻居数（第 0 层为 2m） */
+    private int m = 16;
+    private int efConstruction = 200;
+    private int efSearch = 64;
+    /** 候选（过滤后）不超过这个数就精确扫描 */
+    private int exactScanMax = 1000;
+    /** 墓碑（已删/被覆盖的节点）占比超过它就整图重建 */
+    private double compactRatio = 0.3;
+    /** 快照文件；启动时映射读入，变更后延迟写出（临时文件 + 原子替换） */
+    private String snapshotPath = "data/hnsw/product.snap";
+    private Duration snapshotDelay = Duration.ofSeconds(30);
+    /** 抽样一部分图检索同时做精确扫描，记 recall@k（和 Redis 做 A/B 用）；0 关闭 */
+    private double recallSampleRate = 0.01;
+}
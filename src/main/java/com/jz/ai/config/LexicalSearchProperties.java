@@ -0,0 +1,36 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 商品词法检索（ProductLexicalIndex，BM25）与向量结果的 RRF 融合。
+ */
+@Data
+@ConfigurationProperties(prefix = "rag.lexical")
+public class LexicalSearchProperties {
+
+    private boolean enabled = true;
+    /** 词法检索取前多少条参与融合 */
+    private int topK = 8;
+    /** RRF 常数：fused = Σ 1 / (rrfK + rank) */
+    private int rrfK = 60;
+    /** BM25 参数 */
+    private double k1 = 1.2;
+    private double b = 0.75;
+    /** 标题词频按几倍计（标题比卖点描述更能代表商品） */
+    private int titleBoost = 2;
+    /** 型号类词（字母 + 数字混合）最短长度；查询里出现目录中的型号即视为精确查询 */
+    private int minCodeLength = 3;
+    /**
+     * 型号词最多出现在几个商品的标题里才算“精确”：只认标题里的词、规格词（256gb/65w）不算，
+     * 再按文档频率卡一道，能指认到一两款商品的才跳过压缩/扩展
+     */
+    private int exactMaxDf = 2;
+    /** 精确查询跳过上下文压缩与多查询扩展（省两次 LLM 调用） */
+    private boolean exactSkipAugment = true;
+    /** 全量重建间隔（同步任务写入后也会主动刷新） */
+    private Duration refreshInterval = Duration.ofMinutes(5);
+}
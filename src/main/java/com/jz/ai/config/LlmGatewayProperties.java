@@ -0,0 +1,75 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LLM 网关（LlmGateway）：按调用方（caller）设截止时间、相同在途 prompt 合并、超过 p95 后对冲第二个请求。
+ * caller 名与代码里一致：boundary / rapport / paraphrase / profile / lms / rag-route / rag-compress / rag-expand / main。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.llm.gateway")
+public class LlmGatewayProperties {
+    /** 未单独配置的 caller 的截止时间 */
+    private Duration defaultTimeout = Duration.ofSeconds(20);
+    /** JDK17（无虚拟线程）时工作线程池上限：最多这么多个在途上游调用，再多排队，队列满直接失败走兜底 */
+    private int workerThreads = 128;
+    private int workerQueue = 256;
+    /** 相同模型 + 相同 prompt 的并发请求只真正调用一次 */
+    private boolean coalesce = true;
+    /** 对冲请求 */
+    private Hedge hedge = new Hedge();
+    /** 按 caller 覆盖 */
+    private Map<String, Caller> callers = new HashMap<>();
+
+    @Data
+    public static class Hedge {
+        private boolean enabled = true;
+        /** 用该分位的历史耗时作为对冲触发点 */
+        private double percentile = 0.95;
+        /** 样本不足时不对冲（没有可靠的 p95） */
+        private int minSamples = 20;
+        /** 每个 caller×模型 保留的最近耗时样本数 */
+        private int window = 256;
+        /** 样本只看最近这么久：过期的不算（路由因延迟让开的模型过期后恢复） */
+        private Duration maxAge = Duration.ofSeconds(60);
+        /** 对冲触发点下限，避免快调用也被翻倍 */
+        private Duration minDelay = Duration.ofMillis(200);
+        /** 对冲默认发给哪个模型；为空则与主请求同模型 */
+        private String model;
+    }
+
+    @Data
+    public static class Caller {
+        private Duration timeout;
+        /** null 表示沿用全局设置 */
+        private Boolean hedge;
+        private String hedgeModel;
+        private Boolean coalesce;
+    }
+
+    public Duration timeoutFor(String caller) {
+        Caller c = callers.get(caller);
+        return (c != null && c.getTimeout() != null) ? c.getTimeout() : defaultTimeout;
+    }
+
+    public boolean hedgeFor(String caller) {
+        Caller c = callers.get(caller);
+        return hedge.isEnabled() && (c == null || c.getHedge() == null || c.getHedge());
+    }
+
+    public String hedgeModelFor(String caller, String model) {
+        Caller c = callers.get(caller);
+        if (c != null && c.getHedgeModel() != null && !c.getHedgeModel().isBlank()) return c.getHedgeModel();
+        return (hedge.getModel() == null || hedge.getModel().isBlank()) ? model : hedge.getModel();
+    }
+
+    public boolean coalesceFor(String caller) {
+        Caller c = callers.get(caller);
+        return (c == null || c.getCoalesce() == null) ? coalesce : c.getCoalesce();
+    }
+}
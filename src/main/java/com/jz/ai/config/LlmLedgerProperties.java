@@ -0,0 +1,31 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * LLM 调用台账（LlmCallLedger）：按模型的单价用于估算成本，/actuator/llmledger 默认展示条数。
+ * 单价单位：元 / 千 token，输入输出分开计价；未配置的模型按 defaultPrice。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.ledger")
+public class LlmLedgerProperties {
+
+    private Map<String, Price> prices = new HashMap<>();
+    private Price defaultPrice = new Price();
+    /** 端点默认返回前多少个 caller×model */
+    private int topN = 20;
+
+    public Price priceFor(String model) {
+        return prices.getOrDefault(model, defaultPrice);
+    }
+
+    @Data
+    public static class Price {
+        private double input = 0.0;
+        private double output = 0.0;
+    }
+}
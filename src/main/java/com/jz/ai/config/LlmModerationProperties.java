@@ -8,8 +8,12 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 public class LlmModerationProperties {
     private boolean enabled = true;
     private String model = "qwen-plus";      // 你现有可用模型名
-    private long timeoutMs = 1500;           // 超时（由底层HTTP/Client配置保障，作语义提示用）
+    private long timeoutMs = 1500;           // 超时（LlmGateway 按此截止，超时按 NONE 兜底）
     private double escalateThreshold = 0.85; // 置信度>=此阈值时采用LLM结果
     private String redisKeyPrefix = "mod:llm:";
     private long cacheTtlSeconds = 86400;    // 结果缓存一天（同文重复命中）
+    private int localCacheSize = 20000;      // 进程内 L1 缓存条数（L2 为 Redis）
+    private boolean nearDupEnabled = true;   // 近似重复（多标点/表情/叠字）按 SimHash 命中
+    private int nearDupMaxDistance = 3;      // SimHash 汉明距离 ≤ 此值视为同一句
+    private int nearDupMinLength = 6;        // 归一化后太短的文本签名不稳定，只做精确匹配
 }
@@ -0,0 +1,89 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 离线压测（loadtest profile）：桩模型的延迟/失败率/输出长度 + 压测驱动参数。
+ * 只在 --spring.profiles.active=loadtest 时有对应 Bean 读取。
+ */
+@Data
+@ConfigurationProperties(prefix = "loadtest")
+public class LoadTestProperties {
+
+    /** 随机种子：同一配置下两次压测的延迟序列与输出完全一致 */
+    private long seed = 42L;
+
+    /** 所有对话模型的默认桩参数 */
+    private StubProfile chat = new StubProfile();
+    /** 按模型名覆盖（未配的字段不继承，整段替换） */
+    private Map<String, StubProfile> models = new HashMap<>();
+    /** 向量模型桩 */
+    private Embedding embedding = new Embedding();
+    private Driver driver = new Driver();
+
+    public StubProfile profileFor(String model) {
+        return models.getOrDefault(model, chat);
+    }
+
+    @Data
+    public static class StubProfile {
+        /** 延迟服从对数正态分布：由中位数与 p99 确定 */
+        private long medianMs = 800;
+        private long p99Ms = 3000;
+        /** 调用失败（抛异常）的概率 0~1 */
+        private double failureRate = 0.0;
+        /** 普通文本回复的字符数 */
+        private int outputChars = 120;
+        /** 流式：每个增量的字符数与间隔 */
+        private int streamChunkChars = 8;
+        private long interChunkMs = 30;
+    }
+
+    @Data
+    public static class Embedding {
+        private long medianMs = 60;
+        private long p99Ms = 250;
+        private double failureRate = 0.0;
+        /** 向量维度（与压测用的 Redis 索引一致） */
+        private int dimensions = 256;
+    }
+
+    @Data
+    public static class Driver {
+        /** 启动完成后自动开跑 */
+        private boolean enabled = true;
+        /** 虚拟用户数；用户 ID 从 firstUserId 起连续分配 */
+        private int users = 50;
+        private long firstUserId = 900_000L;
+        /** 空表示用默认客服 */
+        private Long agentId;
+        private Duration duration = Duration.ofMinutes(2);
+        /** 逐步放量：在这段时间内均匀启动所有虚拟用户 */
+        private Duration rampUp = Duration.ofSeconds(20);
+        /** 收到回复后到发下一句之间的思考时间 */
+        private Duration thinkTime = Duration.ofSeconds(2);
+        /** /pull 长轮询等待 */
+        private Duration pullWait = Duration.ofSeconds(10);
+        /** 一句话发出后最多等这么久拿回复，超过计为超时 */
+        private Duration replyTimeout = Duration.ofSeconds(60);
+        /** 跑完后退出进程（CI 里用） */
+        private boolean exitOnFinish = false;
+        /** 虚拟用户轮流发送的话术 */
+        private List<String> messages = new ArrayList<>(List.of(
+                "你好，在吗",
+                "我想看看华为手机，预算三千左右",
+                "这款拍照怎么样",
+                "有没有更便宜一点的",
+                "索尼降噪耳机1k以下有吗",
+                "发货要多久呀",
+                "好的谢谢"
+        ));
+    }
+}
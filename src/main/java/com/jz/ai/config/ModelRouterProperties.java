@@ -0,0 +1,48 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 主对话按轮选模型（ModelRouter）：闲聊走快模型，商品咨询走标准模型，对比/多商品等难题才上大模型；
+ * 预算放不下换长上下文模型，目标模型过载/变慢时就近换档。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.router")
+public class ModelRouterProperties {
+    /** false 时所有轮次用 standardModel */
+    private boolean enabled = true;
+
+    private String lightModel = "qwen-turbo";
+    private String standardModel = "qwen-plus";
+    private String heavyModel = "qwen-max";
+    /** 三档都放不下本轮上下文时的兜底 */
+    private String longContextModel = "qwen-long";
+
+    /** 非商品且不超过这么多字 → 闲聊（light） */
+    private int smalltalkMaxChars = 40;
+    /** 命中任一即视为对比/决策类难题（heavy） */
+    private List<String> compareKeywords = new ArrayList<>(List.of(
+            "对比", "比较", "区别", "哪个好", "哪款好", "选哪个", "选哪款", "vs", "差别", "优缺点"));
+    /**
+     * 命中任一即视为多商品取舍（heavy）。不按 RAG 参考条数判：正常检索每轮都会带回 final-topk 条，
+     * 用条数判等于几乎所有商品咨询都上大模型
+     */
+    private List<String> multiProductKeywords = new ArrayList<>(List.of(
+            "几款", "哪几款", "哪些款", "分别", "搭配", "组合", "套装", "一起买"));
+    /** 亲密度 ≥ 这个值的老客户不走 light */
+    private int premiumRapport = 80;
+
+    /** 模型饱和度（ModelThrottle）≥ 阈值视为过载 */
+    private double saturationThreshold = 0.85;
+    /** 非流式：主对话最近整次调用延迟分位超过它视为变慢 */
+    private Duration latencyBudget = Duration.ofSeconds(8);
+    /** 流式：主对话最近首个增量延迟分位超过它视为变慢 */
+    private Duration firstTokenBudget = Duration.ofSeconds(3);
+    /** 固定部分（系统提示/参考/历史/用户话）之外至少要给 LMS 留的 token，否则换更大窗口的模型 */
+    private int minLmsRoomTokens = 600;
+}
@@ -0,0 +1,34 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 边界提醒改写池：每个（基准话术 × 亲密度档位）后台预生成一批改写，热路径只从池里挑，不再每次调模型。
+ * 档位按 chat.moderation.light-reply-floor / mid-reply-floor 切成低 / 中 / 高三档。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.moderation.paraphrase-pool")
+public class ParaphrasePoolProperties {
+    /** false：退回每次同步改写（旧行为） */
+    private boolean enabled = true;
+    /** 启动时为 BoundaryReplies 里的全部话术预填 */
+    private boolean prewarm = true;
+    /** 每个池最多保留的改写条数 */
+    private int poolSize = 16;
+    /** 每次刷新让模型生成的条数（新的排前面，旧的按先进先出挤掉） */
+    private int batchSize = 8;
+    /** 池内容超过这么久后，下次命中时后台刷新 */
+    private Duration refreshInterval = Duration.ofHours(6);
+    /** 生成失败后多久再试 */
+    private Duration retryBackoff = Duration.ofSeconds(30);
+    /** Redis 持久化（多节点共享、重启免预热） */
+    private String redisKeyPrefix = "mod:para:";
+    private Duration redisTtl = Duration.ofDays(7);
+    /** 同一会话最近用过的 N 条不再重复 */
+    private int antiRepeat = 4;
+    /** 会话的防重复记录空闲多久后丢弃 */
+    private Duration recentIdle = Duration.ofMinutes(30);
+}
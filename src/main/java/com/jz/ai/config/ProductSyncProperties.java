@@ -0,0 +1,32 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * 商品 → 向量库增量同步（ProductVectorSync）：按 (updated_at, id) 水位分页扫描，内容哈希没变的不再向量化。
+ */
+@Data
+@ConfigurationProperties(prefix = "rag.sync")
+public class ProductSyncProperties {
+
+    private boolean enabled = true;
+    /** 每页从库里取多少行（水位在整页写完后才推进） */
+    private int pageSize = 500;
+    /** 一次写入向量库的文档数（一批内部再按 token 拆向量化请求） */
+    private int batchSize = 32;
+    /** 同时在途的写入批数，限制对向量化配额的占用 */
+    private int parallelism = 2;
+    /** 两轮扫描之间的间隔 */
+    private Duration interval = Duration.ofMinutes(1);
+    /** 每轮从水位往前回看多久：晚提交的事务 updated_at 可能早于水位，回看到的没变化的行按哈希跳过 */
+    private Duration lookback = Duration.ofSeconds(30);
+    /** 对账间隔：比对库里已不存在的商品（硬删除不会推动水位），从向量库删掉 */
+    private Duration reconcileInterval = Duration.ofHours(1);
+    /** 距最近一次完整同步超过它，health 带 warning（就绪不受影响，向量库有数据即就绪） */
+    private Duration lagWarn = Duration.ofMinutes(10);
+    /** Redis 向量库的水位与内容哈希 key 前缀（后面拼索引名，换索引自然从头同步）；进程内 HNSW 的同步状态不放 Redis */
+    private String redisKeyPrefix = "rag:sync:";
+}
@@ -3,6 +3,8 @@ package com.jz.ai.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.time.Duration;
+
 @ConfigurationProperties(prefix = "rag.query")
 @Data
 public class RagQueryProperties {
@@ -10,4 +12,8 @@ public class RagQueryProperties {
     private int perQueryTopk = 4;
     private double simThreshold = 0.5;
     private int finalTopk = 6;
+    /** 路由/过滤条件抽取用的模型 */
+    private String routeModel = "qwen-plus";
+    /** 扩展查询批量算向量 + 并发 KNN 的总截止时间；到点未返回的子查询丢弃 */
+    private Duration searchTimeout = Duration.ofSeconds(3);
 }
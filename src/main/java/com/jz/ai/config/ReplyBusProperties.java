@@ -0,0 +1,29 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "chat.reply-bus")
+public class ReplyBusProperties {
+    /** memory | redis */
+    private String type = "memory";
+    /** Redis Stream key 前缀：chat:reply:{chatId} */
+    private String keyPrefix = "chat:reply:";
+    /** 消费组名（所有节点共用一个组，谁拉到算谁的） */
+    private String group = "pull";
+    /** 每个 stream 最多保留条数（XTRIM MAXLEN ~） */
+    private long maxLen = 100;
+    /** stream 空闲过期时间（无人拉取的回复不会永久占内存）；memory 模式下也作为信箱空闲淘汰阈值 */
+    private Duration ttl = Duration.ofMinutes(10);
+    /** /pull 默认长轮询时长（请求未显式传 waitMs 时使用；等待挂在总线上，不占请求线程） */
+    private Duration longPollTimeout = Duration.ofSeconds(10);
+    /** 单次 XREADGROUP BLOCK 时长，需小于 spring.data.redis.timeout，否则会触发命令超时 */
+    private Duration blockSlice = Duration.ofSeconds(2);
+    /** redis 模式下异步长轮询的读取间隔（所有挂起会话合并成一条非阻塞 XREADGROUP） */
+    private Duration asyncPollInterval = Duration.ofMillis(200);
+    /** 别的消费者读了超过这么久还没确认的回复（节点宕机/用户换了节点）由当前 /pull 的节点接管 */
+    private Duration claimIdle = Duration.ofSeconds(10);
+}
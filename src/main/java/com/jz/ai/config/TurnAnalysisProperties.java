@@ -0,0 +1,18 @@
+package com.jz.ai.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * 单次合并分析（TurnAnalyzer）：一次模型调用同时给出 RAG 路由、边界判定、亲密度打分。
+ * 关闭或调用失败时各服务走各自原有的单独调用。
+ */
+@Data
+@ConfigurationProperties(prefix = "chat.analysis")
+public class TurnAnalysisProperties {
+    private boolean enabled = true;
+    /** 合并分析用的模型（需要稳定输出较长 JSON，不建议用太小的模型） */
+    private String model = "qwen-plus";
+    /** 送入的最近对话最大字符数 */
+    private int historyMaxChars = 1200;
+}
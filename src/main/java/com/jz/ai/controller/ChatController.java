@@ -2,17 +2,28 @@ package com.jz.ai.controller;
 
 import com.baomidou.mybatisplus.core.toolkit.Wrappers;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.admission.TurnAdmission;
+import com.jz.ai.chat.analysis.TurnAnalysis;
+import com.jz.ai.chat.analysis.TurnAnalyzer;
+import com.jz.ai.chat.llm.LlmCallLedger;
+import com.jz.ai.chat.llm.LlmGateway;
+import com.jz.ai.chat.llm.ModelRouter;
 import com.jz.ai.chat.async.BurstBatcher;
 import com.jz.ai.chat.async.PendingReplyBus;
+import com.jz.ai.chat.async.ReplyStreamHub;
+import com.jz.ai.chat.async.StageGraph;
+import com.jz.ai.chat.async.TurnToken;
 import com.jz.ai.chat.budget.BudgetService;
 import com.jz.ai.chat.lms.LmsCountersService;
 import com.jz.ai.chat.lms.LmsService;
 import com.jz.ai.chat.lms.LmsWindowService;
 import com.jz.ai.chat.log.ChatSequencer;
-import com.jz.ai.chat.prompt.HumanStyleSystem;
 import com.jz.ai.chat.prompt.PromptAssembler;
+import com.jz.ai.chat.prompt.PromptSegment;
 import com.jz.ai.common.Result;
+import com.jz.ai.config.ChatPipelineProperties;
 import com.jz.ai.config.ProfileProperties;
+import com.jz.ai.config.ReplyBusProperties;
 import com.jz.ai.domain.dto.ChatDayDTO;
 import com.jz.ai.domain.dto.ChatHistoryDTO;
 import com.jz.ai.domain.dto.ChatMessageDTO;
@@ -25,6 +36,7 @@ import com.jz.ai.guard.*;
 import com.jz.ai.mapper.ChatMessageMapper;
 import com.jz.ai.mapper.ProductMapper;
 import com.jz.ai.memory.ConversationMemoryPort;
+import com.jz.ai.rag.QueryRouting;
 import com.jz.ai.rag.RagQueryPipeline;
 import com.jz.ai.service.AgentUserRapportService;
 import com.jz.ai.service.ChatLogService;
@@ -45,8 +57,12 @@ import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 // ChatController.java 中新增字段（通过构造器注入）
 import io.micrometer.core.instrument.*;
 import io.micrometer.core.instrument.Timer;
@@ -56,9 +72,11 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 import jakarta.servlet.http.HttpSession;
+import reactor.core.publisher.Flux;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_CONVERSATION_ID_KEY;
 import static org.springframework.ai.chat.client.advisor.AbstractChatMemoryAdvisor.CHAT_MEMORY_RETRIEVE_SIZE_KEY;
 
@@ -70,7 +88,6 @@ public class ChatController {
     private final Map<String, ChatClient> chatClientMap;
 
     private final ChatLogService chatLogService;
-    private String currentModelName = "qwen-plus"; // 默认模型
     private final ChatMessageMapper chatMessageMapper;
     private final ProductMapper productMapper;
     private final SupportAgentService agentService;
@@ -91,12 +108,24 @@ public class ChatController {
     private final BehaviorTelemetryServiceImpl behaviorTelemetryService;
     private final BoundaryClassifier classifier; // ← 注入 CompositeBoundaryClassifier
     private final Window10Service window10Service;
-    private final BoundaryReplyParaphraser boundaryParaphraser;
+    private final BoundaryReplyPool boundaryReplyPool;
     private final RagQueryPipeline ragQueryPipeline;
+    private final LlmGateway llmGateway;
+    private final LlmCallLedger llmCallLedger;
+    private final ModelRouter modelRouter;   // 主对话按轮选模型
+    private final TurnAnalyzer turnAnalyzer; // 单次合并分析（路由/边界/亲密度/画像）
     // ★异步批处理
     private final BurstBatcher burstBatcher;
     private final PendingReplyBus replyBus;
+    private final ReplyStreamHub replyStreamHub;
+    private final ReplyBusProperties replyBusProps;
     private final ChatSequencer chatSequencer;
+    // ★阶段图：processBatch 中互不依赖的阶段并发执行
+    private final HeuristicBoundaryClassifier heuristicClassifier;
+    private final TurnAdmission admission;
+    private final ChatPipelineProperties pipelineProps;
+    @Qualifier("chatStageExecutor")
+    private final ThreadPoolTaskExecutor chatStageExecutor;
 
 
     private final MeterRegistry meterRegistry;
@@ -147,6 +176,17 @@ public class ChatController {
     @PostConstruct
     private void  initModels(){
         this.supportedModels=chatClientMap.keySet();
+        // 集群模式（chat.burst.mode=redis）：批次可能由别的节点接收，按 chatId 里的 agentId 重建客服上下文
+        burstBatcher.setRemoteHandler((chatId, history, batch, token) -> {
+            Long agentId = ConversationIds.parseAgentId(chatId);
+            SupportAgent agent = (agentId == null) ? null : agentService.getByIdCached(agentId);
+            if (agent == null) agent = agentService.getDefaultAgent();
+            if (agent == null) {
+                log.warn("no support agent for chatId={}, batch dropped", chatId);
+                return;
+            }
+            processBatch(chatId, agent, history, batch, token);
+        });
     }
     // 经验/回退值
     private static final int FALLBACK_T_HIST = 120;  // 无统计时的历史平均
@@ -206,9 +246,17 @@ public class ChatController {
         String chatId = ConversationIds.ua(userId, useAgentId);
         // ★异步：入队，1s 后连发合并
         SupportAgent finalAgent = agent;
+        // ★准入：严重过载时不再入队，原文照常记录，直接回忙碌话术
+        if (!admission.admitSubmit()) {
+            conversationMemoryPort.appendUser(chatId, userMessage);
+            chatLogService.persistUserAsync(chatId, userId, userMessage, System.currentTimeMillis(), chatSequencer.next(chatId));
+            String busy = admission.busyReply();
+            return Result.success(ChatReplyDTO.reply(busy, TypingDelayUtil.suggestDelayMs(busy, 60)));
+        }
 
-        burstBatcher.submit(chatId, new BurstBatcher.UserMsg(userId, userMessage, System.currentTimeMillis()),
-                batch -> processBatch(chatId, finalAgent, history, batch));
+        // 批处理按模型限并发：路由在批内才发生，入队时只认钉住的模型，未钉住走 default bulkhead
+        burstBatcher.submit(chatId, modelRouter.pinned(), history, new BurstBatcher.UserMsg(userId, userMessage, System.currentTimeMillis()),
+                (batch, token) -> processBatch(chatId, finalAgent, history, batch, token));
 
         // ★立刻返回一个“silence”，前端不要显示客服气泡；等 /pull 拉到再渲染
         return Result.success(ChatReplyDTO.silence());
@@ -216,41 +264,163 @@ public class ChatController {
     }
     // ========= 前端轮询拿“待送回”的客服回复 =========
     @GetMapping("/pull")
-    public Result<List<ChatReplyDTO>> pull(
+    public DeferredResult<Result<List<ChatReplyDTO>>> pull(
             @SessionAttribute("UID") Long userId,
             @RequestParam(value = "agentId", required = false) Long agentId,
             @RequestParam(defaultValue = "5") int max,
+            @RequestParam(value = "waitMs", required = false) Long waitMs,
             HttpSession session
     ) {
 //        SupportAgent agent = (agentId != null) ? agentService.getById(agentId) : agentService.getDefaultAgent();
 //        if (agent == null) return Result.error("没有可用客服，请先初始化 support_agent");
         Long useAgentId=resolveAgentId(session,agentId);
         String chatId = ConversationIds.ua(userId, useAgentId);
-        return Result.success(replyBus.pull(chatId, Math.max(1, Math.min(max, 10))));
+        // 长轮询：没有回复时挂起等待（默认 chat.reply-bus.long-poll-timeout，waitMs=0 退回立即返回）
+        // 等待挂在回复总线上，由 push/轮询线程完成 DeferredResult，期间不占 Tomcat 工作线程
+        java.time.Duration wait = (waitMs == null)
+                ? replyBusProps.getLongPollTimeout()
+                : java.time.Duration.ofMillis(Math.max(0, Math.min(waitMs, 30_000)));
+        DeferredResult<Result<List<ChatReplyDTO>>> result =
+                new DeferredResult<>(wait.toMillis() + 5_000L, Result.success(List.of()));
+        CompletableFuture<List<ChatReplyDTO>> pending = replyBus.pullAsync(chatId, Math.max(1, Math.min(max, 10)), wait);
+        pending.whenComplete((list, err) -> result.setResult(Result.success(err == null ? list : List.of())));
+        result.onCompletion(() -> pending.cancel(false)); // 客户端断开/兜底超时：撤掉等待者，回复留给下一次拉取
+        return result;
+    }
+    // ========= “正在输入”心跳：前端输入框有输入时节流调用（如每 2s 一次），推迟本批合并触发 =========
+    @PostMapping("/typing")
+    public Result<Boolean> typing(
+            @SessionAttribute("UID") Long userId,
+            @RequestParam(value = "agentId", required = false) Long agentId,
+            HttpSession session
+    ) {
+        Long useAgentId = resolveAgentId(session, agentId);
+        String chatId = ConversationIds.ua(userId, useAgentId);
+        return Result.success(burstBatcher.typing(chatId));
     }
-    private void processBatch(String chatId, SupportAgent agent, Integer history, List<BurstBatcher.UserMsg> batch){
+    // ========= SSE：订阅客服回复流（有订阅时 processBatch 走模型流式输出，省掉 /pull 轮询） =========
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ChatReplyDTO>> stream(
+            @SessionAttribute("UID") Long userId,
+            @RequestParam(value = "agentId", required = false) Long agentId,
+            HttpSession session
+    ) {
+        Long useAgentId = resolveAgentId(session, agentId);
+        String chatId = ConversationIds.ua(userId, useAgentId);
+        return replyStreamHub.subscribe(chatId);
+    }
+
+    /** 投递一条完整回复：优先 SSE，没有订阅者再放进 PendingReplyBus 给 /pull */
+    private void deliver(String chatId, ChatReplyDTO dto) {
+        if (!replyStreamHub.hasSubscriber(chatId) || !replyStreamHub.emitReply(chatId, dto)) {
+            replyBus.push(chatId, dto);
+        }
+    }
+    /**
+     * @param token 本轮取消令牌：处理中又来新消息会被打断，在 RAG 前 / 调模型前 / 落库前检查，
+     *              中止后这批消息由 BurstBatcher 与新消息合并重来
+     */
+    private void processBatch(String chatId, SupportAgent agent, Integer history, List<BurstBatcher.UserMsg> batch, TurnToken token){
         // === 指标：批中最早入队时间（用于端到端 E2E） ===
         long earliestTs = batch.stream().mapToLong(BurstBatcher.UserMsg::getTs).min().orElse(System.currentTimeMillis());//端到端指的是用户发送消息后得到回复消息的时间（process_batch+9s的等待时间+额外处理的小时间+延时（
         //延时指的就是任务因为请求量大，没有分配到线程额外等待时间）->可以比喻成你发送消息后，对方人不在的时间）
         // === 指标：processBatch 耗时 ===
         Timer.Sample processSample = Timer.start(meterRegistry); //这个processBatch函数的执行时间
+        StageGraph stages = null;
+        // ★准入：按自适应并发上限决定 正常 / 降级（跳过可选阶段）/ 回忙碌话术
+        TurnAdmission.Permit permit = admission.acquire();
+        boolean failed = false;
+        // 本轮所有 LLM 调用的 token/成本合计（阶段线程经 StageGraph 带过去），落库到助手消息
+        LlmCallLedger.TurnUsage llmUsage = llmCallLedger.beginTurn();
 
         try {
             if (batch == null || batch.isEmpty()) return;
             // 2) 选择模型 & 取回条数
             // 基本上下文
             final Long userId = batch.get(0).getUserId();
-            ChatClient client = chatClientMap.getOrDefault(currentModelName, chatClientMap.get("qwen-plus"));
             int retrieveSize = Math.max(0, Math.min((history != null ? history : defaultRetrieveSize), maxMessages));
             String mergedUserText = batch.stream()
                     .map(m -> "- " + m.getText())
                     .collect(Collectors.joining("\n"));
-            //计算信任度（这里不是每一次都去调用模型）
-            int rapport=rapportService.bumpOnUserUtter(chatId,agent.getId(),userId,mergedUserText,retrieveSize);
-
-            // —— 分类：只对“合并文本”判一次 ——（更省）
+            final String mergedText = mergedUserText;
+            // 被打断重放的批次：上次尝试已对其中的旧消息做过亲密度 bump，这次只对新消息计分
+            final String freshText = batch.stream()
+                    .filter(m -> !m.isRapportCounted())
+                    .map(m -> "- " + m.getText())
+                    .collect(Collectors.joining("\n"));
+            if (permit.shed()) {
+                // 过载：不调任何模型，原文照常进记忆/落库，回一条忙碌话术
+                for (var m : batch) {
+                    if (!m.isMemorized()) conversationMemoryPort.appendUser(chatId, m.getText());
+                    chatLogService.persistUserAsync(chatId, userId, m.getText(), m.getTs(), chatSequencer.next(chatId));
+                }
+                String busy = admission.busyReply();
+                deliver(chatId, ChatReplyDTO.reply(busy, TypingDelayUtil.suggestDelayMs(busy, 60)));
+                return;
+            }
+            // 降级：打分/分类不走 LLM，RAG 只做一次直接向量检索，画像抽取/滑窗总结本轮跳过
+            final boolean degraded = permit.degraded();
+            // ★阶段图：短历史→合并分析（有预算上限）→ 打分 / 分类 / RAG 互不依赖，并发跑；整轮只等关键路径
+            // RAG 是投机执行的：审核判定沉默/边界回复时直接 cancel，不再等它
+            stages = new StageGraph(pipelineProps.isParallel() ? chatStageExecutor : Runnable::run, meterRegistry);
+            // 取最近 N 条做短历史（建议 4~8，给RAG使用，需要再append之前取）
+            var historyStage = stages.stage("history", pipelineProps.getMemoryTimeout(),
+                    List::<Message>of,
+                    () -> conversationMemoryPort.fetchRecent(chatId, Math.min(8, retrieveSize)));
+            // 合并分析：一次模型调用给出路由/边界/亲密度；打分/分类/RAG 排在它后面，拿不到（降级/关闭/失败/超预算）就各自单独调用。
+            // 超预算时阶段超时打断分析调用（不再等它、也不再为它重试），下游的超时从分析结束才起算，单独调用有自己完整的预算
+            // 启发式已判 HEAVY/MID 时本轮基本走边界回复，分类也不看模型结论，不花这次调用
+            final BoundaryLevel heuristicLevel = heuristicClassifier.classify(mergedText).getLevel();
+            final boolean heuristicDecided = heuristicLevel == BoundaryLevel.HEAVY || heuristicLevel == BoundaryLevel.MID;
+            var analysisStage = stages.<TurnAnalysis>stage("analysis", pipelineProps.getAnalysisBudget(),
+                    () -> null,
+                    () -> degraded || heuristicDecided || token.isCancelled() ? null
+                            : turnAnalyzer.analyze(mergedText, historyStage.join(),
+                                    rapportService.scoringBrief(chatId, agent.getId(), userId, retrieveSize)),
+                    historyStage);
+            //计算信任度（这里不是每一次都去调用模型）；超时回退到当前缓存分值（打分会写库：超时不打断，后台写完）
+            var rapportStage = stages.effect("rapport", pipelineProps.getRapportTimeout(),
+                    () -> rapportService.getOrInit(agent.getId(), userId).getScore(),
+                    () -> {
+                        if (degraded || freshText.isEmpty()) return rapportService.getOrInit(agent.getId(), userId).getScore();
+                        int score = rapportService.bumpOnUserUtter(chatId, agent.getId(), userId, freshText, retrieveSize,
+                                Optional.ofNullable(analysisStage.join()).map(TurnAnalysis::getRapport).orElse(null));
+                        for (var m : batch) m.setRapportCounted(true);
+                        return score;
+                    }, analysisStage);
+            // —— 分类：只对“合并文本”判一次 ——（更省）；超时回退到启发式
+            var verdictStage = stages.stage("classify", pipelineProps.getClassifyTimeout(),
+                    () -> heuristicClassifier.classify(mergedText),
+                    () -> degraded ? heuristicClassifier.classify(mergedText)
+                            : classifier.classify(mergedText,
+                                    Optional.ofNullable(analysisStage.join()).map(TurnAnalysis::getVerdict).orElse(null)),
+                    analysisStage);
+            // 记忆：无论如何，用户原文逐条追加（方便后续上下文），必须排在短历史之后；写入不设超时、不被打断
+            var appendStage = stages.effect("append", null,
+                    () -> Boolean.FALSE,
+                    () -> {
+                        for (var m : batch) {
+                            if (m.isMemorized()) continue; // 被打断重放的消息上一轮已写过
+                            conversationMemoryPort.appendUser(chatId, m.getText());
+                            m.setMemorized(true);
+                        }
+                        return Boolean.TRUE;
+                    }, historyStage);
+            // 走 RAG 预检索管道，拿到候选文档（RAG检索必要）
+            var ragStage = stages.stage("rag", pipelineProps.getRagTimeout(),
+                    List::<Document>of,
+                    () -> token.isCancelled()
+                            ? List.<Document>of() // 已被新消息打断：不再花 RAG 的 LLM 调用
+                            : degraded
+                            ? ragQueryPipeline.searchDirect(mergedText)
+                            : ragQueryPipeline.searchWithAugmenters(mergedText, historyStage.join(),
+                                    Optional.ofNullable(analysisStage.join()).map(TurnAnalysis::getRouting).orElse(null)),
+                    historyStage, analysisStage);
+
+            int rapport = Optional.ofNullable(stages.await(rapportStage)).orElse(50);
+            TurnAnalysis analysis = stages.await(analysisStage); // 只用于选模型：打分/分类已等过它；没拿到就按 RAG 结果判意图
             //边界信息定位防御（必须做的)
-            BoundaryVerdict mergedVerdict = classifier.classify(mergedUserText);
+            BoundaryVerdict mergedVerdict = stages.await(verdictStage);
            // 仅有 romantic 且级别为 LIGHT -> 允许，用来“拉近关系”
             // 轻度浪漫：LIGHT 且仅 romantic → 放行
             boolean onlyLightRomantic =
@@ -265,13 +435,17 @@ public class ChatController {
                     && !cats.contains("contact_business")
                     && !cats.contains("contact_exchange")
                     && !onlyLightRomantic;
-            // 取最近 N 条做短历史（建议 4~8，给RAG使用，需要再append之前取）
-            List<Message> shortHistory = conversationMemoryPort.fetchRecent(chatId, Math.min(8, retrieveSize));
-            // 记忆：无论如何，用户原文逐条追加（方便后续上下文）
-            for (var m : batch) conversationMemoryPort.appendUser(chatId, m.getText());
+            // 用户原文无论是否沉默都要进记忆：先等追加完成，后续 cancel 只影响 RAG
+            stages.await(appendStage);
             // —— 先看 10 轮窗口再标记：命中则沉默 ——（记忆/落库仍逐条记原文）
-            boolean windowHasHarass = window10Service.hasHarassPrevThenMark(chatId, isHarassCat);
+            // 重放的批次上次已写过本轮标记：覆盖而不追加，且不把它算作“之前”
+            boolean replayedMark = batch.stream().anyMatch(BurstBatcher.UserMsg::isWindowMarked);
+            boolean windowHasHarass = replayedMark
+                    ? window10Service.hasHarassPrevThenRemark(chatId, isHarassCat)
+                    : window10Service.hasHarassPrevThenMark(chatId, isHarassCat);
+            for (var m : batch) m.setWindowMarked(true);
             if (isHarassCat && windowHasHarass) {
+                stages.cancel(); // 不回复：投机中的 RAG 直接丢弃
                 // Redis 记忆：逐条写原文
                 behaviorTelemetryService.recordModeration(
                         userId, chatId, mergedVerdict, ModerationDecision.Action.SILENCE,
@@ -289,6 +463,7 @@ public class ChatController {
 
             switch (decision.getAction()) {
                 case SILENCE -> {
+                    stages.cancel(); // 不走模型：RAG 结果用不上了
                     //也可以第一次还给回复，
                     // 低分或严重越界：沉默 + 可选降分
                     if (decision.getScoreDelta() != 0) {
@@ -306,26 +481,27 @@ public class ChatController {
                         for (var m : batch) chatLogService.persistUserAsync(chatId, userId, m.getText(),m.getTs(),chatSequencer.next(chatId));
                         return ;
                     } else {
-                        // 发送一条固定基准话术 + 轻改写
-                        String base = "抱歉，我无法处理这类内容。如需业务支持请直接说具体问题，我马上为您跟进。";
-                        String safe = boundaryParaphraser.paraphrase(base, rapport);
+                        // 发送一条固定基准话术 + 轻改写（从预生成的改写池里挑，不调模型）
+                        String base = BoundaryReplies.generic();
+                        String safe = boundaryReplyPool.pick(chatId, base, rapport);
                         // 如果你想更稳妥，可限制表情最多 1 个：safe = EmoteNormalizer.emojify(safe, 1);
                         conversationMemoryPort.appendAssistant(chatId, safe);
 
                         for (var m : batch) chatLogService.persistUserAsync(chatId, userId, m.getText(),m.getTs(),chatSequencer.next(chatId));
-                        chatLogService.persistAssistantAsync(chatId, userId, safe, currentModelName, 0,System.currentTimeMillis(),chatSequencer.next(chatId));
+                        chatLogService.persistAssistantAsync(chatId, userId, safe, null, 0,System.currentTimeMillis(),chatSequencer.next(chatId), llmUsage.snapshot()); // 改写池话术，没调主模型
                         // 行为遥测：既然发了提醒，记录为 BOUNDARY_REPLY 更准确
                         behaviorTelemetryService.recordModeration(
                                 userId, chatId, mergedVerdict, ModerationDecision.Action.BOUNDARY_REPLY,
                                 "[batch] merged", decision.getScoreDelta()
                         );
                         int delay = TypingDelayUtil.suggestDelayMs(safe,rapport);
-                        // ★ Push 给轮询端点
-                        replyBus.push(chatId, ChatReplyDTO.reply(safe, delay));
+                        // ★ Push 给 SSE / 轮询端点
+                        deliver(chatId, ChatReplyDTO.reply(safe, delay));
                         return ;
                     }
                 }
                 case BOUNDARY_REPLY -> {
+                    stages.cancel();
                     // 轻/中度越界：边界提醒 + 可选轻微降分；不调用模型
                     if (decision.getScoreDelta() != 0) {
                         rapportService.decay(userId, agent.getId(), Math.abs(decision.getScoreDelta()));
@@ -338,13 +514,13 @@ public class ChatController {
                         else if (mergedVerdict.getCategories().contains("romantic")) base = BoundaryReplies.romantic();
                         else if (mergedVerdict.getCategories().contains("profanity")) base = BoundaryReplies.profanity();
                         else base = BoundaryReplies.sexualOrIllegal();
-                        return boundaryParaphraser.paraphrase(base, rapport); //对固定话术微调
+                        return boundaryReplyPool.pick(chatId, base, rapport); //对固定话术微调（改写池）
                     });
                     // 在边界提醒分支，建议更克制：最多 1 个
                     safe = EmoteNormalizer.emojify(safe);
                     conversationMemoryPort.appendAssistant(chatId, safe);
                     for (var m : batch) chatLogService.persistUserAsync(chatId, userId, m.getText(),m.getTs(),chatSequencer.next(chatId));
-                    chatLogService.persistAssistantAsync(chatId, userId, safe, currentModelName, 0,System.currentTimeMillis(),chatSequencer.next(chatId));
+                    chatLogService.persistAssistantAsync(chatId, userId, safe, null, 0,System.currentTimeMillis(),chatSequencer.next(chatId), llmUsage.snapshot()); // 改写池话术，没调主模型
                     behaviorTelemetryService.recordModeration(
                             userId, chatId,
                             mergedVerdict,
@@ -354,7 +530,7 @@ public class ChatController {
                     );
                     int delay = TypingDelayUtil.suggestDelayMs(safe, rapport);
                     // ★ Push
-                    replyBus.push(chatId, ChatReplyDTO.reply(safe, delay));
+                    deliver(chatId, ChatReplyDTO.reply(safe, delay));
                     return;
                 }
                 case PROCEED -> {
@@ -362,9 +538,8 @@ public class ChatController {
                 }
             }
             // 5) 拟人化系统提示（隐藏AI身份，不谈模型；结合亲密度风格）
-            String baseSys = agent.getSystemPrompt();
-            // 若无客服名/门店，可用默认占位；避免调用不存在的 getter
-            String humanSys = HumanStyleSystem.inject(baseSys, agent.getName(), agent.getStoreName(),rapport);
+            // 静态段按（客服, 亲密度档位）缓存，放在系统提示最前面，利于服务商前缀缓存命中
+            PromptSegment humanSys = promptAssembler.staticSegment(agent, rapport);
             // 6) 预算/提示组装（沿用你现有 PromptAssembler）
             String tone = (rapport >= 80)
                     ? "与用户关系较熟，可适度口语化与场景共鸣。"
@@ -377,16 +552,24 @@ public class ChatController {
             }
             String hotJson = hotJsonGlob;
             // 可选：从用户话术里解析过滤条件（先留空）
-            // 走 RAG 预检索管道，拿到候选文档
-            //RAG检索必要
-            List<Document> ragDocs =
-                    ragQueryPipeline.searchWithAugmenters(
-                            mergedUserText,
-                            shortHistory);
+            // RAG 已在阶段图里与审核并发跑，这里只取结果（超时则为空参考）
+            token.checkpoint("rag");
+            List<Document> ragDocs = stages.await(ragStage);
             // 把 ragDocs 转成「参考商品 JSON」传入 PromptAssembler
             String refsJson = toReferenceJson(ragDocs,mapper,180); // 你可以按你的 JSON 结构封装（id/title/brand/price/url/snippet...）
+            // 按轮选模型：意图（合并分析/RAG 结果）+ 预算 + 模型压力 + 亲密度
+            QueryRouting.Intent intent = Optional.ofNullable(analysis).map(TurnAnalysis::getRouting)
+                    .map(QueryRouting::getIntent)
+                    .orElse(ragDocs.isEmpty() ? QueryRouting.Intent.NON_PRODUCT : QueryRouting.Intent.PRODUCT_INFO);
+            int fixedTok = promptAssembler.fixedTokens(humanSys, hotJson, refsJson, tone, mergedUserText);
+            // 前端开着 SSE 就走流式（路由按首个增量的延迟判断模型是否变慢）
+            boolean streaming = replyStreamHub.hasSubscriber(chatId);
+            ModelRouter.Route route = modelRouter.route(new ModelRouter.Signals(
+                    intent, mergedUserText, ragDocs.size(), rapport, fixedTok,
+                    retrieveSize, FALLBACK_T_HIST, TARGET_T_LMS, lmsSoftCapRatio, streaming));
+            String modelName = route.model();
             var asm = promptAssembler.build(
-                    currentModelName, userId, chatId,
+                    modelName, userId, chatId,
                     humanSys, hotJson,refsJson, tone,
                     retrieveSize,mergedUserText,
                     lmsSoftCapRatio, FALLBACK_T_HIST, TARGET_T_LMS,
@@ -402,62 +585,95 @@ public class ChatController {
             ctx.add(new SystemMessage(sys));
             ctx.addAll(conversationMemoryPort.fetchRecent(chatId, retrieveSize));
             ctx.add(new UserMessage(userBatchPrompt));
-            // 7) 调用模型
+            // 7) 调用模型：前端开着 SSE 就走流式，边生成边推增量；否则一次性调用，等 /pull
+            token.checkpoint("model");
             long t0 = System.currentTimeMillis();
-
-            String answer = client.prompt(new Prompt(ctx)).call().content();
+            String answer;
+            if (streaming) {
+                StringBuilder acc = new StringBuilder();
+                llmGateway.stream("main", modelName, new Prompt(ctx))
+                        .doOnNext(delta -> {
+                            if (acc.isEmpty()) {
+                                // 流式模式下“首条回复”就是首个增量
+                                e2eTimer.record(System.currentTimeMillis() - earliestTs, java.util.concurrent.TimeUnit.MILLISECONDS);
+                            }
+                            acc.append(delta);
+                            replyStreamHub.emitDelta(chatId, delta);
+                        })
+                        .blockLast();
+                answer = acc.toString();
+            } else {
+                answer = llmGateway.call("main", modelName, new Prompt(ctx));
+            }
 
             int latency = (int) (System.currentTimeMillis() - t0);
+            // 落库前最后一次检查：答案已过时就丢掉（流式已推给前端的不再撤回）
+            if (!streaming) token.checkpoint("persist");
             String finalAnswer = EmoteNormalizer.emojify(answer);
 
             // 记忆：助手只写一条
             conversationMemoryPort.appendAssistant(chatId, finalAnswer);
             for (var m : batch) chatLogService.persistUserAsync(chatId, userId, m.getText(),m.getTs(),chatSequencer.next(chatId));
-            chatLogService.persistAssistantAsync(chatId, userId,finalAnswer, currentModelName, latency,System.currentTimeMillis(),chatSequencer.next(chatId));
+            chatLogService.persistAssistantAsync(chatId, userId,finalAnswer, modelName, latency,System.currentTimeMillis(),chatSequencer.next(chatId), llmUsage.snapshot());
             // 8) 表情替换 + 打字延时建议
 //        String finalAnswer= EmoteNormalizer.normalize(answer);
             // 原来：String finalAnswer = EmoteNormalizer.emojify(answer);
 // 改为：
             int delayMs = TypingDelayUtil.suggestDelayMs(finalAnswer, rapport);
-            e2eTimer.record(System.currentTimeMillis() - earliestTs, java.util.concurrent.TimeUnit.MILLISECONDS);
+            if (!streaming) {
+                e2eTimer.record(System.currentTimeMillis() - earliestTs, java.util.concurrent.TimeUnit.MILLISECONDS);
+            }
             replyCounter.increment(); // 记录一次“产生回复”
-            // ★ Push：把这轮的最终客服回复放进队列，给 /pull 拉取
-            replyBus.push(chatId, ChatReplyDTO.reply(finalAnswer, delayMs));
+            // ★ Push：流式时发 reply 事件收尾（前端用最终文本覆盖增量）；否则放进队列给 /pull 拉取
+            deliver(chatId, ChatReplyDTO.reply(finalAnswer, streaming ? 0 : delayMs));
             // 9) 异步持久化与统计（保持你原有链路）
             lmsEwmaService.updateAfterTurnAsync(chatId, retrieveSize, asm.lmsInjected());
-            profileExtractorService.analyzeAndUpsertAsync(userId, mergedUserText);//用户肖像的抽取。可以去掉不必要的
-            // 10) 滑窗总结与压缩（LMS）（必要的，并不是每次都做）
-            lmsWindowService.maybeSummarizeNextWindow(
-                    chatId, userId, agent.getId(),
-                    lmsRedisPrefix, counterTtlSeconds,
-                    retrieveSize
-            );
+            if (!degraded) {
+                profileExtractorService.analyzeAndUpsertAsync(userId, mergedUserText);//用户肖像的抽取。可以去掉不必要的
+                // 10) 滑窗总结与压缩（LMS）（必要的，并不是每次都做）
+                lmsWindowService.maybeSummarizeNextWindow(
+                        chatId, userId, agent.getId(),
+                        lmsRedisPrefix, counterTtlSeconds,
+                        retrieveSize
+                );
+            }
             lmsService.compactIfExceedAsync(chatId, bdg.getNLmsSoftCap());//（二次压缩的，不是每次都做）
+        }catch (TurnToken.Cancelled e) {
+            permit.ignore();
+            throw e; // 不算错误：交给 BurstBatcher 合并到下一批
         }catch (Exception e) {
+            failed = true;
             processErrorCounter.increment();
             throw new RuntimeException(e);
         }finally {
+            if (stages != null) stages.cancel(); // 异常提前退出时收掉仍在跑的阶段
+            llmCallLedger.endTurn();
+            permit.release(!failed);
             processSample.stop(processTimer);
         }
     }
     /**
-     * 设置当前模型
+     * 钉住主对话模型（排障/对比用）；modelName=auto 恢复按轮路由
      */
     @PostMapping("/model")
     public ResponseEntity<String> setCurrentModel(@RequestParam String modelName) {
+        if ("auto".equalsIgnoreCase(modelName)) {
+            modelRouter.pin(null);
+            return ResponseEntity.ok("已恢复按轮自动选模型");
+        }
         if (!supportedModels.contains(modelName)) {
             return ResponseEntity.badRequest().body("模型名不支持：" + modelName);
         }
-        this.currentModelName = modelName;
+        modelRouter.pin(modelName);
         return ResponseEntity.ok("已切换至模型：" + modelName);
     }
 
     /**
-     * 获取当前模型
+     * 获取当前模型：钉住的模型名，未钉住时为 auto（每轮由 ModelRouter 选择）
      */
     @GetMapping("/model")
     public String getCurrentModel() {
-        return this.currentModelName;
+        return Optional.ofNullable(modelRouter.pinned()).orElse("auto");
     }
 
     /**
@@ -18,10 +18,10 @@ import java.io.IOException;
  * - 写入 HttpSession 属性 "UID"，以满足 @SessionAttribute("UID")
  * - 若还提供 X-AGENT-ID / agentId，也一并写入（可选）
  *
- * 注意：只在 dev/perf Profile 下生效，生产禁用。
+ * 注意：只在 dev/perf/loadtest Profile 下生效，生产禁用。
  */
 @Component
-@Profile({"dev","perf"})
+@Profile({"dev","perf","loadtest"})
 public class DevUidInjectionFilter extends OncePerRequestFilter {
 
     private static final String UID_KEY = "UID";
@@ -25,6 +25,17 @@ public class ChatMessage {
     private String modelName;                // assistant 使用的模型名
     private Integer latencyMs;               // 可选
 
+    // 本轮所有 LLM 调用合计（仅 assistant 行；见 LlmCallLedger）
+    // 列是后加的（README 里的 ALTER）：不参与实体查询；插入时为 null 的字段不写，库里没这几列时不赋值即可
+    @TableField(select = false)
+    private Integer llmCalls;
+    @TableField(select = false)
+    private Integer promptTokens;
+    @TableField(select = false)
+    private Integer completionTokens;
+    @TableField(select = false)
+    private Double llmCost;                  // 估算成本（元）
+
     @TableField(fill = FieldFill.INSERT)
     private LocalDateTime createdAt;
 
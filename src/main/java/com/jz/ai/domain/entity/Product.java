@@ -4,6 +4,7 @@ package com.jz.ai.domain.entity;
 import com.baomidou.mybatisplus.annotation.*;
 import lombok.Data;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
 
 @Data
 @TableName("product")
@@ -19,4 +20,6 @@ public class Product {
     private String url;
     @TableField("is_active")
     private Boolean isActive;
+    @TableField(fill = FieldFill.INSERT_UPDATE)
+    private LocalDateTime updatedAt; // 增量向量同步的水位列
 }
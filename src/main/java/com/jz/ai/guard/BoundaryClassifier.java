@@ -2,4 +2,11 @@ package com.jz.ai.guard;
 
 public interface BoundaryClassifier {
     BoundaryVerdict classify(String userMessage);
-}
\ No newline at end of file
+
+    /**
+     * @param llmVerdict 本轮合并分析（TurnAnalyzer）已给出的模型结论；null 时与 classify(userMessage) 相同
+     */
+    default BoundaryVerdict classify(String userMessage, BoundaryVerdict llmVerdict) {
+        return classify(userMessage);
+    }
+}
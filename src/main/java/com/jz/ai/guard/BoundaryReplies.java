@@ -1,5 +1,6 @@
 package com.jz.ai.guard;
 
+import java.util.List;
 
 public final class BoundaryReplies {
     private BoundaryReplies(){}
@@ -16,4 +17,13 @@ public final class BoundaryReplies {
     public static String profanity() {
         return "理解您的着急，我先帮您把事情处理好；有什么问题直接说，我这边跟进。(汗)";
     }
+    /** 严重越界未沉默时的通用提醒 */
+    public static String generic() {
+        return "抱歉，我无法处理这类内容。如需业务支持请直接说具体问题，我马上为您跟进。";
+    }
+
+    /** 全部基准话术（BoundaryReplyPool 预热用） */
+    public static List<String> all() {
+        return List.of(privacyPersonal(), romantic(), sexualOrIllegal(), profanity(), generic());
+    }
 }
@@ -1,28 +1,23 @@
 package com.jz.ai.guard;
 
+import com.jz.ai.chat.llm.LlmGateway;
 import lombok.RequiredArgsConstructor;
-import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 @Component
 @RequiredArgsConstructor
 public class BoundaryReplyParaphraser {
 
-    @Qualifier("statelessChatClients")
-    private final Map<String, ChatClient> chatClients;
+    private final LlmGateway llmGateway;
     private final Random rnd = new Random();
 
-    private ChatClient client() {
-        // 随便取一个最便宜模型（你也可通过配置指定）
-        return Optional.ofNullable(chatClients.get("qwen-plus"))
-                .orElseGet(() -> chatClients.values().iterator().next());
-    }
-
     public String paraphrase(String base, int rapportScore) {
         try {
             String sys = """
@@ -30,7 +25,8 @@ public class BoundaryReplyParaphraser {
 可微调口吻：亲密度高更轻松，低更克制。适度表情，避免重复固定句式。禁止提到AI/模型。
 """;
             String prompt = "亲密度：" + rapportScore + "；原句：" + base;
-            String out = client().prompt().system(sys).user(prompt).call().content();
+            // 随便取一个最便宜模型（你也可通过配置指定）；超时走 fallback
+            String out = llmGateway.call("paraphrase", "qwen-plus", sys, prompt);
             if (out == null || out.isBlank()) return fallback(base);
             return out.trim();
         } catch (Exception e) {
@@ -38,6 +34,38 @@ public class BoundaryReplyParaphraser {
         }
     }
 
+    private static final Pattern LIST_MARK = Pattern.compile("^\\s*(?:\\d+[.、)）]|[-*•])\\s*");
+
+    /**
+     * 一次生成多条改写（给 BoundaryReplyPool 后台填池用，不在热路径上）；失败返回空列表
+     */
+    public List<String> paraphraseMany(String base, int rapportScore, int n) {
+        try {
+            String sys = """
+你是真人客服。把下面一句中文客服提醒改写成 %d 种不同说法，保持原意与边界，每条不超过40字，语气自然。
+可微调口吻：亲密度高更轻松，低更克制。适度表情，各条句式不要雷同。禁止提到AI/模型。
+每行一条，不要编号、引号或其它说明。
+""".formatted(n);
+            String prompt = "亲密度：" + rapportScore + "；原句：" + base;
+            String out = llmGateway.call("paraphrase-pool", "qwen-plus", sys, prompt);
+            if (out == null || out.isBlank()) return List.of();
+            Set<String> uniq = new LinkedHashSet<>();
+            for (String line : out.split("\\R")) {
+                String t = LIST_MARK.matcher(line).replaceFirst("").trim();
+                t = t.replaceAll("^[\"“”']+|[\"“”']+$", "").trim();
+                if (!t.isEmpty() && t.length() <= 60) uniq.add(t);
+            }
+            return new ArrayList<>(uniq);
+        } catch (Exception e) {
+            return List.of();
+        }
+    }
+
+    /** 不调模型的本地微调（池还没填好时用） */
+    public String localVariant(String base) {
+        return fallback(base);
+    }
+
     // 极简兜底：随机替换尾词/语气符号
     private String fallback(String base) {
         String[] tails = {"～", "哈", "呢", "哈～", "的", ""};
@@ -0,0 +1,260 @@
+package com.jz.ai.guard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.async.IdleTimingWheel;
+import com.jz.ai.config.ModerationProperties;
+import com.jz.ai.config.ParaphrasePoolProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 边界提醒改写池（SILENCE / BOUNDARY_REPLY 分支用）：
+ * - 每个（基准话术 × 亲密度档位）一个池，由后台线程调模型批量生成，内存里读、Redis 里存；
+ * - 热路径只做“从池里挑一条”，池空时用本地微调兜底并触发后台填充，不再同步等模型；
+ * - 池过了 refreshInterval 后，下次命中时后台补一批新的，挤掉最旧的；
+ * - 同一会话最近用过的几条不再重复。
+ */
+@Slf4j
+@Component
+public class BoundaryReplyPool implements CommandLineRunner {
+
+    private final BoundaryReplyParaphraser paraphraser;
+    private final ParaphrasePoolProperties props;
+    private final ModerationProperties moderationProps;
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+    private final ThreadPoolTaskExecutor executor;
+    private final MeterRegistry registry;
+
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final Map<String, Recent> recents = new ConcurrentHashMap<>();
+    private final IdleTimingWheel<String> recentWheel;
+
+    public BoundaryReplyPool(BoundaryReplyParaphraser paraphraser,
+                             ParaphrasePoolProperties props,
+                             ModerationProperties moderationProps,
+                             StringRedisTemplate redis,
+                             ObjectMapper mapper,
+                             @Qualifier("chatAsyncExecutor") ThreadPoolTaskExecutor executor,
+                             MeterRegistry registry) {
+        this.paraphraser = paraphraser;
+        this.props = props;
+        this.moderationProps = moderationProps;
+        this.redis = redis;
+        this.mapper = mapper;
+        this.executor = executor;
+        this.registry = registry;
+        Gauge.builder("chat.async.entries", recents, Map::size)
+                .description("Number of live per-chat entries")
+                .tag("structure", "paraphrase_recent")
+                .register(registry);
+        this.recentWheel = new IdleTimingWheel<>("paraphrase", 5000, 512, this::checkRecentIdle);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recentWheel.close();
+    }
+
+    /** 启动后预填全部基准话术（异步，不阻塞启动） */
+    @Override
+    public void run(String... args) {
+        if (!props.isEnabled() || !props.isPrewarm()) return;
+        for (String base : BoundaryReplies.all()) {
+            for (int bucket = 0; bucket < 3; bucket++) {
+                refreshAsync(pool(base, bucket));
+            }
+        }
+    }
+
+    /**
+     * 热路径：为该会话挑一条改写，不调模型
+     */
+    public String pick(String chatId, String base, int rapportScore) {
+        if (!props.isEnabled()) return paraphraser.paraphrase(base, rapportScore);
+        Pool p = pool(base, bucketOf(rapportScore));
+        if (System.currentTimeMillis() >= p.nextRefreshAt) refreshAsync(p);
+        List<String> variants = p.variants;
+        if (variants.isEmpty()) {
+            registry.counter("chat.moderation.paraphrase.pick.count", "result", "miss").increment();
+            return paraphraser.localVariant(base);
+        }
+        registry.counter("chat.moderation.paraphrase.pick.count", "result", "hit").increment();
+        return chatId == null ? variants.get(ThreadLocalRandom.current().nextInt(variants.size()))
+                : pickAvoidingRecent(chatId, p.key, variants);
+    }
+
+    /** 低 / 中 / 高 三档，与审核的提醒阈值对齐 */
+    private int bucketOf(int rapportScore) {
+        if (rapportScore < moderationProps.getLightReplyFloor()) return 0;
+        if (rapportScore < moderationProps.getMidReplyFloor()) return 1;
+        return 2;
+    }
+
+    /** 生成时给模型的代表性亲密度 */
+    private int representative(int bucket) {
+        int light = moderationProps.getLightReplyFloor();
+        int mid = moderationProps.getMidReplyFloor();
+        return switch (bucket) {
+            case 0 -> light / 2;
+            case 1 -> (light + mid) / 2;
+            default -> (mid + 100) / 2;
+        };
+    }
+
+    private Pool pool(String base, int bucket) {
+        String key = Integer.toHexString(base.hashCode()) + ":" + bucket;
+        return pools.computeIfAbsent(key, k -> new Pool(k, base, bucket));
+    }
+
+    // ===================== 后台填充 =====================
+
+    private void refreshAsync(Pool p) {
+        if (!p.refreshing.compareAndSet(false, true)) return;
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(p);
+                } finally {
+                    p.refreshing.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            p.refreshing.set(false);
+        }
+    }
+
+    private void refresh(Pool p) {
+        long now = System.currentTimeMillis();
+        // 首次：先看 Redis 里有没有（其它节点/上次进程生成的）
+        if (!p.loaded) {
+            p.loaded = true;
+            Stored s = load(p.key);
+            if (s != null && s.getVariants() != null && !s.getVariants().isEmpty()) {
+                p.variants = List.copyOf(s.getVariants());
+                p.nextRefreshAt = s.getTs() + props.getRefreshInterval().toMillis();
+                if (now < p.nextRefreshAt) return;
+            }
+        }
+        List<String> fresh = paraphraser.paraphraseMany(p.base, representative(p.bucket), props.getBatchSize());
+        if (fresh.isEmpty()) {
+            registry.counter("chat.moderation.paraphrase.refresh.count", "outcome", "empty").increment();
+            p.nextRefreshAt = now + props.getRetryBackoff().toMillis();
+            return;
+        }
+        LinkedHashSet<String> merged = new LinkedHashSet<>(fresh);
+        merged.addAll(p.variants);
+        List<String> next = new ArrayList<>(merged);
+        if (next.size() > props.getPoolSize()) next = next.subList(0, Math.max(1, props.getPoolSize()));
+        p.variants = List.copyOf(next);
+        p.nextRefreshAt = now + props.getRefreshInterval().toMillis();
+        registry.counter("chat.moderation.paraphrase.refresh.count", "outcome", "ok").increment();
+        save(p.key, new Stored(now, p.variants));
+    }
+
+    private Stored load(String key) {
+        try {
+            String json = redis.opsForValue().get(props.getRedisKeyPrefix() + key);
+            return json == null ? null : mapper.readValue(json, Stored.class);
+        } catch (Exception e) {
+            log.warn("paraphrase pool load failed: key={}, err={}", key, e.toString());
+            return null;
+        }
+    }
+
+    private void save(String key, Stored s) {
+        try {
+            redis.opsForValue().set(props.getRedisKeyPrefix() + key, mapper.writeValueAsString(s), props.getRedisTtl());
+        } catch (Exception e) {
+            log.warn("paraphrase pool save failed: key={}, err={}", key, e.toString());
+        }
+    }
+
+    // ===================== 会话内防重复 =====================
+
+    private String pickAvoidingRecent(String chatId, String poolKey, List<String> variants) {
+        boolean[] created = {false};
+        Recent r = recents.computeIfAbsent(chatId, k -> {
+            created[0] = true;
+            return new Recent();
+        });
+        if (created[0]) recentWheel.schedule(chatId, props.getRecentIdle().toMillis());
+        synchronized (r) {
+            r.lastTouchMs = System.currentTimeMillis();
+            Deque<String> used = r.used.computeIfAbsent(poolKey, k -> new ArrayDeque<>());
+            List<String> candidates = new ArrayList<>(variants.size());
+            for (String v : variants) if (!used.contains(v)) candidates.add(v);
+            if (candidates.isEmpty()) {
+                // 池比防重复窗口还小：至少不与上一条相同
+                String last = used.peekLast();
+                for (String v : variants) if (!v.equals(last)) candidates.add(v);
+                if (candidates.isEmpty()) candidates = variants;
+            }
+            String chosen = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+            used.addLast(chosen);
+            int keep = Math.max(0, Math.min(props.getAntiRepeat(), variants.size() - 1));
+            while (used.size() > keep) used.pollFirst();
+            return chosen;
+        }
+    }
+
+    private long checkRecentIdle(String chatId) {
+        long idleMs = props.getRecentIdle().toMillis();
+        long[] next = {-1};
+        recents.computeIfPresent(chatId, (k, r) -> {
+            long idle = System.currentTimeMillis() - r.lastTouchMs;
+            if (idle >= idleMs) return null;
+            next[0] = Math.max(1000, idleMs - idle);
+            return r;
+        });
+        return next[0];
+    }
+
+    // ===================== 内部结构 =====================
+
+    private static final class Pool {
+        final String key;
+        final String base;
+        final int bucket;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile List<String> variants = List.of();
+        volatile long nextRefreshAt = 0;
+        volatile boolean loaded;
+
+        Pool(String key, String base, int bucket) {
+            this.key = key;
+            this.base = base;
+            this.bucket = bucket;
+        }
+    }
+
+    private static final class Recent {
+        final Map<String, Deque<String>> used = new HashMap<>(4);
+        volatile long lastTouchMs = System.currentTimeMillis();
+    }
+
+    /** Redis 中的持久化格式 */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Stored {
+        private long ts;
+        private List<String> variants;
+    }
+}
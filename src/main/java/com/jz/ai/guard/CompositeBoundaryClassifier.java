@@ -34,4 +34,16 @@ public class CompositeBoundaryClassifier implements BoundaryClassifier {
         }
         return h;
     }
+
+    /**
+     * 合并分析已给出模型结论：省掉这里的单独 LLM 调用，阈值规则不变。
+     * 结论不写进 LlmBoundaryClassifier 的缓存：那里只放分类提示词自己给出的结论，两种来源不混用
+     */
+    @Override
+    public BoundaryVerdict classify(String userMessage, BoundaryVerdict llmVerdict) {
+        if (llmVerdict == null || !props.isEnabled()) return classify(userMessage);
+        BoundaryVerdict h = heuristic.classify(userMessage);
+        if (h.getLevel() == BoundaryLevel.HEAVY || h.getLevel() == BoundaryLevel.MID) return h;
+        return llmVerdict.getConfidence() >= props.getEscalateThreshold() ? llmVerdict : h;
+    }
 }
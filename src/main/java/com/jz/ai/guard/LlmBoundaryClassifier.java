@@ -1,13 +1,10 @@
 package com.jz.ai.guard;
 
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
 import com.jz.ai.config.LlmModerationProperties;
 import lombok.RequiredArgsConstructor;
-import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
@@ -17,16 +14,10 @@ import java.util.*;
 @RequiredArgsConstructor
 public class LlmBoundaryClassifier implements BoundaryClassifier {
 
-    @Qualifier("statelessChatClients")
-    private final Map<String, ChatClient> chatClientMap;
+    private final LlmGateway llmGateway;
     private final LlmModerationProperties props;
-    private final ObjectMapper mapper;
-    private final StringRedisTemplate redis;
-
-    private ChatClient client() {
-        return Optional.ofNullable(chatClientMap.get(props.getModel()))
-                .orElseGet(() -> chatClientMap.values().iterator().next());
-    }
+    private final JsonExtractor jsonExtractor;
+    private final VerdictCache cache; // L1 Caffeine + L2 Redis，含近似重复命中
 
     private static final String SYS_SAFE = """
 你是“客服合规判定”分类器。请仅根据“用户消息”输出 JSON：
@@ -51,47 +42,50 @@ public class LlmBoundaryClassifier implements BoundaryClassifier {
             return BoundaryVerdict.builder().level(BoundaryLevel.NONE).confidence(0.0).categories(Set.of()).reason("disabled/empty").build();
         }
         String norm = userMessage.trim();
-//        String key = props.getRedisKeyPrefix() + Integer.toHexString(norm.hashCode());
-//        String cached = redis.opsForValue().get(key);
-      /*  if (cached != null) {
-            try { return mapper.readValue(cached, BoundaryVerdict.class); } catch (Exception ignore) {}
-        }*/
+        VerdictCache.Key key = cache.keyOf(norm);
+        Optional<BoundaryVerdict> cached = cache.get(key);
+        if (cached.isPresent()) return cached.get();
 
         try {
-            String out = client().prompt()
-                    .system(SYS_SAFE)
-                    .user("【用户消息】\n" + norm + "\n仅输出 JSON。")
-                    .call()
-                    .content();
+            // 超时（chat.moderation.llm.timeout-ms）→ 走下面的 llm error 兜底
+            String out = llmGateway.call("boundary", props.getModel(), SYS_SAFE,
+                    "【用户消息】\n" + norm + "\n仅输出 JSON。",
+                    Duration.ofMillis(props.getTimeoutMs()));
 
             if (out == null || out.isBlank()) {
                 return BoundaryVerdict.builder().level(BoundaryLevel.NONE).confidence(0.0).categories(Set.of()).reason("llm empty").build();
             }
-            int b = out.indexOf('{'), e = out.lastIndexOf('}');
-            if (b >= 0 && e >= b) out = out.substring(b, e + 1);
-
-            Map<String,Object> m = mapper.readValue(out, new TypeReference<>() {});
-            String levelStr = String.valueOf(m.getOrDefault("level","NONE")).toUpperCase(Locale.ROOT);
-            double conf = toDouble(m.get("confidence"), .6);
-            @SuppressWarnings("unchecked")
-            Set<String> cats = new LinkedHashSet<>((List<String>) m.getOrDefault("categories", List.of()));
-            String reason = String.valueOf(m.getOrDefault("reason",""));
-
-            BoundaryLevel lvl = switch (levelStr) {
-                case "LIGHT" -> BoundaryLevel.LIGHT;
-                case "MID"   -> BoundaryLevel.MID;
-                case "HEAVY" -> BoundaryLevel.HEAVY;
-                default      -> BoundaryLevel.NONE;
-            };
-            BoundaryVerdict v = BoundaryVerdict.builder().level(lvl).confidence(conf).categories(cats).reason(reason).build();
+            JsonExtractor.Parsed<Map<String,Object>> parsed = jsonExtractor.parse(out, JsonExtractor.MAP)
+                    .orElseThrow(() -> new IllegalStateException("no json object"));
+            BoundaryVerdict v = fromMap(parsed.value());
 
-//            redis.opsForValue().set(key, mapper.writeValueAsString(v), Duration.ofSeconds(props.getCacheTtlSeconds()));
+            // 只缓存模型正常给出的结论；空结果/异常兜底/截断补齐的残缺结论不缓存
+            if (!parsed.recovered()) cache.put(key, v);
             return v;
         } catch (Exception e) {
             return BoundaryVerdict.builder().level(BoundaryLevel.NONE).confidence(0.0).categories(Set.of()).reason("llm error").build();
         }
     }
 
+    /** {"level","categories","confidence","reason"} → BoundaryVerdict（合并分析的 boundary 段同样用它解析） */
+    public static BoundaryVerdict fromMap(Map<String,Object> m) {
+        String levelStr = String.valueOf(m.getOrDefault("level","NONE")).toUpperCase(Locale.ROOT);
+        double conf = toDouble(m.get("confidence"), .6);
+        Set<String> cats = new LinkedHashSet<>();
+        if (m.get("categories") instanceof Collection<?> c) {
+            for (Object o : c) if (o != null) cats.add(String.valueOf(o));
+        }
+        String reason = String.valueOf(m.getOrDefault("reason",""));
+
+        BoundaryLevel lvl = switch (levelStr) {
+            case "LIGHT" -> BoundaryLevel.LIGHT;
+            case "MID"   -> BoundaryLevel.MID;
+            case "HEAVY" -> BoundaryLevel.HEAVY;
+            default      -> BoundaryLevel.NONE;
+        };
+        return BoundaryVerdict.builder().level(lvl).confidence(conf).categories(cats).reason(reason).build();
+    }
+
     private static double toDouble(Object v, double d) {
         try { return v == null ? d : Double.parseDouble(String.valueOf(v)); } catch (Exception e) { return d; }
     }
@@ -0,0 +1,84 @@
+package com.jz.ai.guard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * 审核缓存用的文本签名：
+ * - normalize：NFKC + 小写，去掉标点/空白/表情等非字母数字字符，连续相同字符折叠为一个；
+ * - exactKey：归一化文本的 SHA-256 前 16 字节；
+ * - simhash：字符二元组（CJK 没有分词，二元组足够）的 64 位 SimHash，
+ *   按 4 段 × 16 位分桶：汉明距离 ≤ 3 的两个签名至少有一段完全相同（抽屉原理），查找时只比对同桶。
+ */
+final class TextSignature {
+
+    static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+
+    private TextSignature() {}
+
+    static String normalize(String s) {
+        if (s == null) return "";
+        String n = Normalizer.normalize(s, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        StringBuilder sb = new StringBuilder(n.length());
+        int prev = -1;
+        for (int i = 0; i < n.length(); ) {
+            int cp = n.codePointAt(i);
+            i += Character.charCount(cp);
+            if (!Character.isLetterOrDigit(cp)) continue;
+            if (cp == prev) continue;
+            sb.appendCodePoint(cp);
+            prev = cp;
+        }
+        return sb.toString();
+    }
+
+    static String exactKey(String normalized) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(d, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static long simhash(String normalized) {
+        int[] cps = normalized.codePoints().toArray();
+        if (cps.length == 0) return 0L;
+        int[] acc = new int[64];
+        if (cps.length == 1) {
+            add(acc, mix(cps[0]));
+        } else {
+            for (int i = 0; i + 1 < cps.length; i++) {
+                add(acc, mix(((long) cps[i] << 32) ^ cps[i + 1]));
+            }
+        }
+        long h = 0L;
+        for (int b = 0; b < 64; b++) if (acc[b] > 0) h |= 1L << b;
+        return h;
+    }
+
+    /** 第 i 段的桶标识 */
+    static int band(long sig, int i) {
+        return (int) ((sig >>> (i * BAND_BITS)) & ((1L << BAND_BITS) - 1));
+    }
+
+    static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static void add(int[] acc, long h) {
+        for (int b = 0; b < 64; b++) acc[b] += ((h >>> b) & 1L) != 0 ? 1 : -1;
+    }
+
+    /** splitmix64 终结器：把二元组打散到 64 位 */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
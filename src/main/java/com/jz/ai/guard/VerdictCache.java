@@ -0,0 +1,234 @@
+package com.jz.ai.guard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jz.ai.config.LlmModerationProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LLM 审核结果的两级缓存（L1 Caffeine，L2 Redis，TTL 均为 cacheTtlSeconds）：
+ * - 精确：归一化文本（去标点/表情、叠字折叠）相同即命中；
+ * - 近似：SimHash 汉明距离 ≤ nearDupMaxDistance 命中，按 4 段分桶，每桶只保留最近若干条签名。
+ * Redis key：{prefix}x:{sha} 存结果 JSON；{prefix}sb:{段}:{桶} 为签名列表（"签名hex|结果JSON"）。
+ * 近似查 4 个桶、写入 1 个结果 + 4 个桶都走一次管道，各一个往返。
+ */
+@Slf4j
+@Component
+public class VerdictCache {
+
+    /** 每个 SimHash 桶最多保留的签名数 */
+    private static final int BUCKET_CAP = 16;
+
+    private final LlmModerationProperties props;
+    private final StringRedisTemplate redis;
+    private final ObjectMapper mapper;
+
+    private final Cache<String, BoundaryVerdict> exactL1;
+    private final Cache<String, List<Near>> nearL1;
+
+    private final Counter l1Hit;
+    private final Counter l1NearHit;
+    private final Counter l2Hit;
+    private final Counter l2NearHit;
+    private final Counter miss;
+
+    private record Near(long sig, BoundaryVerdict verdict) {}
+
+    public VerdictCache(LlmModerationProperties props, StringRedisTemplate redis, ObjectMapper mapper, MeterRegistry registry) {
+        this.props = props;
+        this.redis = redis;
+        this.mapper = mapper;
+        Duration ttl = Duration.ofSeconds(props.getCacheTtlSeconds());
+        this.exactL1 = Caffeine.newBuilder()
+                .maximumSize(props.getLocalCacheSize())
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.nearL1 = Caffeine.newBuilder()
+                .maximumSize(props.getLocalCacheSize())
+                .expireAfterWrite(ttl)
+                .build();
+        CaffeineCacheMetrics.monitor(registry, exactL1, "moderation_verdict_l1");
+
+        this.l1Hit = hitCounter(registry, "l1", "exact");
+        this.l1NearHit = hitCounter(registry, "l1", "near");
+        this.l2Hit = hitCounter(registry, "l2", "exact");
+        this.l2NearHit = hitCounter(registry, "l2", "near");
+        this.miss = Counter.builder("chat.moderation.verdict.cache.miss")
+                .description("Verdict cache misses (LLM called)")
+                .register(registry);
+        Gauge.builder("chat.moderation.verdict.cache.hit.ratio", this, VerdictCache::hitRatio)
+                .description("Share of LLM moderation lookups answered from cache since start")
+                .register(registry);
+    }
+
+    private static Counter hitCounter(MeterRegistry registry, String tier, String match) {
+        return Counter.builder("chat.moderation.verdict.cache.hit")
+                .description("Verdict cache hits")
+                .tags("tier", tier, "match", match)
+                .register(registry);
+    }
+
+    private double hitRatio() {
+        double hits = l1Hit.count() + l1NearHit.count() + l2Hit.count() + l2NearHit.count();
+        double total = hits + miss.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    /** 查询时先算一次签名，get / put 共用 */
+    public static final class Key {
+        final String exact;
+        final long sig;
+        final boolean near;
+
+        private Key(String exact, long sig, boolean near) {
+            this.exact = exact;
+            this.sig = sig;
+            this.near = near;
+        }
+    }
+
+    public Key keyOf(String text) {
+        String norm = TextSignature.normalize(text);
+        boolean near = props.isNearDupEnabled() && norm.codePointCount(0, norm.length()) >= props.getNearDupMinLength();
+        return new Key(TextSignature.exactKey(norm), near ? TextSignature.simhash(norm) : 0L, near);
+    }
+
+    public Optional<BoundaryVerdict> get(Key k) {
+        BoundaryVerdict v = exactL1.getIfPresent(k.exact);
+        if (v != null) { l1Hit.increment(); return Optional.of(v); }
+        if (k.near && (v = nearLocal(k.sig)) != null) {
+            l1NearHit.increment();
+            exactL1.put(k.exact, v);
+            return Optional.of(v);
+        }
+        try {
+            String json = redis.opsForValue().get(exactRedisKey(k.exact));
+            if (json != null) {
+                v = mapper.readValue(json, BoundaryVerdict.class);
+                l2Hit.increment();
+                fillLocal(k, v);
+                return Optional.of(v);
+            }
+            if (k.near && (v = nearRemote(k.sig)) != null) {
+                l2NearHit.increment();
+                fillLocal(k, v);
+                return Optional.of(v);
+            }
+        } catch (Exception e) {
+            log.warn("verdict cache L2 read failed: {}", e.toString());
+        }
+        miss.increment();
+        return Optional.empty();
+    }
+
+    public void put(Key k, BoundaryVerdict v) {
+        fillLocal(k, v);
+        try {
+            String json = mapper.writeValueAsString(v);
+            long ttl = props.getCacheTtlSeconds();
+            if (!k.near) {
+                redis.opsForValue().set(exactRedisKey(k.exact), json, ttl, TimeUnit.SECONDS);
+                return;
+            }
+            byte[] entry = bytes(Long.toHexString(k.sig) + "|" + json);
+            redis.executePipelined((RedisCallback<Object>) c -> {
+                c.stringCommands().setEx(bytes(exactRedisKey(k.exact)), ttl, bytes(json));
+                for (int i = 0; i < TextSignature.BANDS; i++) {
+                    byte[] key = bytes(bandRedisKey(i, TextSignature.band(k.sig, i)));
+                    c.listCommands().lPush(key, entry);
+                    c.listCommands().lTrim(key, 0, BUCKET_CAP - 1);
+                    c.keyCommands().expire(key, ttl);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("verdict cache L2 write failed: {}", e.toString());
+        }
+    }
+
+    private void fillLocal(Key k, BoundaryVerdict v) {
+        exactL1.put(k.exact, v);
+        if (!k.near) return;
+        Near n = new Near(k.sig, v);
+        for (int i = 0; i < TextSignature.BANDS; i++) {
+            nearL1.asMap().compute(bandLocalKey(i, TextSignature.band(k.sig, i)), (key, cur) -> {
+                List<Near> next = new ArrayList<>(cur == null ? 1 : Math.min(cur.size() + 1, BUCKET_CAP));
+                next.add(n);
+                if (cur != null) {
+                    for (Near c : cur) {
+                        if (next.size() >= BUCKET_CAP) break;
+                        if (c.sig() != n.sig()) next.add(c);
+                    }
+                }
+                return List.copyOf(next);
+            });
+        }
+    }
+
+    private BoundaryVerdict nearLocal(long sig) {
+        int max = props.getNearDupMaxDistance();
+        for (int i = 0; i < TextSignature.BANDS; i++) {
+            List<Near> bucket = nearL1.getIfPresent(bandLocalKey(i, TextSignature.band(sig, i)));
+            if (bucket == null) continue;
+            for (Near n : bucket) {
+                if (TextSignature.distance(n.sig(), sig) <= max) return n.verdict();
+            }
+        }
+        return null;
+    }
+
+    private BoundaryVerdict nearRemote(long sig) throws Exception {
+        int max = props.getNearDupMaxDistance();
+        List<Object> buckets = redis.executePipelined((RedisCallback<Object>) c -> {
+            for (int i = 0; i < TextSignature.BANDS; i++) {
+                c.listCommands().lRange(bytes(bandRedisKey(i, TextSignature.band(sig, i))), 0, -1);
+            }
+            return null;
+        });
+        for (Object raw : buckets) {
+            if (!(raw instanceof List<?> bucket)) continue;
+            for (Object o : bucket) {
+                String e = String.valueOf(o);
+                int bar = e.indexOf('|');
+                if (bar <= 0) continue;
+                long other = Long.parseUnsignedLong(e.substring(0, bar), 16);
+                if (TextSignature.distance(other, sig) <= max) {
+                    return mapper.readValue(e.substring(bar + 1), BoundaryVerdict.class);
+                }
+            }
+        }
+        return null;
+    }
+
+    private String exactRedisKey(String exact) {
+        return props.getRedisKeyPrefix() + "x:" + exact;
+    }
+
+    private String bandRedisKey(int band, int bucket) {
+        return props.getRedisKeyPrefix() + "sb:" + band + ":" + Integer.toHexString(bucket);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String bandLocalKey(int band, int bucket) {
+        return band + ":" + bucket;
+    }
+}
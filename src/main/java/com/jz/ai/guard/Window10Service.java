@@ -44,6 +44,33 @@ public class Window10Service {
         }
     }
 
+    /**
+     * 被打断重放的一轮：上次尝试已经写过本轮标记（就是最后一条），
+     * 只看它之前的 10 条，再用本次结果覆盖它——重放不追加、也不会被自己上次的标记判成“之前骚扰过”。
+     */
+    public boolean hasHarassPrevThenRemark(String chatId, boolean isHarass){
+        try {
+            final String key = k(chatId);
+            List<String> last = redis.opsForList().range(key, -N - 1, -2);
+            boolean prevHasHarass = false;
+            if (last != null) {
+                for (String s : last) {
+                    if ("1".equals(s)) { prevHasHarass = true; break; }
+                }
+            }
+            Long len = redis.opsForList().size(key);
+            if (len == null || len == 0) {
+                // 窗口被清空/过期：按新一轮写入
+                redis.opsForList().rightPush(key, isHarass ? "1" : "0");
+            } else {
+                redis.opsForList().set(key, -1, isHarass ? "1" : "0");
+            }
+            return prevHasHarass;
+        } catch (Exception ignore) {
+            return false;
+        }
+    }
+
     /** 仅检查之前10条（不含本次），不写入本次标记 */
     public boolean hasHarassPrev(String chatId){
         try {
@@ -0,0 +1,229 @@
+package com.jz.ai.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.config.LoadTestProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压测驱动：应用就绪后在本进程内起 N 个虚拟用户，走真实 HTTP 链路：
+ * POST /api/chat 发一句 → 长轮询 /api/chat/pull 直到拿到回复 → 思考时间 → 下一句。
+ * 每个虚拟用户一个独立会话（Cookie），用户 ID 经 X-UID 注入（DevUidInjectionFilter）。
+ * 结束时打印吞吐与客户端/服务端分位数（chat.e2e.first_reply、chat.process.latency）。
+ */
+@Slf4j
+@Component
+@Profile("loadtest")
+@RequiredArgsConstructor
+public class LoadTestDriver {
+
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.95, 0.99};
+
+    private final LoadTestProperties props;
+    private final MeterRegistry registry;
+    private final ObjectMapper mapper;
+    private final Environment env;
+    private final ApplicationContext ctx;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong replied = new AtomicLong();
+    private final AtomicLong silenced = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong httpRequests = new AtomicLong();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (!props.getDriver().isEnabled()) return;
+        Thread t = new Thread(this::runSafely, "loadtest-driver");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void runSafely() {
+        int exitCode = 0;
+        try {
+            run();
+            if (errors.get() > 0) exitCode = 1;
+        } catch (Exception e) {
+            log.error("load test aborted", e);
+            exitCode = 2;
+        }
+        if (props.getDriver().isExitOnFinish()) {
+            int code = exitCode;
+            System.exit(SpringApplication.exit(ctx, () -> code));
+        }
+    }
+
+    private void run() throws InterruptedException {
+        LoadTestProperties.Driver d = props.getDriver();
+        String base = "http://localhost:" + env.getProperty("local.server.port", env.getProperty("server.port", "8080"));
+        Timer clientTimer = Timer.builder("loadtest.client.reply")
+                .description("Client-observed latency from POST /api/chat to the reply arriving on /pull")
+                .publishPercentiles(PERCENTILES)
+                .register(registry);
+
+        int users = Math.max(1, d.getUsers());
+        long start = System.nanoTime();
+        long end = start + d.getDuration().toNanos();
+        long rampStep = users > 1 ? d.getRampUp().toNanos() / (users - 1) : 0;
+        log.info("load test: {} virtual users for {} against {} (ramp-up {})", users, d.getDuration(), base, d.getRampUp());
+
+        AtomicInteger threadSeq = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(users, r -> {
+            Thread t = new Thread(r, "loadtest-vu-" + threadSeq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < users; i++) {
+            long userId = d.getFirstUserId() + i;
+            long startAt = start + rampStep * i;
+            int offset = i;
+            pool.submit(() -> virtualUser(base, userId, offset, startAt, end, clientTimer));
+        }
+        pool.shutdown();
+        long graceMs = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()) + d.getReplyTimeout().toMillis() + 5_000;
+        if (!pool.awaitTermination(Math.max(graceMs, 1), TimeUnit.MILLISECONDS)) pool.shutdownNow();
+
+        report(Duration.ofNanos(System.nanoTime() - start), clientTimer);
+    }
+
+    private void virtualUser(String base, long userId, int offset, long startAt, long end, Timer clientTimer) {
+        LoadTestProperties.Driver d = props.getDriver();
+        HttpClient http = HttpClient.newBuilder()
+                .cookieHandler(new CookieManager()) // 每个虚拟用户一个会话
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        String agentParam = d.getAgentId() == null ? "" : "agentId=" + d.getAgentId();
+        List<String> messages = d.getMessages();
+        try {
+            sleepUntil(startAt);
+            for (int turn = 0; System.nanoTime() < end && !Thread.currentThread().isInterrupted(); turn++) {
+                String text = messages.get((offset + turn) % messages.size());
+                long t0 = System.nanoTime();
+                HttpRequest post = HttpRequest.newBuilder(URI.create(base + "/api/chat" + query(agentParam)))
+                        .header("X-UID", String.valueOf(userId))
+                        .header("Content-Type", "text/plain; charset=UTF-8")
+                        .timeout(Duration.ofSeconds(30))
+                        .POST(HttpRequest.BodyPublishers.ofString(text, StandardCharsets.UTF_8))
+                        .build();
+                JsonNode ack = send(http, post);
+                sent.incrementAndGet();
+                JsonNode immediate = ack.path("data");
+                if (immediate.hasNonNull("text") && !immediate.path("silenced").asBoolean()) {
+                    // 准入拒绝：直接回了忙碌话术，不进队列
+                    replied.incrementAndGet();
+                    clientTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+                } else {
+                    awaitReply(http, base, userId, agentParam, t0, clientTimer);
+                }
+                Thread.sleep(d.getThinkTime().toMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            log.warn("virtual user {} stopped: {}", userId, e.toString());
+        }
+    }
+
+    private void awaitReply(HttpClient http, String base, long userId, String agentParam, long t0, Timer clientTimer)
+            throws Exception {
+        LoadTestProperties.Driver d = props.getDriver();
+        long deadline = t0 + d.getReplyTimeout().toNanos();
+        String params = "waitMs=" + d.getPullWait().toMillis() + (agentParam.isEmpty() ? "" : "&" + agentParam);
+        while (System.nanoTime() < deadline) {
+            HttpRequest pull = HttpRequest.newBuilder(URI.create(base + "/api/chat/pull" + query(params)))
+                    .header("X-UID", String.valueOf(userId))
+                    .timeout(d.getPullWait().plusSeconds(10))
+                    .GET()
+                    .build();
+            JsonNode items = send(http, pull).path("data");
+            if (!items.isArray() || items.isEmpty()) continue;
+            boolean anyText = false;
+            for (JsonNode it : items) {
+                if (!it.path("silenced").asBoolean() && !it.path("text").asText("").isEmpty()) anyText = true;
+            }
+            if (anyText) replied.incrementAndGet(); else silenced.incrementAndGet();
+            clientTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+            return;
+        }
+        timeouts.incrementAndGet();
+    }
+
+    private JsonNode send(HttpClient http, HttpRequest req) throws Exception {
+        httpRequests.incrementAndGet();
+        HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (resp.statusCode() / 100 != 2) {
+            throw new IllegalStateException(req.method() + " " + req.uri().getPath() + " -> HTTP " + resp.statusCode());
+        }
+        return mapper.readTree(resp.body());
+    }
+
+    private void report(Duration elapsed, Timer clientTimer) {
+        double secs = Math.max(1e-3, elapsed.toMillis() / 1000.0);
+        StringBuilder sb = new StringBuilder("\n===== load test report =====\n");
+        sb.append(String.format(Locale.ROOT, "elapsed        %.1fs, users=%d%n", secs, props.getDriver().getUsers()));
+        sb.append(String.format(Locale.ROOT, "turns          sent=%d replied=%d silenced=%d timeout=%d errors=%d%n",
+                sent.get(), replied.get(), silenced.get(), timeouts.get(), errors.get()));
+        sb.append(String.format(Locale.ROOT, "throughput     %.2f turns/s, %.2f http req/s%n",
+                (replied.get() + silenced.get()) / secs, httpRequests.get() / secs));
+        sb.append(line("client reply", clientTimer));
+        sb.append(line("chat.e2e.first_reply", registry.find("chat.e2e.first_reply").timer()));
+        sb.append(line("chat.process.latency", registry.find("chat.process.latency").timer()));
+        log.info(sb.toString());
+    }
+
+    private static String line(String name, Timer timer) {
+        if (timer == null) return String.format(Locale.ROOT, "%-22s (no data)%n", name);
+        HistogramSnapshot s = timer.takeSnapshot();
+        StringBuilder sb = new StringBuilder(String.format(Locale.ROOT, "%-22s n=%d mean=%.0fms",
+                name, s.count(), s.mean(TimeUnit.MILLISECONDS)));
+        for (ValueAtPercentile p : s.percentileValues()) {
+            sb.append(String.format(Locale.ROOT, " p%s=%.0fms",
+                    trimPercent(p.percentile() * 100), p.value(TimeUnit.MILLISECONDS)));
+        }
+        sb.append(String.format(Locale.ROOT, " max=%.0fms%n", s.max(TimeUnit.MILLISECONDS)));
+        return sb.toString();
+    }
+
+    private static String trimPercent(double v) {
+        return v == Math.rint(v) ? String.valueOf((long) v) : String.valueOf(v);
+    }
+
+    private static String query(String params) {
+        return params.isEmpty() ? "" : "?" + params;
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long waitNanos = nanoTime - System.nanoTime();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+}
@@ -0,0 +1,53 @@
+package com.jz.ai.loadtest;
+
+import com.jz.ai.config.ChatModelConfig;
+import com.jz.ai.config.EmbeddingCacheProperties;
+import com.jz.ai.config.LoadTestProperties;
+import com.jz.ai.rag.CachingEmbeddingModel;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import redis.clients.jedis.JedisPooled;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * loadtest profile：用本地桩替换 ChatModelConfig 里的 DashScope 模型（那边标了 !loadtest），
+ * 其余链路（限流、网关、阶段图、审核、RAG）照常走，压出来的是我们自己代码的容量。
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestModelConfig {
+
+    @Bean(name = "customChatModelMap")
+    public Map<String, ChatModel> stubChatModelMap(LoadTestProperties props) {
+        Map<String, ChatModel> map = new LinkedHashMap<>();
+        long seed = props.getSeed();
+        for (String model : ChatModelConfig.CHAT_MODELS) {
+            map.put(model, new StubChatModel(model, props, seed++));
+        }
+        return map;
+    }
+
+    /** 自动装配的 ChatClient.Builder（RAG 压缩/扩展在用）也要落到桩上，不能出网 */
+    @Bean
+    @Primary
+    public ChatModel stubDefaultChatModel(@Qualifier("customChatModelMap") Map<String, ChatModel> models) {
+        return models.get("qwen-plus");
+    }
+
+    @Bean
+    @Primary
+    public EmbeddingModel stubEmbeddingModel(LoadTestProperties props, EmbeddingCacheProperties cacheProps,
+                                             JedisPooled jedis, MeterRegistry registry) {
+        EmbeddingModel stub = new StubEmbeddingModel(props.getEmbedding(), props.getSeed() ^ 0x5DEECE66DL);
+        // 桩向量与正式向量维度不同，缓存 key 必须分开
+        return CachingEmbeddingModel.wrap(stub, "stub-" + props.getEmbedding().getDimensions(), cacheProps, jedis, registry);
+    }
+}
@@ -0,0 +1,114 @@
+package com.jz.ai.loadtest;
+
+import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatOptions;
+import com.jz.ai.config.LoadTestProperties;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测用对话模型桩：不出网，按 LoadTestProperties 注入延迟/失败，输出由 prompt 决定（同输入同输出）。
+ * - 要求 JSON 的调用（路由/审核/打分/合并分析/摘要）：返回各解析器都认得的固定 JSON；
+ *   画像抽取返回 {}（不往画像里写桩数据）；
+ * - 其余：从固定语料里按 prompt 哈希截取 outputChars 个字符。
+ */
+public class StubChatModel implements ChatModel {
+
+    private static final String CORPUS =
+            "您好呀～这款目前有现货，下单后一般四十八小时内发出。拍照方面主摄表现很稳，夜景也比较干净。" +
+            "如果预算再放宽一点，可以看看同系列的升级款，续航和屏幕都会好一些。" +
+            "售后这边支持七天无理由，质量问题十五天内包换，有需要随时找我哈。" +
+            "我帮您对比了一下，两款差别主要在处理器和充电速度上，日常用的话区别不大。";
+
+    private static final String ANALYSIS_JSON = """
+            {"routing":{"intent":"NON_PRODUCT","filters":{"brand":null,"category":null,"isActive":null,"priceMin":null,"priceMax":null}},\
+            "boundary":{"level":"NONE","categories":[],"confidence":0.9,"reason":"stub"},\
+            "rapport":{"targetScore":55,"dimensions":{"politeness":4,"clarity":4,"cooperation":4,"purchase_intent":3,"budget_readiness":3,"engagement":3}},\
+            "profile":{},\
+            "intent":"NON_PRODUCT","filters":{"brand":null,"category":null,"isActive":null,"priceMin":null,"priceMax":null},\
+            "level":"NONE","categories":[],"confidence":0.9,"reason":"stub",\
+            "targetScore":55,"dimensions":{"politeness":4,"clarity":4,"cooperation":4,"purchase_intent":3,"budget_readiness":3,"engagement":3}}""";
+
+    private final String model;
+    private final LoadTestProperties props;
+    private final StubLatency latency;
+
+    public StubChatModel(String model, LoadTestProperties props, long seed) {
+        this.model = model;
+        this.props = props;
+        this.latency = new StubLatency(seed);
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        LoadTestProperties.StubProfile p = props.profileFor(model);
+        StubLatency.pause(latency.sampleMs(p.getMedianMs(), p.getP99Ms()));
+        if (latency.fail(p.getFailureRate())) {
+            throw new IllegalStateException("stub model " + model + " injected failure");
+        }
+        return response(reply(prompt, p));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            LoadTestProperties.StubProfile p = props.profileFor(model);
+            Duration first = Duration.ofMillis(latency.sampleMs(p.getMedianMs(), p.getP99Ms()));
+            if (latency.fail(p.getFailureRate())) {
+                return Flux.<ChatResponse>error(new IllegalStateException("stub model " + model + " injected failure"))
+                        .delaySubscription(first);
+            }
+            List<ChatResponse> chunks = new ArrayList<>();
+            String text = reply(prompt, p);
+            int step = Math.max(1, p.getStreamChunkChars());
+            for (int i = 0; i < text.length(); i += step) {
+                chunks.add(response(text.substring(i, Math.min(text.length(), i + step))));
+            }
+            Flux<ChatResponse> body = Flux.fromIterable(chunks);
+            if (p.getInterChunkMs() > 0) body = body.delayElements(Duration.ofMillis(p.getInterChunkMs()));
+            return body.delaySubscription(first);
+        });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return DashScopeChatOptions.builder().withModel(model).build();
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String reply(Prompt prompt, LoadTestProperties.StubProfile p) {
+        StringBuilder all = new StringBuilder();
+        String lastUser = "";
+        for (Message m : prompt.getInstructions()) {
+            String t = m.getText() == null ? "" : m.getText();
+            all.append(t).append('\n');
+            if (m.getMessageType() == MessageType.USER) lastUser = t;
+        }
+        String text = all.toString();
+        if (text.contains("JSON")) {
+            return text.contains("画像抽取器") ? "{}" : ANALYSIS_JSON;
+        }
+        int n = Math.max(1, p.getOutputChars());
+        int start = Math.floorMod(lastUser.hashCode(), CORPUS.length());
+        StringBuilder sb = new StringBuilder(n);
+        while (sb.length() < n) {
+            int take = Math.min(n - sb.length(), CORPUS.length() - start);
+            sb.append(CORPUS, start, start + take);
+            start = 0;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package com.jz.ai.loadtest;
+
+import com.jz.ai.config.LoadTestProperties;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 压测用向量模型桩：字符二元组哈希到固定维度后归一化（同文本同向量，字面相近的文本余弦也相近），
+ * 每次请求按 LoadTestProperties.embedding 注入一次延迟/失败（批量请求只算一次，与服务端行为一致）。
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+    private final LoadTestProperties.Embedding props;
+    private final StubLatency latency;
+
+    public StubEmbeddingModel(LoadTestProperties.Embedding props, long seed) {
+        this.props = props;
+        this.latency = new StubLatency(seed);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        StubLatency.pause(latency.sampleMs(props.getMedianMs(), props.getP99Ms()));
+        if (latency.fail(props.getFailureRate())) {
+            throw new IllegalStateException("stub embedding injected failure");
+        }
+        List<Embedding> out = new ArrayList<>(request.getInstructions().size());
+        int i = 0;
+        for (String text : request.getInstructions()) {
+            out.add(new Embedding(vector(text), i++));
+        }
+        return new EmbeddingResponse(out);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return props.getDimensions();
+    }
+
+    private float[] vector(String text) {
+        int dims = props.getDimensions();
+        float[] v = new float[dims];
+        int[] cps = text == null ? new int[0] : text.codePoints().toArray();
+        if (cps.length == 1) v[Math.floorMod(Integer.hashCode(cps[0]) * 0x9E3779B1, dims)] = 1f;
+        for (int i = 0; i + 1 < cps.length; i++) {
+            int h = (cps[i] * 31 + cps[i + 1]) * 0x9E3779B1;
+            v[Math.floorMod(h, dims)] += (h & 0x10000) == 0 ? 1f : -1f;
+        }
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm == 0) {
+            v[0] = 1f;
+            return v;
+        }
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < dims; i++) v[i] *= inv;
+        return v;
+    }
+}
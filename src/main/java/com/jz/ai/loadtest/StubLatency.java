@@ -0,0 +1,48 @@
+package com.jz.ai.loadtest;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 桩模型的延迟与失败注入：延迟取对数正态分布（服务端延迟的典型形状，长尾明显），
+ * 由中位数与 p99 反推 sigma；随机源固定种子，同配置下序列可复现。
+ */
+final class StubLatency {
+
+    /** 标准正态的 0.99 分位 */
+    private static final double Z99 = 2.3263;
+
+    private final SplittableRandom random;
+
+    StubLatency(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    synchronized long sampleMs(long medianMs, long p99Ms) {
+        if (medianMs <= 0) return 0;
+        double sigma = p99Ms > medianMs ? Math.log((double) p99Ms / medianMs) / Z99 : 0;
+        return Math.round(medianMs * Math.exp(sigma * gaussian()));
+    }
+
+    synchronized boolean fail(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    /** 可被中断的等待：上游取消（阶段超时/打断）时立即返回 */
+    static void pause(long ms) {
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("stub call interrupted");
+        }
+    }
+
+    /** Box-Muller */
+    private double gaussian() {
+        double u1 = Math.max(random.nextDouble(), 1e-12);
+        double u2 = random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+    }
+}
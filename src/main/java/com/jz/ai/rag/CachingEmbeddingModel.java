@@ -0,0 +1,357 @@
+package com.jz.ai.rag;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jz.ai.config.EmbeddingCacheProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import redis.clients.jedis.JedisPooled;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+/**
+ * 向量模型前的缓存（装饰 EmbeddingModel bean，RedisVectorStore / MultiQueryRetriever / 商品同步都走它）：
+ * - key = 模型标识 + 归一化文本（NFKC、小写、空白折叠）的 SHA-1，换模型不串；
+ * - L1 Caffeine（按访问过期）；L2 Redis 存紧凑二进制：float16 每维 2 字节，或 int8 + 每向量缩放每维 1 字节；
+ * - 防击穿：同一 key 进程内只有一个在途请求，其余调用等它的结果；一批里的未命中合成一次上游调用；
+ * - L2 读写失败只降级为未命中，不影响向量化本身。
+ * 单文档 embed(Document) 很少用（VectorStore 写入走批量 call），直接透传。
+ * 指标：rag.embedding.cache.lookup{tier=l1|l2|inflight|miss}、rag.embedding.cache.saved（省下的上游向量化条数）、
+ *      rag.embedding.cache.hit.ratio、rag.embedding.upstream.calls
+ */
+@Slf4j
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private static final byte CODEC_F16 = 1;
+    private static final byte CODEC_I8 = 2;
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final String modelKey;
+    private final EmbeddingCacheProperties props;
+    private final JedisPooled jedis;
+
+    private final Cache<String, float[]> local;
+    /** 在途请求：key → 结果；持有者加载完（成功或失败）后移除 */
+    private final ConcurrentHashMap<String, CompletableFuture<float[]>> inflight = new ConcurrentHashMap<>();
+
+    private final Counter l1Hit;
+    private final Counter l2Hit;
+    private final Counter inflightHit;
+    private final Counter miss;
+    private final Counter saved;
+    private final Counter upstreamCalls;
+
+    /** 关闭缓存时原样返回 delegate */
+    public static EmbeddingModel wrap(EmbeddingModel delegate, String modelName, EmbeddingCacheProperties props,
+                                      JedisPooled jedis, MeterRegistry registry) {
+        if (!props.isEnabled()) return delegate;
+        String key = props.getModelKey() == null || props.getModelKey().isBlank() ? modelName : props.getModelKey();
+        return new CachingEmbeddingModel(delegate, key, props, jedis, registry);
+    }
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelKey, EmbeddingCacheProperties props,
+                                 JedisPooled jedis, MeterRegistry registry) {
+        this.delegate = delegate;
+        this.modelKey = modelKey;
+        this.props = props;
+        this.jedis = jedis;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(props.getLocalMaxSize())
+                .expireAfterAccess(props.getLocalTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(registry, local, "rag_embedding_l1");
+
+        this.l1Hit = lookupCounter(registry, "l1");
+        this.l2Hit = lookupCounter(registry, "l2");
+        this.inflightHit = lookupCounter(registry, "inflight");
+        this.miss = lookupCounter(registry, "miss");
+        this.saved = Counter.builder("rag.embedding.cache.saved")
+                .description("Texts served without an upstream embedding call")
+                .register(registry);
+        this.upstreamCalls = Counter.builder("rag.embedding.upstream.calls")
+                .description("Batched calls made to the upstream embedding model")
+                .register(registry);
+        Gauge.builder("rag.embedding.cache.hit.ratio", this, CachingEmbeddingModel::hitRatio)
+                .description("Share of embedding lookups answered from cache since start")
+                .register(registry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry registry, String tier) {
+        return Counter.builder("rag.embedding.cache.lookup")
+                .description("Embedding cache lookups by the tier that answered")
+                .tags("tier", tier)
+                .register(registry);
+    }
+
+    private double hitRatio() {
+        double hits = l1Hit.count() + l2Hit.count() + inflightHit.count();
+        double total = hits + miss.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        float[][] out = new float[texts.size()][];
+
+        // 1) L1；未命中按 key 归并（同一批里的重复文本只算一次）
+        Map<String, List<Integer>> pending = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = keyOf(texts.get(i));
+            float[] v = local.getIfPresent(key);
+            if (v != null) {
+                out[i] = v;
+                l1Hit.increment();
+            } else {
+                pending.computeIfAbsent(key, k -> new ArrayList<>(1)).add(i);
+            }
+        }
+        if (pending.isEmpty()) {
+            saved.increment(texts.size());
+            return response(out);
+        }
+
+        // 2) 认领：没人在加载的归自己，已在途的等别人
+        Map<String, CompletableFuture<float[]>> owned = new LinkedHashMap<>();
+        Map<String, CompletableFuture<float[]>> joined = new LinkedHashMap<>();
+        for (String key : pending.keySet()) {
+            CompletableFuture<float[]> mine = new CompletableFuture<>();
+            CompletableFuture<float[]> cur = inflight.putIfAbsent(key, mine);
+            if (cur == null) owned.put(key, mine); else joined.put(key, cur);
+        }
+
+        int upstream = 0;
+        try {
+            if (!owned.isEmpty()) upstream = load(owned, pending, texts, request);
+        } finally {
+            owned.forEach((key, f) -> {
+                if (!f.isDone()) f.completeExceptionally(new IllegalStateException("embedding load aborted"));
+                inflight.remove(key, f);
+            });
+        }
+        for (Map.Entry<String, CompletableFuture<float[]>> e : owned.entrySet()) {
+            fill(out, pending.get(e.getKey()), e.getValue().join());
+        }
+        for (Map.Entry<String, CompletableFuture<float[]>> e : joined.entrySet()) {
+            inflightHit.increment(pending.get(e.getKey()).size());
+            fill(out, pending.get(e.getKey()), await(e.getValue()));
+        }
+        saved.increment(texts.size() - upstream);
+        return response(out);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    /** 自己认领的 key：先批量查 L2，剩下的一次上游调用；返回上游向量化条数 */
+    private int load(Map<String, CompletableFuture<float[]>> owned, Map<String, List<Integer>> pending,
+                     List<String> texts, EmbeddingRequest request) {
+        List<String> keys = new ArrayList<>(owned.keySet());
+        List<byte[]> cached = remoteGet(keys);
+        List<String> missing = new ArrayList<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            float[] v = cached == null ? null : decode(cached.get(i));
+            if (v != null) {
+                local.put(key, v);
+                owned.get(key).complete(v);
+                l2Hit.increment(pending.get(key).size());
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) return 0;
+
+        // 上游用第一次出现的原文，缓存按归一化 key 共享
+        List<String> batch = new ArrayList<>(missing.size());
+        for (String key : missing) batch.add(texts.get(pending.get(key).get(0)));
+        upstreamCalls.increment();
+        List<Embedding> results = delegate.call(new EmbeddingRequest(batch, request.getOptions())).getResults();
+        if (results.size() != batch.size()) {
+            throw new IllegalStateException("embedding size mismatch: asked " + batch.size() + ", got " + results.size());
+        }
+        Map<String, float[]> fresh = new LinkedHashMap<>();
+        for (int i = 0; i < missing.size(); i++) {
+            String key = missing.get(i);
+            float[] v = results.get(i).getOutput();
+            local.put(key, v);
+            owned.get(key).complete(v);
+            fresh.put(key, v);
+            miss.increment(pending.get(key).size());
+        }
+        remotePut(fresh);
+        return batch.size();
+    }
+
+    private float[] await(CompletableFuture<float[]> f) {
+        try {
+            return f.get(props.getInflightWait().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for in-flight embedding", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("in-flight embedding not ready within " + props.getInflightWait(), e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private List<byte[]> remoteGet(List<String> keys) {
+        try {
+            byte[][] rk = new byte[keys.size()][];
+            for (int i = 0; i < keys.size(); i++) rk[i] = redisKey(keys.get(i));
+            return jedis.mget(rk);
+        } catch (Exception e) {
+            log.warn("embedding cache L2 read failed: {}", e.toString());
+            return null;
+        }
+    }
+
+    private void remotePut(Map<String, float[]> fresh) {
+        long ttl = props.getRedisTtl().toSeconds();
+        try (var p = jedis.pipelined()) {
+            fresh.forEach((key, v) -> p.setex(redisKey(key), ttl, encode(v)));
+            p.sync();
+        } catch (Exception e) {
+            log.warn("embedding cache L2 write failed: {}", e.toString());
+        }
+    }
+
+    private byte[] redisKey(String key) {
+        return (props.getRedisKeyPrefix() + modelKey + ":" + key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        return SPACES.matcher(s).replaceAll(" ").trim();
+    }
+
+    private static String keyOf(String text) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(normalize(text).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(h);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void fill(float[][] out, List<Integer> idx, float[] v) {
+        for (int i : idx) out[i] = v;
+    }
+
+    private static EmbeddingResponse response(float[][] vectors) {
+        List<Embedding> list = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) list.add(new Embedding(vectors[i], i));
+        return new EmbeddingResponse(list);
+    }
+
+    // ---------- 编码：[codec][payload]，小端 ----------
+
+    private byte[] encode(float[] v) {
+        if (props.getEncoding() == EmbeddingCacheProperties.Encoding.INT8) {
+            float max = 0f;
+            for (float x : v) max = Math.max(max, Math.abs(x));
+            float scale = max == 0f ? 1f : max / 127f;
+            ByteBuffer b = ByteBuffer.allocate(1 + 4 + v.length).order(ByteOrder.LITTLE_ENDIAN);
+            b.put(CODEC_I8).putFloat(scale);
+            for (float x : v) b.put((byte) Math.round(x / scale));
+            return b.array();
+        }
+        ByteBuffer b = ByteBuffer.allocate(1 + 2 * v.length).order(ByteOrder.LITTLE_ENDIAN);
+        b.put(CODEC_F16);
+        for (float x : v) b.putShort(toHalf(x));
+        return b.array();
+    }
+
+    /** 读到旧编码/损坏数据返回 null，按未命中处理（切换 encoding 后旧值照样能读） */
+    private static float[] decode(byte[] raw) {
+        if (raw == null || raw.length < 1) return null;
+        ByteBuffer b = ByteBuffer.wrap(raw).order(ByteOrder.LITTLE_ENDIAN);
+        byte codec = b.get();
+        if (codec == CODEC_F16 && (raw.length - 1) % 2 == 0) {
+            float[] v = new float[(raw.length - 1) / 2];
+            for (int i = 0; i < v.length; i++) v[i] = fromHalf(b.getShort());
+            return v;
+        }
+        if (codec == CODEC_I8 && raw.length >= 5) {
+            float scale = b.getFloat();
+            float[] v = new float[raw.length - 5];
+            for (int i = 0; i < v.length; i++) v[i] = b.get() * scale;
+            return v;
+        }
+        return null;
+    }
+
+    /** IEEE 754 binary16，就近舍入（JDK17 没有 Float.floatToFloat16） */
+    static short toHalf(float f) {
+        int bits = Float.floatToIntBits(f);
+        int sign = bits >>> 16 & 0x8000;
+        int val = (bits & 0x7fffffff) + 0x1000;
+        if (val >= 0x47800000) {
+            if ((bits & 0x7fffffff) >= 0x47800000) {
+                if (val < 0x7f800000) return (short) (sign | 0x7c00);
+                return (short) (sign | 0x7c00 | (bits & 0x007fffff) >>> 13);
+            }
+            return (short) (sign | 0x7bff);
+        }
+        if (val >= 0x38800000) return (short) (sign | val - 0x38000000 >>> 13);
+        if (val < 0x33000000) return (short) sign;
+        val = (bits & 0x7fffffff) >>> 23;
+        return (short) (sign | ((bits & 0x7fffff | 0x800000) + (0x800000 >>> val - 102) >>> 126 - val));
+    }
+
+    static float fromHalf(short half) {
+        int h = half & 0xffff;
+        int mant = h & 0x03ff;
+        int exp = h & 0x7c00;
+        if (exp == 0x7c00) {
+            exp = 0x3fc00;
+        } else if (exp != 0) {
+            exp += 0x1c000;
+        } else if (mant != 0) {
+            exp = 0x1c400;
+            do {
+                mant <<= 1;
+                exp -= 0x400;
+            } while ((mant & 0x400) == 0);
+            mant &= 0x3ff;
+        }
+        return Float.intBitsToFloat((h & 0x8000) << 16 | (exp | mant) << 13);
+    }
+}
@@ -0,0 +1,151 @@
+package com.jz.ai.rag;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * HnswIndex 一个版本的过滤索引（随版本构建，之后只读）：
+ * - brand / category / isActive：值 → 位图，等值/IN/NE/NIN 直接做位运算；
+ * - price：按节点存一个 double，只对已圈出的候选做区间比较；
+ * - 其它字段/操作符退回逐条 MetadataFilter 求值，但也只在当前候选里求。
+ * AND 先算左边，右边只在左边结果里算，所以价格区间一般只扫被品牌/类目圈出的那一小撮。
+ * 语义与 MetadataFilter 一致（等值按 MetadataFilter.valueKey 分桶）。
+ */
+final class FilterIndex {
+
+    /** 建位图的字段（RediSearch schema 里过滤器实际会用到的 tag 字段） */
+    private static final Set<String> TAG_FIELDS = Set.of("brand", "category", "isActive");
+    /** 按节点存数值、做区间比较的字段 */
+    private static final Set<String> RANGE_FIELDS = Set.of("price");
+
+    private final HnswIndex.Entry[] entries;
+    private final BitSet alive;
+    private final Map<String, Map<String, BitSet>> tags = new HashMap<>();
+    private final Map<String, double[]> ranges = new HashMap<>();
+
+    private FilterIndex(HnswIndex.Entry[] entries, BitSet alive) {
+        this.entries = entries;
+        this.alive = alive;
+    }
+
+    static FilterIndex build(HnswIndex.Entry[] entries, boolean[] deleted, int size) {
+        BitSet alive = new BitSet(size);
+        FilterIndex x = new FilterIndex(entries, alive);
+        for (String f : TAG_FIELDS) x.tags.put(f, new HashMap<>());
+        for (String f : RANGE_FIELDS) x.ranges.put(f, new double[size]);
+        for (int n = 0; n < size; n++) {
+            Map<String, Object> meta = deleted[n] ? null : entries[n].metadata();
+            for (var r : x.ranges.entrySet()) {
+                Double v = meta == null ? null : MetadataFilter.number(meta.get(r.getKey()));
+                r.getValue()[n] = v == null ? Double.NaN : v;
+            }
+            if (deleted[n]) continue;
+            alive.set(n);
+            if (meta == null) continue;
+            for (var t : x.tags.entrySet()) {
+                Object v = meta.get(t.getKey());
+                if (v != null) t.getValue().computeIfAbsent(MetadataFilter.valueKey(v), k -> new BitSet(size)).set(n);
+            }
+        }
+        return x;
+    }
+
+    /** 存活且满足表达式的节点（返回新位图，调用方可随意改） */
+    BitSet matching(Filter.Expression expr) {
+        return expr == null ? (BitSet) alive.clone() : eval(expr, alive);
+    }
+
+    /** within 不会被修改；返回值总是新位图 */
+    private BitSet eval(Filter.Operand op, BitSet within) {
+        if (op instanceof Filter.Group g) return eval(g.content(), within);
+        if (!(op instanceof Filter.Expression e)) {
+            throw new IllegalArgumentException("unsupported filter operand: " + op);
+        }
+        switch (e.type()) {
+            case AND -> {
+                BitSet l = eval(e.left(), within);
+                return l.isEmpty() ? l : eval(e.right(), l);
+            }
+            case OR -> {
+                BitSet l = eval(e.left(), within);
+                l.or(eval(e.right(), within));
+                return l;
+            }
+            case NOT -> {
+                BitSet out = (BitSet) within.clone();
+                out.andNot(eval(e.left(), within));
+                return out;
+            }
+            default -> {
+                return leaf(e, within);
+            }
+        }
+    }
+
+    private BitSet leaf(Filter.Expression e, BitSet within) {
+        if (!(e.left() instanceof Filter.Key k) || !(e.right() instanceof Filter.Value v)) {
+            throw new IllegalArgumentException("unsupported filter expression: " + e);
+        }
+        String field = MetadataFilter.unquote(k.key());
+        Map<String, BitSet> buckets = tags.get(field);
+        if (buckets != null) {
+            switch (e.type()) {
+                case EQ, IN -> { return bucket(buckets, v.value(), within); }
+                case NE, NIN -> {
+                    BitSet out = (BitSet) within.clone();
+                    out.andNot(bucket(buckets, v.value(), within));
+                    return out;
+                }
+                default -> { }
+            }
+        }
+        double[] values = ranges.get(field);
+        if (values != null) {
+            switch (e.type()) {
+                case GT, GTE, LT, LTE -> { return range(values, e.type(), v.value(), within); }
+                default -> { }
+            }
+        }
+        BitSet out = new BitSet();
+        for (int n = within.nextSetBit(0); n >= 0; n = within.nextSetBit(n + 1)) {
+            if (MetadataFilter.test(e, entries[n].metadata())) out.set(n);
+        }
+        return out;
+    }
+
+    private static BitSet bucket(Map<String, BitSet> buckets, Object expected, BitSet within) {
+        BitSet out = new BitSet();
+        Collection<?> wanted = expected instanceof Collection<?> c ? c : List.of(expected);
+        for (Object o : wanted) {
+            BitSet b = o == null ? null : buckets.get(MetadataFilter.valueKey(o));
+            if (b != null) out.or(b);
+        }
+        out.and(within);
+        return out;
+    }
+
+    private static BitSet range(double[] values, Filter.ExpressionType type, Object expected, BitSet within) {
+        BitSet out = new BitSet();
+        Double y = MetadataFilter.number(expected);
+        if (y == null) return out;
+        for (int n = within.nextSetBit(0); n >= 0; n = within.nextSetBit(n + 1)) {
+            double x = values[n];
+            if (Double.isNaN(x)) continue;
+            int c = Double.compare(x, y);
+            boolean ok = switch (type) {
+                case GT -> c > 0;
+                case GTE -> c >= 0;
+                case LT -> c < 0;
+                default -> c <= 0;
+            };
+            if (ok) out.set(n);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,448 @@
+package com.jz.ai.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW 图（余弦：入库时归一化，距离 = 1 - 点积）。
+ * 一个实例就是一个只读版本：写入走 withChanges / compacted 产出新版本（写时复制，节点向量与未改动的邻接数组共享），
+ * 由 HnswVectorStore 整体替换引用，检索中的线程继续用旧版本，不加读锁。
+ * 删除/覆盖只打墓碑（仍参与导航，不进结果），墓碑多了整图重建。
+ * 快照：头 + 全部向量（连续一段，映射后整块读）+ 邻接 + 文档；写临时文件后原子替换。
+ */
+final class HnswIndex {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int FORMAT = 1;
+    private static final int[] NONE = new int[0];
+    private static final Comparator<Cand> NEAREST = Comparator.comparingDouble(Cand::dist);
+
+    record Entry(String id, String text, Map<String, Object> metadata) {}
+
+    /** similarity 为余弦相似度 */
+    record Hit(Entry entry, double similarity) {}
+
+    private record Cand(int node, float dist) {}
+
+    private final int m;
+    private final int efConstruction;
+    private final double levelMult;
+
+    private int dims;
+    private int size;
+    private int live;
+    private int entry = -1;
+    private int maxLevel = -1;
+    private float[][] vectors;
+    private int[][][] links;
+    private Entry[] entries;
+    private boolean[] deleted;
+    private Map<String, Integer> byId;
+    /** 本版本的过滤索引（版本产出时构建，检索时不再逐条求值） */
+    private FilterIndex filters;
+
+    private HnswIndex(int m, int efConstruction) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.levelMult = 1.0 / Math.log(Math.max(2, m));
+    }
+
+    static HnswIndex empty(int m, int efConstruction) {
+        HnswIndex x = new HnswIndex(m, efConstruction);
+        x.vectors = new float[0][];
+        x.links = new int[0][][];
+        x.entries = new Entry[0];
+        x.deleted = new boolean[0];
+        x.byId = new HashMap<>();
+        return x.withFilterIndex();
+    }
+
+    int live() { return live; }
+
+    int tombstones() { return size - live; }
+
+    int dims() { return dims; }
+
+    /** 存活节点的条目；没有返回 null */
+    Entry get(String id) {
+        Integer n = byId.get(id);
+        return n == null ? null : entries[n];
+    }
+
+    /** 存活节点的 id（已发布版本不再改动 byId，只读视图即可） */
+    Set<String> ids() {
+        return Collections.unmodifiableSet(byId.keySet());
+    }
+
+    /** 新版本：先删 deletes，再按 id 覆盖写入 upserts（vectors 与之一一对应） */
+    HnswIndex withChanges(List<Entry> upserts, List<float[]> vecs, Collection<String> deletes) {
+        HnswIndex c = copy(upserts.size());
+        for (String id : deletes) c.remove(id);
+        for (int i = 0; i < upserts.size(); i++) {
+            Entry e = upserts.get(i);
+            c.remove(e.id());
+            c.insert(e, normalized(vecs.get(i)));
+        }
+        return c.withFilterIndex();
+    }
+
+    /** 只用存活节点重建一张新图 */
+    HnswIndex compacted() {
+        HnswIndex c = empty(m, efConstruction);
+        c.grow(live);
+        for (int n = 0; n < size; n++) {
+            if (!deleted[n]) c.insert(entries[n], vectors[n]);
+        }
+        return c.withFilterIndex();
+    }
+
+    /** 存活且满足过滤表达式的节点（走本版本的字段位图，价格只对圈出的候选比较） */
+    BitSet matching(Filter.Expression filter) {
+        return filters.matching(filter);
+    }
+
+    List<String> idsMatching(Filter.Expression filter) {
+        BitSet bits = matching(filter);
+        List<String> ids = new ArrayList<>(bits.cardinality());
+        for (int n = bits.nextSetBit(0); n >= 0; n = bits.nextSetBit(n + 1)) ids.add(entries[n].id());
+        return ids;
+    }
+
+    /** 图检索；allowed 为 null 表示不过滤 */
+    List<Hit> search(float[] query, int k, int ef, BitSet allowed) {
+        if (entry < 0 || live == 0 || k <= 0) return List.of();
+        float[] q = normalized(checkDims(query));
+        int ep = entry;
+        for (int l = maxLevel; l > 0; l--) ep = greedy(q, ep, l);
+        IntPredicate accept = allowed == null ? n -> !deleted[n] : allowed::get;
+        return hits(searchLayer(q, ep, Math.max(ef, k), 0, accept), k);
+    }
+
+    /** 精确扫描；allowed 为 null 表示全部存活节点 */
+    List<Hit> exact(float[] query, int k, BitSet allowed) {
+        if (live == 0 || k <= 0) return List.of();
+        float[] q = normalized(checkDims(query));
+        PriorityQueue<Cand> best = new PriorityQueue<>(NEAREST.reversed());
+        for (int n = 0; n < size; n++) {
+            if (allowed == null ? deleted[n] : !allowed.get(n)) continue;
+            float d = dist(q, vectors[n]);
+            if (best.size() < k) best.add(new Cand(n, d));
+            else if (d < best.peek().dist()) { best.poll(); best.add(new Cand(n, d)); }
+        }
+        List<Cand> sorted = new ArrayList<>(best);
+        sorted.sort(NEAREST);
+        return hits(sorted, k);
+    }
+
+    // ---------- 构建 ----------
+
+    private HnswIndex withFilterIndex() {
+        filters = FilterIndex.build(entries, deleted, size);
+        return this;
+    }
+
+    private HnswIndex copy(int extra) {
+        HnswIndex c = new HnswIndex(m, efConstruction);
+        c.dims = dims;
+        c.size = size;
+        c.live = live;
+        c.entry = entry;
+        c.maxLevel = maxLevel;
+        c.vectors = vectors;
+        c.links = links;
+        c.entries = entries;
+        c.deleted = deleted;
+        c.grow(extra); // 外层数组必定复制，已发布版本不受影响
+        c.byId = new HashMap<>(byId);
+        return c;
+    }
+
+    private void grow(int extra) {
+        int cap = size + extra;
+        vectors = Arrays.copyOf(vectors, cap);
+        links = Arrays.copyOf(links, cap);
+        entries = Arrays.copyOf(entries, cap);
+        deleted = Arrays.copyOf(deleted, cap);
+    }
+
+    private void remove(String id) {
+        Integer n = byId.remove(id);
+        if (n != null && !deleted[n]) {
+            deleted[n] = true;
+            live--;
+        }
+    }
+
+    private void insert(Entry e, float[] v) {
+        if (dims == 0) dims = v.length;
+        else checkDims(v);
+        int q = size++;
+        int level = randomLevel();
+        int[][] own = new int[level + 1][];
+        Arrays.fill(own, NONE);
+        vectors[q] = v;
+        links[q] = own;
+        entries[q] = e;
+        byId.put(e.id(), q);
+        live++;
+        if (entry < 0) {
+            entry = q;
+            maxLevel = level;
+            return;
+        }
+        int ep = entry;
+        for (int l = maxLevel; l > level; l--) ep = greedy(v, ep, l);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Cand> w = searchLayer(v, ep, efConstruction, l, n -> !deleted[n]);
+            own[l] = select(w, maxLinks(l));
+            for (int n : own[l]) link(n, q, l);
+            if (!w.isEmpty()) ep = w.get(0).node();
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entry = q;
+        }
+    }
+
+    /** 把 q 挂到 n 的第 l 层；满了按启发式重选。n 的邻接数组先复制（可能与旧版本共享） */
+    private void link(int n, int q, int l) {
+        int[][] nl = links[n].clone();
+        int[] cur = nl[l];
+        int max = maxLinks(l);
+        if (cur.length < max) {
+            int[] next = Arrays.copyOf(cur, cur.length + 1);
+            next[cur.length] = q;
+            nl[l] = next;
+        } else {
+            List<Cand> cands = new ArrayList<>(cur.length + 1);
+            for (int x : cur) cands.add(new Cand(x, dist(vectors[n], vectors[x])));
+            cands.add(new Cand(q, dist(vectors[n], vectors[q])));
+            cands.sort(NEAREST);
+            nl[l] = select(cands, max);
+        }
+        links[n] = nl;
+    }
+
+    /** 邻居启发式（论文算法 4）：离已选邻居比离基点还近的先跳过，名额不满再按距离补齐 */
+    private int[] select(List<Cand> sorted, int max) {
+        int[] out = new int[Math.min(max, sorted.size())];
+        int k = 0;
+        List<Cand> pruned = new ArrayList<>();
+        for (Cand c : sorted) {
+            if (k >= out.length) break;
+            boolean keep = true;
+            for (int i = 0; i < k; i++) {
+                if (dist(vectors[c.node()], vectors[out[i]]) < c.dist()) { keep = false; break; }
+            }
+            if (keep) out[k++] = c.node(); else pruned.add(c);
+        }
+        for (Cand c : pruned) {
+            if (k >= out.length) break;
+            out[k++] = c.node();
+        }
+        return out;
+    }
+
+    private int greedy(float[] v, int ep, int l) {
+        float d = dist(v, vectors[ep]);
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int n : links[ep][l]) {
+                float dn = dist(v, vectors[n]);
+                if (dn < d) { d = dn; ep = n; changed = true; }
+            }
+        }
+        return ep;
+    }
+
+    /** 第 l 层的束搜索；accept 决定能否进结果（不满足的节点照样用于导航），结果按距离升序 */
+    private List<Cand> searchLayer(float[] v, int ep, int ef, int l, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Cand> frontier = new PriorityQueue<>(NEAREST);
+        PriorityQueue<Cand> best = new PriorityQueue<>(NEAREST.reversed());
+        Cand start = new Cand(ep, dist(v, vectors[ep]));
+        visited.set(ep);
+        frontier.add(start);
+        if (accept.test(ep)) best.add(start);
+        while (!frontier.isEmpty()) {
+            Cand c = frontier.poll();
+            if (best.size() >= ef && c.dist() > best.peek().dist()) break;
+            for (int n : links[c.node()][l]) {
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float dn = dist(v, vectors[n]);
+                if (best.size() < ef || dn < best.peek().dist()) {
+                    frontier.add(new Cand(n, dn));
+                    if (accept.test(n)) {
+                        best.add(new Cand(n, dn));
+                        if (best.size() > ef) best.poll();
+                    }
+                }
+            }
+        }
+        List<Cand> out = new ArrayList<>(best);
+        out.sort(NEAREST);
+        return out;
+    }
+
+    private List<Hit> hits(List<Cand> sorted, int k) {
+        List<Hit> out = new ArrayList<>(Math.min(k, sorted.size()));
+        for (Cand c : sorted) {
+            if (out.size() >= k) break;
+            out.add(new Hit(entries[c.node()], 1.0 - c.dist()));
+        }
+        return out;
+    }
+
+    private int maxLinks(int l) {
+        return l == 0 ? 2 * m : m;
+    }
+
+    private int randomLevel() {
+        double u = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0, 1]
+        return (int) Math.floor(-Math.log(u) * levelMult);
+    }
+
+    private float[] checkDims(float[] v) {
+        if (dims != 0 && v.length != dims) {
+            throw new IllegalArgumentException("vector dimension " + v.length + " does not match index dimension " + dims);
+        }
+        return v;
+    }
+
+    private static float dist(float[] a, float[] b) {
+        float dot = 0f;
+        for (int i = 0; i < a.length; i++) dot += a[i] * b[i];
+        return 1f - dot;
+    }
+
+    private static float[] normalized(float[] v) {
+        double norm = 0;
+        for (float x : v) norm += x * x;
+        if (norm == 0 || Math.abs(norm - 1.0) < 1e-6) return v;
+        float inv = (float) (1.0 / Math.sqrt(norm));
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+        return out;
+    }
+
+    // ---------- 快照 ----------
+
+    void write(Path file, String model, ObjectMapper mapper) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) Files.createDirectories(dir);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            writeBytes(out, model.getBytes(StandardCharsets.UTF_8));
+            out.writeInt(m);
+            out.writeInt(dims);
+            out.writeInt(size);
+            out.writeInt(entry);
+            out.writeInt(maxLevel);
+            for (int n = 0; n < size; n++) {
+                for (float x : vectors[n]) out.writeFloat(x);
+            }
+            for (int n = 0; n < size; n++) {
+                out.writeBoolean(deleted[n]);
+                out.writeInt(links[n].length);
+                for (int[] level : links[n]) {
+                    out.writeInt(level.length);
+                    for (int x : level) out.writeInt(x);
+                }
+            }
+            for (int n = 0; n < size; n++) {
+                Entry e = entries[n];
+                writeBytes(out, e.id().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, (e.text() == null ? "" : e.text()).getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, mapper.writeValueAsBytes(e.metadata() == null ? Map.of() : e.metadata()));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** 模型/邻居数与当前配置不一致时返回 null（交给同步任务重建） */
+    static HnswIndex read(Path file, String model, int m, int efConstruction, ObjectMapper mapper) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT) return null;
+            if (!model.equals(new String(readBytes(buf), StandardCharsets.UTF_8)) || buf.getInt() != m) return null;
+            HnswIndex x = new HnswIndex(m, efConstruction);
+            x.dims = buf.getInt();
+            x.size = buf.getInt();
+            x.entry = buf.getInt();
+            x.maxLevel = buf.getInt();
+            x.vectors = new float[x.size][];
+            x.links = new int[x.size][][];
+            x.entries = new Entry[x.size];
+            x.deleted = new boolean[x.size];
+            x.byId = new HashMap<>(x.size * 2);
+            var floats = buf.asFloatBuffer();
+            for (int n = 0; n < x.size; n++) {
+                x.vectors[n] = new float[x.dims];
+                floats.get(x.vectors[n]);
+            }
+            buf.position(buf.position() + x.size * x.dims * Float.BYTES);
+            for (int n = 0; n < x.size; n++) {
+                x.deleted[n] = buf.get() != 0;
+                int[][] own = new int[buf.getInt()][];
+                for (int l = 0; l < own.length; l++) {
+                    own[l] = new int[buf.getInt()];
+                    buf.asIntBuffer().get(own[l]);
+                    buf.position(buf.position() + own[l].length * Integer.BYTES);
+                }
+                x.links[n] = own;
+            }
+            for (int n = 0; n < x.size; n++) {
+                String id = new String(readBytes(buf), StandardCharsets.UTF_8);
+                String text = new String(readBytes(buf), StandardCharsets.UTF_8);
+                Map<String, Object> meta = mapper.readValue(readBytes(buf), JsonExtractor.MAP);
+                x.entries[n] = new Entry(id, text, meta);
+                if (!x.deleted[n]) {
+                    x.byId.put(id, n);
+                    x.live++;
+                }
+            }
+            return x.withFilterIndex();
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static byte[] readBytes(MappedByteBuffer buf) {
+        byte[] b = new byte[buf.getInt()];
+        buf.get(b);
+        return b;
+    }
+}
@@ -0,0 +1,282 @@
+package com.jz.ai.rag;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.config.HnswStoreProperties;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/**
+ * 进程内 HNSW 向量库（rag.vector-store=hnsw 时替代 RedisVectorStore，检索不再走 Redis 往返）：
+ * - 同时实现 VectorKnn，多查询检索直接按向量查；打分与 RedisVectorStore 一致（score = (1 + cos) / 2，
+ *   metadata 带 vector_score = 1 - score），阈值配置不用改；
+ * - 预过滤：先按过滤表达式圈出候选（FilterIndex：品牌/类目/上架状态走位图，价格只对圈出的候选比区间，
+ *   语义同 MetadataFilter，字段与 Redis schema 相同），候选少于 exactScanMax 直接精确扫描，
+ *   否则在图上检索、只让候选进结果；
+ * - 热替换：写入在旧版本旁边生成新版本（HnswIndex 写时复制），整体替换引用，检索无锁；墓碑多了整图重建；
+ * - 快照：启动时映射读入（免重算向量、免重建图），变更后延迟写出，停机时补写。
+ * 指标：rag.hnsw.search.latency{mode=graph|exact}、rag.hnsw.recall（抽样 recall@k）、rag.hnsw.size{state}
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "rag.vector-store", havingValue = "hnsw")
+public class HnswVectorStore implements VectorStore, VectorKnn {
+
+    private static final String DISTANCE_FIELD = "vector_score";
+
+    private final EmbeddingModel embeddingModel;
+    private final HnswStoreProperties props;
+    private final ObjectMapper mapper;
+    private final MeterRegistry registry;
+    private final String modelName;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ScheduledExecutorService snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hnsw-snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile HnswIndex index;
+    private ScheduledFuture<?> pendingSnapshot;
+    private boolean dirty;
+
+    private final DistributionSummary recall;
+
+    public HnswVectorStore(EmbeddingModel embeddingModel,
+                           HnswStoreProperties props,
+                           ObjectMapper mapper,
+                           MeterRegistry registry,
+                           @Value("${rag.embedding.model}") String modelName) {
+        this.embeddingModel = embeddingModel;
+        this.props = props;
+        this.mapper = mapper;
+        this.registry = registry;
+        this.modelName = modelName;
+        this.index = HnswIndex.empty(props.getM(), props.getEfConstruction());
+        this.recall = DistributionSummary.builder("rag.hnsw.recall")
+                .description("Sampled recall@k of graph search against an exact scan")
+                .publishPercentiles(0.5, 0.1, 0.01)
+                .register(registry);
+        Gauge.builder("rag.hnsw.size", this, s -> s.index.live()).tag("state", "live").register(registry);
+        Gauge.builder("rag.hnsw.size", this, s -> s.index.tombstones()).tag("state", "tombstone").register(registry);
+    }
+
+    @PostConstruct
+    public void load() {
+        Path file = Path.of(props.getSnapshotPath());
+        if (!Files.exists(file)) return;
+        long t0 = System.nanoTime();
+        try {
+            HnswIndex loaded = HnswIndex.read(file, modelName, props.getM(), props.getEfConstruction(), mapper);
+            if (loaded == null) {
+                log.info("hnsw snapshot {} built for another model/m, ignored", file);
+                return;
+            }
+            index = loaded;
+            log.info("hnsw snapshot loaded: {} vectors from {} in {}ms",
+                    loaded.live(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        } catch (Exception e) {
+            log.warn("hnsw snapshot {} unreadable, starting empty: {}", file, e.toString());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshotter.shutdownNow();
+        writeSnapshot();
+    }
+
+    /** 存活向量数 */
+    public int size() {
+        return index.live();
+    }
+
+    /** 本节点当前版本里的条目（正文 + metadata）；没有返回 null。ProductVectorSync 按它判断本节点要不要重写 */
+    HnswIndex.Entry entry(String id) {
+        return index.get(id);
+    }
+
+    /** 本节点当前版本的全部文档 id */
+    Set<String> ids() {
+        return index.ids();
+    }
+
+    // ---------- 写入 ----------
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents == null || documents.isEmpty()) return;
+        List<float[]> vectors = embed(documents); // 锁外做
+        List<HnswIndex.Entry> entries = entriesOf(documents);
+        swap(cur -> cur.withChanges(entries, vectors, List.of()));
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> idList) {
+        if (idList == null || idList.isEmpty()) return Optional.of(true);
+        swap(cur -> cur.withChanges(List.of(), List.of(), idList));
+        return Optional.of(true);
+    }
+
+    public void delete(Filter.Expression filterExpression) {
+        swap(cur -> cur.withChanges(List.of(), List.of(),
+                cur.idsMatching(filterExpression)));
+    }
+
+    /** 全量替换（目录整体重刷时用）：新图在旁边建好再一次性换上 */
+    public void replaceAll(List<Document> documents) {
+        List<float[]> vectors = documents.isEmpty() ? List.of() : embed(documents);
+        List<HnswIndex.Entry> entries = entriesOf(documents);
+        swap(cur -> HnswIndex.empty(props.getM(), props.getEfConstruction()).withChanges(entries, vectors, List.of()));
+    }
+
+    /** 与 RedisVectorStore 相同的批量向量化（经 CachingEmbeddingModel） */
+    private List<float[]> embed(List<Document> documents) {
+        return embeddingModel.embed(documents, EmbeddingOptionsBuilder.builder().build(), new TokenCountBatchingStrategy());
+    }
+
+    private static List<HnswIndex.Entry> entriesOf(List<Document> documents) {
+        List<HnswIndex.Entry> entries = new ArrayList<>(documents.size());
+        for (Document d : documents) {
+            entries.add(new HnswIndex.Entry(d.getId(), d.getText(),
+                    d.getMetadata() == null ? Map.of() : new HashMap<>(d.getMetadata())));
+        }
+        return entries;
+    }
+
+    private void swap(UnaryOperator<HnswIndex> change) {
+        writeLock.lock();
+        try {
+            HnswIndex next = change.apply(index);
+            if (next.tombstones() > props.getCompactRatio() * Math.max(1, next.live())) {
+                next = next.compacted();
+            }
+            index = next;
+            scheduleSnapshot();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // ---------- 检索 ----------
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        return knn(query, request.getTopK(), request.getSimilarityThreshold(), request.getFilterExpression());
+    }
+
+    @Override
+    public List<Document> knn(float[] query, int topK, double similarityThreshold, Filter.Expression filter) {
+        HnswIndex idx = index; // 固定一个版本
+        if (idx.live() == 0) return List.of();
+        BitSet allowed = filter == null ? null : idx.matching(filter);
+        int candidates = allowed == null ? idx.live() : allowed.cardinality();
+        if (candidates == 0) return List.of();
+
+        boolean exact = candidates <= props.getExactScanMax();
+        long t0 = System.nanoTime();
+        List<HnswIndex.Hit> hits = exact
+                ? idx.exact(query, topK, allowed)
+                : idx.search(query, topK, props.getEfSearch(), allowed);
+        Timer.builder("rag.hnsw.search.latency")
+                .tags("mode", exact ? "exact" : "graph")
+                .register(registry)
+                .record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        if (!exact && ThreadLocalRandom.current().nextDouble() < props.getRecallSampleRate()) {
+            sampleRecall(idx, query, topK, allowed, hits);
+        }
+
+        List<Document> out = new ArrayList<>(hits.size());
+        for (HnswIndex.Hit h : hits) {
+            double score = (1 + Math.min(1.0, h.similarity())) / 2;
+            if (score < similarityThreshold) continue;
+            Map<String, Object> meta = new HashMap<>(h.entry().metadata());
+            meta.put(DISTANCE_FIELD, 1 - score);
+            out.add(Document.builder()
+                    .id(h.entry().id())
+                    .text(h.entry().text() == null ? "" : h.entry().text())
+                    .metadata(meta)
+                    .score(score)
+                    .build());
+        }
+        return out;
+    }
+
+    private void sampleRecall(HnswIndex idx, float[] query, int topK, BitSet allowed, List<HnswIndex.Hit> got) {
+        List<HnswIndex.Hit> truth = idx.exact(query, topK, allowed);
+        if (truth.isEmpty()) return;
+        Set<String> ids = new HashSet<>();
+        for (HnswIndex.Hit h : truth) ids.add(h.entry().id());
+        int found = 0;
+        for (HnswIndex.Hit h : got) if (ids.contains(h.entry().id())) found++;
+        recall.record((double) found / truth.size());
+    }
+
+    // ---------- 快照 ----------
+
+    /** 调用方持有 writeLock */
+    private void scheduleSnapshot() {
+        dirty = true;
+        if (pendingSnapshot != null && !pendingSnapshot.isDone()) return;
+        pendingSnapshot = snapshotter.schedule(this::writeSnapshot,
+                props.getSnapshotDelay().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        HnswIndex snap;
+        writeLock.lock();
+        try {
+            if (!dirty) return;
+            dirty = false;
+            snap = index;
+        } finally {
+            writeLock.unlock();
+        }
+        long t0 = System.nanoTime();
+        try {
+            snap.write(Path.of(props.getSnapshotPath()), modelName, mapper);
+            log.info("hnsw snapshot written: {} vectors in {}ms",
+                    snap.live(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+        } catch (Exception e) {
+            log.warn("hnsw snapshot write failed: {}", e.toString());
+            writeLock.lock();
+            try { dirty = true; } finally { writeLock.unlock(); }
+        }
+    }
+}
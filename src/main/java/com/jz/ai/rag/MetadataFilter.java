@@ -0,0 +1,96 @@
+package com.jz.ai.rag;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 在内存里对 metadata 求值 Spring AI 过滤表达式（HnswVectorStore 的预过滤用）。
+ * 语义向 RediSearch 靠拢：字符串等值不区分大小写；数值比较两边都能转成数才成立；字段缺失时只有 NE/NIN 成立。
+ */
+final class MetadataFilter {
+
+    private MetadataFilter() {}
+
+    static boolean test(Filter.Expression expr, Map<String, Object> meta) {
+        return expr == null || eval(expr, meta);
+    }
+
+    private static boolean eval(Filter.Operand op, Map<String, Object> meta) {
+        if (op instanceof Filter.Group g) return eval(g.content(), meta);
+        if (!(op instanceof Filter.Expression e)) {
+            throw new IllegalArgumentException("unsupported filter operand: " + op);
+        }
+        return switch (e.type()) {
+            case AND -> eval(e.left(), meta) && eval(e.right(), meta);
+            case OR -> eval(e.left(), meta) || eval(e.right(), meta);
+            case NOT -> !eval(e.left(), meta);
+            default -> compare(e, meta);
+        };
+    }
+
+    private static boolean compare(Filter.Expression e, Map<String, Object> meta) {
+        if (!(e.left() instanceof Filter.Key k) || !(e.right() instanceof Filter.Value v)) {
+            throw new IllegalArgumentException("unsupported filter expression: " + e);
+        }
+        Object actual = meta == null ? null : meta.get(unquote(k.key()));
+        Object expected = v.value();
+        if (actual == null) return e.type() == Filter.ExpressionType.NE || e.type() == Filter.ExpressionType.NIN;
+        return switch (e.type()) {
+            case EQ -> same(actual, expected);
+            case NE -> !same(actual, expected);
+            case IN -> anySame(actual, expected);
+            case NIN -> !anySame(actual, expected);
+            case GT, GTE, LT, LTE -> ordered(e.type(), actual, expected);
+            default -> throw new IllegalArgumentException("unsupported filter operator: " + e.type());
+        };
+    }
+
+    private static boolean same(Object a, Object b) {
+        Double x = number(a), y = number(b);
+        if (x != null && y != null) return x.doubleValue() == y.doubleValue();
+        return String.valueOf(a).trim().equalsIgnoreCase(String.valueOf(b).trim());
+    }
+
+    /** 等值分桶键：same(a, b) 成立当且仅当两边的键相同（FilterIndex 的位图按它建） */
+    static String valueKey(Object o) {
+        Double d = number(o);
+        if (d != null) return "#" + (d + 0.0); // -0.0 与 0.0 同桶
+        return String.valueOf(o).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean anySame(Object actual, Object expected) {
+        if (expected instanceof Collection<?> c) {
+            for (Object o : c) if (same(actual, o)) return true;
+            return false;
+        }
+        return same(actual, expected);
+    }
+
+    private static boolean ordered(Filter.ExpressionType type, Object a, Object b) {
+        Double x = number(a), y = number(b);
+        if (x == null || y == null) return false;
+        int c = Double.compare(x, y);
+        return switch (type) {
+            case GT -> c > 0;
+            case GTE -> c >= 0;
+            case LT -> c < 0;
+            default -> c <= 0;
+        };
+    }
+
+    static Double number(Object o) {
+        if (o instanceof Number n) return n.doubleValue();
+        if (o instanceof Boolean) return null;
+        try { return Double.parseDouble(String.valueOf(o).trim()); } catch (Exception e) { return null; }
+    }
+
+    static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("'") && key.endsWith("'") || key.startsWith("\"") && key.endsWith("\""))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+}
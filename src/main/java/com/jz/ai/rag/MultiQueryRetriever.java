@@ -0,0 +1,134 @@
+package com.jz.ai.rag;
+
+import com.jz.ai.config.RagQueryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * 多查询检索：扩展出的几条查询先一次批量算向量（一次 EmbeddingModel 调用），再并发 KNN，
+ * 哪条先回来先合并；到 rag.query.search-timeout 还没回来的子查询直接放弃（有多少用多少）。
+ * 原来是逐条 similaritySearch：每条各算一次向量 + 一次 Redis 往返，全部串行。
+ * 检索线程池打满时被拒绝的子查询直接跳过，不在调用线程上同步查（否则不受 search-timeout 约束）。
+ * 指标：rag.search.latency{phase=embed|knn}、rag.search.knn.count{outcome=ok|error|late|rejected}
+ */
+@Slf4j
+@Component
+public class MultiQueryRetriever {
+
+    private final EmbeddingModel embeddingModel;
+    private final VectorKnn knn;
+    private final RagQueryProperties props;
+    private final Executor executor;
+    private final MeterRegistry registry;
+
+    public MultiQueryRetriever(EmbeddingModel embeddingModel,
+                               VectorKnn knn,
+                               RagQueryProperties props,
+                               @Qualifier("ragSearchExecutor") Executor executor,
+                               MeterRegistry registry) {
+        this.embeddingModel = embeddingModel;
+        this.knn = knn;
+        this.props = props;
+        this.executor = executor;
+        this.registry = registry;
+    }
+
+    /**
+     * @param postFilter 单条子查询结果的本地兜底过滤（在检索线程上做，完成一条处理一条）
+     * @return 各子查询结果直接拼接（未去重，交给 dedupAndRank）
+     */
+    public List<Document> search(List<String> queries, int topK, double threshold,
+                                 Filter.Expression filter, UnaryOperator<List<Document>> postFilter) {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String q : queries) if (q != null && !q.isBlank()) distinct.add(q.trim());
+        if (distinct.isEmpty()) return List.of();
+        long deadline = System.nanoTime() + props.getSearchTimeout().toNanos();
+
+        List<float[]> vectors = embed(new ArrayList<>(distinct));
+
+        long t0 = System.nanoTime();
+        CompletionService<List<Document>> cs = new ExecutorCompletionService<>(executor);
+        List<Future<List<Document>>> futures = new ArrayList<>(vectors.size());
+        int rejected = 0;
+        for (float[] v : vectors) {
+            try {
+                futures.add(cs.submit(() -> postFilter.apply(knn.knn(v, topK, threshold, filter))));
+            } catch (RejectedExecutionException e) {
+                rejected++;
+            }
+        }
+        List<Document> all = new ArrayList<>();
+        int ok = 0, failed = 0;
+        RuntimeException lastError = null;
+        try {
+            while (ok + failed < futures.size()) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) break;
+                Future<List<Document>> f = cs.poll(left, TimeUnit.NANOSECONDS);
+                if (f == null) break;
+                try {
+                    all.addAll(f.get());
+                    ok++;
+                } catch (ExecutionException e) {
+                    failed++;
+                    lastError = (e.getCause() instanceof RuntimeException re) ? re : new IllegalStateException(e.getCause());
+                    log.debug("knn sub-query failed: {}", e.getCause().toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<Document>> f : futures) f.cancel(true);
+        }
+        int late = futures.size() - ok - failed;
+        timer("knn").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        count("ok", ok);
+        count("error", failed);
+        count("late", late);
+        count("rejected", rejected);
+        if (rejected > 0) log.warn("rag search pool saturated: {}/{} sub-queries skipped", rejected, vectors.size());
+        if (late > 0) log.warn("rag search deadline hit: {}/{} sub-queries dropped", late, vectors.size());
+        // 全部失败与原来一样往上抛，由 RAG 阶段的兜底接住
+        if (ok == 0 && lastError != null) throw lastError;
+        return all;
+    }
+
+    private List<float[]> embed(List<String> texts) {
+        long t0 = System.nanoTime();
+        try {
+            return embeddingModel.embed(texts);
+        } finally {
+            timer("embed").record(System.nanoTime() - t0, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(String phase) {
+        return Timer.builder("rag.search.latency")
+                .tags("phase", phase)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+    }
+
+    private void count(String outcome, int n) {
+        if (n > 0) registry.counter("rag.search.knn.count", "outcome", outcome).increment(n);
+    }
+}
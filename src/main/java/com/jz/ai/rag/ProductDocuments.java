@@ -0,0 +1,68 @@
+package com.jz.ai.rag;
+
+import com.jz.ai.domain.entity.Product;
+import org.springframework.ai.document.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Product → Document 的唯一写法（向量同步与词法索引共用，两路检索结果的 id / 正文 / metadata 一致，融合时才对得上）
+ */
+public final class ProductDocuments {
+
+    /** 文档 id 前缀：product:{productId} */
+    public static final String ID_PREFIX = "product:";
+
+    private ProductDocuments() {}
+
+    /** ★ 稳定主键（与向量库键前缀拼接） */
+    public static String id(Product p) {
+        return id(p.getId());
+    }
+
+    public static String id(Long productId) {
+        return ID_PREFIX + productId;
+    }
+
+    /** 文本内容：中文表述，利于语义检索 */
+    public static String content(Product p) {
+        return """
+                【商品】%s
+                【品牌】%s
+                【类目】%s
+                【价格】%s 元
+                【卖点】%s
+                """.formatted(
+                nvl(p.getTitle()),
+                nvl(p.getBrand()),
+                nvl(p.getCategory()),
+                p.getPrice() == null ? "-" : p.getPrice().toPlainString(),
+                nvl(p.getDescription())
+        );
+    }
+
+    /** 元数据：后续可做过滤/直出（字段与 RedisVectorStoreConfig.METADATA_FIELDS 对应） */
+    public static Map<String, Object> metadata(Product p) {
+        Map<String, Object> meta = new HashMap<>();
+        meta.put("productId", p.getId());
+        meta.put("title", p.getTitle());
+        meta.put("brand", p.getBrand());
+        meta.put("stock", p.getStock());
+        meta.put("category", p.getCategory());
+        meta.put("price", p.getPrice() == null ? null : p.getPrice().doubleValue());
+        meta.put("isActive", Boolean.TRUE.equals(p.getIsActive()));
+        meta.put("url", p.getUrl());
+        return meta;
+    }
+
+    public static Document toDocument(Product p) {
+        return Document.builder()
+                .id(id(p))
+                .text(content(p))
+                .metadata(metadata(p))
+                .build();
+    }
+
+    private static String nvl(String s) { return s == null ? "" : s; }
+}
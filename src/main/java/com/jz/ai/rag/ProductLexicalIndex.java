@@ -0,0 +1,195 @@
+package com.jz.ai.rag;
+
+import com.jz.ai.config.LexicalSearchProperties;
+import com.jz.ai.domain.entity.Product;
+import com.jz.ai.mapper.ProductMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品倒排索引（进程内，BM25）：标题/品牌/类目/卖点按 ProductTokenizer 分词，标题词频加权。
+ * 向量检索对型号、品牌原词（RTX4060、WH-1000XM5）不敏感，这一路专门补这个，结果在 dedupAndRank 里与向量结果 RRF 融合。
+ * 查询里出现能指认到个别商品的型号词（出现在标题里、不是规格词、文档频率 ≤ exactMaxDf）即判为精确查询
+ * （调用方据此跳过压缩/扩展）；256gb、65w 这类规格词很多标题都有，不算。
+ * 索引整体构建后替换引用（检索无锁）；启动时建一次，之后按 refreshInterval 重建，同步任务写入后也可主动 refresh()。
+ * 指标：rag.lexical.search{outcome=exact|hit|empty}、rag.lexical.docs
+ */
+@Slf4j
+@Component
+public class ProductLexicalIndex {
+
+    /** 一次检索结果：docs 按 BM25 降序（metadata 带 bm25_score）；exact 表示命中了目录里的型号 */
+    public record Result(List<Document> docs, boolean exact) {
+        static final Result EMPTY = new Result(List.of(), false);
+    }
+
+    private record Posting(int[] docs, int[] tf) {}
+
+    private record Snapshot(Document[] docs, float[] lengths, float avgLength,
+                            Map<String, Posting> postings, Set<String> codes) {
+        static final Snapshot EMPTY = new Snapshot(new Document[0], new float[0], 0f, Map.of(), Set.of());
+    }
+
+    private final ProductMapper productMapper;
+    private final LexicalSearchProperties props;
+    private final MeterRegistry registry;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lexical-index-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    public ProductLexicalIndex(ProductMapper productMapper, LexicalSearchProperties props, MeterRegistry registry) {
+        this.productMapper = productMapper;
+        this.props = props;
+        this.registry = registry;
+        Gauge.builder("rag.lexical.docs", this, s -> s.snapshot.docs().length)
+                .description("Products in the in-process lexical index")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!props.isEnabled()) return;
+        long every = props.getRefreshInterval().toMillis();
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, 0, every, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        refresher.shutdownNow();
+    }
+
+    /** 从库里全量重建（商品目录规模下足够快） */
+    public void refresh() {
+        long t0 = System.nanoTime();
+        List<Product> all = productMapper.selectList(null);
+        snapshot = build(all == null ? List.of() : all);
+        log.debug("lexical index rebuilt: {} products in {}ms",
+                snapshot.docs().length, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+    }
+
+    public Result search(String query) {
+        return search(query, props.getTopK());
+    }
+
+    public Result search(String query, int topK) {
+        Snapshot s = snapshot;
+        if (!props.isEnabled() || query == null || query.isBlank() || s.docs().length == 0) return Result.EMPTY;
+
+        Set<String> terms = new LinkedHashSet<>(ProductTokenizer.tokenize(query, props.getMinCodeLength()));
+        boolean exact = false;
+        int n = s.docs().length;
+        float[] score = new float[n];
+        double k1 = props.getK1(), b = props.getB();
+        for (String term : terms) {
+            Posting p = s.postings().get(term);
+            if (p == null) continue;
+            if (s.codes().contains(term)) exact = true;
+            int df = p.docs().length;
+            double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+            for (int j = 0; j < df; j++) {
+                int d = p.docs()[j];
+                int tf = p.tf()[j];
+                double norm = k1 * (1 - b + b * s.lengths()[d] / s.avgLength());
+                score[d] += (float) (idf * tf * (k1 + 1) / (tf + norm));
+            }
+        }
+
+        PriorityQueue<Integer> top = new PriorityQueue<>((x, y) -> Float.compare(score[x], score[y]));
+        for (int d = 0; d < n; d++) {
+            if (score[d] <= 0f) continue;
+            top.add(d);
+            if (top.size() > topK) top.poll();
+        }
+        if (top.isEmpty()) {
+            registry.counter("rag.lexical.search", "outcome", "empty").increment();
+            return Result.EMPTY;
+        }
+        List<Document> out = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            int d = top.poll();
+            Document src = s.docs()[d];
+            Map<String, Object> meta = new HashMap<>(src.getMetadata());
+            meta.put("bm25_score", score[d]);
+            out.add(Document.builder().id(src.getId()).text(src.getText()).metadata(meta).build());
+        }
+        Collections.reverse(out);
+        registry.counter("rag.lexical.search", "outcome", exact ? "exact" : "hit").increment();
+        return new Result(out, exact);
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("lexical index refresh failed, keeping previous: {}", e.toString());
+        }
+    }
+
+    private Snapshot build(List<Product> products) {
+        int minCode = props.getMinCodeLength();
+        Document[] docs = new Document[products.size()];
+        float[] lengths = new float[products.size()];
+        Map<String, List<int[]>> builders = new HashMap<>(); // term → [doc, tf]...
+        Set<String> titleCodes = new HashSet<>();
+        double total = 0;
+
+        for (int d = 0; d < products.size(); d++) {
+            Product p = products.get(d);
+            docs[d] = ProductDocuments.toDocument(p);
+            Map<String, Integer> tf = new HashMap<>();
+            int len = 0;
+            for (String t : ProductTokenizer.tokenize(p.getTitle(), minCode)) {
+                tf.merge(t, props.getTitleBoost(), Integer::sum);
+                len += props.getTitleBoost();
+                if (ProductTokenizer.isCode(t, minCode) && !ProductTokenizer.isSpec(t)) titleCodes.add(t);
+            }
+            for (String field : new String[]{p.getBrand(), p.getCategory(), p.getDescription()}) {
+                for (String t : ProductTokenizer.tokenize(field, minCode)) {
+                    tf.merge(t, 1, Integer::sum);
+                    len++;
+                }
+            }
+            lengths[d] = len;
+            total += len;
+            for (Map.Entry<String, Integer> e : tf.entrySet()) {
+                builders.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(new int[]{d, e.getValue()});
+            }
+        }
+
+        Map<String, Posting> postings = new HashMap<>(builders.size() * 2);
+        Set<String> codes = new HashSet<>();
+        builders.forEach((term, list) -> {
+            if (list.size() <= props.getExactMaxDf() && titleCodes.contains(term)) codes.add(term);
+            int[] ds = new int[list.size()], tfs = new int[list.size()];
+            for (int j = 0; j < list.size(); j++) {
+                ds[j] = list.get(j)[0];
+                tfs[j] = list.get(j)[1];
+            }
+            postings.put(term, new Posting(ds, tfs));
+        });
+        float avg = products.isEmpty() ? 0f : (float) (total / products.size());
+        return new Snapshot(docs, lengths, Math.max(avg, 1f), postings, codes);
+    }
+}
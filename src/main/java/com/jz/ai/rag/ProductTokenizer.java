@@ -0,0 +1,136 @@
+package com.jz.ai.rag;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 商品词法检索的分词（索引与查询同一套）：
+ * - NFKC + 小写（全角型号 ＲＴＸ４０６０ 与 rtx4060 等价）；
+ * - 中日韩连续段切二元组（“降噪耳机” → 降噪/噪耳/耳机），单字段保留单字；
+ * - 字母数字段整体成词，字母/数字交界再拆一次（rtx4060 → rtx4060/rtx/4060）；
+ * - 用 - _ . / 或空白隔开的相邻段再拼一次，只保留字母数字混合的拼接（WH-1000XM5、RTX 4060 → wh1000xm5、rtx4060），
+ *   这样不管用户怎么写型号都能落到同一个词上。
+ */
+final class ProductTokenizer {
+
+    private static final String JOINERS = "-_./";
+    /** 一个复合段里最多参与整体拼接的子段数，避免长串英文拼出无意义的长词 */
+    private static final int MAX_JOIN_PARTS = 4;
+    private static final Pattern SPEC = Pattern.compile(
+            "\\d+(?:\\.\\d+)?(?:gb|tb|mb|mah|wh|kw|w|hz|khz|mm|cm|m|kg|g|ml|l|v|a|p|k|mp|nm|fps|ppi|dpi|bit)");
+
+    private ProductTokenizer() {}
+
+    static List<String> tokenize(String text, int minCodeLength) {
+        List<String> out = new ArrayList<>();
+        if (text == null || text.isEmpty()) return out;
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        int i = 0, n = s.length();
+        while (i < n) {
+            int cp = s.codePointAt(i);
+            if (isCjk(cp)) {
+                int prev = -1, run = 0;
+                while (i < n && isCjk(cp = s.codePointAt(i))) {
+                    if (prev >= 0) out.add(new StringBuilder(4).appendCodePoint(prev).appendCodePoint(cp).toString());
+                    prev = cp;
+                    run++;
+                    i += Character.charCount(cp);
+                }
+                if (run == 1) out.add(new String(Character.toChars(prev)));
+            } else if (isWord(cp)) {
+                List<String> parts = new ArrayList<>();
+                StringBuilder part = new StringBuilder();
+                while (i < n) {
+                    cp = s.codePointAt(i);
+                    if (isWord(cp)) {
+                        part.appendCodePoint(cp);
+                        i += Character.charCount(cp);
+                        continue;
+                    }
+                    int next = skipSeparator(s, i);
+                    if (next < n && next > i && isWord(s.codePointAt(next))) {
+                        parts.add(part.toString());
+                        part.setLength(0);
+                        i = next;
+                        continue;
+                    }
+                    break;
+                }
+                if (!part.isEmpty()) parts.add(part.toString());
+                emitParts(parts, minCodeLength, out);
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return out;
+    }
+
+    /** 型号类词：字母与数字混合、全是 ASCII 字母数字、长度够 */
+    static boolean isCode(String token, int minCodeLength) {
+        if (token.length() < minCodeLength) return false;
+        boolean letter = false, digit = false;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= 'a' && c <= 'z') letter = true;
+            else if (c >= '0' && c <= '9') digit = true;
+            else return false;
+        }
+        return letter && digit;
+    }
+
+    /** 规格词：数字 + 单位（256gb、5000mah、65w、120hz），字母数字混合但在很多标题里都有，不是型号 */
+    static boolean isSpec(String token) {
+        return SPEC.matcher(token).matches();
+    }
+
+    private static void emitParts(List<String> parts, int minCodeLength, List<String> out) {
+        for (String p : parts) {
+            out.add(p);
+            splitLetterDigit(p, out);
+        }
+        for (int k = 0; k + 1 < parts.size(); k++) {
+            String pair = parts.get(k) + parts.get(k + 1);
+            if (isCode(pair, minCodeLength)) out.add(pair);
+        }
+        if (parts.size() > 2 && parts.size() <= MAX_JOIN_PARTS) {
+            String all = String.join("", parts);
+            if (isCode(all, minCodeLength)) out.add(all);
+        }
+    }
+
+    /** rtx4060 → rtx / 4060；过短的碎片（单字母/单数字）不要 */
+    private static void splitLetterDigit(String p, List<String> out) {
+        int start = 0, pieces = 0;
+        List<String> tmp = new ArrayList<>(3);
+        for (int i = 1; i <= p.length(); i++) {
+            if (i == p.length() || Character.isDigit(p.charAt(i)) != Character.isDigit(p.charAt(i - 1))) {
+                pieces++;
+                if (i - start >= 2) tmp.add(p.substring(start, i));
+                start = i;
+            }
+        }
+        if (pieces > 1) out.addAll(tmp);
+    }
+
+    /** 从 i 起跳过一个连接符或一段空白，返回下一个位置；不是分隔符返回 i */
+    private static int skipSeparator(String s, int i) {
+        char c = s.charAt(i);
+        if (JOINERS.indexOf(c) >= 0) return i + 1;
+        int j = i;
+        while (j < s.length() && Character.isWhitespace(s.charAt(j))) j++;
+        return j;
+    }
+
+    private static boolean isWord(int cp) {
+        return Character.isLetterOrDigit(cp) && !isCjk(cp);
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript sc = Character.UnicodeScript.of(cp);
+        return sc == Character.UnicodeScript.HAN || sc == Character.UnicodeScript.HIRAGANA
+                || sc == Character.UnicodeScript.KATAKANA || sc == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,429 @@
+package com.jz.ai.rag;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.jz.ai.config.ProductSyncProperties;
+import com.jz.ai.config.RagRedisProperties;
+import com.jz.ai.domain.entity.Product;
+import com.jz.ai.mapper.ProductMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPooled;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 商品 → 向量库增量同步（后台跑，启动不再阻塞、也不再每次部署全量重新向量化）：
+ * - 后台线程按 (updated_at, id) 水位分页扫描；每轮起点回看 lookback，兜住晚提交的事务；
+ * - 每个商品算内容哈希（模型名 + 正文 + metadata，与 ProductDocuments 同一写法），和已同步的一样就跳过，不花向量化配额；
+ * - 同步状态（水位 + 哈希）跟着向量库走：Redis 向量库各节点共享，状态也存 Redis，重启从上次位置继续；
+ *   进程内 HNSW 每个节点各有一张图，状态就是本节点的图本身（哈希按图里存的正文/metadata 现算，水位只在内存），
+ *   重启后首轮全量比对一遍——别的节点先同步过、或从旧快照起来，都只会重写本节点确实落后的商品；
+ * - 变化的商品按 batchSize 分批 add（两种向量库的 add 都是按 id 覆盖，不用先删），最多 parallelism 批同时在途；
+ *   一页全部写成功才推进水位、记哈希，失败的页下一轮重来（已成功的按哈希跳过）；
+ * - 硬删除不会推动水位，按 reconcileInterval 对账，库里没有的从向量库删掉；
+ * - 就绪门（health 配在 readiness 组里，见 application.yml management.endpoint.health）：向量库已有数据（Redis 里有同步记录 /
+ *   本节点图非空）即就绪，不等本轮追平——向量化服务故障时新 pod 也能接流量、滚动发布不卡住；
+ *   只有向量库为空时才等首轮追平。落后多少看 rag.sync.lag.seconds，超过 lagWarn 在 health 里带 warning。
+ * 指标：rag.sync.products{outcome=embedded|unchanged|failed|removed}、rag.sync.pass{outcome}、
+ *      rag.sync.backlog（本轮剩余行数）、rag.sync.progress（本轮进度 0~1）、rag.sync.lag.seconds（距最近一次完整同步的起点）
+ */
+@Slf4j
+@Component
+public class ProductVectorSync implements HealthIndicator {
+
+    private record Watermark(LocalDateTime updatedAt, long id) {
+        String encode() { return updatedAt + "|" + id; }
+
+        static Watermark decode(String s) {
+            if (s == null || s.isBlank()) return null;
+            int bar = s.lastIndexOf('|');
+            return new Watermark(LocalDateTime.parse(s.substring(0, bar)), Long.parseLong(s.substring(bar + 1)));
+        }
+    }
+
+    private final ProductMapper productMapper;
+    private final VectorStore vectorStore;
+    private final ProductLexicalIndex lexicalIndex;
+    private final JedisPooled jedis;
+    private final ProductSyncProperties props;
+    private final MeterRegistry registry;
+    private final String modelName;
+    private final SyncState state;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "product-vector-sync");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService writers;
+
+    private volatile boolean ready;
+    private volatile long backlog;
+    private volatile long processed;
+    /** 最近一次完整同步的起点：在此之前提交的改动都已进向量库 */
+    private volatile long syncedAsOf;
+    private volatile Watermark watermark;
+    private volatile String lastError;
+    private final long startedAt = System.currentTimeMillis();
+    private long lastReconcile;
+
+    public ProductVectorSync(ProductMapper productMapper,
+                             VectorStore vectorStore,
+                             ProductLexicalIndex lexicalIndex,
+                             JedisPooled jedis,
+                             ProductSyncProperties props,
+                             RagRedisProperties redisProps,
+                             MeterRegistry registry,
+                             @Value("${rag.embedding.model}") String modelName) {
+        this.productMapper = productMapper;
+        this.vectorStore = vectorStore;
+        this.lexicalIndex = lexicalIndex;
+        this.jedis = jedis;
+        this.props = props;
+        this.registry = registry;
+        this.modelName = modelName;
+
+        // 同步状态跟着向量库走：共享的 Redis 索引状态放 Redis（换索引即从头同步），本节点的 HNSW 图状态就是图本身
+        this.state = vectorStore instanceof HnswVectorStore hnsw
+                ? new LocalState(hnsw)
+                : new RedisState(props.getRedisKeyPrefix() + "redis:" + redisProps.getIndex());
+
+        AtomicInteger seq = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(Math.max(1, props.getParallelism()), r -> {
+            Thread t = new Thread(r, "product-vector-sync-writer-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+
+        Gauge.builder("rag.sync.backlog", this, s -> Math.max(0, s.backlog - s.processed))
+                .description("Product rows left in the current sync pass")
+                .register(registry);
+        Gauge.builder("rag.sync.progress", this, s -> s.backlog == 0 ? 1.0 : Math.min(1.0, (double) s.processed / s.backlog))
+                .description("Progress of the current sync pass (0-1)")
+                .register(registry);
+        Gauge.builder("rag.sync.lag.seconds", this,
+                        s -> s.syncedAsOf == 0 ? Double.NaN : (System.currentTimeMillis() - s.syncedAsOf) / 1000.0)
+                .description("Seconds since the start of the last complete sync pass")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!props.isEnabled()) {
+            ready = true;
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::syncQuietly, 0, props.getInterval().toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+        writers.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder b = ready ? Health.up() : Health.outOfService();
+        b.withDetail("backlog", Math.max(0, backlog - processed));
+        long lagMs = System.currentTimeMillis() - (syncedAsOf == 0 ? startedAt : syncedAsOf);
+        if (syncedAsOf != 0) b.withDetail("lagSeconds", lagMs / 1000);
+        if (props.isEnabled() && lagMs > props.getLagWarn().toMillis()) {
+            b.withDetail("warning", syncedAsOf == 0
+                    ? "no complete sync pass since startup, serving vectors as they are"
+                    : "vector store lags the catalogue by " + lagMs / 1000 + "s");
+        }
+        if (watermark != null) b.withDetail("watermark", watermark.encode());
+        if (lastError != null) b.withDetail("lastError", lastError);
+        return b.build();
+    }
+
+    private void syncQuietly() {
+        Timer.Sample sample = Timer.start(registry);
+        String outcome = "ok";
+        try {
+            readyIfPopulated();
+            syncOnce();
+            lastError = null;
+        } catch (Exception e) {
+            outcome = "failed";
+            lastError = e.toString();
+            log.warn("product vector sync pass failed, retry next round from {}: {}",
+                    watermark == null ? "start" : watermark.encode(), e.toString());
+        } finally {
+            sample.stop(registry.timer("rag.sync.pass", "outcome", outcome));
+        }
+    }
+
+    /** 一轮：从水位扫到末尾，全部成功才算追平 */
+    void syncOnce() {
+        long passStart = System.currentTimeMillis();
+
+        Watermark wm = state.watermark();
+        watermark = wm;
+        Watermark from = wm == null ? null
+                : new Watermark(wm.updatedAt().minus(props.getLookback()), 0L);
+        backlog = productMapper.selectCount(after(from));
+        processed = 0;
+
+        int changed = 0;
+        while (true) {
+            List<Product> page = productMapper.selectList(after(from)
+                    .orderByAsc(Product::getUpdatedAt)
+                    .orderByAsc(Product::getId)
+                    .last("limit " + props.getPageSize()));
+            if (page == null || page.isEmpty()) break;
+
+            changed += syncPage(page);
+
+            Product last = page.get(page.size() - 1);
+            from = new Watermark(last.getUpdatedAt(), last.getId());
+            if (wm == null || from.updatedAt().isAfter(wm.updatedAt())
+                    || (from.updatedAt().isEqual(wm.updatedAt()) && from.id() > wm.id())) {
+                wm = from;
+                state.watermark(wm);
+                watermark = wm;
+            }
+            processed += page.size();
+            if (page.size() < props.getPageSize()) break;
+        }
+
+        if (passStart - lastReconcile >= props.getReconcileInterval().toMillis()) {
+            changed += reconcile();
+            lastReconcile = passStart;
+        }
+        if (changed > 0) {
+            lexicalIndex.refresh();
+            log.info("product vector sync: {} products written/removed, watermark {}",
+                    changed, wm == null ? "-" : wm.encode());
+        }
+        syncedAsOf = passStart;
+        if (!ready) {
+            ready = true;
+            log.info("product vector sync caught up ({} rows scanned)", processed);
+        }
+    }
+
+    /** 向量库里已有数据就先就绪：本轮失败（比如向量化服务挂了）也照旧数据服务，落后由 lag 指标/health warning 报 */
+    private void readyIfPopulated() {
+        if (ready || !state.populated()) return;
+        ready = true;
+        log.info("vector store already populated, ready before the sync pass catches up");
+    }
+
+    /** 一页：比对哈希，变化的分批并发写入；任何一批失败整页抛出（水位不推进） */
+    private int syncPage(List<Product> page) {
+        String[] fields = new String[page.size()];
+        for (int i = 0; i < page.size(); i++) fields[i] = String.valueOf(page.get(i).getId());
+        List<String> known = state.hashes(fields);
+
+        List<Document> docs = new ArrayList<>();
+        Map<String, String> hashes = new HashMap<>();
+        for (int i = 0; i < page.size(); i++) {
+            Product p = page.get(i);
+            Document doc = ProductDocuments.toDocument(p);
+            String h = contentHash(doc);
+            if (h.equals(known.get(i))) continue;
+            docs.add(doc);
+            hashes.put(fields[i], h);
+        }
+        int unchanged = page.size() - docs.size();
+        if (unchanged > 0) registry.counter("rag.sync.products", "outcome", "unchanged").increment(unchanged);
+        if (docs.isEmpty()) return 0;
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < docs.size(); from += props.getBatchSize()) {
+            List<Document> batch = docs.subList(from, Math.min(docs.size(), from + props.getBatchSize()));
+            futures.add(CompletableFuture.runAsync(() -> writeBatch(batch, hashes), writers));
+        }
+        int failed = 0;
+        Exception firstError = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (Exception e) {
+                failed += Math.min(props.getBatchSize(), docs.size() - i * props.getBatchSize());
+                if (firstError == null) firstError = e;
+            }
+        }
+        if (failed > 0) {
+            registry.counter("rag.sync.products", "outcome", "failed").increment(failed);
+            throw new IllegalStateException(failed + " products failed to sync", firstError);
+        }
+        return docs.size();
+    }
+
+    private void writeBatch(List<Document> batch, Map<String, String> hashes) {
+        vectorStore.add(batch);
+        Map<String, String> done = new HashMap<>();
+        for (Document d : batch) {
+            String pid = String.valueOf(d.getMetadata().get("productId"));
+            done.put(pid, hashes.get(pid));
+        }
+        state.recorded(done);
+        registry.counter("rag.sync.products", "outcome", "embedded").increment(batch.size());
+    }
+
+    /** 对账：同步过但库里已不存在的商品，从向量库和哈希表里删掉 */
+    private int reconcile() {
+        Set<String> synced = state.syncedIds();
+        if (synced == null || synced.isEmpty()) return 0;
+        Set<String> alive = new HashSet<>();
+        for (Product p : productMapper.selectList(Wrappers.<Product>lambdaQuery().select(Product::getId))) {
+            alive.add(String.valueOf(p.getId()));
+        }
+        List<String> gone = new ArrayList<>();
+        for (String pid : synced) if (!alive.contains(pid)) gone.add(pid);
+        if (gone.isEmpty()) return 0;
+
+        List<String> docIds = new ArrayList<>(gone.size());
+        for (String pid : gone) docIds.add(ProductDocuments.id(Long.valueOf(pid)));
+        vectorStore.delete(docIds);
+        state.removed(gone);
+        registry.counter("rag.sync.products", "outcome", "removed").increment(gone.size());
+        return gone.size();
+    }
+
+    /** 同步状态：水位 + 各商品已写入内容的哈希（key 均为 productId 字符串） */
+    private interface SyncState {
+        Watermark watermark();
+
+        void watermark(Watermark wm);
+
+        /** 与 productIds 一一对应，没同步过为 null */
+        List<String> hashes(String[] productIds);
+
+        void recorded(Map<String, String> hashes);
+
+        Set<String> syncedIds();
+
+        void removed(List<String> productIds);
+
+        /** 向量库里已有同步过的数据 */
+        boolean populated();
+    }
+
+    /** 共享的 Redis 向量库：状态存 Redis，所有节点共用一份 */
+    private final class RedisState implements SyncState {
+        private final String watermarkKey;
+        private final String hashKey;
+
+        RedisState(String prefix) {
+            this.watermarkKey = prefix + ":watermark";
+            this.hashKey = prefix + ":hash";
+        }
+
+        public Watermark watermark() { return Watermark.decode(jedis.get(watermarkKey)); }
+
+        public void watermark(Watermark wm) { jedis.set(watermarkKey, wm.encode()); }
+
+        public List<String> hashes(String[] productIds) { return jedis.hmget(hashKey, productIds); }
+
+        public void recorded(Map<String, String> hashes) { jedis.hset(hashKey, hashes); }
+
+        public Set<String> syncedIds() { return jedis.hkeys(hashKey); }
+
+        public void removed(List<String> productIds) { jedis.hdel(hashKey, productIds.toArray(String[]::new)); }
+
+        public boolean populated() { return jedis.hlen(hashKey) > 0; }
+    }
+
+    /**
+     * 进程内 HNSW：每个节点一张图，状态不能共享（否则先同步的节点记了新哈希，其它节点就永远“未变化”）。
+     * 哈希按本节点图里存的正文/metadata 现算，快照旧了、丢了都能比出来；水位只在内存，重启后首轮全量比对
+     */
+    private final class LocalState implements SyncState {
+        private final HnswVectorStore store;
+        private volatile Watermark inMemory;
+
+        LocalState(HnswVectorStore store) {
+            this.store = store;
+        }
+
+        public Watermark watermark() { return inMemory; }
+
+        public void watermark(Watermark wm) { this.inMemory = wm; }
+
+        public List<String> hashes(String[] productIds) {
+            List<String> out = new ArrayList<>(productIds.length);
+            for (String pid : productIds) {
+                HnswIndex.Entry e = store.entry(ProductDocuments.id(Long.valueOf(pid)));
+                out.add(e == null ? null : contentHash(e.text(), e.metadata()));
+            }
+            return out;
+        }
+
+        public void recorded(Map<String, String> hashes) { /* 写进图里即是记录 */ }
+
+        public Set<String> syncedIds() {
+            Set<String> pids = new HashSet<>();
+            for (String id : store.ids()) {
+                if (id.startsWith(ProductDocuments.ID_PREFIX)) pids.add(id.substring(ProductDocuments.ID_PREFIX.length()));
+            }
+            return pids;
+        }
+
+        public void removed(List<String> productIds) { /* 已从图里删掉 */ }
+
+        public boolean populated() { return store.size() > 0; }
+    }
+
+    private static LambdaQueryWrapper<Product> after(Watermark wm) {
+        LambdaQueryWrapper<Product> q = Wrappers.lambdaQuery();
+        if (wm == null) return q;
+        return q.and(w -> w.gt(Product::getUpdatedAt, wm.updatedAt())
+                .or(o -> o.eq(Product::getUpdatedAt, wm.updatedAt()).gt(Product::getId, wm.id())));
+    }
+
+    private String contentHash(Document doc) {
+        return contentHash(doc.getText(), doc.getMetadata());
+    }
+
+    /** 向量化输入（模型 + 正文）和 metadata 任何一处变了都要重写 */
+    private String contentHash(String text, Map<String, Object> metadata) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(modelName.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(Objects.toString(text, "").getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+            md.update(new TreeMap<>(metadata == null ? Map.of() : metadata).toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(md.digest(), 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 // src/main/java/com/jz/ai/rag/RagQueryPipeline.java
 package com.jz.ai.rag;
 
-import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
+import com.jz.ai.chat.llm.LlmTimeoutException;
+import com.jz.ai.config.LexicalSearchProperties;
 import com.jz.ai.config.RagQueryProperties;
 import com.jz.ai.service.AllowedDictService;
 import jakarta.annotation.Nullable;
@@ -23,6 +26,7 @@ import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -39,7 +43,12 @@ public class RagQueryPipeline {
 
     private final VectorStore vectorStore;
     private final ChatClient.Builder chatClientBuilder; // 用同一套 ChatClient 做 query 级增强
+    private final LlmGateway llmGateway;               // 路由抽取走网关；压缩/扩展只借用它的截止时间
     private final RagQueryProperties ragQueryProperties;
+    private final JsonExtractor jsonExtractor;
+    private final MultiQueryRetriever multiQueryRetriever;
+    private final ProductLexicalIndex lexicalIndex;
+    private final LexicalSearchProperties lexicalProperties;
     // ⭐ 新增：从 DB+Redis 取允许集合；同义词仅写死示例
     private final AllowedDictService allowedDictService;
     /**
@@ -52,12 +61,23 @@ public class RagQueryPipeline {
             String userQuery,
             List<Message> shortHistory
     ) {
+        return searchWithAugmenters(userQuery, shortHistory, null);
+    }
+
+    /**
+     * @param preRouted 本轮 TurnAnalyzer 合并分析已给出的路由结果；null 时自己调模型路由抽取
+     */
+    public List<Document> searchWithAugmenters(
+            String userQuery,
+            List<Message> shortHistory,
+            @Nullable QueryRouting preRouted
+    ) {
 //     * @param expandNum       多查询扩展个数（例如 3）
 //     * @param perQueryTopK    每个子查询返回的相似文档数（例如 4）
 //     * @param simThreshold    相似度阈值（0.0~1.0；越高越严格，例：0.5）
 //     * @param finalTopK       合并去重后的最终 TopK（例如 6）
         // === 调用处（searchWithAugmenters 开头）===
-        QueryRouting routing = routeAndExtract(userQuery, shortHistory);
+        QueryRouting routing = (preRouted != null) ? preRouted : routeAndExtract(userQuery, shortHistory);
         if (routing.getIntent() == QueryRouting.Intent.NON_PRODUCT) {
             return List.of(); // 不走 RAG
         }
@@ -68,26 +88,37 @@ public class RagQueryPipeline {
         int perQueryTopK= ragQueryProperties.getPerQueryTopk();
         double simThreshold= ragQueryProperties.getSimThreshold();
         int finalTopK=ragQueryProperties.getFinalTopk();
-        // 0) 先把原始 userQuery + history 封装成 Spring AI 的 Query（必须）
-        Query base = Query.builder()
-                .text(userQuery)
-                .history(filterUserAssistantHistory(shortHistory)) // 只保留 USER/ASSISTANT，两类够用
-                .context(Map.of())                                 // 需要传额外上下文时可放入这里
-                .build();
-
-        // 1) 上下文压缩（CompressionQueryTransformer 接收/返回的就是 Query）
-        var compressor = CompressionQueryTransformer.builder()
-                .chatClientBuilder(chatClientBuilder)
-                .build();
-        Query compressed = compressor.transform(base);
+        // 词法检索（BM25）：型号/品牌原词向量检索容易漏，单独召回一路，最后与向量结果 RRF 融合
+        ProductLexicalIndex.Result lexical = lexicalIndex.search(userQuery);
+        List<Document> lexicalDocs = applyLocalFilters(lexical.docs(), mergedFilters);
+
+        List<String> queries;
+        if (lexical.exact() && lexicalProperties.isExactSkipAugment() && !refersToContext(userQuery)) {
+            // 句子里就有目录中的型号：本身已是精确查询，不压缩不扩展（省两次 LLM 调用）
+            queries = List.of(userQuery);
+        } else {
+            // 0) 先把原始 userQuery + history 封装成 Spring AI 的 Query（必须）
+            Query base = Query.builder()
+                    .text(userQuery)
+                    .history(filterUserAssistantHistory(shortHistory)) // 只保留 USER/ASSISTANT，两类够用
+                    .context(Map.of())                                 // 需要传额外上下文时可放入这里
+                    .build();
 
-        // 2) 多查询扩展（得到多个 Query 变体；可 include 原始/压缩）（可以不用）
-        var expander = MultiQueryExpander.builder()
-                .chatClientBuilder(chatClientBuilder)
-                .numberOfQueries(expandNum)
-                .includeOriginal(true) // 把已经压缩过的 compressed 也作为一个候选
-                .build();
-        List<Query> expanded = expander.expand(compressed);
+            // 1) 上下文压缩（CompressionQueryTransformer 接收/返回的就是 Query）
+            var compressor = CompressionQueryTransformer.builder()
+                    .chatClientBuilder(chatClientBuilder)
+                    .build();
+            // 超时：不压缩，直接用原句
+            Query compressed = withDeadline("rag-compress", () -> compressor.transform(base), base);
+
+            // 2) 多查询扩展（得到多个 Query 变体；可 include 原始/压缩）（可以不用）
+            var expander = MultiQueryExpander.builder()
+                    .chatClientBuilder(chatClientBuilder)
+                    .numberOfQueries(expandNum)
+                    .includeOriginal(true) // 把已经压缩过的 compressed 也作为一个候选
+                    .build();
+            // 超时：只用压缩后的单条查询
+            List<Query> expanded = withDeadline("rag-expand", () -> expander.expand(compressed), List.of(compressed));
 
 //        // 3) 查询重写（逐个 Query -> Query），使之更适配“向量库”检索
 //        var rewriter = RewriteQueryTransformer.builder()
@@ -100,36 +131,50 @@ public class RagQueryPipeline {
 //                        Collectors.toMap(Query::text, q -> q, (a, b) -> a, LinkedHashMap::new),
 //                        m -> new ArrayList<>(m.values())
 //                ));
+            queries = expanded.stream().map(Query::text).toList();
+        }
 
-        // 4) 针对每个重写后的查询做向量检索，聚合所有候选文档
-        List<Document> all = new ArrayList<>();
+        // 4) 全部扩展查询一次批量算向量，再并发 KNN（服务端过滤 + 分数兜底 + 本地兜底过滤），截止时间内有多少用多少
         var serverExpr = buildFilterExpr(mergedFilters);
-        for (Query q : expanded) {
-
-            SearchRequest req = SearchRequest.builder()
-                    .query(q.text())
-                    .topK(perQueryTopK)
-                    .similarityThreshold(simThreshold)
-                    .filterExpression(serverExpr)
-                    .build();
-
-            // 4.1 如需“向量库侧过滤”，这里依据你的 Spring AI 版本可使用 withFilterExpression(...)
-            //     为了兼容性，这里还是采用“取回后本地兜底过滤”的办法：
-            List<Document> docs = vectorStore.similaritySearch(req);
-            // 分数兜底 + 本地兜底过滤
-            if (docs != null) {
-                docs = docs.stream()
+        final Map<String, Object> localFilters = mergedFilters;
+        List<Document> all = multiQueryRetriever.search(
+                queries,
+                perQueryTopK, simThreshold, serverExpr,
+                docs -> applyLocalFilters(docs.stream()
                         .filter(d -> Optional.ofNullable(d.getScore()).orElse(0.0) >= simThreshold)
-                        .toList();
-            }
-            // 4.2 本地过滤（brand/category/isActive/priceMin/priceMax）
-            docs = applyLocalFilters(docs, mergedFilters);
+                        .toList(), localFilters));
+
+        // 5) 合并去重 + 与词法结果 RRF 融合 + 截断 TopK
+        return dedupAndRank(all, lexicalDocs, finalTopK, lexicalProperties.getRrfK());
+    }
 
-            all.addAll(docs);
+    /** 只加截止时间；超时用 fallback，其它异常照常抛出 */
+    private <T> T withDeadline(String caller, Supplier<T> body, T fallback) {
+        try {
+            return llmGateway.run(caller, body);
+        } catch (LlmTimeoutException e) {
+            return fallback;
         }
+    }
 
-        // 5) 合并去重 + 简单排序 + 截断 TopK
-        return dedupAndRank(all, finalTopK);
+    /**
+     * 降级检索（过载时用）：跳过路由抽取 / 上下文压缩 / 多查询扩展，零 LLM 调用，原句直接做一次向量检索
+     */
+    public List<Document> searchDirect(String userQuery) {
+        if (userQuery == null || userQuery.isBlank()) return List.of();
+        double simThreshold = ragQueryProperties.getSimThreshold();
+        int finalTopK = ragQueryProperties.getFinalTopk();
+        SearchRequest req = SearchRequest.builder()
+                .query(userQuery)
+                .topK(finalTopK)
+                .similarityThreshold(simThreshold)
+                .build();
+        List<Document> docs = vectorStore.similaritySearch(req);
+        if (docs == null) return List.of();
+        docs = docs.stream()
+                .filter(d -> Optional.ofNullable(d.getScore()).orElse(0.0) >= simThreshold)
+                .toList();
+        return dedupAndRank(docs, lexicalIndex.search(userQuery).docs(), finalTopK, lexicalProperties.getRrfK());
     }
 
     /**
@@ -303,19 +348,58 @@ public class RagQueryPipeline {
         }).collect(Collectors.toList());
     }
 
+    /** 带指代（这款/那个/刚才…）的句子即使有型号也要靠压缩补全上下文 */
+    private static final List<String> CONTEXT_REFERENCES = List.of(
+            "这款", "那款", "这个", "那个", "这台", "那台", "它", "上面", "刚才", "之前", "前面");
+
+    private static boolean refersToContext(String q) {
+        for (String r : CONTEXT_REFERENCES) if (q.contains(r)) return true;
+        return false;
+    }
+
+    /**
+     * 向量结果与词法结果做 RRF 融合：fused = Σ 1 / (rrfK + rank)，rank 从 1 起；
+     * 向量一侧先按 dedupAndRank 去重排序再定名次。同一商品两路都有时保留向量那份（带相似度 score）。
+     * 词法结果为空时与 dedupAndRank(vector, finalTopK) 完全一致。
+     */
+    static List<Document> dedupAndRank(List<Document> vector, List<Document> lexical, int finalTopK, int rrfK) {
+        if (lexical == null || lexical.isEmpty()) return dedupAndRank(vector, finalTopK);
+
+        LinkedHashMap<Object, Document> picked = new LinkedHashMap<>();
+        Map<Object, Double> fused = new HashMap<>();
+        for (List<Document> ranked : List.of(dedupAndRank(vector, 0), lexical)) {
+            int rank = 0;
+            Set<Object> seen = new HashSet<>();
+            for (Document d : ranked) {
+                Object key = dedupKey(d);
+                if (!seen.add(key)) continue;
+                rank++;
+                picked.putIfAbsent(key, d);
+                fused.merge(key, 1.0 / (rrfK + rank), Double::sum);
+            }
+        }
+        List<Object> keys = new ArrayList<>(picked.keySet());
+        keys.sort(Comparator.comparing((Object k) -> fused.get(k)).reversed()); // 稳定排序：同分保持向量在前
+        List<Document> out = new ArrayList<>(keys.size());
+        for (Object k : keys) {
+            if (finalTopK > 0 && out.size() >= finalTopK) break;
+            out.add(picked.get(k));
+        }
+        return out;
+    }
+
     /**
      * 合并去重（按 productId；没有就按文本 hash）
      * 按 score(若有) 降序；没有 score 就保持合并顺序
+     * （不依赖实例状态；包内可见供 benchmarks 模块直接压测）
      */
-    private List<Document> dedupAndRank(List<Document> all, int finalTopK) {
+    static List<Document> dedupAndRank(List<Document> all, int finalTopK) {
         if (all == null || all.isEmpty()) return List.of();
 
         // 5.1 去重：优先产出靠前的
         LinkedHashMap<Object, Document> map = new LinkedHashMap<>();
         for (Document d : all) {
-            Object pid = d.getMetadata() == null ? null : d.getMetadata().get("productId");
-            Object key = (pid != null) ? pid : ((d.getText() == null) ? UUID.randomUUID() : d.getText().hashCode());
-            map.putIfAbsent(key, d);
+            map.putIfAbsent(dedupKey(d), d);
         }
         List<Document> merged = new ArrayList<>(map.values());
 
@@ -333,6 +417,13 @@ public class RagQueryPipeline {
         return merged;
     }
 
+    /** productId 统一成字符串（Redis 回填的是字符串，本地索引是数字） */
+    private static Object dedupKey(Document d) {
+        Object pid = d.getMetadata() == null ? null : d.getMetadata().get("productId");
+        if (pid != null) return String.valueOf(pid);
+        return (d.getText() == null) ? UUID.randomUUID() : d.getText().hashCode();
+    }
+
     private Double castDouble(Object o) {
         if (o == null) return null;
         if (o instanceof Number n) return n.doubleValue();
@@ -354,32 +445,11 @@ public class RagQueryPipeline {
       %s
     """.formatted(historyBlock, userQuery);
 
-        var client = chatClientBuilder.build();
-        String resp = client.prompt()
-                .system(sys)
-                .user(prompt)
-                .call()
-                .content(); // 期望纯 JSON
-
         try {
-            var mapper = JsonMapper.builder().build();
-            var node = mapper.readTree(resp);
-
-            var r = new QueryRouting();
-            r.setIntent("PRODUCT_INFO".equalsIgnoreCase(node.path("intent").asText())
-                    ? QueryRouting.Intent.PRODUCT_INFO : QueryRouting.Intent.NON_PRODUCT);
-
-            var f = new QueryRouting.Filters();
-            var filters = node.path("filters");
-            if (!filters.isMissingNode()) {
-                f.setBrand(asNullOrText(filters, "brand"));
-                f.setCategory(asNullOrText(filters, "category"));
-                if (filters.hasNonNull("isActive")) f.setIsActive(filters.get("isActive").asBoolean());
-                if (filters.hasNonNull("priceMin")) f.setPriceMin(filters.get("priceMin").asDouble());
-                if (filters.hasNonNull("priceMax")) f.setPriceMax(filters.get("priceMax").asDouble());
-            }
-            r.setFilters(f);
-            return r;
+            // 期望纯 JSON；超时与解析失败同样保守降级
+            String resp = llmGateway.call("rag-route", ragQueryProperties.getRouteModel(), sys, prompt);
+            return parseRouting(jsonExtractor.extract(resp, JsonExtractor.Shape.OBJECT)
+                    .orElseThrow(() -> new IllegalStateException("no json object")));
         } catch (Exception e) {
             // 解析失败：保守降级
             var r = new QueryRouting();
@@ -389,7 +459,26 @@ public class RagQueryPipeline {
         }
     }
 
-    private static String buildCompactHistory(List<Message> history, int maxChars) {
+    /** {"intent":..., "filters":{...}} → QueryRouting（TurnAnalyzer 合并分析的 routing 段同样用它解析） */
+    public static QueryRouting parseRouting(com.fasterxml.jackson.databind.JsonNode node) {
+        var r = new QueryRouting();
+        r.setIntent("PRODUCT_INFO".equalsIgnoreCase(node.path("intent").asText())
+                ? QueryRouting.Intent.PRODUCT_INFO : QueryRouting.Intent.NON_PRODUCT);
+
+        var f = new QueryRouting.Filters();
+        var filters = node.path("filters");
+        if (!filters.isMissingNode()) {
+            f.setBrand(asNullOrText(filters, "brand"));
+            f.setCategory(asNullOrText(filters, "category"));
+            if (filters.hasNonNull("isActive")) f.setIsActive(filters.get("isActive").asBoolean());
+            if (filters.hasNonNull("priceMin")) f.setPriceMin(filters.get("priceMin").asDouble());
+            if (filters.hasNonNull("priceMax")) f.setPriceMax(filters.get("priceMax").asDouble());
+        }
+        r.setFilters(f);
+        return r;
+    }
+
+    public static String buildCompactHistory(List<Message> history, int maxChars) {
         if (history == null || history.isEmpty()) return "(无)";
         // 只保留 USER/ASSISTANT，并做轻量格式化；从后往前拼，直至达到上限
         var filtered = history.stream()
@@ -460,14 +549,26 @@ public class RagQueryPipeline {
         return allowedDictService.canonCategory(raw);
     }
     // —— 动态构建路由 System Prompt —— //
-    private String buildRoutingSystemPrompt() {
+    /** 允许值 + 同义词（路由抽取与 TurnAnalyzer 合并分析共用） */
+    public String routingDictionaryBlock() {
         String brandAllowedJson = toJsonArray(allowedDictService.allowedBrands());
         String catAllowedJson   = toJsonArray(allowedDictService.allowedCategories());
         String brandSynJson     = toGroupedSynonymJson(allowedDictService.allowedBrands(),
                 allowedDictService.brandAliasToCanon());
         String catSynJson       = toGroupedSynonymJson(allowedDictService.allowedCategories(),
                 allowedDictService.categoryAliasToCanon());
+        return """
+        【允许值（规范值，必须原样输出）】
+        brand_allowed = %s
+        category_allowed = %s
 
+        【同义词→规范值（仅示例；若遇到未列但能判断归属，也要输出规范值；否则 null）】
+        brand_synonyms = %s
+        category_synonyms = %s
+        """.formatted(brandAllowedJson, catAllowedJson, brandSynJson, catSynJson);
+    }
+
+    private String buildRoutingSystemPrompt() {
         return """
         你是“查询路由 + 过滤器抽取器”。结合“最近对话”判断当前问题是否与【商品信息/价格/品牌/类目/推荐/比较/库存/购买】相关，
         并抽取过滤器。只输出严格 JSON（UTF-8，无注释、无多余文本、不要```）。
@@ -484,14 +585,7 @@ public class RagQueryPipeline {
           }
         }
         
-        【允许值（规范值，必须原样输出）】
-        brand_allowed = %s
-        category_allowed = %s
-        
-        【同义词→规范值（仅示例；若遇到未列但能判断归属，也要输出规范值；否则 null）】
-        brand_synonyms = %s
-        category_synonyms = %s
-        
+        %s
         【规则】
         1) 若用户使用“这个/那款/它”等指代，请结合“最近对话”还原语境再判断。
         2) 价格表述（如“2k-4k”“不到3000”“三千左右”“2~4千”）要归一化到 priceMin/priceMax（单位=人民币，k=1000）。
@@ -508,7 +602,7 @@ public class RagQueryPipeline {
         
         Q: 最近的新闻是什么
         → {"intent":"NON_PRODUCT","filters":{"brand":null,"category":null,"isActive":null,"priceMin":null,"priceMax":null}}
-        """.formatted(brandAllowedJson, catAllowedJson, brandSynJson, catSynJson);
+        """.formatted(routingDictionaryBlock());
     }
 
     private static String toJsonArray(Collection<String> items) {
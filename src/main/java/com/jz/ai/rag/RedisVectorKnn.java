@@ -0,0 +1,75 @@
+package com.jz.ai.rag;
+
+import com.jz.ai.config.RagRedisProperties;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.redis.RedisFilterExpressionConverter;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import redis.clients.jedis.JedisPooled;
+import redis.clients.jedis.search.Query;
+import redis.clients.jedis.search.RediSearchUtil;
+import redis.clients.jedis.search.SearchResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RediSearch 上的按向量 KNN：查询串、打分与回填方式与 RedisVectorStore.similaritySearch 保持一致
+ * （余弦距离 d → 相似度 (2 - d) / 2；metadata 带 vector_score），只是向量由调用方给。
+ * 不取回 embedding 字段，省一截网络。
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "rag.vector-store", havingValue = "redis", matchIfMissing = true)
+public class RedisVectorKnn implements VectorKnn {
+
+    private static final String DISTANCE_FIELD = "vector_score";
+    private static final String BLOB_PARAM = "BLOB";
+
+    private final JedisPooled jedis;
+    private final RagRedisProperties props;
+
+    private final RedisFilterExpressionConverter converter =
+            new RedisFilterExpressionConverter(RedisVectorStoreConfig.METADATA_FIELDS);
+
+    @Override
+    public List<Document> knn(float[] query, int topK, double similarityThreshold, Filter.Expression filter) {
+        String pre = (filter == null) ? "*" : "(" + converter.convertExpression(filter) + ")";
+        String q = pre + "=>[KNN " + topK + " @" + RedisVectorStoreConfig.EMBEDDING_FIELD
+                + " $" + BLOB_PARAM + " AS " + DISTANCE_FIELD + "]";
+
+        List<String> fields = new ArrayList<>();
+        for (RedisVectorStore.MetadataField f : RedisVectorStoreConfig.METADATA_FIELDS) fields.add(f.name());
+        fields.add(RedisVectorStoreConfig.CONTENT_FIELD);
+        fields.add(DISTANCE_FIELD);
+
+        Query req = new Query(q)
+                .addParam(BLOB_PARAM, RediSearchUtil.toByteArray(query))
+                .returnFields(fields.toArray(new String[0]))
+                .setSortBy(DISTANCE_FIELD, true)
+                .limit(0, topK)
+                .dialect(2);
+        SearchResult res = jedis.ftSearch(props.getIndex(), req);
+
+        List<Document> out = new ArrayList<>(res.getDocuments().size());
+        for (redis.clients.jedis.search.Document d : res.getDocuments()) {
+            double sim = (2 - Double.parseDouble(d.getString(DISTANCE_FIELD))) / 2;
+            if (sim < similarityThreshold) continue;
+            Map<String, Object> meta = new HashMap<>();
+            for (RedisVectorStore.MetadataField f : RedisVectorStoreConfig.METADATA_FIELDS) {
+                if (d.hasProperty(f.name())) meta.put(f.name(), d.getString(f.name()));
+            }
+            meta.put(DISTANCE_FIELD, 1 - sim);
+            String id = d.getId().startsWith(props.getPrefix()) ? d.getId().substring(props.getPrefix().length()) : d.getId();
+            String content = d.hasProperty(RedisVectorStoreConfig.CONTENT_FIELD)
+                    ? d.getString(RedisVectorStoreConfig.CONTENT_FIELD) : "";
+            out.add(Document.builder().id(id).text(content).metadata(meta).score(sim).build());
+        }
+        return out;
+    }
+}
@@ -4,34 +4,45 @@ package com.jz.ai.rag;
 import com.jz.ai.config.RagRedisProperties;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.*;
 import redis.clients.jedis.JedisPooled;
 
+import java.util.List;
+
 @Configuration
 @EnableConfigurationProperties(RagRedisProperties.class)
 public class RedisVectorStoreConfig {
+
+    public static final String CONTENT_FIELD = "content";
+    public static final String EMBEDDING_FIELD = "embedding";
+
+    /** RedisVectorKnn 按向量直查时用同一份字段定义（过滤表达式转换 + 回填 metadata） */
+    public static final List<RedisVectorStore.MetadataField> METADATA_FIELDS = List.of(
+            RedisVectorStore.MetadataField.tag("brand"),
+            RedisVectorStore.MetadataField.tag("title"),
+            RedisVectorStore.MetadataField.tag("category"),
+            RedisVectorStore.MetadataField.numeric("price"),
+            RedisVectorStore.MetadataField.numeric("stock"),
+            RedisVectorStore.MetadataField.tag("isActive"),
+            RedisVectorStore.MetadataField.numeric("productId"),
+            RedisVectorStore.MetadataField.text("url")
+    );
+
     @Bean
     @Primary // 覆盖自动注入的 VectorStore
+    @ConditionalOnProperty(name = "rag.vector-store", havingValue = "redis", matchIfMissing = true) // hnsw 见 HnswVectorStore
     public RedisVectorStore productVectorStore(JedisPooled jedis,
                                                EmbeddingModel embeddingModel,
                                                RagRedisProperties p) {
         return RedisVectorStore.builder(jedis, embeddingModel)
                 .indexName(p.getIndex())
                 .prefix(p.getPrefix())
-                .contentFieldName("content")
-                .embeddingFieldName("embedding")
+                .contentFieldName(CONTENT_FIELD)
+                .embeddingFieldName(EMBEDDING_FIELD)
                 .initializeSchema(p.isInitializeSchema())
-                .metadataFields( // 把结构化字段写进 schema，检索时才会回填到 Document.metadata
-                        RedisVectorStore.MetadataField.tag("brand"),
-                        RedisVectorStore.MetadataField.tag("title"),
-                        RedisVectorStore.MetadataField.tag("category"),
-                        RedisVectorStore.MetadataField.numeric("price"),
-                        RedisVectorStore.MetadataField.numeric("stock"),
-                        RedisVectorStore.MetadataField.tag("isActive"),
-                        RedisVectorStore.MetadataField.numeric("productId"),
-                        RedisVectorStore.MetadataField.text("url")
-                )
+                .metadataFields(METADATA_FIELDS) // 把结构化字段写进 schema，检索时才会回填到 Document.metadata
                 .build();
     }
 }
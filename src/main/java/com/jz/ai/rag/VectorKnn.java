@@ -0,0 +1,15 @@
+package com.jz.ai.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.List;
+
+/**
+ * 按已算好的向量做 KNN（VectorStore.similaritySearch 只收文本、每次自己算向量，批量扩展查询用不上）。
+ * 返回结果与对应 VectorStore 的 similaritySearch 一致：score 为相似度，已按阈值过滤。
+ */
+public interface VectorKnn {
+
+    List<Document> knn(float[] query, int topK, double similarityThreshold, Filter.Expression filter);
+}
@@ -1,6 +1,7 @@
 package com.jz.ai.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.jz.ai.chat.rapport.RapportScoreResult;
 import com.jz.ai.domain.entity.AgentUserRapport;
 
 import java.time.Duration;
@@ -9,6 +10,10 @@ import java.util.Map;
 public interface AgentUserRapportService extends IService<AgentUserRapport> {
     AgentUserRapport getOrInit(Long agentId, Long userId);
     int bumpOnUserUtter(String chatId,Long agentId, Long userId, String userText,int retrieveSize);
+    /** precomputed：本轮合并分析（TurnAnalyzer）已给出的模型打分；null 时按需自己调模型 */
+    int bumpOnUserUtter(String chatId,Long agentId, Long userId, String userText,int retrieveSize, RapportScoreResult precomputed);
+    /** 模型打分用的简要上下文（上一次评分 + 状态卡），合并分析时一并送入 */
+    String scoringBrief(String chatId, Long agentId, Long userId, int retrieveSize);
     void decay(Long userId,Long agentId,int score);//
     Map<String,Integer> peekLastDims(Long agentId, Long userId);//
     void notifyViolation(Long agentId, Long userId, Duration cooldown);// 返回最新分数
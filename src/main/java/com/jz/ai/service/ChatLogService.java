@@ -1,10 +1,15 @@
 package com.jz.ai.service;
 
+import com.jz.ai.chat.llm.LlmCallLedger;
+
 public interface ChatLogService {
     void persistExchangeAsync(String chatId, Long userId,
                               String userText, String assistantText,
                               String modelName, Integer latencyMs);
     void persistUserAsync(String chatId, Long userId, String userText,long ts,long seq);
     void persistAssistantAsync(String chatId, Long userId, String assistantText, String modelName, Integer latencyMs,long ts,long seq);
+    /** usage：本轮 LLM 调用合计的快照（主调用记完后取），写到助手这条消息上（可为 null） */
+    void persistAssistantAsync(String chatId, Long userId, String assistantText, String modelName, Integer latencyMs,long ts,long seq,
+                               LlmCallLedger.Snapshot usage);
 }
 
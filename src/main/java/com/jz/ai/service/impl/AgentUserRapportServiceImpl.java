@@ -110,8 +110,20 @@ public class AgentUserRapportServiceImpl
         //优化点：可以加入上一次推荐的信息？或者说成功交易信息？（得引入到正式系统）
         return PromptContextUtil.buildStateCard(briefRecent,briefDims, briefProfile);
     }
+    @Override
+    public String scoringBrief(String chatId, Long agentId, Long userId, int retrieveSize) {
+        int prev = getOrInit(agentId, userId).getScore();
+        return "上一次评分=" + prev + "\n" + getBriefContext(chatId, userId, agentId, retrieveSize);
+    }
+
     @Override
     public int bumpOnUserUtter(String chatId,Long agentId, Long userId, String userText,int retrieveSize) {
+        return bumpOnUserUtter(chatId, agentId, userId, userText, retrieveSize, null);
+    }
+
+    @Override
+    public int bumpOnUserUtter(String chatId,Long agentId, Long userId, String userText,int retrieveSize,
+                               RapportScoreResult precomputed) {
         AgentUserRapport r = getOrInit(agentId, userId);
         String t = userText == null ? "" : userText.trim();
         int prev = r.getScore();
@@ -122,10 +134,10 @@ public class AgentUserRapportServiceImpl
 
         if (trigger) {
             try {
-                // 可传简要上下文：这里用“上一分值&上一维度项”的简短提示
-                String brief ="上一次评分=" + prev+"\n"+getBriefContext(chatId,userId,agentId,retrieveSize);
+                // 合并分析已打过分就直接用；否则可传简要上下文：这里用“上一分值&上一维度项”的简短提示
+                RapportScoreResult rs = precomputed != null ? precomputed
+                        : llmScorer.score(t, "上一次评分=" + prev+"\n"+getBriefContext(chatId,userId,agentId,retrieveSize));
 //                        : "上一次评分=" + prev + ", 上一次评分项=" + peekLastDims(agentId,userId);
-                RapportScoreResult rs = llmScorer.score(t, brief);
                 modelTarget = clamp(rs.getTargetScore(), 0, 100);
 
                 Anchor a = anchors.computeIfAbsent(key(agentId, userId), k -> new Anchor());
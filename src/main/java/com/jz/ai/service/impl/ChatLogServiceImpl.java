@@ -2,15 +2,20 @@ package com.jz.ai.service.impl;
 
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.jz.ai.chat.llm.LlmCallLedger;
 import com.jz.ai.domain.entity.ChatMessage;
 import com.jz.ai.mapper.ChatMessageMapper;
 import com.jz.ai.service.ChatLogService;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
@@ -21,6 +26,25 @@ import java.time.ZoneId;
 public class ChatLogServiceImpl extends ServiceImpl<ChatMessageMapper, ChatMessage>
         implements ChatLogService {
 
+    private final DataSource dataSource;
+
+    /** chat_message 是否已加 LLM 用量列（见 README 的 ALTER）；没加就不写用量，别让整条消息落库失败 */
+    private volatile boolean usageColumns;
+
+    @PostConstruct
+    void detectUsageColumns() {
+        try (Connection c = dataSource.getConnection();
+             ResultSet rs = c.getMetaData().getColumns(c.getCatalog(), null, "chat_message", "llm_calls")) {
+            usageColumns = rs.next();
+        } catch (Exception e) {
+            log.warn("detect chat_message usage columns failed: {}", e.toString());
+        }
+        if (!usageColumns) {
+            log.warn("chat_message has no llm usage columns (llm_calls/prompt_tokens/completion_tokens/llm_cost), "
+                    + "per-turn LLM usage will not be persisted until the ALTER in README is applied");
+        }
+    }
+
     private static LocalDateTime toLdt(long ts) {
         return LocalDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneId.systemDefault());
     }
@@ -76,6 +100,14 @@ public class ChatLogServiceImpl extends ServiceImpl<ChatMessageMapper, ChatMessa
     @Override
     public void persistAssistantAsync(String chatId, Long userId, String assistantText, String modelName, Integer latencyMs
     ,long ts,long seq){
+        persistAssistantAsync(chatId, userId, assistantText, modelName, latencyMs, ts, seq, null);
+    }
+
+    @Async("chatAsyncExecutor")
+    @Transactional(rollbackFor = Exception.class)
+    @Override
+    public void persistAssistantAsync(String chatId, Long userId, String assistantText, String modelName, Integer latencyMs,
+                                      long ts, long seq, LlmCallLedger.Snapshot usage){
         try {
             // 助手消息
             ChatMessage a = ChatMessage.builder()
@@ -85,6 +117,12 @@ public class ChatLogServiceImpl extends ServiceImpl<ChatMessageMapper, ChatMessa
                     .seq(seq)
                     .createdAt(toLdt(ts))
                     .build();
+            if (usage != null && usageColumns) {
+                a.setLlmCalls(usage.calls());
+                a.setPromptTokens(usage.promptTokens());
+                a.setCompletionTokens(usage.completionTokens());
+                a.setLlmCost(usage.cost());
+            }
             this.save(a);
         } catch (Exception e) {
             log.error("persist chat exchange failed, chatId={}, userId={}, err={}",
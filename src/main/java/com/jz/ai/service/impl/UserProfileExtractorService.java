@@ -2,8 +2,9 @@ package com.jz.ai.service.impl;
 
 
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.llm.JsonExtractor;
+import com.jz.ai.chat.llm.LlmGateway;
 import com.jz.ai.config.ProfileProperties;
 import com.jz.ai.domain.entity.UserProfile;
 import com.jz.ai.service.UserProfileService;
@@ -11,8 +12,6 @@ import com.jz.ai.utils.MoodDetector;
 import com.jz.ai.utils.UserProfileCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
@@ -25,18 +24,13 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class UserProfileExtractorService {
 
-    @Qualifier("statelessChatClients")
-    private final Map<String, ChatClient> chatClientMap;
+    private final LlmGateway llmGateway;
     private final ProfileProperties props;
     private final ObjectMapper mapper;
+    private final JsonExtractor jsonExtractor;
     private final UserProfileCache cache;
     private final UserProfileService userProfileService;
 
-    private ChatClient client() {
-        return Optional.ofNullable(chatClientMap.get(props.getModel()))
-                .orElseGet(() -> chatClientMap.values().iterator().next());
-    }
-
     // 在 UserProfileExtractorService 里替换 SYS 常量
     // UserProfileExtractorService 中替换 SYS
     private static final String SYS =
@@ -75,20 +69,12 @@ public class UserProfileExtractorService {
             String cur = mapper.writeValueAsString(Optional.ofNullable(current).orElse(Collections.emptyMap()));
             String prompt = "【已知画像】\n" + cur + "\n\n【最新用户消息】\n" + userUtter + "\n\n请仅输出 JSON（如无新增返回 {}）。";
 
-            String out = client().prompt()
-                    .system(SYS)
-                    .user(prompt)
-                    .call()
-                    .content();
+            String out = llmGateway.call("profile", props.getModel(), SYS, prompt);
 
             if (out == null || out.isBlank()) return Collections.emptyMap();
 
-            // 兼容偶发包壳文本，尝试截取花括号
-            int b = out.indexOf('{'), e = out.lastIndexOf('}');
-            if (b >= 0 && e >= b) out = out.substring(b, e + 1);
-
-            Map<String, Object> map = mapper.readValue(out, new TypeReference<>() {});
-            return Optional.ofNullable(map).orElse(Collections.emptyMap());
+            // 兼容偶发包壳文本/代码块/截断
+            return jsonExtractor.extract(out, JsonExtractor.MAP).orElse(Collections.emptyMap());
         } catch (Exception e) {
             log.warn("extractDelta failed: {}", e.getMessage());
             return Collections.emptyMap();
@@ -0,0 +1,43 @@
+package com.jz.ai.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跑阻塞调用（LLM HTTP、批处理里的 Redis/MySQL）的工作线程池：
+ * JDK21+ 用虚拟线程（每任务一个，开销可忽略）；JDK17 上退回有界平台线程池——
+ * 线程数不超过 maxThreads、排队不超过 queueCapacity，满了抛 RejectedExecutionException 交给调用方降级/稍后重排，
+ * 不会像 cachedThreadPool 那样随负载无限开线程。
+ */
+@Slf4j
+public final class WorkerExecutors {
+
+    private WorkerExecutors() {}
+
+    public static ExecutorService newWorkerExecutor(String name, int maxThreads, int queueCapacity) {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(1, maxThreads);
+            log.info("virtual threads unavailable, {} falls back to a bounded pool ({} threads, queue {})",
+                    name, threads, queueCapacity);
+            AtomicInteger seq = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                Thread t = new Thread(r, name + "-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            pool.allowCoreThreadTimeOut(true); // 空闲时线程回收，不常驻 maxThreads 个
+            return pool;
+        }
+    }
+}
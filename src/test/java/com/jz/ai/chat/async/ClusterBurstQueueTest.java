@@ -0,0 +1,68 @@
+package com.jz.ai.chat.async;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.jz.ai.chat.lms.RedisLockWatchdog;
+import com.jz.ai.config.BurstProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ClusterBurstQueueTest {
+
+    private StringRedisTemplate redis;
+    private ClusterBurstQueue queue;
+
+    @BeforeEach
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        queue = new ClusterBurstQueue(mock(BurstBatcher.class), redis, new ObjectMapper(),
+                mock(RedisLockWatchdog.class), new BurstProperties(), new SimpleMeterRegistry());
+    }
+
+    @Test
+    void backlogLeftFromClaimDoesNotCancel() {
+        // 领取时 seq=9（q 里还剩 3 条超出 MAX_BATCH 的旧消息），之后没有新入队
+        TurnToken token = new TurnToken();
+        queue.watch("c1", token, 9);
+        pipelineReturns("9");
+
+        queue.checkCancels();
+
+        assertThat(token.isCancelled()).isFalse();
+    }
+
+    @Test
+    void messageAfterClaimCancels() {
+        TurnToken token = new TurnToken();
+        queue.watch("c1", token, 9);
+        pipelineReturns("10");
+
+        queue.checkCancels();
+
+        assertThat(token.isCancelled()).isTrue();
+    }
+
+    @Test
+    void missingSeqNeverCancels() {
+        TurnToken token = new TurnToken();
+        queue.watch("c1", token, 0);
+        pipelineReturns((String) null);
+
+        queue.checkCancels();
+
+        assertThat(token.isCancelled()).isFalse();
+    }
+
+    private void pipelineReturns(String... values) {
+        when(redis.executePipelined(any(RedisCallback.class))).thenReturn(Arrays.asList((Object[]) values));
+    }
+}
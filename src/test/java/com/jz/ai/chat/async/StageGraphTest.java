@@ -0,0 +1,150 @@
+package com.jz.ai.chat.async;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StageGraphTest {
+
+    private ExecutorService pool;
+
+    @BeforeEach
+    void setUp() {
+        AtomicInteger n = new AtomicInteger();
+        pool = Executors.newCachedThreadPool(r -> new Thread(r, "test-stage-" + n.incrementAndGet()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    void timedOutStageCompletesWithFallbackAndDependentSeesIt() {
+        StageGraph g = new StageGraph(pool, new SimpleMeterRegistry());
+        var slow = g.stage("slow", Duration.ofMillis(50), () -> "fallback", () -> sleep(5_000, "late"));
+        var next = g.stage("next", null, () -> "x", () -> slow.join() + "+next", slow);
+
+        assertThat(g.await(next)).isEqualTo("fallback+next");
+    }
+
+    @Test
+    void dependentOfTimedOutStageRunsOnExecutorNotTimer() {
+        StageGraph g = new StageGraph(pool, new SimpleMeterRegistry());
+        AtomicReference<String> fallbackThread = new AtomicReference<>();
+        AtomicReference<String> dependentThread = new AtomicReference<>();
+        var slow = g.stage("slow", Duration.ofMillis(50), () -> {
+            fallbackThread.set(Thread.currentThread().getName());
+            return "fallback";
+        }, () -> sleep(5_000, "late"));
+        var next = g.stage("next", null, () -> "x", () -> {
+            dependentThread.set(Thread.currentThread().getName());
+            return slow.join();
+        }, slow);
+
+        g.await(next);
+
+        assertThat(fallbackThread.get()).startsWith("chat-stage-fallback-");
+        assertThat(dependentThread.get()).startsWith("test-stage-");
+    }
+
+    @Test
+    void serialModeComputesFallbackOffTheTimerThread() {
+        // parallel=false：本体在调用线程顺序执行，超时 fallback 仍不在计时线程上算
+        StageGraph g = new StageGraph(Runnable::run, new SimpleMeterRegistry());
+        AtomicReference<String> fallbackThread = new AtomicReference<>();
+        var slow = g.stage("slow", Duration.ofMillis(50), () -> {
+            fallbackThread.set(Thread.currentThread().getName());
+            return "fallback";
+        }, () -> sleep(500, "late"));
+
+        assertThat(g.await(slow)).isEqualTo("fallback");
+        assertThat(fallbackThread.get()).isNotEqualTo("chat-stage-timer");
+    }
+
+    @Test
+    void blockingFallbackDoesNotDelayOtherTimeouts() throws Exception {
+        StageGraph g = new StageGraph(pool, new SimpleMeterRegistry());
+        CountDownLatch release = new CountDownLatch(1);
+        g.stage("stuck", Duration.ofMillis(20), () -> {
+            await(release);
+            return "stuck-fallback";
+        }, () -> sleep(5_000, "late"));
+        var other = g.stage("other", Duration.ofMillis(100), () -> "other-fallback", () -> sleep(5_000, "late"));
+
+        long t0 = System.nanoTime();
+        assertThat(g.await(other)).isEqualTo("other-fallback");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0)).isLessThan(2_000);
+        release.countDown();
+    }
+
+    @Test
+    void dependentTimeoutStartsAfterDependencyFinishes() {
+        // 分析超预算后，下游单独调用有自己完整的超时，不被等分析吃掉
+        StageGraph g = new StageGraph(pool, new SimpleMeterRegistry());
+        var analysis = g.stage("analysis", Duration.ofMillis(150), () -> null, () -> sleep(5_000, "late"));
+        var classify = g.stage("classify", Duration.ofMillis(300), () -> "heuristic",
+                () -> analysis.join() != null ? "from-analysis" : sleep(200, "own-call"), analysis);
+
+        assertThat(g.await(classify)).isEqualTo("own-call");
+    }
+
+    @Test
+    void rejectedStageCompletesWithFallback() {
+        StageGraph g = new StageGraph(r -> {
+            throw new RejectedExecutionException("full");
+        }, new SimpleMeterRegistry());
+        AtomicBoolean ran = new AtomicBoolean();
+        var st = g.stage("rag", Duration.ofSeconds(1), () -> "fallback", () -> {
+            ran.set(true);
+            return "body";
+        });
+
+        assertThat(g.await(st)).isEqualTo("fallback");
+        assertThat(ran).isFalse();
+    }
+
+    @Test
+    void effectBodyKeepsRunningAfterTimeout() throws Exception {
+        StageGraph g = new StageGraph(pool, new SimpleMeterRegistry());
+        CountDownLatch done = new CountDownLatch(1);
+        var write = g.effect("write", Duration.ofMillis(20), () -> false, () -> {
+            sleep(200, null);
+            done.countDown();
+            return true;
+        });
+
+        assertThat(g.await(write)).isFalse();
+        assertThat(done.await(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static <T> T sleep(long ms, T value) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return value;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
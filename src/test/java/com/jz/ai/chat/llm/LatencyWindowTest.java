@@ -0,0 +1,47 @@
+package com.jz.ai.chat.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyWindowTest {
+
+    private static final long SEC = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void belowMinSamplesReportsUnknown() {
+        LatencyWindow w = new LatencyWindow(64, 0.95, 5, 60_000);
+        for (int i = 0; i < 4; i++) w.record(100, i);
+
+        assertThat(w.percentile(10)).isEqualTo(-1);
+    }
+
+    @Test
+    void reportsPercentileOfRecentSamples() {
+        LatencyWindow w = new LatencyWindow(64, 0.95, 5, 60_000);
+        for (int i = 1; i <= 20; i++) w.record(i * 100L, i);
+
+        assertThat(w.percentile(SEC)).isEqualTo(1900);
+    }
+
+    @Test
+    void slowSamplesExpireSoADemotedModelRecovers() {
+        LatencyWindow w = new LatencyWindow(64, 0.95, 5, 60_000);
+        for (int i = 0; i < 10; i++) w.record(9_000, i);
+        assertThat(w.percentile(SEC)).isEqualTo(9_000);
+
+        // 被路由让开后没有新样本：过了 maxAge 窗口回到“未知”，不再判慢
+        assertThat(w.percentile(61 * SEC)).isEqualTo(-1);
+    }
+
+    @Test
+    void timeoutsRecordedAtDeadlineMarkAlwaysTimingOutModelSlow() {
+        LatencyWindow w = new LatencyWindow(64, 0.95, 5, 60_000);
+        // 从没成功过：只有按截止时间记的超时样本
+        for (int i = 0; i < 5; i++) w.record(60_000, i);
+
+        assertThat(w.percentile(SEC)).isGreaterThan(3_000);
+    }
+}
@@ -0,0 +1,94 @@
+package com.jz.ai.chat.llm;
+
+import com.jz.ai.chat.budget.BudgetService;
+import com.jz.ai.config.ModelRouterProperties;
+import com.jz.ai.rag.QueryRouting;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ModelRouterTest {
+
+    private final ModelRouterProperties props = new ModelRouterProperties();
+    private ModelThrottle throttle;
+    private LlmGateway gateway;
+    private ModelRouter router;
+
+    @BeforeEach
+    void setUp() {
+        BudgetService budget = mock(BudgetService.class);
+        when(budget.compute(anyString(), anyInt(), anyInt(), anyInt(), anyInt(), anyDouble()))
+                .thenReturn(BudgetService.LmsBudget.builder().roomForLms(4_000).build());
+        throttle = mock(ModelThrottle.class);
+        gateway = mock(LlmGateway.class);
+        when(gateway.recentFirstTokenMs(eq("main"), anyString())).thenReturn(-1L);
+        when(gateway.recentLatencyMs(eq("main"), anyString())).thenReturn(-1L);
+        router = new ModelRouter(props, budget, throttle, gateway, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void productQuestionGoesToStandard() {
+        ModelRouter.Route r = router.route(signals("这款多少钱", QueryRouting.Intent.PRODUCT_INFO, true));
+
+        assertThat(r.model()).isEqualTo(props.getStandardModel());
+        assertThat(r.reason()).isEqualTo("product");
+    }
+
+    @Test
+    void slowFirstTokenShiftsToNextCandidate() {
+        when(gateway.recentFirstTokenMs("main", props.getStandardModel())).thenReturn(5_000L);
+
+        ModelRouter.Route r = router.route(signals("这款多少钱", QueryRouting.Intent.PRODUCT_INFO, true));
+
+        assertThat(r.model()).isEqualTo(props.getLightModel());
+        assertThat(r.reason()).isEqualTo("product+shift");
+    }
+
+    @Test
+    void streamingIgnoresWholeCallLatency() {
+        when(gateway.recentLatencyMs("main", props.getStandardModel())).thenReturn(20_000L);
+
+        ModelRouter.Route r = router.route(signals("这款多少钱", QueryRouting.Intent.PRODUCT_INFO, true));
+
+        assertThat(r.model()).isEqualTo(props.getStandardModel());
+    }
+
+    @Test
+    void unknownLatencyDoesNotShift() {
+        // 窗口过期后回到 -1：原模型重新拿到流量
+        when(gateway.recentFirstTokenMs("main", props.getStandardModel())).thenReturn(-1L);
+
+        assertThat(router.route(signals("这款多少钱", QueryRouting.Intent.PRODUCT_INFO, true)).model())
+                .isEqualTo(props.getStandardModel());
+    }
+
+    @Test
+    void allCandidatesUnderPressureFallBackToFirstFit() {
+        when(throttle.saturation(anyString())).thenReturn(0.99);
+
+        ModelRouter.Route r = router.route(signals("帮我对比一下这两款", QueryRouting.Intent.PRODUCT_INFO, true));
+
+        assertThat(r.model()).isEqualTo(props.getHeavyModel());
+        assertThat(r.reason()).isEqualTo("compare+overloaded");
+    }
+
+    @Test
+    void pinnedModelBypassesRouting() {
+        router.pin("qwen-max");
+        when(throttle.saturation(anyString())).thenReturn(0.99);
+
+        assertThat(router.route(signals("你好", null, true)).model()).isEqualTo("qwen-max");
+    }
+
+    private static ModelRouter.Signals signals(String text, QueryRouting.Intent intent, boolean streaming) {
+        return new ModelRouter.Signals(intent, text, 0, 0, 1_000, 8, 60, 120, 0.3, streaming);
+    }
+}
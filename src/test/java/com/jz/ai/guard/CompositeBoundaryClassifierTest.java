@@ -0,0 +1,56 @@
+package com.jz.ai.guard;
+
+import com.jz.ai.config.LlmModerationProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class CompositeBoundaryClassifierTest {
+
+    private HeuristicBoundaryClassifier heuristic;
+    private LlmBoundaryClassifier llm;
+    private CompositeBoundaryClassifier classifier;
+
+    @BeforeEach
+    void setUp() {
+        heuristic = mock(HeuristicBoundaryClassifier.class);
+        llm = mock(LlmBoundaryClassifier.class);
+        when(heuristic.classify(anyString())).thenReturn(verdict(BoundaryLevel.NONE, 0.5));
+        classifier = new CompositeBoundaryClassifier(heuristic, llm, new LlmModerationProperties());
+    }
+
+    @Test
+    void analysisVerdictIsUsedWithoutTouchingClassifierOrItsCache() {
+        BoundaryVerdict fromAnalysis = verdict(BoundaryLevel.LIGHT, 0.9);
+
+        assertThat(classifier.classify("在吗", fromAnalysis)).isSameAs(fromAnalysis);
+        verifyNoInteractions(llm);
+    }
+
+    @Test
+    void lowConfidenceAnalysisVerdictFallsBackToHeuristic() {
+        assertThat(classifier.classify("在吗", verdict(BoundaryLevel.LIGHT, 0.3)).getLevel())
+                .isEqualTo(BoundaryLevel.NONE);
+        verifyNoInteractions(llm);
+    }
+
+    @Test
+    void missingAnalysisVerdictCallsClassifier() {
+        when(llm.classify("在吗")).thenReturn(verdict(BoundaryLevel.LIGHT, 0.95));
+
+        assertThat(classifier.classify("在吗", null).getLevel()).isEqualTo(BoundaryLevel.LIGHT);
+        verify(llm).classify("在吗");
+    }
+
+    private static BoundaryVerdict verdict(BoundaryLevel level, double confidence) {
+        return BoundaryVerdict.builder().level(level).confidence(confidence).categories(Set.of()).reason("test").build();
+    }
+}